@@ -0,0 +1,196 @@
+package com.seraj.interview.benchmark;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.connectionpool.BlockingConnectionPool;
+import com.seraj.interview.connectionpool.ConnectionPools;
+
+/**
+ * Drives {@link ConnectionPool#getConnection()} and
+ * {@link ConnectionPool#releaseConnection(Connection)} of every
+ * {@link ConnectionPools.Implementation} under contention. </p> The Thread
+ * count is set with JMH's <code>-t</code> option, which takes a single
+ * count, so it is varied by one run per count; the pool is sized relative
+ * to it by <b>poolToThreadRatio</b>. Throughput and the sampled
+ * borrow/hold/release cycle time are reported by JMH, the distribution of the
+ * borrow alone is printed at the end of each trial.
+ *
+ * <pre>
+ * for t in 1 8 64; do java -jar target/benchmarks.jar ConnectionPoolBenchmark -t $t; done
+ * </pre>
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+
+	// The largest borrow latency recorded; longer borrows are clamped.
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.SECONDS
+			.toNanos(60);
+
+	/**
+	 * The pool under test; every implementation when not given.
+	 */
+	@Param
+	public ConnectionPools.Implementation implementation;
+	/**
+	 * The maximum pool size as a fraction of the Thread count. Below 1 the
+	 * pool is saturated and Threads queue.
+	 */
+	@Param({ "0.25", "1.0" })
+	public double poolToThreadRatio;
+	/**
+	 * The simulated cost of {@link Connection#isValid(int)}.
+	 */
+	@Param({ "0", "50000" })
+	public long validationCostNanos;
+	/**
+	 * The work done while holding a connection, in {@link Blackhole} tokens.
+	 */
+	@Param({ "0", "1000" })
+	public long holdTimeTokens;
+	/**
+	 * The number of stripes of a STRIPED pool, 0 for one per processor.
+	 * Ignored by the other implementations.
+	 */
+	@Param({ "0" })
+	public int stripeCount;
+
+	private ConnectionPool pool;
+	private Histogram borrowLatency;
+
+	/**
+	 * Create the pool sized for the Thread count of this trial.
+	 *
+	 * @param params
+	 *            The parameters of this trial.
+	 */
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkParams params) {
+		int maxPoolSize = Math.max(1,
+				(int) Math.round(params.getThreads() * poolToThreadRatio));
+		Properties properties = new Properties();
+		properties.setProperty(ConnectionPools.IMPLEMENTATION_PROPERTY,
+				implementation.name());
+		properties.setProperty("maxPoolSize", "" + maxPoolSize);
+		properties.setProperty("stripeCount", "" + stripeCount);
+		pool = ConnectionPools.newConnectionPool(properties,
+				new StubConnectionFactory(validationCostNanos));
+		borrowLatency = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+	}
+
+	/**
+	 * Shut the pool of this trial down, so that its Threads and
+	 * {@link Connection}s do not outlive it. Only the blocking pool runs
+	 * Threads of its own; the other implementations are left to the
+	 * collector.
+	 *
+	 * @throws InterruptedException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		if (pool instanceof BlockingConnectionPool) {
+			((BlockingConnectionPool) pool).shutdown(1, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Print the merged borrow-latency distribution of this trial.
+	 */
+	@TearDown(Level.Trial)
+	public void printBorrowLatency() {
+		PrintStream out = System.out;
+		out.println();
+		out.println("Borrow latency (us) for " + implementation + ": count="
+				+ borrowLatency.getTotalCount());
+		borrowLatency.outputPercentileDistribution(out, 1000.0);
+	}
+
+	/**
+	 * Merge the per-thread recordings into the trial distribution.
+	 *
+	 * @param recorded
+	 *            A Thread's recorded borrow latency.
+	 */
+	synchronized void merge(Histogram recorded) {
+		borrowLatency.add(recorded);
+	}
+
+	/**
+	 * The borrow-latency recording of a single benchmark Thread; warm up
+	 * iterations are not recorded.
+	 */
+	@State(Scope.Thread)
+	public static class BorrowRecorder {
+		private final Histogram histogram = new Histogram(
+				HIGHEST_TRACKABLE_NANOS, 3);
+		private boolean recording;
+
+		@Setup(Level.Iteration)
+		public void startIteration(IterationParams params) {
+			recording = params.getType() == IterationType.MEASUREMENT;
+		}
+
+		@TearDown(Level.Trial)
+		public void merge(ConnectionPoolBenchmark benchmark) {
+			benchmark.merge(histogram);
+		}
+
+		void record(long nanos) {
+			if (recording) {
+				histogram.recordValue(Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+			}
+		}
+	}
+
+	/**
+	 * A single borrow, hold and release cycle.
+	 *
+	 * @param recorder
+	 *            The calling Thread's borrow-latency recording.
+	 * @throws SQLException
+	 */
+	@Benchmark
+	public void borrowAndRelease(BorrowRecorder recorder) throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = pool.getConnection();
+		recorder.record(System.nanoTime() - start);
+		try {
+			Blackhole.consumeCPU(holdTimeTokens);
+		} finally {
+			pool.releaseConnection(connection);
+		}
+	}
+}
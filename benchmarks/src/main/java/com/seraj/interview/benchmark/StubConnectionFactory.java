@@ -0,0 +1,78 @@
+package com.seraj.interview.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.seraj.interview.connectionpool.ConnectionFactory;
+
+/**
+ * A {@link ConnectionFactory} creating stub {@link Connection}s which do no
+ * I/O. Validation can be made to cost a fixed amount of time to simulate the
+ * round trip a real driver makes.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class StubConnectionFactory implements ConnectionFactory {
+
+	private final long validationCostNanos;
+	private final AtomicInteger created = new AtomicInteger(0);
+
+	/**
+	 * @param validationCostNanos
+	 *            The time each call to {@link Connection#isValid(int)} parks
+	 *            the calling Thread for; 0 for free validation.
+	 */
+	public StubConnectionFactory(long validationCostNanos) {
+		this.validationCostNanos = validationCostNanos;
+	}
+
+	@Override
+	public Connection newConnection() {
+		created.incrementAndGet();
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new StubHandler());
+	}
+
+	/**
+	 * @return the number of {@link Connection}s created so far.
+	 */
+	public int getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * Answers the few {@link Connection} methods a pool uses; every other
+	 * method returns its type's default.
+	 */
+	private final class StubHandler implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if ("isValid".equals(name)) {
+				if (validationCostNanos > 0) {
+					LockSupport.parkNanos(validationCostNanos);
+				}
+				return Boolean.TRUE;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "StubConnection@"
+						+ Integer.toHexString(System.identityHashCode(proxy));
+			} else if (method.getReturnType() == boolean.class) {
+				return Boolean.FALSE;
+			} else if (method.getReturnType() == int.class) {
+				return 0;
+			}
+			return null;
+		}
+	}
+}
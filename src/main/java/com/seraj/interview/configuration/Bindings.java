@@ -0,0 +1,146 @@
+package com.seraj.interview.configuration;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The conversions of property values shared by the generated
+ * {@link ConfigurationBinder}s and the {@link ConfigurationReader}, so both
+ * accept the same values. Each conversion throws an
+ * {@link IllegalArgumentException} for a value it does not accept.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class Bindings {
+
+	private static final Logger LOG = Logger.getLogger(Bindings.class);
+
+	private Bindings() {
+	}
+
+	/**
+	 * @param properties
+	 *            The java {@link Properties} holding the configuration.
+	 * @param name
+	 *            The name of the property.
+	 * @param defaultValue
+	 *            The value of a missing property, empty for none.
+	 * @return the value of the property, null if it is missing and has no
+	 *         default.
+	 */
+	public static String lookup(Properties properties, String name,
+			String defaultValue) {
+		String value = properties.getProperty(name);
+		return value == null && !defaultValue.isEmpty() ? defaultValue
+				: value;
+	}
+
+	/**
+	 * @return the value as an int within [min, max].
+	 */
+	public static int toInt(String value, long min, long max) {
+		return (int) checkRange(Long.parseLong(value.trim()), Math.max(min,
+				Integer.MIN_VALUE), Math.min(max, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * @return the value as a long within [min, max].
+	 */
+	public static long toLong(String value, long min, long max) {
+		return checkRange(Long.parseLong(value.trim()), min, max);
+	}
+
+	/**
+	 * @param value
+	 *            A number, optionally suffixed by a unit: ns, us, ms, s, m, h
+	 *            or d. Without a suffix the number is in the given unit.
+	 * @param unit
+	 *            The unit of the duration returned.
+	 * @return the value as a duration in the given unit, within [min, max].
+	 */
+	public static long toDuration(String value, TimeUnit unit, long min,
+			long max) {
+		String trimmed = value.trim();
+		int end = trimmed.length();
+		while (end > 0 && Character.isLetter(trimmed.charAt(end - 1))) {
+			--end;
+		}
+		long amount = Long.parseLong(trimmed.substring(0, end).trim());
+		String suffix = trimmed.substring(end);
+		return checkRange(suffix.isEmpty() ? amount : unit.convert(amount,
+				toTimeUnit(suffix)), min, max);
+	}
+
+	/**
+	 * @return true for 'true' and false for 'false', ignoring case.
+	 */
+	public static boolean toBoolean(String value) {
+		String trimmed = value.trim();
+		if ("true".equalsIgnoreCase(trimmed)) {
+			return true;
+		} else if ("false".equalsIgnoreCase(trimmed)) {
+			return false;
+		}
+		throw new IllegalArgumentException("'" + value
+				+ "' is neither true nor false.");
+	}
+
+	/**
+	 * @return the enum constant of the given type with the value as
+	 *         identifier.
+	 */
+	public static <E extends Enum<E>> E toEnum(String value, Class<E> type) {
+		return Enum.valueOf(type, value.trim());
+	}
+
+	/**
+	 * Log the setting of a field.
+	 */
+	public static void configured(Class<?> type, String field, Object value) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("[Configure] Setting '" + value + "' into "
+					+ type.getName() + "." + field);
+		}
+	}
+
+	/**
+	 * Log the rejection of a value; the field is left unchanged.
+	 */
+	public static void failed(Class<?> type, String field, String value,
+			Exception cause) {
+		LOG.warn("[Configure] Failed to configure: " + type.getName() + "."
+				+ field + " with value: " + value, cause);
+	}
+
+	private static long checkRange(long value, long min, long max) {
+		if (value < min || value > max) {
+			throw new IllegalArgumentException(value + " is not within ["
+					+ min + ", " + max + "].");
+		}
+		return value;
+	}
+
+	private static TimeUnit toTimeUnit(String suffix) {
+		String lower = suffix.toLowerCase();
+		if (lower.equals("ns")) {
+			return TimeUnit.NANOSECONDS;
+		} else if (lower.equals("us")) {
+			return TimeUnit.MICROSECONDS;
+		} else if (lower.equals("ms")) {
+			return TimeUnit.MILLISECONDS;
+		} else if (lower.equals("s")) {
+			return TimeUnit.SECONDS;
+		} else if (lower.equals("m")) {
+			return TimeUnit.MINUTES;
+		} else if (lower.equals("h")) {
+			return TimeUnit.HOURS;
+		} else if (lower.equals("d")) {
+			return TimeUnit.DAYS;
+		}
+		throw new IllegalArgumentException("'" + suffix
+				+ "' is not a unit of time.");
+	}
+}
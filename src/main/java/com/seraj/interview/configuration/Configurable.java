@@ -7,7 +7,11 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * An {@link Annotation} used to denote fields which can be configured.
+ * An {@link Annotation} used to denote fields which can be configured. </p>
+ * The fields of a class are bound by a {@link ConfigurationBinder} generated
+ * at build time by the
+ * {@link com.seraj.interview.configuration.processor.ConfigurableProcessor},
+ * if none of them is private; otherwise they are bound reflectively.
  * 
  * @author Seraj Dosenbach
  *
@@ -16,4 +20,38 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Configurable {
 
+	/**
+	 * @return true if the field may be configured again while the object is
+	 *         in use, see
+	 *         {@link ConfigurationReader#reloadConfigurations(java.util.Properties, Class, Object)}
+	 *         . The field must then be volatile.
+	 */
+	boolean reloadable() default false;
+
+	/**
+	 * @return the value used when the property is missing, in string form.
+	 *         If empty the field is left unchanged.
+	 */
+	String defaultValue() default "";
+
+	/**
+	 * @return the lowest value of an int or long field; lower values are
+	 *         rejected.
+	 */
+	long min() default Long.MIN_VALUE;
+
+	/**
+	 * @return the highest value of an int or long field; higher values are
+	 *         rejected.
+	 */
+	long max() default Long.MAX_VALUE;
+
+	/**
+	 * @return the name of the {@link java.util.concurrent.TimeUnit} field,
+	 *         declared before this one, holding the unit of this long field.
+	 *         If set, the field is a duration and its value may be suffixed by
+	 *         a unit: ns, us, ms, s, m, h or d; it is converted into the unit
+	 *         of the named field.
+	 */
+	String unitField() default "";
 }
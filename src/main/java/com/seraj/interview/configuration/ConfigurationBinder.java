@@ -0,0 +1,39 @@
+package com.seraj.interview.configuration;
+
+import java.util.Properties;
+
+/**
+ * Binds the {@link Configurable} fields of a class to the java
+ * {@link Properties} of the same name without reflection. Implementations
+ * are generated at build time, named after the class they bind with the
+ * {@link #SUFFIX}, and found by the {@link ConfigurationReader}.
+ * 
+ * @author Seraj Dosenbach
+ *
+ * @param <T>
+ *            The class bound.
+ */
+public interface ConfigurationBinder<T> {
+
+	/**
+	 * Appended to the binary name of the class bound, with '$' replaced by
+	 * '_', to name its binder.
+	 */
+	String SUFFIX = "_ConfigurationBinder";
+
+	/**
+	 * Set each {@link Configurable} field to the value of its property; see
+	 * {@link ConfigurationReader#loadConfigurations(Properties, Class, Object)}
+	 * .
+	 * 
+	 * @param properties
+	 *            The java {@link Properties} holding the configuration.
+	 * @param instance
+	 *            The object to configure.
+	 * @param reloadableOnly
+	 *            If true, only the {@link Configurable#reloadable()} fields
+	 *            whose value differs are set.
+	 * @return true if any field was set.
+	 */
+	boolean bind(Properties properties, T instance, boolean reloadableOnly);
+}
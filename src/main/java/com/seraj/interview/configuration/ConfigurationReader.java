@@ -3,6 +3,9 @@ package com.seraj.interview.configuration;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.activation.UnsupportedDataTypeException;
 
@@ -11,6 +14,8 @@ import org.apache.log4j.Logger;
 /**
  * A static helper class designed to interpret marker {@link Annotation}s used
  * to identify fields that can be configured using a java {@link Properties}.
+ * The {@link ConfigurationBinder} generated for a class is used when there is
+ * one, the fields are set reflectively otherwise.
  * 
  * @author Seraj Dosenbach
  *
@@ -20,6 +25,11 @@ public class ConfigurationReader {
 	private static final Logger LOG = Logger
 			.getLogger(ConfigurationReader.class);
 
+	// Marks the classes without a generated binder.
+	private static final Object NO_BINDER = new Object();
+	// The binder of each class configured, or NO_BINDER.
+	private static final ConcurrentMap<Class<?>, Object> BINDERS = new ConcurrentHashMap<Class<?>, Object>();
+
 	/**
 	 * For each {@link Field} annotated with {@link Configurable}, set its value
 	 * to that found in the given java {@link Properties}; using the
@@ -32,15 +42,54 @@ public class ConfigurationReader {
 	 */
 	public static <T> void loadConfigurations(Properties properties,
 			Class<T> classToConfigure, T instanceToConfigure) {
+		configure(properties, classToConfigure, instanceToConfigure, false);
+	}
+
+	/**
+	 * As {@link #loadConfigurations(Properties, Class, Object)}, but only for
+	 * the {@link Field}s annotated as {@link Configurable#reloadable()}, and
+	 * only where the value differs from the current one. The other properties
+	 * are ignored.
+	 * 
+	 * @param properties
+	 * @param classToConfigure
+	 * @param instanceToConfigure
+	 * @return true if any {@link Field} was changed.
+	 */
+	public static <T> boolean reloadConfigurations(Properties properties,
+			Class<T> classToConfigure, T instanceToConfigure) {
+		return configure(properties, classToConfigure, instanceToConfigure,
+				true);
+	}
+
+	private static <T> boolean configure(Properties properties,
+			Class<T> classToConfigure, T instanceToConfigure,
+			boolean reloadableOnly) {
+		ConfigurationBinder<T> binder = getBinder(classToConfigure);
+		if (binder != null) {
+			return binder.bind(properties, instanceToConfigure,
+					reloadableOnly);
+		}
+		boolean changed = false;
 		for (Field field : classToConfigure.getDeclaredFields()) {
-			if (field.isAnnotationPresent(Configurable.class)) {
-				String value = properties.getProperty(field.getName());
+			Configurable configurable = field
+					.getAnnotation(Configurable.class);
+			if (configurable != null
+					&& (!reloadableOnly || configurable.reloadable())) {
+				String value = Bindings.lookup(properties, field.getName(),
+						configurable.defaultValue());
 				if (value != null) {
 					field.setAccessible(true);
 					try {
-						Object objectValue = stringToTypedObject(value,
-								field.getType());
+						Object objectValue = stringToTypedObject(value, field,
+								configurable, instanceToConfigure);
+						if (reloadableOnly
+								&& objectValue.equals(field
+										.get(instanceToConfigure))) {
+							continue;
+						}
 						field.set(instanceToConfigure, objectValue);
+						changed = true;
 						LOG.info("[Configure] Setting '" + objectValue
 								+ "' into " + field);
 					} catch (Exception e) {
@@ -54,30 +103,96 @@ public class ConfigurationReader {
 				}
 			}
 		}
+		return changed;
+	}
+
+	/**
+	 * @return the generated binder of the class, null if it has none.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> ConfigurationBinder<T> getBinder(Class<T> type) {
+		Object binder = BINDERS.get(type);
+		if (binder == null) {
+			binder = NO_BINDER;
+			String name = type.getName().replace('$', '_')
+					+ ConfigurationBinder.SUFFIX;
+			try {
+				binder = Class.forName(name, true, type.getClassLoader())
+						.getDeclaredConstructor().newInstance();
+			} catch (ClassNotFoundException e) {
+				LOG.debug("[Configure] No binder generated for " + type
+						+ ", configuring it reflectively.");
+			} catch (ReflectiveOperationException e) {
+				LOG.warn("[Configure] Failed to create the binder " + name
+						+ ", configuring " + type + " reflectively.", e);
+			}
+			BINDERS.putIfAbsent(type, binder);
+		}
+		return binder == NO_BINDER ? null : (ConfigurationBinder<T>) binder;
 	}
 
 	/**
 	 * A helper method used to convert the value, represented in a String, into
-	 * an {@link Object} of the given type.
+	 * an {@link Object} of the type of the given field, within the bounds of
+	 * its {@link Configurable}.
 	 * 
 	 * @param value
 	 *            The value in string form
-	 * @param type
-	 *            The type to which the value should be converted.
+	 * @param field
+	 *            The field to which the value should be converted.
+	 * @param configurable
+	 *            The {@link Configurable} of the field.
+	 * @param instance
+	 *            The object configured, holding the unit of a duration.
 	 * @return The {@link Object} form of the value.
 	 * @throws UnsupportedDataTypeException
 	 *             Thrown when the type is unsupported.
+	 * @throws ReflectiveOperationException
+	 *             Thrown when the unit of a duration cannot be read.
 	 */
-	private static Object stringToTypedObject(String value, Class<?> type)
-			throws UnsupportedDataTypeException {
+	private static Object stringToTypedObject(String value, Field field,
+			Configurable configurable, Object instance)
+			throws UnsupportedDataTypeException, ReflectiveOperationException {
+		Class<?> type = field.getType();
 		if (String.class.isAssignableFrom(type)) {
 			return value;
 		} else if (int.class.isAssignableFrom(type)) {
-			return Integer.valueOf(value);
+			return Bindings.toInt(value, configurable.min(),
+					configurable.max());
+		} else if (long.class.isAssignableFrom(type)
+				&& !configurable.unitField().isEmpty()) {
+			Field unitField = field.getDeclaringClass().getDeclaredField(
+					configurable.unitField());
+			unitField.setAccessible(true);
+			return Bindings.toDuration(value,
+					(TimeUnit) unitField.get(instance), configurable.min(),
+					configurable.max());
 		} else if (long.class.isAssignableFrom(type)) {
-			return Long.valueOf(value);
+			return Bindings.toLong(value, configurable.min(),
+					configurable.max());
+		} else if (boolean.class.isAssignableFrom(type)) {
+			return Bindings.toBoolean(value);
+		} else if (type.isEnum()) {
+			return stringToEnum(value, type);
 		}
 		throw new UnsupportedDataTypeException(type
 				+ " is not supported during configuration parsing.");
 	}
+
+	/**
+	 * A helper method used to convert the value, represented in a String, into
+	 * the enum constant of the given type with the same identifier.
+	 * 
+	 * @param value
+	 *            The identifier of the enum constant.
+	 * @param type
+	 *            The enum type to which the value should be converted.
+	 * @return The enum constant.
+	 */
+	private static <E extends Enum<E>> E stringToEnum(String value,
+			Class<?> type) {
+		@SuppressWarnings("unchecked")
+		Class<E> enumType = (Class<E>) type;
+		return Bindings.toEnum(value, enumType);
+	}
 }
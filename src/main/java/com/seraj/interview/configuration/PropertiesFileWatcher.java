@@ -0,0 +1,115 @@
+package com.seraj.interview.configuration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches a java {@link Properties} file and pushes its content into a
+ * {@link Reconfigurable} whenever the file is written, on a daemon Thread of
+ * its own. The file is read as a whole, so a target ignoring unchanged
+ * properties is only affected by the properties edited.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public class PropertiesFileWatcher implements Closeable {
+
+	private static final Logger LOG = Logger
+			.getLogger(PropertiesFileWatcher.class);
+
+	private final Path file;
+	private final Reconfigurable target;
+	private final WatchService watchService;
+	private final Thread watcher;
+
+	/**
+	 * Start watching the file. The file is not read until it is written.
+	 * 
+	 * @param file
+	 *            The java {@link Properties} file to watch.
+	 * @param target
+	 *            The object to reconfigure with the content of the file.
+	 * @throws IOException
+	 *             Thrown if the directory of the file cannot be watched.
+	 */
+	public PropertiesFileWatcher(Path file, Reconfigurable target)
+			throws IOException {
+		this.file = file.toAbsolutePath();
+		this.target = target;
+		this.watchService = this.file.getFileSystem().newWatchService();
+		this.file.getParent().register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		this.watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "PropertiesFileWatcher-" + this.file.getFileName());
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Read the file and push its content into the target.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file cannot be read.
+	 */
+	public void reload() throws IOException {
+		Properties properties = new Properties();
+		InputStream in = Files.newInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		LOG.info("[Configure] Reloading " + file);
+		target.reconfigure(properties);
+	}
+
+	/**
+	 * Stop watching the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean written = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					written |= file.getFileName().equals(event.context());
+				}
+				key.reset();
+				if (written) {
+					try {
+						reload();
+					} catch (IOException e) {
+						LOG.warn("[Configure] Failed to reload " + file, e);
+					} catch (RuntimeException e) {
+						LOG.warn("[Configure] Failed to reload " + file, e);
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			LOG.debug("[Configure] Stopped watching " + file);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
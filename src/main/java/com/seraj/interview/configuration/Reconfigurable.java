@@ -0,0 +1,23 @@
+package com.seraj.interview.configuration;
+
+import java.util.Properties;
+
+/**
+ * An object which can be configured again while in use, typically with
+ * {@link ConfigurationReader#reloadConfigurations(Properties, Class, Object)}
+ * .
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public interface Reconfigurable {
+
+	/**
+	 * Apply the given configuration. Properties which cannot change while
+	 * the object is in use are ignored.
+	 * 
+	 * @param properties
+	 *            The java {@link Properties} holding the new configuration.
+	 */
+	void reconfigure(Properties properties);
+}
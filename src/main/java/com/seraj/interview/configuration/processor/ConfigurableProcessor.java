@@ -0,0 +1,284 @@
+package com.seraj.interview.configuration.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import com.seraj.interview.configuration.Bindings;
+import com.seraj.interview.configuration.Configurable;
+import com.seraj.interview.configuration.ConfigurationBinder;
+import com.seraj.interview.configuration.ConfigurationReader;
+
+/**
+ * Generates the {@link ConfigurationBinder} of each class with
+ * {@link Configurable} fields, so that the {@link ConfigurationReader} sets
+ * them without reflection. A class is left to the reflective path, with a
+ * note, if it or one of its {@link Configurable} fields is private. Fields
+ * which cannot be configured at all are reported as errors.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+@SupportedAnnotationTypes("com.seraj.interview.configuration.Configurable")
+public class ConfigurableProcessor extends AbstractProcessor {
+
+	private static final String TIME_UNIT = "java.util.concurrent.TimeUnit";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+		for (Element field : roundEnv
+				.getElementsAnnotatedWith(Configurable.class)) {
+			types.add((TypeElement) field.getEnclosingElement());
+		}
+		for (TypeElement type : types) {
+			List<VariableElement> fields = getConfigurableFields(type);
+			if (isBindable(type, fields)) {
+				try {
+					writeBinder(type, fields);
+				} catch (IOException e) {
+					processingEnv.getMessager().printMessage(
+							Diagnostic.Kind.ERROR,
+							"Failed to write the binder: " + e, type);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the {@link Configurable} fields of the type, in declaration
+	 *         order.
+	 */
+	private List<VariableElement> getConfigurableFields(TypeElement type) {
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		for (VariableElement field : ElementFilter.fieldsIn(type
+				.getEnclosedElements())) {
+			if (field.getAnnotation(Configurable.class) != null) {
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Report the fields which cannot be configured, and whether a binder can
+	 * reach the type and its fields.
+	 * 
+	 * @return true if a binder can be generated for the type.
+	 */
+	private boolean isBindable(TypeElement type, List<VariableElement> fields) {
+		boolean valid = true;
+		boolean accessible = true;
+		for (VariableElement field : fields) {
+			Set<Modifier> modifiers = field.getModifiers();
+			if (modifiers.contains(Modifier.STATIC)
+					|| modifiers.contains(Modifier.FINAL)) {
+				error(field, "A static or final field cannot be configured.");
+				valid = false;
+			} else if (toConversion(type, field) == null) {
+				valid = false;
+			}
+			accessible &= !modifiers.contains(Modifier.PRIVATE);
+		}
+		for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing
+				.getEnclosingElement()) {
+			TypeElement enclosingType = (TypeElement) enclosing;
+			accessible &= !enclosingType.getModifiers().contains(
+					Modifier.PRIVATE)
+					&& (enclosingType.getNestingKind() == NestingKind.TOP_LEVEL || enclosingType
+							.getNestingKind() == NestingKind.MEMBER);
+		}
+		if (valid && !accessible) {
+			processingEnv.getMessager().printMessage(
+					Diagnostic.Kind.NOTE,
+					type + " or one of its configurable fields is private, it"
+							+ " is configured reflectively.", type);
+		}
+		return valid && accessible;
+	}
+
+	/**
+	 * @return the expression converting the String 'value' into the type of
+	 *         the field, null if it cannot be converted.
+	 */
+	private String toConversion(TypeElement type, VariableElement field) {
+		Configurable configurable = field.getAnnotation(Configurable.class);
+		String bounds = ", " + toLiteral(configurable.min()) + ", "
+				+ toLiteral(configurable.max()) + ")";
+		boolean bounded = configurable.min() != Long.MIN_VALUE
+				|| configurable.max() != Long.MAX_VALUE;
+		boolean duration = !configurable.unitField().isEmpty();
+		TypeMirror fieldType = field.asType();
+		String conversion = null;
+		if (fieldType.getKind() == TypeKind.LONG && duration) {
+			if (isUnitFieldBefore(type, field, configurable.unitField())) {
+				conversion = "Bindings.toDuration(value, instance."
+						+ configurable.unitField() + bounds;
+			}
+		} else if (duration) {
+			error(field, "Only a long field can be a duration.");
+		} else if (fieldType.getKind() == TypeKind.INT) {
+			conversion = "Bindings.toInt(value" + bounds;
+		} else if (fieldType.getKind() == TypeKind.LONG) {
+			conversion = "Bindings.toLong(value" + bounds;
+		} else if (bounded) {
+			error(field, "Only an int or long field can be bounded.");
+		} else if (fieldType.getKind() == TypeKind.BOOLEAN) {
+			conversion = "Bindings.toBoolean(value)";
+		} else if (processingEnv.getTypeUtils().isSameType(fieldType,
+				processingEnv.getElementUtils()
+						.getTypeElement(String.class.getName()).asType())) {
+			conversion = "value";
+		} else if (fieldType.getKind() == TypeKind.DECLARED
+				&& processingEnv.getTypeUtils().asElement(fieldType)
+						.getKind() == ElementKind.ENUM) {
+			conversion = "Bindings.toEnum(value, " + fieldType + ".class)";
+		} else {
+			error(field, fieldType + " is not supported during configuration"
+					+ " parsing.");
+		}
+		return conversion;
+	}
+
+	/**
+	 * @return true if the unit field is a {@link java.util.concurrent.TimeUnit}
+	 *         declared before the duration field, so that it is bound first.
+	 */
+	private boolean isUnitFieldBefore(TypeElement type,
+			VariableElement duration, String unitField) {
+		for (VariableElement field : ElementFilter.fieldsIn(type
+				.getEnclosedElements())) {
+			if (field.equals(duration)) {
+				break;
+			} else if (field.getSimpleName().contentEquals(unitField)
+					&& field.asType().toString().equals(TIME_UNIT)) {
+				return true;
+			}
+		}
+		error(duration, "The unit field '" + unitField + "' must be a "
+				+ TIME_UNIT + " declared before the duration.");
+		return false;
+	}
+
+	private void writeBinder(TypeElement type, List<VariableElement> fields)
+			throws IOException {
+		String packageName = processingEnv.getElementUtils()
+				.getPackageOf(type).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils()
+				.getBinaryName(type).toString();
+		String binderName = binaryName.substring(
+				packageName.isEmpty() ? 0 : packageName.length() + 1).replace(
+				'$', '_')
+				+ ConfigurationBinder.SUFFIX;
+		String typeName = processingEnv.getTypeUtils()
+				.erasure(type.asType()).toString();
+		PrintWriter out = new PrintWriter(processingEnv
+				.getFiler()
+				.createSourceFile(
+						packageName.isEmpty() ? binderName : packageName + "."
+								+ binderName, type).openWriter());
+		try {
+			if (!packageName.isEmpty()) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("import java.util.Properties;");
+			out.println();
+			out.println("import " + Bindings.class.getName() + ";");
+			out.println("import " + ConfigurationBinder.class.getName() + ";");
+			out.println();
+			out.println("/**");
+			out.println(" * Binds the configurable fields of {@link " + typeName
+					+ "}, generated by " + getClass().getSimpleName() + ".");
+			out.println(" */");
+			out.println("public final class " + binderName
+					+ " implements ConfigurationBinder<" + typeName + "> {");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic boolean bind(Properties properties, "
+					+ typeName + " instance,");
+			out.println("\t\t\tboolean reloadableOnly) {");
+			out.println("\t\tboolean changed = false;");
+			out.println("\t\tString value;");
+			for (VariableElement field : fields) {
+				writeField(out, type, typeName, field);
+			}
+			out.println("\t\treturn changed;");
+			out.println("\t}");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeField(PrintWriter out, TypeElement type,
+			String typeName, VariableElement field) {
+		Configurable configurable = field.getAnnotation(Configurable.class);
+		String name = field.getSimpleName().toString();
+		String indent = "\t\t";
+		if (!configurable.reloadable()) {
+			out.println(indent + "if (!reloadableOnly) {");
+			indent += "\t";
+		}
+		String changed = field.asType().getKind().isPrimitive() ? "instance."
+				+ name + " != converted" : "!converted.equals(instance." + name
+				+ ")";
+		out.println(indent + "value = Bindings.lookup(properties, \"" + name
+				+ "\", "
+				+ processingEnv.getElementUtils().getConstantExpression(
+						configurable.defaultValue()) + ");");
+		out.println(indent + "if (value != null) {");
+		out.println(indent + "\ttry {");
+		out.println(indent + "\t\t" + field.asType() + " converted = "
+				+ toConversion(type, field) + ";");
+		out.println(indent + "\t\tif (!reloadableOnly || " + changed + ") {");
+		out.println(indent + "\t\t\tinstance." + name + " = converted;");
+		out.println(indent + "\t\t\tchanged = true;");
+		out.println(indent + "\t\t\tBindings.configured(" + typeName
+				+ ".class, \"" + name + "\", converted);");
+		out.println(indent + "\t\t}");
+		out.println(indent + "\t} catch (RuntimeException e) {");
+		out.println(indent + "\t\tBindings.failed(" + typeName + ".class, \""
+				+ name + "\", value, e);");
+		out.println(indent + "\t}");
+		out.println(indent + "}");
+		if (!configurable.reloadable()) {
+			out.println("\t\t}");
+		}
+	}
+
+	private static String toLiteral(long value) {
+		return value == Long.MIN_VALUE ? "Long.MIN_VALUE"
+				: value == Long.MAX_VALUE ? "Long.MAX_VALUE" : value + "L";
+	}
+
+	private void error(Element field, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+				message, field);
+	}
+}
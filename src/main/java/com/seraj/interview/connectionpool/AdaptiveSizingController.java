@@ -0,0 +1,176 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides, once every interval, the limit of a pool between a minimum and a
+ * maximum size. </p> While borrowers wait longer than the target the limit
+ * grows additively, as long as each growth raised the throughput; a growth
+ * which did not is undone and the limit held there for a while, as the
+ * database rather than the pool is then the bottleneck. While borrowers do
+ * not wait, the limit shrinks multiplicatively towards the connections in
+ * use by Little's law (throughput times mean hold), with some headroom, but
+ * not below the idle connections the pool keeps.
+ * </p> The measurements are gathered as a {@link ConnectionPoolListener}.
+ * Decisions are made by a single Thread.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+class AdaptiveSizingController implements ConnectionPoolListener {
+
+	// The relative throughput gain a growth must bring to be kept.
+	private static final double MIN_GAIN = 0.05;
+	// The spare capacity kept above the connections in use.
+	private static final double HEADROOM = 1.25;
+	// The number of intervals a throughput plateau caps the growth for.
+	private static final int PLATEAU_INTERVALS = 10;
+
+	private final int minPoolSize;
+	// The lowest limit an idle pool shrinks to, keeping its minIdle.
+	private final int shrinkFloor;
+	// Changed by a reconfiguration of the pool.
+	private volatile int maxPoolSize;
+	private final long targetWaitNanos;
+
+	private final LongAdder borrows = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder releases = new LongAdder();
+	private final LongAdder holdNanos = new LongAdder();
+
+	// The state of the last growth, decision Thread only.
+	private boolean grewLast;
+	private int limitBeforeGrowth;
+	private double throughputBeforeGrowth;
+	// The limit growth stops at after a plateau, and the intervals left.
+	private int ceiling = Integer.MAX_VALUE;
+	private int ceilingIntervals;
+
+	/**
+	 * @param minPoolSize
+	 *            The lowest limit.
+	 * @param minIdle
+	 *            The idle connections kept by the pool, which the limit does
+	 *            not shrink below for lack of load.
+	 * @param maxPoolSize
+	 *            The highest limit.
+	 * @param targetWait
+	 *            The mean borrow wait above which the limit grows.
+	 * @param unit
+	 *            The {@link TimeUnit} of the target wait.
+	 */
+	AdaptiveSizingController(int minPoolSize, int minIdle, int maxPoolSize,
+			long targetWait, TimeUnit unit) {
+		this.minPoolSize = Math.max(1, minPoolSize);
+		this.shrinkFloor = Math.max(this.minPoolSize, minIdle);
+		this.maxPoolSize = maxPoolSize;
+		this.targetWaitNanos = unit.toNanos(targetWait);
+	}
+
+	/**
+	 * @param maxPoolSize
+	 *            The highest limit, from now on.
+	 */
+	void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	/**
+	 * @param limit
+	 *            A requested limit.
+	 * @return the limit within the bounds of the controller.
+	 */
+	int bound(int limit) {
+		int max = maxPoolSize;
+		return Math.max(Math.min(minPoolSize, max), Math.min(max, limit));
+	}
+
+	@Override
+	public void connectionBorrowed(long waitNanos) {
+		borrows.increment();
+		this.waitNanos.add(waitNanos);
+	}
+
+	@Override
+	public void connectionReleased(long holdNanos) {
+		releases.increment();
+		this.holdNanos.add(holdNanos);
+	}
+
+	@Override
+	public void leaseReaped(long holdNanos) {
+		connectionReleased(holdNanos);
+	}
+
+	/**
+	 * Decide the limit from the measurements gathered since the last
+	 * decision.
+	 * 
+	 * @param intervalNanos
+	 *            The length of time since the last decision.
+	 * @param limit
+	 *            The current limit.
+	 * @param waiting
+	 *            The number of callers waiting now.
+	 * @return The decision.
+	 */
+	SizingDecision decide(long intervalNanos, int limit, int waiting) {
+		return decide(intervalNanos, limit, waiting, borrows.sumThenReset(),
+				waitNanos.sumThenReset(), releases.sumThenReset(),
+				holdNanos.sumThenReset());
+	}
+
+	SizingDecision decide(long intervalNanos, int limit, int waiting,
+			long borrowCount, long totalWaitNanos, long releaseCount,
+			long totalHoldNanos) {
+		double throughput = borrowCount * (double) TimeUnit.SECONDS.toNanos(1)
+				/ Math.max(1, intervalNanos);
+		long meanWait = borrowCount == 0 ? 0 : totalWaitNanos / borrowCount;
+		long meanHold = releaseCount == 0 ? 0 : totalHoldNanos / releaseCount;
+		double inUse = throughput * meanHold / TimeUnit.SECONDS.toNanos(1);
+		if (ceilingIntervals > 0 && --ceilingIntervals == 0) {
+			ceiling = Integer.MAX_VALUE;
+		}
+
+		SizingDecision.Action action = SizingDecision.Action.HOLD;
+		int newLimit = limit;
+		String reason;
+		boolean starved = meanWait > targetWaitNanos
+				|| (waiting > 0 && borrowCount == 0);
+		if (starved && grewLast
+				&& throughput < throughputBeforeGrowth * (1 + MIN_GAIN)) {
+			action = SizingDecision.Action.SHRINK;
+			newLimit = limitBeforeGrowth;
+			ceiling = limitBeforeGrowth;
+			ceilingIntervals = PLATEAU_INTERVALS;
+			reason = "The last growth did not raise the throughput.";
+		} else if (starved && limit >= Math.min(ceiling, maxPoolSize)) {
+			reason = "Borrowers wait, but the limit is at its ceiling.";
+		} else if (starved) {
+			action = SizingDecision.Action.GROW;
+			newLimit = bound(limit + 1 + limit / 8);
+			reason = "Borrowers wait longer than the target.";
+		} else if (meanWait <= targetWaitNanos / 2
+				&& inUse * HEADROOM < limit * 0.75) {
+			action = SizingDecision.Action.SHRINK;
+			newLimit = Math.min(limit, bound(Math.max(shrinkFloor, Math.max(
+					(int) Math.ceil(inUse * HEADROOM), limit * 3 / 4))));
+			reason = "Fewer connections serve the load.";
+		} else {
+			reason = "The limit fits the load.";
+		}
+		if (newLimit == limit && action != SizingDecision.Action.HOLD) {
+			action = SizingDecision.Action.HOLD;
+			reason = "The limit is at its bound.";
+		}
+
+		grewLast = action == SizingDecision.Action.GROW;
+		if (grewLast) {
+			limitBeforeGrowth = limit;
+			throughputBeforeGrowth = throughput;
+		}
+		return new SizingDecision(action, limit, newLimit, throughput,
+				meanWait, meanHold, inUse, reason);
+	}
+}
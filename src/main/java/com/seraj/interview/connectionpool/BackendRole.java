@@ -0,0 +1,19 @@
+package com.seraj.interview.connectionpool;
+
+/**
+ * The role of a database behind a {@link RoutingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public enum BackendRole {
+
+	/**
+	 * A database taking writes, and reads when no replica is available.
+	 */
+	PRIMARY,
+	/**
+	 * A read replica, serving read-only borrows only.
+	 */
+	REPLICA
+}
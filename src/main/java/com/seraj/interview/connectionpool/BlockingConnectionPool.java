@@ -1,20 +1,59 @@
 package com.seraj.interview.connectionpool;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.log4j.Logger;
 
 import com.opower.connectionpool.ConnectionPool;
 import com.seraj.interview.configuration.Configurable;
 import com.seraj.interview.configuration.ConfigurationReader;
+import com.seraj.interview.configuration.PropertiesFileWatcher;
+import com.seraj.interview.configuration.Reconfigurable;
+import com.seraj.interview.journal.EventJournal;
+import com.seraj.interview.journal.JournalEvent;
 
 /**
  * A Thread-safe implementation of {@link ConnectionPool} backed by a
@@ -23,7 +62,13 @@ import com.seraj.interview.configuration.ConfigurationReader;
  * @author Seraj Dosenbach
  *
  */
-public class BlockingConnectionPool implements ConnectionPool {
+public class BlockingConnectionPool implements ConnectionPool,
+		ConnectionPoolMXBean, Reconfigurable {
+
+	/**
+	 * The deadline of a caller which has none.
+	 */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
 
 	// ************************
 	// Required Fields, use setter to initialize
@@ -37,33 +82,174 @@ public class BlockingConnectionPool implements ConnectionPool {
 	// ************************
 	// Configurable properties
 	// ************************
+	// Package-private so that the generated binder sets them.
+	@Configurable(reloadable = true, min = 1)
+	volatile int maxPoolSize = Integer.MAX_VALUE;
+	@Configurable
+	TimeUnit timeUnits = TimeUnit.MILLISECONDS;
+	@Configurable(reloadable = true, unitField = "timeUnits")
+	volatile long borrowTimeoutInterval = 500;
+	@Configurable(reloadable = true, unitField = "timeUnits")
+	volatile long leaseTerm = -1;
+	@Configurable(min = 0)
+	int validationTimeoutInSeconds = 2;
+	@Configurable(unitField = "timeUnits", min = 1)
+	long leaseReaperTickInterval = 100;
+	@Configurable
+	ValidationPolicy validationPolicy = ValidationPolicy.ON_RELEASE;
+	@Configurable(unitField = "timeUnits", min = 1)
+	long validationInterval = 5000;
+	@Configurable(min = 1)
+	int validationBatchSize = 16;
+	@Configurable(min = 0)
+	int initialSize = 0;
+	@Configurable(min = 0)
+	int minIdle = 0;
+	@Configurable(min = 1)
+	int creatorThreads = 2;
+	@Configurable
+	boolean proxyConnections = false;
+	@Configurable(min = 0)
+	int statementCacheSize = 0;
+	@Configurable
+	StatementCacheEviction statementCacheEviction = StatementCacheEviction.LRU;
 	@Configurable
-	private int maxPoolSize = Integer.MAX_VALUE;
+	String jmxName = "";
 	@Configurable
-	private TimeUnit timeUnits = TimeUnit.MILLISECONDS;
+	WaitPolicy waitPolicy = WaitPolicy.POLL;
 	@Configurable
-	private long borrowTimeoutInterval = 500;
+	IdleOrder idleOrder = IdleOrder.FIFO;
+	@Configurable(unitField = "timeUnits")
+	long idleTimeout = -1;
+	@Configurable(unitField = "timeUnits", min = 1)
+	long evictionInterval = 30000;
 	@Configurable
-	private long leaseTerm = -1;
+	boolean adaptiveSizing = false;
+	@Configurable(min = 1)
+	int minPoolSize = 1;
+	@Configurable(unitField = "timeUnits")
+	long targetBorrowWait = 10;
+	@Configurable(unitField = "timeUnits", min = 1)
+	long adaptiveSizingInterval = 1000;
+	@Configurable(unitField = "timeUnits")
+	long leakDetectionThreshold = -1;
+	@Configurable(min = 1)
+	int leakDetectionSampling = 100;
+	@Configurable(min = 0)
+	int maxConcurrentCreates = 0;
+	@Configurable(unitField = "timeUnits", min = 0)
+	long createBackoffInitial = 100;
+	@Configurable(unitField = "timeUnits", min = 0)
+	long createBackoffMax = 30000;
+	@Configurable(min = 0)
+	int circuitBreakerThreshold = 5;
 	@Configurable
-	private int validationTimeoutInSeconds = 2;
+	String journalFile = "";
+	@Configurable(min = 1, max = EventJournal.MAX_CAPACITY)
+	int journalCapacity = 65536;
 
 	// ************************
 	// Internal fields
 	// ************************
 	private static final Logger LOG = Logger
 			.getLogger(BlockingConnectionPool.class);
+	// The number of leases measured before deadlines are estimated.
+	private static final long MIN_HOLDS_FOR_ESTIMATE = 32;
+	// How often the median lease hold used to estimate deadlines is taken.
+	private static final long HOLD_ESTIMATE_INTERVAL = TimeUnit.SECONDS
+			.toNanos(1);
 	// Current size of the pool
 	private AtomicInteger size = new AtomicInteger(0);
-	// The list of connections sitting idle.
-	private BlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<Connection>();
-	// The map of connections on lease and the system time when they were
-	// leased.
-	private ConcurrentMap<Connection, Long> leasedConnectionStartTime = new ConcurrentHashMap<Connection, Long>();
+	// The size the pool may grow to, the maxPoolSize unless sized adaptively.
+	private volatile int poolLimit = Integer.MAX_VALUE;
+	// Decides the pool limit when sized adaptively, otherwise null.
+	private AdaptiveSizingController sizingController;
+	// Reports leases held past the leak detection threshold, otherwise null.
+	private LeakDetector leakDetector;
+	// Records the events of the pool, null unless a journal file is
+	// configured.
+	private EventJournal journal;
+	// Admits the creations of connections, backing off after failures.
+	private CreationGate creationGate;
+	// Whether a retry of the creations held back is scheduled.
+	private AtomicBoolean creationRetryScheduled = new AtomicBoolean();
+	// Whether creations were held back by the limit of creations at once.
+	private AtomicBoolean creationsHeldBack = new AtomicBoolean();
+	// The list of connections sitting idle, the next to be reused first.
+	private IdleDeque idleConnections = new IdleDeque();
+	// The slots of the connections in the pool and the leases held on them.
+	private LeaseTable leases = new LeaseTable();
+	// The callers waiting for a connection, by priority, then earliest
+	// deadline, then oldest first. Released connections are handed directly
+	// to the head of this queue. Removing a caller that timed out or missed
+	// its deadline scans the queue, but such callers expire in the queue's
+	// order and so are found near its head: 50,000 deadlines expire at about
+	// 2us a removal.
+	private Queue<Waiter> waiters = new PriorityBlockingQueue<Waiter>(11,
+			Waiter.ORDER);
+	// The number of callers in the waiters queue, read without the queue's
+	// lock.
+	private AtomicInteger waiterCount = new AtomicInteger(0);
+	// The number of callers in the waiters queue by the ordinal of their
+	// priority.
+	private AtomicInteger[] waiterCountByPriority = newWaiterCounts();
+	// The median lease hold in nanoseconds, taken on a maintenance tick once
+	// enough leases were measured, otherwise 0.
+	private volatile long medianHoldNanos;
+	// Whether the median lease hold is taken, from the first deadline borrow.
+	private AtomicBoolean holdEstimateStarted = new AtomicBoolean();
+	// The arrival order of the waiting callers.
+	private AtomicLong waiterSequence = new AtomicLong();
+	// The number of connections being created by the creator Threads.
+	private AtomicInteger pendingCreates = new AtomicInteger(0);
+	// The generation of the pool; connections of an older one are replaced.
+	private AtomicInteger generation = new AtomicInteger(0);
+	// Whether new borrows are refused, the pool draining or closed.
+	private volatile boolean shutdown;
+	// Whether the connections and Threads of the pool were closed.
+	private AtomicBoolean closed = new AtomicBoolean();
+	// Notified as leases end while the pool drains.
+	private final Object drained = new Object();
+	// The name the pool is registered with JMX under, null if not.
+	private ObjectName mbeanName;
+	// The pool closing a proxy releases its connection into, this pool unless
+	// it serves as the backend of another.
+	private volatile ConnectionPool proxyOwner = this;
+	// The scope of each Thread in one. Looked up only once a scope was
+	// opened, as looking up a Thread without one allocates.
+	private ThreadLocal<ConnectionScope> scopes = new ThreadLocal<ConnectionScope>();
+	private volatile boolean scopesOpened;
+
+	// The latencies and counts of the pool's events, always the first
+	// listener.
+	private PoolMetrics metrics = new PoolMetrics();
+	// The listeners notified of the pool's events, replaced on change so that
+	// notifying takes no lock.
+	private volatile ConnectionPoolListener[] listeners = { metrics };
+	// The number of prepared statements served from, and missing from, the
+	// statement caches.
+	private LongAdder statementCacheHits = new LongAdder();
+	private LongAdder statementCacheMisses = new LongAdder();
 
 	// ************************
 	// Daemon threads
 	// ************************
+	// Expires leases once their lease term has passed, null if leases have
+	// always been indefinite.
+	private volatile HashedTimingWheel leaseReaper;
+	// Runs the periodic upkeep of the pool and the expiry of deadlines; its
+	// Thread is started on first use. Created up front so that scheduling
+	// never takes the lock of the pool.
+	private final ScheduledExecutorService maintenance = newMaintenance();
+	// Creates connections ahead of demand, null unless initialSize or minIdle
+	// is configured.
+	private ThreadPoolExecutor creator;
+	// Creates the connections missing from a batch in parallel, when no
+	// creator Threads are configured; created on first use.
+	private ExecutorService batchCreator;
+	// Serves batch borrowers one at a time, so that two batches never each
+	// hold part of what the other needs.
+	private final ReentrantLock batchLock = new ReentrantLock(true);
 
 	/**
 	 * Create a new Blocking {@link ConnectionPool}.
@@ -80,22 +266,114 @@ public class BlockingConnectionPool implements ConnectionPool {
 	 * this connection pool. <i>Default size is Integer.MAX_VALUE
 	 * (unbounded).</i></li>
 	 * <li><b>timeUnits</b> = The time unit context for all time based
-	 * configurations; unless explicitly stated otherwise. <i>Default value is
-	 * MILLISECONDS</i></li>
+	 * configurations; unless explicitly stated otherwise. Each may also be
+	 * given with a unit suffix: ns, us, ms, s, m, h or d, such as '30s'.
+	 * <i>Default value is MILLISECONDS</i></li>
 	 * <li><b>borrowTimeoutInterval</b> = The length of time a Thread will wait,
-	 * each try, before timing out while waiting for a connection. <i>Default
-	 * value is 500.</i></li>
+	 * each try, before retrying to create a connection while waiting for a
+	 * connection. <i>Default value is 500.</i></li>
 	 * <li><b>leaseTerm</b> = The length of time a connection can be leased for.
 	 * Once the lease time has expired on a given connection it will be reaped
 	 * and closed. If configured to '-1' then connections are leased
 	 * indefinitely. <i>Default value is '-1'.</i></li>
+	 * <li><b>leaseReaperTickInterval</b> = The precision with which expired
+	 * leases are reaped; a lease is reaped at most this long after its term
+	 * expired. <i>Default value is 100.</i></li>
 	 * <li><b>validationTimeoutInSeconds</b> = The length of time to wait while
 	 * validating the state of a given connection. This field is always in
 	 * Seconds. <i>Default value is 2.</i></li>
+	 * <li><b>validationPolicy</b> = When connections are validated, one of
+	 * {@link ValidationPolicy}. <i>Default value is ON_RELEASE.</i></li>
+	 * <li><b>validationInterval</b> = The length of time a connection is
+	 * trusted after a successful validation, or left idle before it is
+	 * validated; depending on the validationPolicy. With the BACKGROUND policy
+	 * this is also the period of the background validation. <i>Default value
+	 * is 5000.</i></li>
+	 * <li><b>validationBatchSize</b> = The largest number of idle connections
+	 * validated by each run of the BACKGROUND policy. <i>Default value is
+	 * 16.</i></li>
+	 * <li><b>initialSize</b> = The number of connections created, in parallel,
+	 * as soon as the connection factory is set. <i>Default value is 0.</i></li>
+	 * <li><b>minIdle</b> = The number of idle connections the pool keeps ready
+	 * ahead of demand. When greater than 0, all connections are created by the
+	 * creator Threads and a borrower finding no idle connection waits for
+	 * either a release or a new connection, whichever comes first. <i>Default
+	 * value is 0.</i></li>
+	 * <li><b>creatorThreads</b> = The largest number of connections created at
+	 * once by the creator Threads. <i>Default value is 2.</i></li>
+	 * <li><b>proxyConnections</b> = Whether each lease is handed out as a
+	 * pool-owned proxy whose close releases the connection into the pool.
+	 * <i>Default value is false.</i></li>
+	 * <li><b>statementCacheSize</b> = The number of prepared statements cached
+	 * per connection, across leases. Requires proxyConnections. <i>Default
+	 * value is 0 (no caching).</i></li>
+	 * <li><b>statementCacheEviction</b> = The statement evicted when a cache
+	 * is full, one of {@link StatementCacheEviction}. <i>Default value is
+	 * LRU.</i></li>
+	 * <li><b>jmxName</b> = The name under which the pool's
+	 * {@link ConnectionPoolMXBean} is registered with the platform MBean
+	 * server. <i>Default value is empty (not registered).</i></li>
+	 * <li><b>waitPolicy</b> = When a caller waiting for a connection wakes,
+	 * one of {@link WaitPolicy}. SIGNAL suits large numbers of waiting
+	 * virtual Threads. <i>Default value is POLL.</i></li>
+	 * <li><b>idleOrder</b> = The order in which idle connections are reused,
+	 * one of {@link IdleOrder}. <i>Default value is FIFO.</i></li>
+	 * <li><b>idleTimeout</b> = The length of time a connection may sit idle
+	 * before it is evicted, coldest first, as long as minIdle connections
+	 * remain idle. If configured to '-1' idle connections are never evicted.
+	 * <i>Default value is '-1'.</i></li>
+	 * <li><b>evictionInterval</b> = The period of the eviction of idle
+	 * connections. <i>Default value is 30000.</i></li>
+	 * <li><b>adaptiveSizing</b> = Whether the limit of the pool is adjusted
+	 * between minPoolSize and maxPoolSize by the observed borrow wait and
+	 * throughput. Each decision is reported to the listeners. <i>Default
+	 * value is false.</i></li>
+	 * <li><b>minPoolSize</b> = The lowest limit of an adaptively sized pool,
+	 * which does not shrink below minIdle for lack of load either.
+	 * <i>Default value is 1.</i></li>
+	 * <li><b>targetBorrowWait</b> = The mean borrow wait above which an
+	 * adaptively sized pool grows. <i>Default value is 10.</i></li>
+	 * <li><b>adaptiveSizingInterval</b> = The period of the sizing decisions
+	 * of an adaptively sized pool. <i>Default value is 1000.</i></li>
+	 * <li><b>leakDetectionThreshold</b> = The length of time after which a
+	 * lease is reported as a suspected leak, along with the stack of its
+	 * borrower when sampled. If configured to '-1' leaks are not detected.
+	 * <i>Default value is '-1'.</i></li>
+	 * <li><b>leakDetectionSampling</b> = The stack of the borrower is
+	 * captured for one in this many borrows, or every borrow when debug
+	 * logging is enabled; '1' captures every borrow. <i>Default value is
+	 * 100.</i></li>
+	 * <li><b>maxConcurrentCreates</b> = The largest number of connections
+	 * created at once, by every Thread. If configured to '0' the creations
+	 * are not limited. <i>Default value is '0'.</i></li>
+	 * <li><b>createBackoffInitial</b> = The delay before connections are
+	 * created again after a failure, doubled by each consecutive failure and
+	 * jittered. <i>Default value is 100.</i></li>
+	 * <li><b>createBackoffMax</b> = The longest delay before connections are
+	 * created again after failures. <i>Default value is 30000.</i></li>
+	 * <li><b>circuitBreakerThreshold</b> = The number of consecutive failures
+	 * to create a connection after which the database is deemed unreachable:
+	 * borrowers which would need a new connection fail fast, and a single
+	 * creation probes the database once the delay passed. If configured to
+	 * '0' borrowers never fail fast. <i>Default value is 5.</i></li>
+	 * <li><b>journalFile</b> = The file of an {@link EventJournal} recording
+	 * the borrows, releases, creations, failed validations and closes of the
+	 * pool. If configured to '' no events are recorded. <i>Default value is
+	 * ''.</i></li>
+	 * <li><b>journalCapacity</b> = The number of latest events kept by the
+	 * journal, rounded up to a power of two. <i>Default value is
+	 * 65536.</i></li>
 	 * </ul>
 	 * 
-	 * </p> <b>Note:</b> The timeUnits field configuration must match exactly an
-	 * identifier used to declare an enum constant of {@link TimeUnit}.
+	 * </p> The maxPoolSize, borrowTimeoutInterval and leaseTerm may be
+	 * changed while the pool is in use, see
+	 * {@link #reconfigure(Properties)}.
+	 * 
+	 * </p> <b>Note:</b> The timeUnits, validationPolicy,
+	 * statementCacheEviction, waitPolicy and idleOrder field configurations
+	 * must match exactly an identifier used to declare an enum constant of
+	 * {@link TimeUnit}, {@link ValidationPolicy}, {@link StatementCacheEviction},
+	 * {@link WaitPolicy} and {@link IdleOrder} respectively.
 	 * 
 	 * @param properties
 	 *            The java {@link Properties} used to configure this
@@ -105,13 +383,34 @@ public class BlockingConnectionPool implements ConnectionPool {
 		ConfigurationReader.loadConfigurations(properties,
 				BlockingConnectionPool.class, this);
 		runDeamonThreads();
+		registerMBean();
+	}
+
+	/**
+	 * Create and configure a new Blocking {@link ConnectionPool} with the
+	 * given factory, as {@link #BlockingConnectionPool(Properties)} followed
+	 * by {@link #setConnectionFactory(ConnectionFactory)}.
+	 * 
+	 * @param properties
+	 *            The java {@link Properties} used to configure this
+	 *            {@link ConnectionPool}.
+	 * @param connectionFactory
+	 *            The factory used to create new connections for the pool.
+	 */
+	public BlockingConnectionPool(Properties properties,
+			ConnectionFactory connectionFactory) {
+		this(properties);
+		setConnectionFactory(connectionFactory);
 	}
 
 	/**
 	 * Gets a {@link Connection} from the connection pool. If an idle
 	 * {@link Connection} exists, use it. Otherwise, if space is available in
 	 * the pool a new {@link Connection} is created and returned. Else, block
-	 * until an available {@link Connection} is available to borrow.
+	 * until a {@link Connection} is handed over by a releasing Thread; waiting
+	 * callers are served in arrival order. Within a scope, see
+	 * {@link #openScope()}, the {@link Connection} the Thread already
+	 * borrowed is returned.
 	 * 
 	 * @return A {@link Connection} from the connection pool.
 	 * @throws SQLException
@@ -119,145 +418,2200 @@ public class BlockingConnectionPool implements ConnectionPool {
 	 */
 	@Override
 	public Connection getConnection() throws SQLException {
-		Connection connection = idleConnections.poll();
-		while (connection == null) {
-			connection = tryCreateNewConnection();
-			connection = connection == null ? tryBorrowConnection()
-					: connection;
-		}
-		leasedConnectionStartTime.putIfAbsent(connection,
-				System.currentTimeMillis());
-		return connection;
+		ConnectionScope scope = currentScope();
+		Connection bound = reuseBound(scope);
+		return bound != null ? bound : bind(scope, borrow(Long.MAX_VALUE));
 	}
 
 	/**
-	 * Releases a {@link Connection} back into the connection pool. If the
-	 * {@link Connection} is part of the pool, revoke the lease and recycle the
-	 * connection.
+	 * Gets a {@link Connection} from the connection pool, as
+	 * {@link #getConnection()}, waiting no longer than the given timeout.
 	 * 
-	 * @param connection
-	 *            The {@link Connection} being released back into the connection
-	 *            pool.
+	 * @param timeout
+	 *            The maximum length of time to wait for a {@link Connection}.
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 * @return A {@link Connection} from the connection pool.
+	 * @throws SQLTimeoutException
+	 *             Thrown if no {@link Connection} became available in time.
 	 * @throws SQLException
-	 *             Thrown when the {@link Connection} is unknown, or a failure
-	 *             to determine the validity of the connection.
+	 *             Thrown if the method is interrupted.
 	 */
-	@Override
-	public void releaseConnection(Connection connection) throws SQLException {
-		throwExceptionIfUnknown(connection);
-		leasedConnectionStartTime.remove(connection);
-		tryRecycleConnection(connection);
+	public Connection getConnection(long timeout, TimeUnit unit)
+			throws SQLException {
+		ConnectionScope scope = currentScope();
+		Connection bound = reuseBound(scope);
+		return bound != null ? bound : bind(scope,
+				borrow(unit.toNanos(timeout)));
 	}
 
-	private void runDeamonThreads() {
+	/**
+	 * Gets a {@link Connection} from the connection pool, as
+	 * {@link #getConnection()}, waiting ahead of the callers of a lower
+	 * priority.
+	 * 
+	 * @param priority
+	 *            The class of the caller.
+	 * @return A {@link Connection} from the connection pool.
+	 * @throws SQLException
+	 *             Thrown if the method is interrupted.
+	 */
+	public Connection getConnection(BorrowPriority priority)
+			throws SQLException {
+		ConnectionScope scope = currentScope();
+		Connection bound = reuseBound(scope);
+		return bound != null ? bound : bind(scope, awaitConnection(
+				getConnectionAsync(priority, NO_DEADLINE), Long.MAX_VALUE));
+	}
 
+	/**
+	 * Gets a {@link Connection} from the connection pool, as
+	 * {@link #getConnection()}, waiting ahead of the callers of a lower
+	 * priority and of the same priority with a later deadline. The caller
+	 * fails fast once its deadline can no longer be met, rather than being
+	 * handed a {@link Connection} too late to use it.
+	 * 
+	 * @param priority
+	 *            The class of the caller.
+	 * @param deadline
+	 *            The time by which the caller needs the {@link Connection},
+	 *            in milliseconds since the epoch as
+	 *            {@link System#currentTimeMillis()}; {@link #NO_DEADLINE} if
+	 *            none.
+	 * @return A {@link Connection} from the connection pool.
+	 * @throws SQLTimeoutException
+	 *             Thrown if the deadline cannot be met.
+	 * @throws SQLException
+	 *             Thrown if the method is interrupted.
+	 */
+	public Connection getConnection(BorrowPriority priority, long deadline)
+			throws SQLException {
+		ConnectionScope scope = currentScope();
+		Connection bound = reuseBound(scope);
+		if (bound != null) {
+			return bound;
+		}
+		long now = System.currentTimeMillis();
+		return bind(scope, awaitConnection(getConnectionAsync(priority,
+				deadline), deadline == NO_DEADLINE ? Long.MAX_VALUE
+				: TimeUnit.MILLISECONDS.toNanos(Math.max(0, deadline - now))));
 	}
 
 	/**
-	 * Thread-safe implementation to create a new {@link Connection} when space
-	 * is available in the connection pool.
+	 * Asynchronously gets a {@link Connection} from the connection pool, as
+	 * {@link #getConnectionAsync()}, waiting by priority and deadline as
+	 * {@link #getConnection(BorrowPriority, long)}. The future fails with an
+	 * {@link SQLTimeoutException} once the deadline can no longer be met.
 	 * 
-	 * @return A connection if spaces is available, null otherwise.
+	 * @param priority
+	 *            The class of the caller.
+	 * @param deadline
+	 *            The time by which the caller needs the {@link Connection},
+	 *            in milliseconds since the epoch as
+	 *            {@link System#currentTimeMillis()}; {@link #NO_DEADLINE} if
+	 *            none.
+	 * @return A future completed with a leased {@link Connection}.
 	 */
-	private Connection tryCreateNewConnection() {
-		Connection connection = null;
-		if (size.get() < maxPoolSize) {
-			// Check if multiple threads got past the first if statement.
-			if (size.incrementAndGet() > maxPoolSize) {
-				// Yep! more than one slipped in.
-				size.decrementAndGet();
-			} else {
-				connection = getConnectionFactory().newConnection();
-				LOG.debug("New connection added to the pool.");
+	public CompletableFuture<Connection> getConnectionAsync(
+			BorrowPriority priority, long deadline) {
+		if (shutdown) {
+			CompletableFuture<Connection> refused = new CompletableFuture<Connection>();
+			refused.completeExceptionally(newShutdownException());
+			return refused;
+		}
+		long start = System.nanoTime();
+		LeakDetector.BorrowSite borrowSite = captureBorrowSite();
+		PooledConnection pooled = pollWithoutWaiting();
+		if (pooled != null) {
+			return CompletableFuture.completedFuture(leaseNow(pooled,
+					borrowSite, start));
+		}
+		Waiter waiter = new Waiter(start, borrowSite, priority,
+				waiterSequence.incrementAndGet());
+		try {
+			throwIfCreationSuspended();
+		} catch (SQLException e) {
+			waiter.completeExceptionally(e);
+			return waiter;
+		}
+		if (deadline != NO_DEADLINE) {
+			waiter.setDeadline(start
+					+ TimeUnit.MILLISECONDS.toNanos(deadline
+							- System.currentTimeMillis()));
+			if (!canMeetDeadline(waiter)) {
+				failMissedDeadline(waiter);
+				return waiter;
 			}
 		}
-		return connection;
+		enqueue(waiter);
+		if (deadline != NO_DEADLINE && !waiter.isDone()) {
+			scheduleExpiry(waiter);
+		}
+		return waiter;
 	}
 
 	/**
-	 * A blocking attempt at acquiring an available {@link Connection} from the
-	 * idle list. The wait time for this blocking wait is configurable.
+	 * Gets n {@link Connection}s from the connection pool, all or none. Idle
+	 * {@link Connection}s are taken and the missing ones created in parallel
+	 * while space is available in the pool; for the rest the caller waits, in
+	 * arrival order with the other callers. Batch borrowers are served one at
+	 * a time, so that two batches never each hold part of what the other
+	 * needs. The {@link Connection}s gathered are leased as they are taken,
+	 * so that they are reaped like any lease while the rest is awaited. If
+	 * the batch cannot be completed in time every {@link Connection} gathered
+	 * for it is returned to the pool, the caller is never left holding part
+	 * of the batch.
 	 * 
-	 * @return A borrowed connection if available, null otherwise.
+	 * @param n
+	 *            The number of {@link Connection}s to borrow, at most the
+	 *            current limit of the pool.
+	 * @param timeout
+	 *            The maximum length of time to wait for the {@link Connection}
+	 *            s.
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 * @return The n borrowed {@link Connection}s.
+	 * @throws SQLTimeoutException
+	 *             Thrown if the {@link Connection}s did not all become
+	 *             available in time.
 	 * @throws SQLException
-	 *             Thrown if the blocking wait is interrupted.
+	 *             Thrown if n is out of range, a {@link Connection} could not
+	 *             be created or the method is interrupted.
 	 */
-	private Connection tryBorrowConnection() throws SQLException {
-		Connection connection;
+	public List<Connection> getConnections(int n, long timeout, TimeUnit unit)
+			throws SQLException {
+		// The limit is lowered by the adaptive sizing, a batch above it
+		// could only time out.
+		int limit = poolLimit;
+		if (n < 1 || n > limit) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"A batch of " + n + " connections cannot be borrowed from "
+							+ "a pool of at most " + limit + ".");
+			throw new SQLException(exception);
+		}
+		throwIfShutdown();
+		long start = System.nanoTime();
+		long timeoutNanos = unit.toNanos(timeout);
+		LeakDetector.BorrowSite borrowSite = captureBorrowSite();
 		try {
-			connection = idleConnections.poll(borrowTimeoutInterval, timeUnits);
+			if (!batchLock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+				fireBorrowTimedOut(System.nanoTime() - start);
+				throw new SQLTimeoutException(
+						"Timed out waiting for a pool connection.");
+			}
 		} catch (InterruptedException e) {
-			Thread.interrupted();
+			Thread.currentThread().interrupt();
 			throw new SQLException("Pool get connection interupted.", e);
 		}
-		return connection;
+		List<PooledConnection> taken = new ArrayList<PooledConnection>(n);
+		List<Waiter> waiting = new ArrayList<Waiter>(n);
+		List<Connection> connections = new ArrayList<Connection>(n);
+		boolean complete = false;
+		try {
+			PooledConnection pooled;
+			while (taken.size() < n && waiterCount.get() == 0
+					&& (pooled = pollIdleConnection()) != null) {
+				connections.add(lease(pooled, borrowSite));
+				taken.add(pooled);
+			}
+			if (creator == null && waiterCount.get() == 0) {
+				int reserved = 0;
+				while (taken.size() + reserved < n && tryReserveSlot()) {
+					reserved++;
+				}
+				List<PooledConnection> created = new ArrayList<PooledConnection>(
+						reserved);
+				createInParallel(reserved, created);
+				for (PooledConnection newlyCreated : created) {
+					connections.add(lease(newlyCreated, borrowSite));
+					taken.add(newlyCreated);
+				}
+			}
+			if (taken.size() < n) {
+				throwIfCreationSuspended();
+			}
+			// Wait for the rest, the creator Threads create them in parallel.
+			for (int i = taken.size(); i < n; ++i) {
+				waiting.add(enqueue(newWaiter(start, borrowSite)));
+			}
+			for (Waiter waiter : waiting) {
+				long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+						: timeoutNanos - (System.nanoTime() - start);
+				connections.add(awaitConnection(waiter, Math.max(0, remaining)));
+			}
+			for (PooledConnection leased : taken) {
+				fireConnectionBorrowed(leased, Thread.currentThread().getId(),
+						System.nanoTime() - start);
+			}
+			complete = true;
+		} finally {
+			if (!complete) {
+				for (Waiter waiter : waiting) {
+					abandon(waiter);
+				}
+				for (PooledConnection leased : taken) {
+					// Unless reaped while the rest was awaited.
+					if (revokeLease(leased) != 0) {
+						returnToPool(leased);
+					}
+				}
+			}
+			batchLock.unlock();
+		}
+		if (creator != null && idleConnections.size() < minIdle) {
+			fillPool();
+		}
+		return connections;
 	}
 
 	/**
-	 * Attempt to reuse the {@link Connection} in the pool. If the
-	 * {@link Connection} is no longer valid or the idle list can not accept the
-	 * {@link Connection} then the {@link Connection} is closed.
+	 * Releases every {@link Connection} of a batch back into the connection
+	 * pool, as {@link #releaseConnection(Connection)}. Every
+	 * {@link Connection} is released even if some fail to be.
 	 * 
-	 * @param connection
-	 *            The {@link Connection} to place into the idle list.
+	 * @param connections
+	 *            The {@link Connection}s being released.
 	 * @throws SQLException
-	 *             Thrown if some error occurs during validation or closing of
-	 *             the {@link Connection}.
+	 *             The first failure to release a {@link Connection}.
 	 */
-	private void tryRecycleConnection(Connection connection)
+	public void releaseConnections(Collection<Connection> connections)
 			throws SQLException {
-		if (!connection.isValid(validationTimeoutInSeconds)) {
-			size.decrementAndGet();
-			connection.close();
-			LOG.info("Connection from Thread["
-					+ Thread.currentThread().getName()
-					+ "] is no longer valid. Resource is being released from the pool.");
+		SQLException failure = null;
+		for (Connection connection : connections) {
+			try {
+				releaseConnection(connection);
+			} catch (SQLException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.setNextException(e);
+				}
+			}
 		}
-		// If connection is not be retained, close it and adjust the pool size.
-		// Otherwise, the connection is now ready to be reused.
-		else if (!idleConnections.offer(connection)) {
-			size.decrementAndGet();
-			connection.close();
+		if (failure != null) {
+			throw failure;
 		}
 	}
 
 	/**
-	 * If the {@link Connection} is not associated with the pool throw an
-	 * {@link SQLException} to that affect.
+	 * Open a scope on the calling Thread, or join the one it is in. Within
+	 * the scope the synchronous getConnection methods return the
+	 * {@link Connection} the Thread already borrowed, if any, adding a
+	 * reference to it, and {@link #releaseConnection(Connection)} removes a
+	 * reference; the {@link Connection} returns to the pool when its last
+	 * reference is released. Nested borrows of a unit of work thus take a
+	 * single {@link Connection}, and cannot wait on a full pool for
+	 * themselves. </p> Asynchronous and batch borrows are not bound to the
+	 * scope. A bound {@link Connection} whose lease expired is replaced by
+	 * the next borrow.
+	 * 
+	 * @return The scope, to be closed by the calling Thread after the work.
+	 */
+	public ConnectionScope openScope() {
+		scopesOpened = true;
+		ConnectionScope scope = scopes.get();
+		if (scope == null) {
+			scope = new ConnectionScope(this, Thread.currentThread());
+			scopes.set(scope);
+		}
+		scope.depth++;
+		return scope;
+	}
+
+	/**
+	 * Leave a scope; the outermost release the {@link Connection} still
+	 * referenced.
+	 * 
+	 * @param scope
+	 *            The scope of the calling Thread.
+	 * @throws IllegalStateException
+	 *             Thrown if the scope is not of the calling Thread.
+	 */
+	void closeScope(ConnectionScope scope) {
+		if (scope.getOwner() != Thread.currentThread()) {
+			throw new IllegalStateException(
+					"A scope must be closed by the Thread which opened it.");
+		}
+		if (scope.depth == 0 || --scope.depth > 0) {
+			return;
+		}
+		scopes.remove();
+		Connection connection = scope.connection;
+		if (connection != null) {
+			LOG.warn("Scope closed with its connection still referenced "
+					+ scope.references
+					+ " times. Connection is being released to the pool.");
+			scope.connection = null;
+			scope.references = 0;
+			try {
+				releaseConnection(connection);
+			} catch (SQLException e) {
+				LOG.warn("Failed to release the connection of a scope.", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the scope of the calling Thread, null if none.
+	 */
+	private ConnectionScope currentScope() {
+		return scopesOpened ? scopes.get() : null;
+	}
+
+	/**
+	 * Add a reference to the {@link Connection} bound to the scope, if it is
+	 * still on lease.
+	 * 
+	 * @param scope
+	 *            The scope of the calling Thread, null if none.
+	 * @return The bound {@link Connection}, null if none.
+	 */
+	private Connection reuseBound(ConnectionScope scope) {
+		if (scope == null || scope.connection == null) {
+			return null;
+		} else if (findLeased(scope.connection) == null) {
+			// The lease was reaped, the connection is closed.
+			scope.connection = null;
+			scope.references = 0;
+			return null;
+		}
+		scope.references++;
+		return scope.connection;
+	}
+
+	/**
+	 * Bind a newly borrowed {@link Connection} to the scope.
 	 * 
+	 * @param scope
+	 *            The scope of the calling Thread, null if none.
 	 * @param connection
-	 *            The {@link Connection} to validate.
+	 *            The {@link Connection} borrowed.
+	 * @return The {@link Connection}.
+	 */
+	private Connection bind(ConnectionScope scope, Connection connection) {
+		if (scope != null) {
+			scope.connection = connection;
+			scope.references = 1;
+		}
+		return connection;
+	}
+
+	/**
+	 * Asynchronously gets a {@link Connection} from the connection pool. The
+	 * returned future is already complete when an idle {@link Connection}
+	 * exists or space is available in the pool. Else, the caller joins the end
+	 * of the waiting queue and the future is completed by the Thread releasing
+	 * a {@link Connection} to it. </p> Dependent stages that are not
+	 * <i>async</i> run on the releasing Thread. A caller no longer interested
+	 * in the {@link Connection} must cancel the future; if cancellation fails
+	 * the {@link Connection} is on lease and must be released.
+	 * 
+	 * @return A future completed with a leased {@link Connection}.
+	 */
+	public CompletableFuture<Connection> getConnectionAsync() {
+		return getConnectionAsync(BorrowPriority.NORMAL, NO_DEADLINE);
+	}
+
+	/**
+	 * Borrow a {@link Connection}, without allocating when one is available
+	 * right away.
+	 * 
+	 * @param timeoutNanos
+	 *            The length of time to wait, Long.MAX_VALUE to wait
+	 *            indefinitely.
+	 * @return The borrowed connection.
 	 * @throws SQLException
-	 *             Thrown if the {@link Connection} is null or not associated
-	 *             with this pool.
+	 *             Thrown if the blocking wait is interrupted or timed out.
 	 */
-	private void throwExceptionIfUnknown(Connection connection)
-			throws SQLException {
-		if (connection == null) {
-			IllegalArgumentException exception = new IllegalArgumentException(
-					"A null connection is not valid.");
-			throw new SQLException(exception);
-		} else if (!leasedConnectionStartTime.containsKey(connection)) {
-			connection.close();
-			IllegalArgumentException exception = new IllegalArgumentException(
-					"The connection is not recognized by the pool.");
-			throw new SQLException(exception);
+	private Connection borrow(long timeoutNanos) throws SQLException {
+		throwIfShutdown();
+		long start = System.nanoTime();
+		LeakDetector.BorrowSite borrowSite = captureBorrowSite();
+		PooledConnection pooled = pollWithoutWaiting();
+		if (pooled != null) {
+			return leaseNow(pooled, borrowSite, start);
 		}
+		throwIfCreationSuspended();
+		return awaitConnection(enqueue(newWaiter(start, borrowSite)),
+				timeoutNanos);
 	}
 
 	/**
-	 * @return the connectionFactory
+	 * Fail every waiting caller, the pool being shut down.
 	 */
-	private ConnectionFactory getConnectionFactory() {
-		return connectionFactory;
+	private void failWaiters() {
+		Waiter waiter;
+		while ((waiter = waiters.poll()) != null) {
+			countDequeued(waiter);
+			waiter.completeExceptionally(newShutdownException());
+		}
 	}
 
 	/**
-	 * @param connectionFactory
-	 *            the connectionFactory to set
+	 * Close the idle {@link Connection}s of an older generation, replacing
+	 * each before closing the next so that the pool stays ready.
 	 */
-	public void setConnectionFactory(ConnectionFactory connectionFactory) {
-		this.connectionFactory = connectionFactory;
+	private void replaceOldGeneration() {
+		int current = generation.get();
+		int replaced = 0;
+		for (PooledConnection pooled : idleConnections.snapshot(false)) {
+			if (shutdown) {
+				return;
+			} else if (pooled.generation != current
+					&& idleConnections.remove(pooled)) {
+				destroy(pooled);
+				replaced++;
+				if (tryReserveSlot()) {
+					if (creator != null) {
+						submitCreate();
+					} else {
+						pendingCreates.incrementAndGet();
+						createAheadOfDemand();
+					}
+				}
+			}
+		}
+		// The freed space can be used to serve a waiting caller.
+		dispatchToWaiters();
+		LOG.info("Replaced " + replaced
+				+ " idle connections of an older generation.");
+	}
+
+	/**
+	 * Stop the Threads of the pool and close its {@link Connection}s, idle or
+	 * still on lease. Only the first call has an effect.
+	 */
+	private void closeAll() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		maintenance.shutdownNow();
+		synchronized (this) {
+			if (batchCreator != null) {
+				batchCreator.shutdownNow();
+			}
+		}
+		if (creator != null) {
+			creator.shutdownNow();
+		}
+		HashedTimingWheel reaper = leaseReaper;
+		if (reaper != null) {
+			reaper.stop();
+		}
+		PooledConnection pooled;
+		int closedCount = 0;
+		while ((pooled = idleConnections.pollFirst()) != null) {
+			destroy(pooled);
+			closedCount++;
+		}
+		for (int slot = 0; slot < leases.getSlotCount(); ++slot) {
+			pooled = leases.getLeaseStart(slot) == 0 ? null : leases.get(slot);
+			if (pooled != null && revokeLease(pooled) != 0) {
+				LOG.warn("Lease still held at shutdown. Resource is being released from the pool.");
+				destroy(pooled);
+				closedCount++;
+			}
+		}
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+						mbeanName);
+			} catch (JMException e) {
+				LOG.warn("Failed to unregister the pool " + jmxName
+						+ " from JMX.", e);
+			}
+		}
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				LOG.warn("Failed to close the event journal " + journalFile
+						+ ".", e);
+			}
+		}
+		LOG.info("Pool shut down, " + closedCount + " connections closed.");
+	}
+
+	/**
+	 * @return the stack of the borrower if leaks are detected and this borrow
+	 *         is sampled, otherwise null.
+	 */
+	private LeakDetector.BorrowSite captureBorrowSite() {
+		return leakDetector == null ? null : leakDetector.capture();
+	}
+
+	/**
+	 * Take an idle {@link Connection}, or create one when space is available
+	 * and no creator Threads are configured. Only barge past the waiting
+	 * callers when there are none.
+	 * 
+	 * @return A {@link PooledConnection} not on lease, null if the caller
+	 *         must wait.
+	 */
+	private PooledConnection pollWithoutWaiting() {
+		if (waiterCount.get() > 0) {
+			return null;
+		}
+		PooledConnection pooled = pollIdleConnection();
+		return pooled == null && creator == null ? tryCreateNewConnection()
+				: pooled;
+	}
+
+	/**
+	 * Lease a {@link Connection} to a caller which did not wait.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} taken for the caller.
+	 * @param borrowSite
+	 *            The stack of the borrower, null if not captured.
+	 * @param start
+	 *            The {@link System#nanoTime()} at which the borrow started.
+	 * @return The {@link Connection} to hand to the borrower.
+	 */
+	private Connection leaseNow(PooledConnection pooled,
+			LeakDetector.BorrowSite borrowSite, long start) {
+		Connection connection = lease(pooled, borrowSite);
+		fireConnectionBorrowed(pooled, Thread.currentThread().getId(),
+				System.nanoTime() - start);
+		if (creator != null && idleConnections.size() < minIdle) {
+			fillPool();
+		}
+		return connection;
+	}
+
+	/**
+	 * Refuse a borrower once the pool is shut down.
+	 * 
+	 * @throws SQLNonTransientConnectionException
+	 *             Thrown if the pool is shut down.
+	 */
+	private void throwIfShutdown() throws SQLNonTransientConnectionException {
+		if (shutdown) {
+			throw newShutdownException();
+		}
+	}
+
+	/**
+	 * @return the failure of a borrower refused, or a waiting caller failed,
+	 *         by a pool shut down; not transient, as retrying cannot succeed.
+	 */
+	private SQLNonTransientConnectionException newShutdownException() {
+		return new SQLNonTransientConnectionException(
+				"The pool is shut down.");
+	}
+
+	/**
+	 * Fail a borrower fast while the circuit of the creations is open and it
+	 * would wait for a {@link Connection} to be created. When the creator
+	 * Threads create the {@link Connection}s, the probing creation is started
+	 * on them if it is due.
+	 * 
+	 * @throws SQLTransientConnectionException
+	 *             Thrown if the database is deemed unreachable.
+	 */
+	private void throwIfCreationSuspended()
+			throws SQLTransientConnectionException {
+		if (creationGate.isOpen() && size.get() < poolLimit) {
+			if (creator != null && tryReserveSlot()) {
+				submitCreate();
+			}
+			throw new SQLTransientConnectionException(
+					"Connection creation failed "
+							+ creationGate.getConsecutiveFailures()
+							+ " times in a row, the database is deemed unreachable.");
+		}
+	}
+
+	/**
+	 * Retry the creations held back by the creation gate once the backoff has
+	 * passed, for the callers waiting and to keep minIdle connections idle.
+	 */
+	private void scheduleCreationRetry() {
+		if (creationRetryScheduled.compareAndSet(false, true)) {
+			maintenance.schedule(new Runnable() {
+				@Override
+				public void run() {
+					creationRetryScheduled.set(false);
+					try {
+						if (creator != null) {
+							fillPool();
+						} else {
+							dispatchToWaiters();
+						}
+					} catch (RuntimeException e) {
+						LOG.warn("Failed to create a connection for the pool.",
+								e);
+					}
+				}
+			}, creationGate.getRetryDelayNanos(), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * @param start
+	 *            The {@link System#nanoTime()} at which the borrow started.
+	 * @param borrowSite
+	 *            The stack of the borrower, null if not captured.
+	 * @return The future of a caller of normal priority without deadline.
+	 */
+	private Waiter newWaiter(long start, LeakDetector.BorrowSite borrowSite) {
+		return new Waiter(start, borrowSite, BorrowPriority.NORMAL,
+				waiterSequence.incrementAndGet());
+	}
+
+	/**
+	 * A {@link Connection} is released, by Little's law, every median lease
+	 * hold over the number of leases, and a caller is served once one is
+	 * released for each caller queued ahead of it at the same or a higher
+	 * priority. A deadline sooner than that cannot be met, a deadline is
+	 * always deemed met until enough leases were measured.
+	 * 
+	 * @param waiter
+	 *            A caller with a deadline, not yet queued.
+	 * @return false if the deadline of the caller cannot be met.
+	 */
+	private boolean canMeetDeadline(Waiter waiter) {
+		long remaining = waiter.deadlineNanos - System.nanoTime();
+		if (remaining <= 0) {
+			return false;
+		}
+		startHoldEstimate();
+		long medianHold = medianHoldNanos;
+		if (medianHold == 0) {
+			return true;
+		}
+		long ahead = 0;
+		for (int i = 0; i <= waiter.priority.ordinal(); ++i) {
+			ahead += waiterCountByPriority[i].get();
+		}
+		int leased = Math.max(1, leases.getLeasedCount());
+		return remaining / (ahead + 1) >= medianHold / leased;
+	}
+
+	/**
+	 * Take the median lease hold on a maintenance tick from the first
+	 * deadline borrow on, rather than on each borrow.
+	 */
+	private void startHoldEstimate() {
+		if (!holdEstimateStarted.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					estimateHold();
+				}
+			}, 0, HOLD_ESTIMATE_INTERVAL, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// The pool shut down meanwhile.
+		}
+	}
+
+	/**
+	 * Take the median lease hold used to estimate deadlines, once enough
+	 * leases were measured.
+	 */
+	void estimateHold() {
+		LatencyHistogram holds = metrics.getLeaseHold();
+		if (holds.getCount() >= MIN_HOLDS_FOR_ESTIMATE) {
+			// At least a nanosecond, 0 standing for no estimate.
+			medianHoldNanos = Math.max(1, holds.getPercentile(50));
+		}
+	}
+
+	/**
+	 * Fail the waiting caller once its deadline passes, unless it is served
+	 * or failed before. Without it a caller would only learn of its missed
+	 * deadline from the next release.
+	 * 
+	 * @param waiter
+	 *            A queued caller with a deadline.
+	 */
+	private void scheduleExpiry(final Waiter waiter) {
+		final Future<?> expiry;
+		try {
+			expiry = maintenance.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// Once taken from the queue, the hand off decides.
+					if (waiters.remove(waiter)) {
+						countDequeued(waiter);
+						failMissedDeadline(waiter);
+					}
+				}
+			}, waiter.deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// The pool shut down meanwhile, failing its waiters.
+			return;
+		}
+		waiter.whenComplete(new BiConsumer<Connection, Throwable>() {
+			@Override
+			public void accept(Connection connection, Throwable failure) {
+				expiry.cancel(false);
+			}
+		});
+	}
+
+	/**
+	 * Fail a waiting caller whose deadline can no longer be met.
+	 * 
+	 * @param waiter
+	 *            The waiting caller, no longer queued.
+	 */
+	private void failMissedDeadline(Waiter waiter) {
+		if (waiter.completeExceptionally(new SQLTimeoutException(
+				"The deadline for a pool connection cannot be met."))) {
+			fireBorrowTimedOut(System.nanoTime() - waiter.startNanos);
+		}
+	}
+
+	/**
+	 * Queue a caller which must wait for a {@link Connection}.
+	 * 
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 * @return The waiter.
+	 */
+	private Waiter enqueue(Waiter waiter) {
+		waiterCount.incrementAndGet();
+		waiterCountByPriority[waiter.priority.ordinal()].incrementAndGet();
+		waiters.offer(waiter);
+		if (shutdown) {
+			// Queued as the pool shut down, after the waiters were failed.
+			failWaiters();
+		}
+		// A connection may have been released before this caller was queued.
+		dispatchToWaiters();
+		return waiter;
+	}
+
+	/**
+	 * Releases a {@link Connection} back into the connection pool. If the
+	 * {@link Connection} is part of the pool, revoke the lease and recycle the
+	 * connection; handing it directly to the oldest waiting caller when one
+	 * exists.
+	 * 
+	 * @param connection
+	 *            The {@link Connection} being released back into the connection
+	 *            pool.
+	 * @throws SQLException
+	 *             Thrown when the {@link Connection} is unknown.
+	 */
+	@Override
+	public void releaseConnection(Connection connection) throws SQLException {
+		ConnectionScope scope = currentScope();
+		if (scope != null && scope.connection == connection
+				&& connection != null) {
+			if (--scope.references > 0) {
+				return;
+			}
+			scope.connection = null;
+		}
+		PooledConnection pooled = throwExceptionIfUnknown(connection);
+		long start = revokeLease(pooled);
+		// The lease may have been reaped since.
+		if (start != 0) {
+			long holdNanos = System.nanoTime() - start;
+			if (pooled.leakReported) {
+				LOG.info("Connection suspected of leaking was released after "
+						+ TimeUnit.NANOSECONDS.toMillis(holdNanos) + "ms.");
+			}
+			fireConnectionReleased(pooled, holdNanos);
+			tryRecycleConnection(pooled);
+		}
+	}
+
+	/**
+	 * Replace every {@link Connection} of the pool, as after a failover of
+	 * the database or a rotation of its credentials, without the borrowers
+	 * reconnecting all at once. The generation of the pool is raised: idle
+	 * {@link Connection}s of an older generation are closed and replaced one
+	 * at a time on the maintenance Thread, and leased ones are closed when
+	 * released instead of being recycled. A {@link Connection} whose creation
+	 * was under way is replaced too.
+	 */
+	@Override
+	public void softEvictAll() {
+		if (shutdown) {
+			return;
+		}
+		int evicted = generation.incrementAndGet() - 1;
+		LOG.info("Soft evicting the connections of generation " + evicted
+				+ " and older.");
+		try {
+			maintenance.execute(new Runnable() {
+				@Override
+				public void run() {
+					replaceOldGeneration();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The pool shut down meanwhile.
+		}
+	}
+
+	/**
+	 * Stop new borrows, wait for the leases to end, then close every
+	 * {@link Connection} and Thread of the pool. Waiting callers and
+	 * borrowers arriving from now on fail with a
+	 * {@link SQLNonTransientConnectionException}; {@link Connection}s
+	 * released meanwhile are closed. The leases still held once the timeout
+	 * passes are revoked and their {@link Connection}s closed.
+	 * 
+	 * @param timeout
+	 *            The maximum length of time to wait for the leases to end.
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 * @return true if every lease ended in time.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting; the pool is closed
+	 *             regardless.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		shutdown = true;
+		failWaiters();
+		boolean drainedInTime = false;
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			// Also woken up periodically, for the leases reaped.
+			long period = TimeUnit.MILLISECONDS.toNanos(100);
+			synchronized (drained) {
+				long remaining;
+				while (leases.getLeasedCount() > 0
+						&& (remaining = deadline - System.nanoTime()) > 0) {
+					TimeUnit.NANOSECONDS.timedWait(drained,
+							Math.min(remaining, period));
+				}
+			}
+			drainedInTime = leases.getLeasedCount() == 0;
+		} finally {
+			closeAll();
+		}
+		return drainedInTime;
+	}
+
+	/**
+	 * Apply a new configuration to the pool while it is in use, typically
+	 * pushed by a {@link PropertiesFileWatcher}. Only the maxPoolSize,
+	 * borrowTimeoutInterval and leaseTerm are applied, the other properties
+	 * are ignored. </p> When the pool shrinks idle {@link Connection}s are
+	 * closed at once and leased ones as they are released; when it grows the
+	 * waiting callers are served at once. A new lease term applies to the
+	 * leases granted from now on. Borrowers in flight are not blocked.
+	 * A pool shut down ignores it.
+	 * 
+	 * @param properties
+	 *            The java {@link Properties} holding the new configuration.
+	 */
+	@Override
+	public void reconfigure(Properties properties) {
+		synchronized (this) {
+			if (shutdown
+					|| !ConfigurationReader.reloadConfigurations(properties,
+							BlockingConnectionPool.class, this)) {
+				return;
+			}
+			if (leaseTerm > 0 && leaseReaper == null) {
+				startLeaseReaper();
+			}
+			if (sizingController != null) {
+				sizingController.setMaxPoolSize(maxPoolSize);
+				poolLimit = sizingController.bound(poolLimit);
+			} else {
+				poolLimit = maxPoolSize;
+			}
+			LOG.info("Pool reconfigured, the pool limit is " + poolLimit
+					+ ".");
+		}
+		// Closing and creating connections is done outside the lock.
+		retireSurplus();
+		dispatchToWaiters();
+	}
+
+	/**
+	 * Have the proxies handed out release into another pool, one that
+	 * borrows from this pool and tracks the leases too, such as a
+	 * {@link RoutingConnectionPool}. The owner releases the proxy back into
+	 * this pool.
+	 * 
+	 * @param owner
+	 *            The {@link ConnectionPool} closing a proxy releases into.
+	 */
+	void setProxyOwner(ConnectionPool owner) {
+		proxyOwner = owner;
+	}
+
+	/**
+	 * Register a listener of the pool's events.
+	 * 
+	 * @param listener
+	 *            The {@link ConnectionPoolListener} to notify.
+	 */
+	public synchronized void addListener(ConnectionPoolListener listener) {
+		ConnectionPoolListener[] current = listeners;
+		ConnectionPoolListener[] updated = Arrays.copyOf(current,
+				current.length + 1);
+		updated[current.length] = listener;
+		listeners = updated;
+	}
+
+	/**
+	 * Stop notifying a listener of the pool's events.
+	 * 
+	 * @param listener
+	 *            The {@link ConnectionPoolListener} to remove.
+	 */
+	public synchronized void removeListener(ConnectionPoolListener listener) {
+		List<ConnectionPoolListener> updated = new ArrayList<ConnectionPoolListener>(
+				Arrays.asList(listeners));
+		if (listener != metrics && updated.remove(listener)) {
+			listeners = updated.toArray(new ConnectionPoolListener[updated
+					.size()]);
+		}
+	}
+
+	/**
+	 * @return the latencies and counts of the pool's events.
+	 */
+	public PoolMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public int getSize() {
+		return size.get();
+	}
+
+	@Override
+	public boolean isCreationCircuitOpen() {
+		return creationGate.isOpen();
+	}
+
+	@Override
+	public int getGeneration() {
+		return generation.get();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public int getPoolLimit() {
+		return poolLimit;
+	}
+
+	@Override
+	public int getIdleCount() {
+		return idleConnections.size();
+	}
+
+	@Override
+	public int getLeasedCount() {
+		return leases.getLeasedCount();
+	}
+
+	@Override
+	public int getWaitingCount() {
+		return waiterCount.get();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		return metrics.getTimeoutCount();
+	}
+
+	/**
+	 * @return the number of leases reaped, and their {@link Connection}s
+	 *         closed, because their lease term expired.
+	 */
+	@Override
+	public long getReapedLeaseCount() {
+		return metrics.getReapedLeaseCount();
+	}
+
+	@Override
+	public long getCreateFailureCount() {
+		return metrics.getCreateFailureCount();
+	}
+
+	@Override
+	public long getValidationFailureCount() {
+		return metrics.getValidationFailureCount();
+	}
+
+	@Override
+	public long getDestroyedCount() {
+		return metrics.getDestroyedCount();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getBorrowWait() {
+		return metrics.getBorrowWait().getSnapshot();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getLeaseHold() {
+		return metrics.getLeaseHold().getSnapshot();
+	}
+
+	@Override
+	public LatencyHistogram.Snapshot getConnectionCreate() {
+		return metrics.getConnectionCreate().getSnapshot();
+	}
+
+	@Override
+	public void resetMetrics() {
+		metrics.reset();
+		if (leakDetector != null) {
+			leakDetector.reset();
+		}
+	}
+
+	@Override
+	public long getSuspectedLeakCount() {
+		return leakDetector == null ? 0 : leakDetector.getLeakCount();
+	}
+
+	@Override
+	public Map<String, Long> getSuspectedLeaksBySite() {
+		return leakDetector == null ? Collections.<String, Long> emptyMap()
+				: leakDetector.getLeakCountsBySite();
+	}
+
+	/**
+	 * @return the number of prepared statements served from a statement
+	 *         cache.
+	 */
+	public long getStatementCacheHitCount() {
+		return statementCacheHits.sum();
+	}
+
+	/**
+	 * @return the number of prepared statements prepared by the driver
+	 *         because no cached statement was available.
+	 */
+	public long getStatementCacheMissCount() {
+		return statementCacheMisses.sum();
+	}
+
+	private void runDeamonThreads() {
+		poolLimit = maxPoolSize;
+		if (!journalFile.isEmpty()) {
+			try {
+				journal = new EventJournal(Paths.get(journalFile),
+						journalCapacity);
+			} catch (IOException e) {
+				LOG.warn("Failed to open the event journal " + journalFile
+						+ ", the events of the pool are not recorded.", e);
+			}
+		}
+		creationGate = new CreationGate(maxConcurrentCreates,
+				createBackoffInitial, createBackoffMax, timeUnits,
+				circuitBreakerThreshold);
+		if (adaptiveSizing) {
+			sizingController = new AdaptiveSizingController(minPoolSize,
+					minIdle, maxPoolSize, targetBorrowWait, timeUnits);
+			poolLimit = sizingController.bound(Math.max(minPoolSize,
+					initialSize));
+			addListener(sizingController);
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				private long last = System.nanoTime();
+
+				@Override
+				public void run() {
+					long now = System.nanoTime();
+					adjustPoolLimit(now - last);
+					last = now;
+				}
+			}, adaptiveSizingInterval, adaptiveSizingInterval, timeUnits);
+		}
+		if (leakDetectionThreshold > 0) {
+			leakDetector = new LeakDetector(leakDetectionThreshold, timeUnits,
+					leakDetectionSampling);
+			// Leaks are reported within one and a half thresholds.
+			long period = Math.max(1, leakDetectionThreshold / 2);
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					detectLeaks();
+				}
+			}, period, period, timeUnits);
+		}
+		if (leaseTerm > 0) {
+			startLeaseReaper();
+		}
+		if (validationPolicy == ValidationPolicy.BACKGROUND) {
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					validateIdleConnections();
+				}
+			}, validationInterval, validationInterval, timeUnits);
+		}
+		if (idleTimeout > 0) {
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleConnections();
+				}
+			}, evictionInterval, evictionInterval, timeUnits);
+		}
+		if (initialSize > 0 || minIdle > 0) {
+			creator = new ThreadPoolExecutor(creatorThreads, creatorThreads,
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new DaemonThreadFactory("BlockingConnectionPool-creator"));
+			creator.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	/**
+	 * Start the wheel expiring the leases.
+	 */
+	private void startLeaseReaper() {
+		// Leases are spread over the wheel by their expiry, a full rotation
+		// covers one lease term.
+		int buckets = (int) Math.min(1 << 16,
+				Math.max(1, leaseTerm / leaseReaperTickInterval));
+		leaseReaper = new HashedTimingWheel(
+				"BlockingConnectionPool-lease-reaper",
+				leaseReaperTickInterval, timeUnits, buckets);
+	}
+
+	/**
+	 * @return a count of queued callers for each {@link BorrowPriority}.
+	 */
+	private static AtomicInteger[] newWaiterCounts() {
+		AtomicInteger[] counts = new AtomicInteger[BorrowPriority.values()
+				.length];
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] = new AtomicInteger(0);
+		}
+		return counts;
+	}
+
+	/**
+	 * Count a caller taken from the waiters queue.
+	 * 
+	 * @param waiter
+	 *            A caller no longer queued.
+	 */
+	private void countDequeued(Waiter waiter) {
+		waiterCount.decrementAndGet();
+		waiterCountByPriority[waiter.priority.ordinal()].decrementAndGet();
+	}
+
+	/**
+	 * @return the single daemon Thread executor running the periodic upkeep
+	 *         of the pool, its Thread started on first use.
+	 */
+	private static ScheduledExecutorService newMaintenance() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+				1, new DaemonThreadFactory("BlockingConnectionPool-maintenance"));
+		// The expiries of the callers served in time are dropped.
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	/**
+	 * Register the pool with the platform MBean server when it has a jmxName.
+	 * A failure to register is logged, the pool works without it.
+	 */
+	private void registerMBean() {
+		if (jmxName == null || jmxName.isEmpty()) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName(getClass().getPackage()
+					.getName()
+					+ ":type=BlockingConnectionPool,name="
+					+ ObjectName.quote(jmxName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					name);
+			mbeanName = name;
+		} catch (JMException e) {
+			LOG.warn("Failed to register the pool " + jmxName + " with JMX.",
+					e);
+		}
+	}
+
+	/**
+	 * Create the initialSize connections, and those needed to reach minIdle,
+	 * on the creator Threads.
+	 */
+	private void prewarm() {
+		int created = 0;
+		for (; created < initialSize && tryReserveSlot(); ++created) {
+			submitCreate();
+		}
+		LOG.info("Prewarming the pool with " + created + " connections.");
+		fillPool();
+	}
+
+	/**
+	 * Reserve space for, and create on the creator Threads, the connections
+	 * needed to serve every waiting caller and keep minIdle connections idle;
+	 * counting those already being created.
+	 */
+	private void fillPool() {
+		while (minIdle - idleConnections.size() + waiterCount.get()
+				- pendingCreates.get() > 0
+				&& tryReserveSlot()) {
+			submitCreate();
+		}
+	}
+
+	/**
+	 * Create a connection, in space already reserved, on a creator Thread.
+	 */
+	private void submitCreate() {
+		pendingCreates.incrementAndGet();
+		creator.execute(new Runnable() {
+			@Override
+			public void run() {
+				createAheadOfDemand();
+			}
+		});
+	}
+
+	/**
+	 * Create a connection in space already reserved and hand it to a waiting
+	 * caller or the idle list. On failure the space is released.
+	 */
+	private void createAheadOfDemand() {
+		try {
+			PooledConnection pooled = null;
+			try {
+				pooled = createPooledConnection();
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to create a connection for the pool.", e);
+				if (waitPolicy == WaitPolicy.SIGNAL) {
+					failOldestWaiter(e);
+				}
+			} finally {
+				if (pooled == null) {
+					size.decrementAndGet();
+				}
+			}
+			if (pooled != null) {
+				returnToPool(pooled);
+			} else {
+				scheduleCreationRetry();
+			}
+		} finally {
+			pendingCreates.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Record the lease of the {@link Connection} and schedule its expiry.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} being leased.
+	 * @param borrowSite
+	 *            The stack of the borrower, null if not captured.
+	 * @return The {@link Connection} to hand to the borrower.
+	 */
+	private Connection lease(final PooledConnection pooled,
+			LeakDetector.BorrowSite borrowSite) {
+		pooled.borrowSite = borrowSite;
+		pooled.leakReported = false;
+		pooled.proxy = proxyConnections ? new ConnectionProxy(proxyOwner,
+				pooled) : null;
+		pooled.expiry = null;
+		final long start = leases.lease(pooled);
+		HashedTimingWheel reaper = leaseReaper;
+		long term = leaseTerm;
+		if (reaper != null && term > 0) {
+			pooled.expiry = reaper.schedule(new Runnable() {
+				@Override
+				public void run() {
+					reap(pooled, start);
+				}
+			}, term, timeUnits);
+		}
+		return pooled.proxy == null ? pooled.connection : pooled.proxy
+				.getProxy();
+	}
+
+	/**
+	 * Wrap a {@link Connection} new to the pool.
+	 * 
+	 * @param connection
+	 *            The {@link Connection} created by the factory.
+	 * @return The pool's bookkeeping of the {@link Connection}.
+	 */
+	private PooledConnection newPooledConnection(Connection connection) {
+		StatementCache statements = null;
+		if (proxyConnections && statementCacheSize > 0) {
+			statements = new StatementCache(statementCacheSize,
+					statementCacheEviction, statementCacheHits,
+					statementCacheMisses);
+		}
+		PooledConnection pooled = new PooledConnection(connection, statements);
+		leases.register(pooled);
+		return pooled;
+	}
+
+	/**
+	 * Remove the lease of the {@link Connection} and cancel its expiry.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} no longer on lease.
+	 * @return The start of the lease revoked, 0 if the {@link Connection} was
+	 *         not on lease.
+	 */
+	private long revokeLease(PooledConnection pooled) {
+		long start = leases.revoke(pooled);
+		if (start != 0) {
+			endLease(pooled);
+		}
+		return start;
+	}
+
+	/**
+	 * Cancel the expiry of a lease revoked, and invalidate its proxy.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} no longer on lease.
+	 */
+	private void endLease(PooledConnection pooled) {
+		if (pooled.expiry != null) {
+			pooled.expiry.cancel();
+		}
+		if (pooled.proxy != null) {
+			pooled.proxy.invalidate();
+		}
+	}
+
+	/**
+	 * Close the {@link Connection} of an expired lease unless it was released
+	 * in the meantime. The space it held is used to serve waiting callers.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} whose lease expired.
+	 * @param start
+	 *            The start of the expired lease.
+	 */
+	private void reap(PooledConnection pooled, long start) {
+		if (!leases.revoke(pooled, start)) {
+			return;
+		}
+		if (pooled.proxy != null) {
+			pooled.proxy.invalidate();
+		}
+		long holdNanos = System.nanoTime() - start;
+		fireLeaseReaped(pooled, holdNanos);
+		LOG.warn("Lease on connection held for "
+				+ TimeUnit.NANOSECONDS.toMillis(holdNanos)
+				+ "ms expired. Resource is being released from the pool.");
+		destroy(pooled);
+		dispatchToWaiters();
+	}
+
+	/**
+	 * Remove the {@link PooledConnection} from the pool and close it. The
+	 * space it held is not used to serve waiting callers.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} neither idle nor on lease.
+	 */
+	private void destroy(PooledConnection pooled) {
+		fireConnectionDestroyed(pooled);
+		leases.unregister(pooled);
+		size.decrementAndGet();
+		if (pooled.statements != null) {
+			pooled.statements.clear();
+		}
+		try {
+			pooled.connection.close();
+		} catch (SQLException e) {
+			LOG.warn("Failed to close a connection removed from the pool.", e);
+		}
+	}
+
+	/**
+	 * Validate the {@link Connection}, a failure to determine its validity
+	 * deems it invalid.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} to validate.
+	 * @return true if the {@link Connection} is valid.
+	 */
+	private boolean validate(PooledConnection pooled) {
+		try {
+			if (pooled.connection.isValid(validationTimeoutInSeconds)) {
+				pooled.lastValidated = System.nanoTime();
+				return true;
+			}
+		} catch (SQLException e) {
+			LOG.debug("Failed to validate a connection.", e);
+		}
+		fireValidationFailed(pooled);
+		return false;
+	}
+
+	/**
+	 * Take a {@link Connection} from the idle list. With the
+	 * ON_BORROW_IF_IDLE policy, a {@link Connection} idle for too long is
+	 * validated first and discarded when invalid.
+	 * 
+	 * @return An idle connection, null if none is idle.
+	 */
+	private PooledConnection pollIdleConnection() {
+		PooledConnection pooled;
+		while ((pooled = idleConnections.pollFirst()) != null) {
+			if (pooled.generation != generation.get()) {
+				// Not yet replaced by the soft eviction.
+				destroy(pooled);
+				continue;
+			}
+			if (validationPolicy != ValidationPolicy.ON_BORROW_IF_IDLE
+					|| System.nanoTime() - pooled.idleSince < timeUnits
+							.toNanos(validationInterval) || validate(pooled)) {
+				return pooled;
+			}
+			LOG.info("Idle connection is no longer valid. Resource is being released from the pool.");
+			destroy(pooled);
+		}
+		return null;
+	}
+
+	/**
+	 * Validate a batch of the {@link Connection}s idle for longer than the
+	 * validation interval. Those being validated are taken out of the idle
+	 * list, those found invalid are discarded.
+	 */
+	private void validateIdleConnections() {
+		long interval = timeUnits.toNanos(validationInterval);
+		long now = System.nanoTime();
+		List<PooledConnection> batch = new ArrayList<PooledConnection>(
+				validationBatchSize);
+		for (PooledConnection pooled : idleConnections.snapshot(false)) {
+			if (batch.size() >= validationBatchSize) {
+				break;
+			} else if (now - pooled.lastValidated >= interval
+					&& idleConnections.remove(pooled)) {
+				batch.add(pooled);
+			}
+		}
+		for (PooledConnection pooled : batch) {
+			if (validate(pooled)) {
+				returnToPool(pooled);
+			} else {
+				LOG.info("Idle connection is no longer valid. Resource is being released from the pool.");
+				destroy(pooled);
+			}
+		}
+		// The freed space can be used to serve a waiting caller.
+		dispatchToWaiters();
+	}
+
+	/**
+	 * Report the leases held past the leak detection threshold, each once.
+	 */
+	private void detectLeaks() {
+		long now = System.nanoTime();
+		for (int slot = 0; slot < leases.getSlotCount(); ++slot) {
+			long start = leases.getLeaseStart(slot);
+			PooledConnection pooled = start == 0 ? null : leases.get(slot);
+			if (pooled != null && !pooled.leakReported
+					&& now - start >= leakDetector.getThresholdNanos()) {
+				pooled.leakReported = true;
+				leakDetector.report(now - start, pooled.borrowSite);
+				fireLeakSuspected(now - start, pooled.borrowSite);
+			}
+		}
+	}
+
+	/**
+	 * Apply the decision of the adaptive sizing on the measurements of the
+	 * last interval. A lowered limit closes idle {@link Connection}s above
+	 * it, the rest are closed as they are released; a raised limit is used
+	 * to serve waiting callers.
+	 * 
+	 * @param intervalNanos
+	 *            The length of time since the last decision.
+	 */
+	private void adjustPoolLimit(long intervalNanos) {
+		SizingDecision decision = sizingController.decide(intervalNanos,
+				poolLimit, waiterCount.get());
+		poolLimit = decision.getLimit();
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Pool sizing decision: " + decision);
+		}
+		fireSizingDecided(decision);
+		retireSurplus();
+		dispatchToWaiters();
+	}
+
+	/**
+	 * Close idle {@link Connection}s, coldest first, while the pool holds
+	 * more than its limit. The {@link Connection}s on lease are closed as they
+	 * are released.
+	 */
+	private void retireSurplus() {
+		PooledConnection pooled;
+		while (size.get() > poolLimit
+				&& (pooled = idleOrder == IdleOrder.LIFO ? idleConnections
+						.pollLast() : idleConnections.pollFirst()) != null) {
+			destroy(pooled);
+		}
+	}
+
+	/**
+	 * Close the {@link Connection}s idle for longer than the idle timeout,
+	 * from the cold end of the idle list, keeping minIdle {@link Connection}s
+	 * idle.
+	 */
+	private void evictIdleConnections() {
+		long timeout = timeUnits.toNanos(idleTimeout);
+		long now = System.nanoTime();
+		Iterator<PooledConnection> coldestFirst = idleConnections.snapshot(
+				idleOrder == IdleOrder.LIFO).iterator();
+		int evicted = 0;
+		while (coldestFirst.hasNext() && idleConnections.size() > minIdle) {
+			PooledConnection pooled = coldestFirst.next();
+			if (now - pooled.idleSince >= timeout
+					&& idleConnections.remove(pooled)) {
+				destroy(pooled);
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			LOG.debug("Evicted " + evicted + " idle connections.");
+		}
+	}
+
+	/**
+	 * Place the {@link Connection} into the idle list, at the end reused next
+	 * if the idleOrder is LIFO.
+	 * 
+	 * @param pooled
+	 *            A valid {@link PooledConnection} not on lease.
+	 */
+	private void offerIdle(PooledConnection pooled) {
+		if (idleOrder == IdleOrder.LIFO) {
+			idleConnections.offerFirst(pooled);
+		} else {
+			idleConnections.offerLast(pooled);
+		}
+	}
+
+	/**
+	 * Thread-safe implementation to create a new {@link Connection} when space
+	 * is available in the connection pool.
+	 * 
+	 * @return A connection if spaces is available, null otherwise.
+	 */
+	private PooledConnection tryCreateNewConnection() {
+		return tryReserveSlot() ? createInReservedSlot() : null;
+	}
+
+	/**
+	 * Create {@link Connection}s in space already reserved, in parallel with
+	 * the calling Thread creating one of them. If any creation fails, the
+	 * space of the failures is released, the {@link Connection}s created are
+	 * returned to the pool and the failure thrown.
+	 * 
+	 * @param count
+	 *            The number of {@link Connection}s to create.
+	 * @param created
+	 *            The list the new {@link PooledConnection}s are added to.
+	 * @throws SQLException
+	 *             Thrown if a {@link Connection} could not be created.
+	 */
+	private void createInParallel(int count, List<PooledConnection> created)
+			throws SQLException {
+		if (count == 0) {
+			return;
+		}
+		List<Future<PooledConnection>> futures = new ArrayList<Future<PooledConnection>>(
+				count - 1);
+		for (int i = 1; i < count; ++i) {
+			futures.add(getBatchCreator().submit(
+					new Callable<PooledConnection>() {
+						@Override
+						public PooledConnection call() {
+							return createInReservedSlot();
+						}
+					}));
+		}
+		List<PooledConnection> batch = new ArrayList<PooledConnection>(count);
+		Throwable failure = null;
+		try {
+			batch.add(createInReservedSlot());
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		boolean interrupted = false;
+		for (Future<PooledConnection> future : futures) {
+			while (true) {
+				try {
+					batch.add(future.get());
+					break;
+				} catch (ExecutionException e) {
+					failure = failure == null ? e.getCause() : failure;
+					break;
+				} catch (InterruptedException e) {
+					// The creation must be accounted for either way.
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			for (PooledConnection pooled : batch) {
+				returnToPool(pooled);
+			}
+			throw new SQLException("Pool get connection failed.", failure);
+		}
+		created.addAll(batch);
+	}
+
+	/**
+	 * Create a {@link PooledConnection} in space already reserved, releasing
+	 * the space if the creation fails.
+	 * 
+	 * @return The new {@link PooledConnection}.
+	 */
+	private PooledConnection createInReservedSlot() {
+		PooledConnection pooled = null;
+		try {
+			pooled = createPooledConnection();
+			return pooled;
+		} finally {
+			if (pooled == null) {
+				size.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return the daemon Threads creating the connections missing from a
+	 *         batch, created on first use.
+	 */
+	private synchronized ExecutorService getBatchCreator() {
+		if (batchCreator == null) {
+			batchCreator = Executors.newCachedThreadPool(new DaemonThreadFactory(
+					"BlockingConnectionPool-batch-creator"));
+		}
+		return batchCreator;
+	}
+
+	/**
+	 * Create a {@link Connection} with the connection factory, in space
+	 * already reserved and admitted by the creation gate, timing the
+	 * creation. The outcome is reported to the creation gate.
+	 * 
+	 * @return The pool's bookkeeping of the new {@link Connection}.
+	 * @throws IllegalStateException
+	 *             Thrown if the factory returned no {@link Connection}.
+	 */
+	private PooledConnection createPooledConnection() {
+		long start = System.nanoTime();
+		// A soft eviction during the creation may be meant for it.
+		int createdIn = generation.get();
+		boolean created = false;
+		try {
+			Connection connection = getConnectionFactory().newConnection();
+			if (connection == null) {
+				throw new IllegalStateException(
+						"The connection factory returned no connection.");
+			}
+			PooledConnection pooled = newPooledConnection(connection);
+			pooled.generation = createdIn;
+			created = true;
+			fireConnectionCreated(pooled, System.nanoTime() - start);
+			LOG.debug("New connection added to the pool.");
+			return pooled;
+		} catch (RuntimeException e) {
+			fireConnectionCreateFailed(e);
+			throw e;
+		} finally {
+			if (created) {
+				creationGate.succeeded();
+			} else {
+				creationGate.failed();
+			}
+			if (creationsHeldBack.compareAndSet(true, false)) {
+				scheduleCreationRetry();
+			}
+		}
+	}
+
+	/**
+	 * Thread-safe implementation to reserve space for a new
+	 * {@link Connection} in the connection pool, and have its creation
+	 * admitted by the creation gate. The reservation must be followed by a
+	 * creation.
+	 * 
+	 * @return true if space was reserved, false if the pool is full or the
+	 *         creations are held back.
+	 */
+	private boolean tryReserveSlot() {
+		int limit = poolLimit;
+		if (size.get() < limit) {
+			if (!creationGate.tryAcquire()) {
+				if (creationGate.getRetryDelayNanos() > 0) {
+					scheduleCreationRetry();
+					return false;
+				}
+				// Too many creations at once, the next to end retries. Check
+				// again in case it ended before noticing.
+				creationsHeldBack.set(true);
+				if (!creationGate.tryAcquire()) {
+					return false;
+				}
+			}
+			// Check if multiple threads got past the first if statement.
+			if (size.incrementAndGet() > limit) {
+				// Yep! more than one slipped in.
+				size.decrementAndGet();
+				creationGate.cancel();
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fail the oldest waiting caller, which would otherwise wait for the
+	 * {@link Connection} that could not be created.
+	 * 
+	 * @param cause
+	 *            The failure to create a {@link Connection}.
+	 */
+	private void failOldestWaiter(Throwable cause) {
+		Waiter waiter;
+		while ((waiter = waiters.poll()) != null) {
+			countDequeued(waiter);
+			if (waiter.completeExceptionally(cause)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Block until the waiting caller is handed a {@link Connection} or the
+	 * timeout passes. With the POLL waitPolicy the wait is woken every
+	 * borrowTimeoutInterval to retry the creation of a {@link Connection}, in
+	 * case space became available in the pool without a waiting caller being
+	 * served.
+	 * 
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 * @param timeoutNanos
+	 *            The length of time to wait, Long.MAX_VALUE to wait
+	 *            indefinitely.
+	 * @return The borrowed connection.
+	 * @throws SQLException
+	 *             Thrown if the blocking wait is interrupted or timed out.
+	 */
+	private Connection awaitConnection(CompletableFuture<Connection> waiter,
+			long timeoutNanos) throws SQLException {
+		long interval = waitPolicy == WaitPolicy.POLL ? timeUnits
+				.toNanos(borrowTimeoutInterval) : Long.MAX_VALUE;
+		long start = System.nanoTime();
+		while (true) {
+			long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+					: timeoutNanos - (System.nanoTime() - start);
+			try {
+				long wait = Math.min(interval, remaining);
+				return wait == Long.MAX_VALUE ? waiter.get() : waiter.get(
+						Math.max(0, wait), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				if (remaining <= interval) {
+					abandon(waiter);
+					fireBorrowTimedOut(System.nanoTime() - start);
+					throw new SQLTimeoutException(
+							"Timed out waiting for a pool connection.", e);
+				}
+				fireWaiterWokeUp();
+				dispatchToWaiters();
+			} catch (InterruptedException e) {
+				abandon(waiter);
+				Thread.currentThread().interrupt();
+				throw new SQLException("Pool get connection interupted.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof SQLTimeoutException) {
+					throw new SQLTimeoutException(e.getCause().getMessage(),
+							e.getCause());
+				}
+				throw new SQLException("Pool get connection failed.",
+						e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Withdraw a waiting caller. If a {@link Connection} was handed to it in
+	 * the meantime the {@link Connection} is returned to the pool.
+	 * 
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 */
+	private void abandon(CompletableFuture<Connection> waiter) {
+		if (waiters.remove(waiter)) {
+			countDequeued((Waiter) waiter);
+		}
+		if (!waiter.cancel(false) && !waiter.isCompletedExceptionally()) {
+			PooledConnection pooled = findLeased(waiter.join());
+			if (pooled != null && revokeLease(pooled) != 0) {
+				returnToPool(pooled);
+			}
+		}
+	}
+
+	/**
+	 * Hand the {@link Connection} to the oldest waiting caller, placing it
+	 * into the idle list if no caller is waiting.
+	 * 
+	 * @param pooled
+	 *            A valid {@link PooledConnection} not on lease.
+	 */
+	private void returnToPool(PooledConnection pooled) {
+		if (shutdown) {
+			// Created or validated as the pool shut down.
+			destroy(pooled);
+			return;
+		}
+		if (!handOff(pooled)) {
+			offerIdle(pooled);
+			// A caller may have been queued after the hand off was attempted.
+			dispatchToWaiters();
+		}
+	}
+
+	/**
+	 * Lease the {@link Connection} to the first waiting caller which is still
+	 * waiting, failing those whose deadline passed.
+	 * 
+	 * @param pooled
+	 *            A valid {@link PooledConnection} not on lease.
+	 * @return true if a waiting caller accepted the {@link Connection}.
+	 */
+	private boolean handOff(PooledConnection pooled) {
+		Waiter waiter;
+		while (waiterCount.get() > 0 && (waiter = waiters.poll()) != null) {
+			countDequeued(waiter);
+			if (waiter.hasDeadline
+					&& waiter.deadlineNanos - System.nanoTime() <= 0) {
+				// It would be handed a connection it can no longer use.
+				failMissedDeadline(waiter);
+				continue;
+			}
+			Connection connection = lease(pooled, waiter.borrowSite);
+			if (waiter.complete(connection)) {
+				fireConnectionBorrowed(pooled, waiter.threadId,
+						System.nanoTime() - waiter.startNanos);
+				return true;
+			}
+			// The waiter timed out or was cancelled.
+			revokeLease(pooled);
+		}
+		return false;
+	}
+
+	/**
+	 * Serve waiting callers from the idle list, or with new
+	 * {@link Connection}s while space is available in the pool. New
+	 * {@link Connection}s are created on the creator Threads when those are
+	 * configured. A failure to create a {@link Connection} fails the oldest
+	 * waiting caller rather than the Thread dispatching, which may be
+	 * releasing a {@link Connection} or running maintenance.
+	 */
+	private void dispatchToWaiters() {
+		while (waiterCount.get() > 0 && !waiters.isEmpty()) {
+			PooledConnection pooled = pollIdleConnection();
+			if (pooled == null && creator != null) {
+				fillPool();
+				return;
+			} else if (pooled == null) {
+				try {
+					pooled = tryCreateNewConnection();
+				} catch (RuntimeException e) {
+					// Counted by the listeners of the failed creation.
+					LOG.warn("Failed to create a connection for a waiting caller.",
+							e);
+					failOldestWaiter(e);
+					continue;
+				}
+			}
+			if (pooled == null) {
+				return;
+			} else if (!handOff(pooled)) {
+				offerIdle(pooled);
+			}
+		}
+	}
+
+	/**
+	 * Attempt to reuse the {@link Connection} in the pool. If the
+	 * {@link Connection} is validated on release, as decided by the
+	 * validationPolicy, and is no longer valid then the {@link Connection} is
+	 * closed.
+	 * 
+	 * @param pooled
+	 *            The {@link PooledConnection} to place into the idle list.
+	 */
+	private void tryRecycleConnection(PooledConnection pooled) {
+		pooled.idleSince = System.nanoTime();
+		if (shutdown) {
+			destroy(pooled);
+			synchronized (drained) {
+				drained.notifyAll();
+			}
+		} else if (size.get() > poolLimit) {
+			// The limit was lowered, the pool shrinks as leases end.
+			destroy(pooled);
+		} else if (pooled.generation != generation.get()) {
+			destroy(pooled);
+			// The freed space can be used to serve a waiting caller.
+			dispatchToWaiters();
+		} else if (isValidatedOnRelease(pooled) && !validate(pooled)) {
+			destroy(pooled);
+			LOG.info("Connection from Thread["
+					+ Thread.currentThread().getName()
+					+ "] is no longer valid. Resource is being released from the pool.");
+			// The freed space can be used to serve a waiting caller.
+			dispatchToWaiters();
+		} else {
+			returnToPool(pooled);
+		}
+	}
+
+	/**
+	 * @param pooled
+	 *            The {@link PooledConnection} being released.
+	 * @return true if the validationPolicy requires the {@link Connection} to
+	 *         be validated as it is released.
+	 */
+	private boolean isValidatedOnRelease(PooledConnection pooled) {
+		switch (validationPolicy) {
+		case ON_RELEASE:
+			return true;
+		case ON_RELEASE_IF_STALE:
+			return pooled.idleSince - pooled.lastValidated >= timeUnits
+					.toNanos(validationInterval);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * If the {@link Connection} is not associated with the pool throw an
+	 * {@link SQLException} to that affect.
+	 * 
+	 * @param connection
+	 *            The {@link Connection} to validate.
+	 * @return The {@link PooledConnection} on lease as the {@link Connection}.
+	 * @throws SQLException
+	 *             Thrown if the {@link Connection} is null or not associated
+	 *             with this pool.
+	 */
+	private PooledConnection throwExceptionIfUnknown(Connection connection)
+			throws SQLException {
+		if (connection == null) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"A null connection is not valid.");
+			throw new SQLException(exception);
+		}
+		PooledConnection pooled = findLeased(connection);
+		if (pooled == null) {
+			connection.close();
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"The connection is not recognized by the pool.");
+			throw new SQLException(exception);
+		}
+		return pooled;
+	}
+
+	/**
+	 * @param connection
+	 *            A {@link Connection} handed out by the pool, the proxy if
+	 *            proxied.
+	 * @return The {@link PooledConnection} on lease as the {@link Connection},
+	 *         null if it is not on lease or the proxy of a lease over.
+	 */
+	private PooledConnection findLeased(Connection connection) {
+		PooledConnection pooled;
+		if (!proxyConnections) {
+			pooled = leases.find(connection);
+		} else if (Proxy.isProxyClass(connection.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(connection);
+			pooled = handler instanceof ConnectionProxy ? ((ConnectionProxy) handler)
+					.getPooled() : null;
+			pooled = pooled != null && pooled.proxy == handler ? pooled : null;
+		} else {
+			pooled = null;
+		}
+		return pooled != null && leases.getLeaseStart(pooled) != 0 ? pooled
+				: null;
+	}
+
+	private void fireConnectionBorrowed(PooledConnection pooled,
+			long threadId, long waitNanos) {
+		if (journal != null) {
+			journal.record(JournalEvent.BORROW, threadId, pooled.slot,
+					waitNanos);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.connectionBorrowed(waitNanos);
+		}
+	}
+
+	private void fireBorrowTimedOut(long waitNanos) {
+		if (journal != null) {
+			journal.record(JournalEvent.BORROW_TIMEOUT, -1, waitNanos);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.borrowTimedOut(waitNanos);
+		}
+	}
+
+	private void fireWaiterWokeUp() {
+		for (ConnectionPoolListener listener : listeners) {
+			listener.waiterWokeUp();
+		}
+	}
+
+	private void fireConnectionReleased(PooledConnection pooled,
+			long holdNanos) {
+		if (journal != null) {
+			journal.record(JournalEvent.RELEASE, pooled.slot, holdNanos);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.connectionReleased(holdNanos);
+		}
+	}
+
+	private void fireLeaseReaped(PooledConnection pooled, long holdNanos) {
+		if (journal != null) {
+			journal.record(JournalEvent.REAP, pooled.slot, holdNanos);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.leaseReaped(holdNanos);
+		}
+	}
+
+	private void fireConnectionCreated(PooledConnection pooled,
+			long createNanos) {
+		if (journal != null) {
+			journal.record(JournalEvent.CREATE, pooled.slot, createNanos);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.connectionCreated(createNanos);
+		}
+	}
+
+	private void fireConnectionCreateFailed(Throwable cause) {
+		for (ConnectionPoolListener listener : listeners) {
+			listener.connectionCreateFailed(cause);
+		}
+	}
+
+	private void fireValidationFailed(PooledConnection pooled) {
+		if (journal != null) {
+			journal.record(JournalEvent.VALIDATION_FAILED, pooled.slot, 0);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.validationFailed();
+		}
+	}
+
+	// Before the connection leaves its slot.
+	private void fireConnectionDestroyed(PooledConnection pooled) {
+		if (journal != null) {
+			journal.record(JournalEvent.CLOSE, pooled.slot, 0);
+		}
+		for (ConnectionPoolListener listener : listeners) {
+			listener.connectionDestroyed();
+		}
+	}
+
+	private void fireLeakSuspected(long holdNanos, Throwable borrowSite) {
+		for (ConnectionPoolListener listener : listeners) {
+			listener.leakSuspected(holdNanos, borrowSite);
+		}
+	}
+
+	private void fireSizingDecided(SizingDecision decision) {
+		for (ConnectionPoolListener listener : listeners) {
+			listener.sizingDecided(decision);
+		}
+	}
+
+	/**
+	 * @return the connectionFactory
+	 */
+	private ConnectionFactory getConnectionFactory() {
+		return connectionFactory;
+	}
+
+	/**
+	 * @param connectionFactory
+	 *            the connectionFactory to set
+	 */
+	public void setConnectionFactory(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+		if (creator != null) {
+			prewarm();
+		}
+	}
+
+	/**
+	 * The future of a caller borrowing a {@link Connection}.
+	 */
+	private static final class Waiter extends CompletableFuture<Connection> {
+		// Higher priority first, then earliest deadline, then oldest.
+		static final Comparator<Waiter> ORDER = new Comparator<Waiter>() {
+			@Override
+			public int compare(Waiter left, Waiter right) {
+				int order = left.priority.compareTo(right.priority);
+				if (order != 0) {
+					return order;
+				} else if (left.hasDeadline != right.hasDeadline) {
+					return left.hasDeadline ? -1 : 1;
+				} else if (left.hasDeadline
+						&& left.deadlineNanos != right.deadlineNanos) {
+					return left.deadlineNanos - right.deadlineNanos < 0 ? -1
+							: 1;
+				}
+				return Long.compare(left.sequence, right.sequence);
+			}
+		};
+
+		private final long startNanos;
+		// The id of the borrowing Thread, which creates the waiter.
+		private final long threadId = Thread.currentThread().getId();
+		// The stack of the borrower, null if not captured.
+		private final LeakDetector.BorrowSite borrowSite;
+		private final BorrowPriority priority;
+		private final long sequence;
+		// The System.nanoTime() by which the caller needs a connection.
+		private boolean hasDeadline;
+		private long deadlineNanos;
+
+		Waiter(long startNanos, LeakDetector.BorrowSite borrowSite,
+				BorrowPriority priority, long sequence) {
+			this.startNanos = startNanos;
+			this.borrowSite = borrowSite;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		// Only before the waiter is queued.
+		void setDeadline(long deadlineNanos) {
+			this.hasDeadline = true;
+			this.deadlineNanos = deadlineNanos;
+		}
 	}
 
 }
@@ -0,0 +1,27 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * The class of a caller borrowing a {@link Connection}. When the pool is
+ * saturated, waiting callers of a higher class are served first.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public enum BorrowPriority {
+
+	/**
+	 * User facing work, served before every other class.
+	 */
+	INTERACTIVE,
+	/**
+	 * The class of callers which do not give one.
+	 */
+	NORMAL,
+	/**
+	 * Background work, served from the capacity left over by the other
+	 * classes.
+	 */
+	BATCH
+}
@@ -0,0 +1,335 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.configuration.Configurable;
+import com.seraj.interview.configuration.ConfigurationReader;
+
+/**
+ * A Thread-safe, lock-free implementation of {@link ConnectionPool} backed by
+ * a "concurrent bag" of pooled entries. </p> A borrowing Thread first tries to
+ * reclaim the {@link Connection} it released last, then attempts to claim
+ * (via compare-and-set) any idle entry of the shared list, then tries to grow
+ * the pool. Only when every {@link Connection} is leased and the pool is full
+ * does the Thread wait for a releasing Thread to hand an entry over directly.
+ * </p> Neither borrow nor release take a lock in the uncontended case, which
+ * makes this pool a drop-in alternative to {@link BlockingConnectionPool}
+ * under high Thread counts.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class ConcurrentBagConnectionPool implements ConnectionPool {
+
+	// ************************
+	// Required Fields, use setter to initialize
+	// ************************
+	/**
+	 * The factory used to create new connections for the pool. This is a
+	 * required field.
+	 */
+	private ConnectionFactory connectionFactory;
+
+	// ************************
+	// Configurable properties
+	// ************************
+	// Package-private so that the generated binder sets them.
+	@Configurable(min = 1)
+	int maxPoolSize = Integer.MAX_VALUE;
+	@Configurable
+	TimeUnit timeUnits = TimeUnit.MILLISECONDS;
+	@Configurable(unitField = "timeUnits")
+	long borrowTimeoutInterval = 500;
+	@Configurable(min = 0)
+	int validationTimeoutInSeconds = 2;
+
+	// ************************
+	// Internal fields
+	// ************************
+	private static final Logger LOG = Logger
+			.getLogger(ConcurrentBagConnectionPool.class);
+	// The most attempts of a release to hand its entry to a waiting Thread
+	// not yet polling, before leaving the entry idle in the shared list.
+	private static final int MAX_HANDOFF_TRIES = 256;
+	// Current size of the pool
+	private AtomicInteger size = new AtomicInteger(0);
+	// Every entry of the pool, leased or idle. Only written on create and
+	// destroy so that iteration on borrow never takes a lock.
+	private CopyOnWriteArrayList<BagEntry> sharedList = new CopyOnWriteArrayList<BagEntry>();
+	// Lookup of the entry owning a connection, used on release when the
+	// Thread-local entry does not match. Only written on create and destroy.
+	private ConcurrentMap<Connection, BagEntry> entries = new ConcurrentHashMap<Connection, BagEntry>();
+	// The entry last released by the current Thread.
+	private ThreadLocal<BagEntry> lastUsedEntry = new ThreadLocal<BagEntry>();
+	// The number of Threads waiting for an entry to be handed over.
+	private AtomicInteger waiters = new AtomicInteger(0);
+	// Direct hand off of released entries to waiting Threads.
+	private SynchronousQueue<BagEntry> handoffQueue = new SynchronousQueue<BagEntry>(
+			true);
+
+	/**
+	 * Create a new Concurrent Bag {@link ConnectionPool}.
+	 */
+	public ConcurrentBagConnectionPool() {
+	}
+
+	/**
+	 * Create and configure a new Concurrent Bag {@link ConnectionPool}. The
+	 * configurable properties are maxPoolSize, timeUnits,
+	 * borrowTimeoutInterval and validationTimeoutInSeconds, as for
+	 * {@link BlockingConnectionPool#BlockingConnectionPool(Properties)}.
+	 * Leases are not reaped, and the other properties of
+	 * {@link BlockingConnectionPool} are ignored.
+	 *
+	 * @param properties
+	 *            The java {@link Properties} used to configure this
+	 *            {@link ConnectionPool}.
+	 */
+	public ConcurrentBagConnectionPool(Properties properties) {
+		ConfigurationReader.loadConfigurations(properties,
+				ConcurrentBagConnectionPool.class, this);
+	}
+
+	/**
+	 * Gets a {@link Connection} from the connection pool. The
+	 * {@link Connection} last released by the calling Thread is preferred,
+	 * followed by any idle {@link Connection} in the pool. Otherwise, if space
+	 * is available in the pool a new {@link Connection} is created and
+	 * returned. Else, block until a {@link Connection} is handed over by a
+	 * releasing Thread.
+	 *
+	 * @return A {@link Connection} from the connection pool.
+	 * @throws SQLException
+	 *             Thrown if the method is interrupted, or the factory
+	 *             returned no connection.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		BagEntry entry = lastUsedEntry.get();
+		if (entry != null && entry.tryLease()) {
+			return entry.connection;
+		}
+
+		entry = tryClaimSharedEntry();
+		while (entry == null) {
+			entry = tryCreateNewEntry();
+			entry = entry == null ? tryReceiveEntry() : entry;
+			entry = entry == null ? tryClaimSharedEntry() : entry;
+		}
+		return entry.connection;
+	}
+
+	/**
+	 * Releases a {@link Connection} back into the connection pool. If the
+	 * {@link Connection} is part of the pool, revoke the lease and recycle the
+	 * connection; handing it directly to a waiting Thread when one exists.
+	 *
+	 * @param connection
+	 *            The {@link Connection} being released back into the connection
+	 *            pool.
+	 * @throws SQLException
+	 *             Thrown when the {@link Connection} is unknown, or a failure
+	 *             to determine the validity of the connection.
+	 */
+	@Override
+	public void releaseConnection(Connection connection) throws SQLException {
+		BagEntry entry = findLeasedEntry(connection);
+		if (!connection.isValid(validationTimeoutInSeconds)) {
+			removeEntry(entry);
+			LOG.info("Connection from Thread["
+					+ Thread.currentThread().getName()
+					+ "] is no longer valid. Resource is being released from the pool.");
+			return;
+		}
+
+		entry.state.set(BagEntry.STATE_IDLE);
+		// A waiter about to poll is given a moment; if it misses the entry it
+		// finds it idle in the shared list.
+		for (int i = 0; i < MAX_HANDOFF_TRIES && waiters.get() > 0; ++i) {
+			// Either another Thread claimed it already or a waiter accepted it.
+			if (entry.state.get() != BagEntry.STATE_IDLE
+					|| handoffQueue.offer(entry)) {
+				return;
+			}
+			Thread.yield();
+		}
+		lastUsedEntry.set(entry);
+	}
+
+	/**
+	 * Lock-free attempt to claim any idle entry from the shared list.
+	 *
+	 * @return A leased entry if one was idle, null otherwise.
+	 */
+	private BagEntry tryClaimSharedEntry() {
+		for (BagEntry entry : sharedList) {
+			if (entry.tryLease()) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Thread-safe implementation to create a new entry when space is
+	 * available in the connection pool.
+	 *
+	 * @return A leased entry if space is available, null otherwise.
+	 * @throws SQLException
+	 *             Thrown if the factory failed to create a connection; the
+	 *             space reserved for it is freed.
+	 */
+	private BagEntry tryCreateNewEntry() throws SQLException {
+		int current = size.get();
+		while (current < maxPoolSize) {
+			if (size.compareAndSet(current, current + 1)) {
+				boolean created = false;
+				try {
+					Connection connection = getConnectionFactory()
+							.newConnection();
+					if (connection == null) {
+						throw new SQLException(new IllegalStateException(
+								"The connection factory returned no connection."));
+					}
+					BagEntry entry = new BagEntry(connection);
+					entries.put(connection, entry);
+					sharedList.add(entry);
+					created = true;
+					LOG.debug("New connection added to the pool.");
+					return entry;
+				} finally {
+					if (!created) {
+						size.decrementAndGet();
+					}
+				}
+			}
+			current = size.get();
+		}
+		return null;
+	}
+
+	/**
+	 * A blocking attempt at receiving an entry handed over by a releasing
+	 * Thread. The wait time for this blocking wait is configurable. Only
+	 * while in this method is the Thread counted as waiting, so that a
+	 * release does not wait on Threads still creating a {@link Connection}.
+	 *
+	 * @return A leased entry if one was received, null otherwise.
+	 * @throws SQLException
+	 *             Thrown if the blocking wait is interrupted.
+	 */
+	private BagEntry tryReceiveEntry() throws SQLException {
+		waiters.incrementAndGet();
+		try {
+			// An entry released before this Thread was counted was left idle.
+			BagEntry entry = tryClaimSharedEntry();
+			if (entry != null) {
+				return entry;
+			}
+			entry = handoffQueue.poll(borrowTimeoutInterval, timeUnits);
+			return entry != null && entry.tryLease() ? entry : null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Pool get connection interupted.", e);
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Locate the leased entry owning the {@link Connection}. If the
+	 * {@link Connection} is not leased from the pool throw an
+	 * {@link SQLException} to that affect.
+	 *
+	 * @param connection
+	 *            The {@link Connection} to locate.
+	 * @return The entry owning the {@link Connection}.
+	 * @throws SQLException
+	 *             Thrown if the {@link Connection} is null or not leased from
+	 *             this pool.
+	 */
+	private BagEntry findLeasedEntry(Connection connection)
+			throws SQLException {
+		if (connection == null) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"A null connection is not valid.");
+			throw new SQLException(exception);
+		}
+		BagEntry entry = lastUsedEntry.get();
+		if (entry == null || entry.connection != connection) {
+			entry = entries.get(connection);
+		}
+		if (entry == null || entry.state.get() != BagEntry.STATE_LEASED) {
+			connection.close();
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"The connection is not recognized by the pool.");
+			throw new SQLException(exception);
+		}
+		return entry;
+	}
+
+	/**
+	 * Permanently remove the entry from the pool and close its
+	 * {@link Connection}.
+	 *
+	 * @param entry
+	 *            The entry to remove.
+	 * @throws SQLException
+	 *             Thrown if some error occurs while closing the
+	 *             {@link Connection}.
+	 */
+	private void removeEntry(BagEntry entry) throws SQLException {
+		entry.state.set(BagEntry.STATE_REMOVED);
+		sharedList.remove(entry);
+		entries.remove(entry.connection);
+		size.decrementAndGet();
+		entry.connection.close();
+	}
+
+	/**
+	 * @return the connectionFactory
+	 */
+	private ConnectionFactory getConnectionFactory() {
+		return connectionFactory;
+	}
+
+	/**
+	 * @param connectionFactory
+	 *            the connectionFactory to set
+	 */
+	public void setConnectionFactory(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * A pooled {@link Connection} and its lease state, claimed and revoked by
+	 * compare-and-set.
+	 */
+	private static final class BagEntry {
+		static final int STATE_IDLE = 0;
+		static final int STATE_LEASED = 1;
+		static final int STATE_REMOVED = -1;
+
+		final Connection connection;
+		final AtomicInteger state = new AtomicInteger(STATE_LEASED);
+
+		BagEntry(Connection connection) {
+			this.connection = connection;
+		}
+
+		boolean tryLease() {
+			return state.compareAndSet(STATE_IDLE, STATE_LEASED);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * Receives the events of a pool as they happen, on the Thread causing them.
+ * Every method does nothing by default; implementations override those they
+ * need and must return quickly as they delay the pool's callers.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public interface ConnectionPoolListener {
+
+	/**
+	 * A {@link Connection} was leased to a borrower.
+	 * 
+	 * @param waitNanos
+	 *            The time the borrower waited for the {@link Connection}.
+	 */
+	default void connectionBorrowed(long waitNanos) {
+	}
+
+	/**
+	 * A borrower gave up waiting for a {@link Connection}.
+	 * 
+	 * @param waitNanos
+	 *            The time the borrower waited.
+	 */
+	default void borrowTimedOut(long waitNanos) {
+	}
+
+	/**
+	 * A waiting borrower woke without being handed a {@link Connection}, to
+	 * retry the creation of one. Never happens with the SIGNAL
+	 * {@link WaitPolicy}.
+	 */
+	default void waiterWokeUp() {
+	}
+
+	/**
+	 * A leased {@link Connection} was released into the pool.
+	 * 
+	 * @param holdNanos
+	 *            The time the {@link Connection} was on lease.
+	 */
+	default void connectionReleased(long holdNanos) {
+	}
+
+	/**
+	 * A lease expired and its {@link Connection} was closed.
+	 * 
+	 * @param holdNanos
+	 *            The time the {@link Connection} was on lease.
+	 */
+	default void leaseReaped(long holdNanos) {
+	}
+
+	/**
+	 * A new {@link Connection} was added to the pool.
+	 * 
+	 * @param createNanos
+	 *            The time the connection factory took to create it.
+	 */
+	default void connectionCreated(long createNanos) {
+	}
+
+	/**
+	 * The connection factory failed to create a {@link Connection}.
+	 * 
+	 * @param cause
+	 *            The failure.
+	 */
+	default void connectionCreateFailed(Throwable cause) {
+	}
+
+	/**
+	 * A {@link Connection} was found invalid.
+	 */
+	default void validationFailed() {
+	}
+
+	/**
+	 * A {@link Connection} was removed from the pool and closed.
+	 */
+	default void connectionDestroyed() {
+	}
+
+	/**
+	 * A lease was held past the leak detection threshold. Each lease is
+	 * reported once.
+	 * 
+	 * @param holdNanos
+	 *            The time the {@link Connection} has been on lease.
+	 * @param borrowSite
+	 *            The stack of the borrower, null if it was not sampled.
+	 */
+	default void leakSuspected(long holdNanos, Throwable borrowSite) {
+	}
+
+	/**
+	 * The adaptive sizing of the pool decided its limit, whether or not the
+	 * limit changed.
+	 * 
+	 * @param decision
+	 *            The decision and the measurements it was based on.
+	 */
+	default void sizingDecided(SizingDecision decision) {
+	}
+}
@@ -0,0 +1,120 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.Map;
+
+import com.opower.connectionpool.ConnectionPool;
+
+/**
+ * The management interface of a {@link ConnectionPool}, registered with the
+ * platform MBean server when the pool is given a jmxName. Latencies are in
+ * microseconds.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public interface ConnectionPoolMXBean {
+
+	/**
+	 * @return the number of connections in the pool, idle or on lease.
+	 */
+	int getSize();
+
+	/**
+	 * @return the number of connections the pool may grow to.
+	 */
+	int getPoolLimit();
+
+	/**
+	 * @return true while the database is deemed unreachable after repeated
+	 *         failures to create connections.
+	 */
+	boolean isCreationCircuitOpen();
+
+	/**
+	 * @return the generation of the pool, raised by each soft eviction.
+	 */
+	int getGeneration();
+
+	/**
+	 * @return true once the pool is shut down.
+	 */
+	boolean isShutdown();
+
+	/**
+	 * Replace every connection of the pool: the idle ones in the background
+	 * and the leased ones as they are released.
+	 */
+	void softEvictAll();
+
+	/**
+	 * @return the number of idle connections.
+	 */
+	int getIdleCount();
+
+	/**
+	 * @return the number of connections on lease.
+	 */
+	int getLeasedCount();
+
+	/**
+	 * @return the number of callers waiting for a connection.
+	 */
+	int getWaitingCount();
+
+	/**
+	 * @return the number of borrowers which gave up waiting.
+	 */
+	long getTimeoutCount();
+
+	/**
+	 * @return the number of leases reaped because their lease term expired.
+	 */
+	long getReapedLeaseCount();
+
+	/**
+	 * @return the number of failures of the connection factory.
+	 */
+	long getCreateFailureCount();
+
+	/**
+	 * @return the number of connections found invalid.
+	 */
+	long getValidationFailureCount();
+
+	/**
+	 * @return the number of connections removed from the pool and closed.
+	 */
+	long getDestroyedCount();
+
+	/**
+	 * @return the time borrowers waited for a connection.
+	 */
+	LatencyHistogram.Snapshot getBorrowWait();
+
+	/**
+	 * @return the time connections were on lease.
+	 */
+	LatencyHistogram.Snapshot getLeaseHold();
+
+	/**
+	 * @return the time the connection factory took to create connections.
+	 */
+	LatencyHistogram.Snapshot getConnectionCreate();
+
+	/**
+	 * @return the number of leases held past the leak detection threshold.
+	 */
+	long getSuspectedLeakCount();
+
+	/**
+	 * @return the number of suspected leaks by the call site which borrowed
+	 *         them; leases whose borrow was not sampled are counted under
+	 *         &lt;not sampled&gt;.
+	 */
+	Map<String, Long> getSuspectedLeaksBySite();
+
+	/**
+	 * Forget every recorded latency and count.
+	 */
+	void resetMetrics();
+}
@@ -0,0 +1,80 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.Properties;
+
+import com.opower.connectionpool.ConnectionPool;
+
+/**
+ * A static helper class used to create a configured {@link ConnectionPool}
+ * whose implementation is selected by configuration.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class ConnectionPools {
+
+	/**
+	 * The property naming the {@link Implementation} to create.
+	 */
+	public static final String IMPLEMENTATION_PROPERTY = "poolImplementation";
+
+	/**
+	 * The available {@link ConnectionPool} implementations.
+	 */
+	public enum Implementation {
+		/**
+		 * {@link BlockingConnectionPool}, the default.
+		 */
+		BLOCKING,
+		/**
+		 * {@link ConcurrentBagConnectionPool}.
+		 */
+		CONCURRENT_BAG,
+		/**
+		 * {@link StripedConnectionPool}.
+		 */
+		STRIPED
+	}
+
+	/**
+	 * Create and configure a new {@link ConnectionPool}. The implementation is
+	 * chosen by the <b>poolImplementation</b> property, which must match
+	 * exactly an identifier of {@link Implementation}. <i>Default value is
+	 * BLOCKING.</i> All remaining properties are passed to the chosen
+	 * implementation.
+	 *
+	 * @param properties
+	 *            The java {@link Properties} used to configure the
+	 *            {@link ConnectionPool}.
+	 * @param connectionFactory
+	 *            The factory used to create new connections for the pool.
+	 * @return A new, configured, {@link ConnectionPool}.
+	 */
+	public static ConnectionPool newConnectionPool(Properties properties,
+			ConnectionFactory connectionFactory) {
+		Implementation implementation = Implementation.valueOf(properties
+				.getProperty(IMPLEMENTATION_PROPERTY,
+						Implementation.BLOCKING.name()));
+		switch (implementation) {
+		case CONCURRENT_BAG:
+			ConcurrentBagConnectionPool bagPool = new ConcurrentBagConnectionPool(
+					properties);
+			bagPool.setConnectionFactory(connectionFactory);
+			return bagPool;
+		case STRIPED:
+			StripedConnectionPool stripedPool = new StripedConnectionPool(
+					properties);
+			stripedPool.setConnectionFactory(connectionFactory);
+			return stripedPool;
+		case BLOCKING:
+		default:
+			BlockingConnectionPool blockingPool = new BlockingConnectionPool(
+					properties);
+			blockingPool.setConnectionFactory(connectionFactory);
+			return blockingPool;
+		}
+	}
+
+	private ConnectionPools() {
+	}
+}
@@ -0,0 +1,131 @@
+package com.seraj.interview.connectionpool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+
+/**
+ * The handler of the pool-owned proxy handed out for a single lease of a
+ * pooled {@link Connection}. Closing the proxy releases the
+ * {@link Connection} back into its pool, prepared statements are served
+ * from the {@link StatementCache} of the {@link Connection} when it has one.
+ * Once the lease is over every call, other than close, fails.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class ConnectionProxy implements InvocationHandler {
+
+	private static final Logger LOG = Logger.getLogger(ConnectionProxy.class);
+
+	private final ConnectionPool pool;
+	private final PooledConnection pooled;
+	private final Connection proxy;
+	private volatile boolean closed;
+	// The statements prepared during this lease and not closed yet, closed
+	// with it. A statement closed by the borrower leaves the set.
+	private final Set<PreparedStatement> statements = Collections
+			.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+	/**
+	 * @param pool
+	 *            The pool the {@link Connection} is released into.
+	 * @param pooled
+	 *            The {@link PooledConnection} on lease.
+	 */
+	ConnectionProxy(ConnectionPool pool, PooledConnection pooled) {
+		this.pool = pool;
+		this.pooled = pooled;
+		this.proxy = (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, this);
+	}
+
+	/**
+	 * @return the proxy handed out to the borrower.
+	 */
+	Connection getProxy() {
+		return proxy;
+	}
+
+	/**
+	 * @return the {@link PooledConnection} on lease.
+	 */
+	PooledConnection getPooled() {
+		return pooled;
+	}
+
+	/**
+	 * @return the number of statements prepared during this lease and not
+	 *         closed yet.
+	 */
+	int getOpenStatementCount() {
+		synchronized (statements) {
+			return statements.size();
+		}
+	}
+
+	/**
+	 * End the lease of the proxy, closing the statements it prepared.
+	 */
+	void invalidate() {
+		closed = true;
+		List<PreparedStatement> open;
+		synchronized (statements) {
+			open = new ArrayList<PreparedStatement>(statements);
+			statements.clear();
+		}
+		for (PreparedStatement statement : open) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				LOG.debug("Failed to close a leased statement.", e);
+			}
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if ("equals".equals(name)) {
+			return proxy == args[0];
+		} else if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		} else if ("toString".equals(name)) {
+			return "PooledConnection[" + pooled.connection + "]";
+		} else if ("close".equals(name)) {
+			if (!closed) {
+				pool.releaseConnection(this.proxy);
+			}
+			return null;
+		} else if ("isClosed".equals(name)) {
+			return closed || pooled.connection.isClosed();
+		} else if (closed) {
+			throw new SQLException(
+					"The connection has been returned to the pool.");
+		} else if ("prepareStatement".equals(name)
+				&& pooled.statements != null) {
+			return pooled.statements.prepare(this.proxy, pooled.connection,
+					method, args, statements);
+		}
+		try {
+			return method.invoke(pooled.connection, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
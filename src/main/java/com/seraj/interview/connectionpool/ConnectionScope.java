@@ -0,0 +1,60 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * A unit of work of a Thread, within which the nested borrows of the Thread
+ * from a {@link BlockingConnectionPool} share a single {@link Connection}.
+ * The {@link Connection} is counted a reference per borrow and returns to
+ * the pool once every borrower released it. </p> Opened by
+ * {@link BlockingConnectionPool#openScope()}; a scope opened within another
+ * on the same Thread joins it. It must be closed by the Thread which opened
+ * it, after the work, typically with try-with-resources.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class ConnectionScope implements AutoCloseable {
+
+	private final BlockingConnectionPool pool;
+	private final Thread owner;
+	// The number of times the scope was opened and not yet closed.
+	int depth;
+	// The connection bound to the scope, null if none is borrowed.
+	Connection connection;
+	// The number of borrows of the bound connection not yet released.
+	int references;
+
+	ConnectionScope(BlockingConnectionPool pool, Thread owner) {
+		this.pool = pool;
+		this.owner = owner;
+	}
+
+	/**
+	 * @return the Thread of the scope.
+	 */
+	Thread getOwner() {
+		return owner;
+	}
+
+	/**
+	 * @return the number of borrows of the {@link Connection} bound to the
+	 *         scope not yet released, 0 if none is bound.
+	 */
+	public int getReferenceCount() {
+		return references;
+	}
+
+	/**
+	 * Leave the scope. Once the outermost scope is left, a {@link Connection}
+	 * still referenced is released to the pool.
+	 * 
+	 * @throws IllegalStateException
+	 *             Thrown if called by another Thread than the one which
+	 *             opened the scope.
+	 */
+	@Override
+	public void close() {
+		pool.closeScope(this);
+	}
+}
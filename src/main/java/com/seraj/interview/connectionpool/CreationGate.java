@@ -0,0 +1,165 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Admits the creations of {@link Connection}s by a connection factory.
+ * Limits the number of creations at once, and after a failure holds the
+ * next creations back for an exponentially growing, jittered, delay. After
+ * a number of consecutive failures the circuit opens: the backend is deemed
+ * unreachable and a single probing creation is admitted once the delay
+ * passed, its success closes the circuit. </p> Every admission must be
+ * followed by exactly one of {@link #cancel()}, {@link #succeeded()} or
+ * {@link #failed()}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class CreationGate {
+
+	private static final Logger LOG = Logger.getLogger(CreationGate.class);
+
+	// The creations admitted at once, null if unlimited.
+	private final Semaphore permits;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+	// The consecutive failures opening the circuit, 0 if it never opens.
+	private final int failureThreshold;
+
+	private volatile int failures;
+	// The System.nanoTime() before which no creation is admitted.
+	private volatile long nextAttemptNanos;
+	// Whether the single probe of an open circuit is under way.
+	private final AtomicBoolean probing = new AtomicBoolean();
+
+	/**
+	 * @param maxConcurrent
+	 *            The creations admitted at once, 0 or less for no limit.
+	 * @param initialBackoff
+	 *            The delay after a first failure.
+	 * @param maxBackoff
+	 *            The longest delay.
+	 * @param unit
+	 *            The {@link TimeUnit} of the delays.
+	 * @param failureThreshold
+	 *            The consecutive failures opening the circuit, 0 or less for
+	 *            never.
+	 */
+	CreationGate(int maxConcurrent, long initialBackoff, long maxBackoff,
+			TimeUnit unit, int failureThreshold) {
+		this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+		this.initialBackoffNanos = Math.max(0, unit.toNanos(initialBackoff));
+		this.maxBackoffNanos = Math.max(initialBackoffNanos,
+				unit.toNanos(maxBackoff));
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * Admit a creation unless the creations back off, the circuit is open
+	 * and probed, or too many creations are under way.
+	 * 
+	 * @return true if the creation may go ahead.
+	 */
+	boolean tryAcquire() {
+		boolean probe = false;
+		if (failures > 0) {
+			if (System.nanoTime() - nextAttemptNanos < 0) {
+				return false;
+			} else if (isOpen()) {
+				if (!probing.compareAndSet(false, true)) {
+					return false;
+				}
+				probe = true;
+			}
+		}
+		if (permits != null && !permits.tryAcquire()) {
+			if (probe) {
+				probing.set(false);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The admitted creation did not take place.
+	 */
+	void cancel() {
+		probing.set(false);
+		release();
+	}
+
+	/**
+	 * The admitted creation succeeded, closing the circuit.
+	 */
+	void succeeded() {
+		if (failures > 0) {
+			synchronized (this) {
+				if (isOpen()) {
+					LOG.info("Connection creation succeeded, the circuit is closed.");
+				}
+				failures = 0;
+			}
+		}
+		probing.set(false);
+		release();
+	}
+
+	/**
+	 * The admitted creation failed, backing off the next creations and
+	 * opening the circuit once enough consecutive creations failed.
+	 */
+	void failed() {
+		synchronized (this) {
+			int failed = failures + 1;
+			long backoff = Math.min(maxBackoffNanos,
+					initialBackoffNanos << Math.min(failed - 1, 30));
+			// Equal jitter: half the delay, plus up to the other half.
+			long jittered = backoff / 2
+					+ ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+			nextAttemptNanos = System.nanoTime() + jittered;
+			failures = failed;
+			if (failureThreshold > 0 && failed == failureThreshold) {
+				LOG.warn("Connection creation failed " + failed
+						+ " times in a row, the circuit is open.");
+			}
+		}
+		probing.set(false);
+		release();
+	}
+
+	/**
+	 * @return true if the circuit is open, the backend deemed unreachable.
+	 */
+	boolean isOpen() {
+		return failureThreshold > 0 && failures >= failureThreshold;
+	}
+
+	/**
+	 * @return the length of time until a creation may be admitted, in
+	 *         nanoseconds.
+	 */
+	long getRetryDelayNanos() {
+		return failures == 0 ? 0 : Math.max(0,
+				nextAttemptNanos - System.nanoTime());
+	}
+
+	/**
+	 * @return the number of creations failed in a row.
+	 */
+	int getConsecutiveFailures() {
+		return failures;
+	}
+
+	private void release() {
+		if (permits != null) {
+			permits.release();
+		}
+	}
+}
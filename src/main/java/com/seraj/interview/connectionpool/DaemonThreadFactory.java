@@ -0,0 +1,33 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} creating numbered daemon Threads, so that the
+ * upkeep Threads of a pool never keep the JVM alive.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger(0);
+
+	/**
+	 * @param name
+	 *            The prefix of the name of each Thread.
+	 */
+	DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, name + "-"
+				+ count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,249 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hashed timing wheel used to run tasks after a delay. Scheduling and
+ * cancelling are O(1) and lock-free, a single daemon Thread advances the
+ * wheel one bucket each tick and runs the tasks that expired in it. Tasks
+ * run no sooner than their delay and up to one tick late, they should be
+ * short as they delay the tasks that follow.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+class HashedTimingWheel {
+
+	private static final Logger LOG = Logger.getLogger(HashedTimingWheel.class);
+	// The most scheduled timeouts moved into the wheel each tick, so that a
+	// burst of scheduling can not starve expiry.
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+	// Timeouts scheduled or cancelled since the last tick. Only the worker
+	// Thread touches the buckets.
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread worker;
+	private volatile boolean running = true;
+	// The number of ticks processed, only read and written by the worker.
+	private long tick;
+
+	/**
+	 * Create and start a new timing wheel.
+	 *
+	 * @param name
+	 *            The name of the worker Thread.
+	 * @param tickDuration
+	 *            The length of time between ticks.
+	 * @param unit
+	 *            The {@link TimeUnit} of the tick duration.
+	 * @param bucketCount
+	 *            The number of buckets in the wheel, rounded up to a power of
+	 *            two.
+	 */
+	HashedTimingWheel(String name, long tickDuration, TimeUnit unit,
+			int bucketCount) {
+		this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+		int size = Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; ++i) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWorker();
+			}
+		}, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Schedule the task to run once the delay has passed.
+	 *
+	 * @param task
+	 *            The task to run on the worker Thread.
+	 * @param delay
+	 *            The length of time to wait before running the task.
+	 * @param unit
+	 *            The {@link TimeUnit} of the delay.
+	 * @return The handle used to cancel the task.
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime
+				+ unit.toNanos(delay));
+		scheduled.offer(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the worker Thread. Tasks not yet run never run.
+	 */
+	void stop() {
+		running = false;
+		LockSupport.unpark(worker);
+	}
+
+	private void runWorker() {
+		while (running) {
+			long deadline = tickNanos * (tick + 1);
+			long sleep;
+			while (running
+					&& (sleep = deadline - (System.nanoTime() - startTime)) > 0) {
+				LockSupport.parkNanos(this, sleep);
+			}
+			if (!running) {
+				return;
+			}
+			removeCancelled();
+			transferScheduled();
+			wheel[(int) (tick & mask)].expireTimeouts();
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void transferScheduled() {
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; ++i) {
+			Timeout timeout = scheduled.poll();
+			if (timeout == null) {
+				return;
+			} else if (timeout.state != Timeout.STATE_SCHEDULED) {
+				continue;
+			}
+			long expiryTick = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+			// Timeouts already due run on the current tick.
+			long bucketTick = Math.max(expiryTick, tick);
+			wheel[(int) (bucketTick & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * The handle of a scheduled task.
+	 */
+	static final class Timeout {
+		private static final int STATE_SCHEDULED = 0;
+		private static final int STATE_CANCELLED = 1;
+		private static final int STATE_EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater
+				.newUpdater(Timeout.class, "state");
+
+		private final HashedTimingWheel owner;
+		private final Runnable task;
+		// Nanoseconds since the start of the wheel.
+		private final long deadline;
+		private volatile int state = STATE_SCHEDULED;
+		// Worker Thread only.
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout previous;
+
+		private Timeout(HashedTimingWheel owner, Runnable task, long deadline) {
+			this.owner = owner;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the task if it has not yet run.
+		 *
+		 * @return true if the task will not run.
+		 */
+		boolean cancel() {
+			if (!STATE.compareAndSet(this, STATE_SCHEDULED, STATE_CANCELLED)) {
+				return false;
+			}
+			owner.cancelled.offer(this);
+			return true;
+		}
+
+		private void expire() {
+			if (STATE.compareAndSet(this, STATE_SCHEDULED, STATE_EXPIRED)) {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					LOG.warn("A scheduled task failed.", t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of {@link Timeout}s, only used by the worker.
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		void expireTimeouts() {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					timeout.expire();
+				} else if (timeout.state == Timeout.STATE_CANCELLED) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.bucket != this) {
+				return;
+			}
+			Timeout next = timeout.next;
+			if (timeout.previous != null) {
+				timeout.previous.next = next;
+			}
+			if (next != null) {
+				next.previous = timeout.previous;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.previous;
+			}
+			timeout.previous = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The idle {@link PooledConnection}s of a pool, the next to be reused at the
+ * head. Unlike a linked deque, offering allocates nothing once the backing
+ * array has grown to the pool's size. Every operation holds the monitor of
+ * the deque but its size, which is read without locking.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class IdleDeque {
+
+	private final ArrayDeque<PooledConnection> deque = new ArrayDeque<PooledConnection>();
+	private volatile int size;
+
+	synchronized void offerFirst(PooledConnection pooled) {
+		deque.offerFirst(pooled);
+		size = deque.size();
+	}
+
+	synchronized void offerLast(PooledConnection pooled) {
+		deque.offerLast(pooled);
+		size = deque.size();
+	}
+
+	/**
+	 * @return the head of the deque, null if empty.
+	 */
+	synchronized PooledConnection pollFirst() {
+		PooledConnection pooled = deque.pollFirst();
+		size = deque.size();
+		return pooled;
+	}
+
+	/**
+	 * @return the tail of the deque, null if empty.
+	 */
+	synchronized PooledConnection pollLast() {
+		PooledConnection pooled = deque.pollLast();
+		size = deque.size();
+		return pooled;
+	}
+
+	/**
+	 * @param pooled
+	 *            The {@link PooledConnection} to take out.
+	 * @return true if it was idle.
+	 */
+	synchronized boolean remove(PooledConnection pooled) {
+		boolean removed = deque.removeFirstOccurrence(pooled);
+		size = deque.size();
+		return removed;
+	}
+
+	/**
+	 * @param tailFirst
+	 *            Whether the copy starts from the tail.
+	 * @return a copy of the deque, for the maintenance to iterate without
+	 *         holding the lock.
+	 */
+	synchronized List<PooledConnection> snapshot(boolean tailFirst) {
+		List<PooledConnection> copy = new ArrayList<PooledConnection>(
+				deque.size());
+		Iterator<PooledConnection> iterator = tailFirst ? deque
+				.descendingIterator() : deque.iterator();
+		while (iterator.hasNext()) {
+			copy.add(iterator.next());
+		}
+		return copy;
+	}
+
+	int size() {
+		return size;
+	}
+}
@@ -0,0 +1,23 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * The order in which idle {@link Connection}s are reused.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public enum IdleOrder {
+
+	/**
+	 * Reuse the {@link Connection} idle the longest, spreading the load over
+	 * every {@link Connection} of the pool.
+	 */
+	FIFO,
+	/**
+	 * Reuse the {@link Connection} released most recently, whose caches are
+	 * warm, leaving the others idle long enough to be evicted.
+	 */
+	LIFO
+}
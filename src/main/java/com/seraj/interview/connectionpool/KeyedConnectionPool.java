@@ -0,0 +1,890 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.configuration.Configurable;
+import com.seraj.interview.configuration.ConfigurationReader;
+
+/**
+ * A Thread-safe pool of {@link Connection}s to many databases, each selected
+ * by a key with its own {@link ConnectionFactory}. </p> Every key is limited to
+ * maxPoolSizePerKey connections and all keys together to maxPoolSize. When
+ * the pool is full, a key with space left takes the capacity of the
+ * connection idle the longest under any other key: that connection is closed
+ * and a new one created for the key in need. Idle connections are reused most
+ * recently released first, so that the cold ones reach the idle timeout and
+ * are evicted by a single maintenance Thread shared by every key. </p> A key
+ * costs a handful of small objects and no Thread, so thousands of keys can be
+ * held in a single pool. The idle connections of every key are also ordered
+ * together by idle time, and the keys with waiting callers are queued, so
+ * neither finding the coldest connection nor serving the waiting callers
+ * visits every key. </p> Once done with, the pool is shut down by
+ * {@link #shutdown(long, TimeUnit)}, which closes its Thread.
+ *
+ * @param <K>
+ *            The type of the keys.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class KeyedConnectionPool<K> {
+
+	// ************************
+	// Configurable properties
+	// ************************
+	// Package-private so that the generated binder sets them.
+	@Configurable(min = 1)
+	int maxPoolSize = Integer.MAX_VALUE;
+	@Configurable(min = 1)
+	int maxPoolSizePerKey = Integer.MAX_VALUE;
+	@Configurable
+	TimeUnit timeUnits = TimeUnit.MILLISECONDS;
+	@Configurable(unitField = "timeUnits")
+	long borrowTimeoutInterval = 500;
+	@Configurable(min = 0)
+	int validationTimeoutInSeconds = 2;
+	@Configurable(unitField = "timeUnits")
+	long idleTimeout = -1;
+	@Configurable(unitField = "timeUnits", min = 1)
+	long evictionInterval = 30000;
+
+	// ************************
+	// Internal fields
+	// ************************
+	private static final Logger LOG = Logger
+			.getLogger(KeyedConnectionPool.class);
+	// The connections of every key, across all keys.
+	private AtomicInteger size = new AtomicInteger(0);
+	// The partition of the pool held by each key.
+	private ConcurrentMap<K, Partition> partitions = new ConcurrentHashMap<K, Partition>();
+	// The map of connections on lease to their bookkeeping.
+	private ConcurrentMap<Connection, KeyedConnection> leasedConnections = new ConcurrentHashMap<Connection, KeyedConnection>();
+	// The number of callers waiting, across all keys.
+	private AtomicInteger waiterCount = new AtomicInteger(0);
+	// The partitions with waiting callers, each queued once.
+	private Queue<Partition> waitingPartitions = new ConcurrentLinkedQueue<Partition>();
+	// The idle connections of every key, coldest first. Each is also in the
+	// idle list of its key, and is taken from either by claiming its entry.
+	private ConcurrentSkipListSet<IdleEntry> idleConnections = new ConcurrentSkipListSet<IdleEntry>();
+	// Orders the idle entries released at the same time.
+	private AtomicLong idleSequence = new AtomicLong();
+	// Whether new borrows are refused, the pool draining or closed.
+	private volatile boolean shutdown;
+	// Whether the connections and Thread of the pool were closed.
+	private AtomicBoolean closed = new AtomicBoolean();
+	// Notified as leases end while the pool drains.
+	private final Object drained = new Object();
+
+	// ************************
+	// Daemon threads
+	// ************************
+	// Evicts idle connections for every key, null if they never time out.
+	private ScheduledExecutorService maintenance;
+
+	/**
+	 * Create a new Keyed connection pool.
+	 */
+	public KeyedConnectionPool() {
+		runDeamonThreads();
+	}
+
+	/**
+	 * Create and configure a new Keyed connection pool. </p> The configurable
+	 * properties include:
+	 * <ul>
+	 * <li><b>maxPoolSize</b> = The maximum number of connections held by the
+	 * pool, across all keys. <i>Default size is Integer.MAX_VALUE
+	 * (unbounded).</i></li>
+	 * <li><b>maxPoolSizePerKey</b> = The maximum number of connections held
+	 * for any one key. <i>Default size is Integer.MAX_VALUE
+	 * (unbounded).</i></li>
+	 * <li><b>timeUnits</b> = The time unit context for all time based
+	 * configurations; unless explicitly stated otherwise. Each may also be
+	 * given with a unit suffix: ns, us, ms, s, m, h or d, such as '30s'.
+	 * <i>Default value is MILLISECONDS</i></li>
+	 * <li><b>borrowTimeoutInterval</b> = The length of time a Thread will wait,
+	 * each try, before retrying to create a connection while waiting for a
+	 * connection. <i>Default value is 500.</i></li>
+	 * <li><b>validationTimeoutInSeconds</b> = The length of time to wait while
+	 * validating a released connection. This field is always in Seconds.
+	 * <i>Default value is 2.</i></li>
+	 * <li><b>idleTimeout</b> = The length of time a connection may sit idle
+	 * before it is evicted. If configured to '-1' idle connections are only
+	 * closed to make room for another key. <i>Default value is '-1'.</i></li>
+	 * <li><b>evictionInterval</b> = The period of the eviction of idle
+	 * connections. <i>Default value is 30000.</i></li>
+	 * </ul>
+	 *
+	 * </p> <b>Note:</b> The timeUnits field configuration must match exactly an
+	 * identifier used to declare an enum constant of {@link TimeUnit}.
+	 *
+	 * @param properties
+	 *            The java {@link Properties} used to configure this pool.
+	 */
+	public KeyedConnectionPool(Properties properties) {
+		ConfigurationReader.loadConfigurations(properties,
+				KeyedConnectionPool.class, this);
+		runDeamonThreads();
+	}
+
+	/**
+	 * Gets a {@link Connection} for the key. If an idle {@link Connection} of
+	 * the key exists, use it. Otherwise, if space is available a new
+	 * {@link Connection} is created, closing the coldest idle
+	 * {@link Connection} of another key if the pool is full. Else, block until
+	 * a {@link Connection} of the key is released; waiting callers of a key are
+	 * served in arrival order.
+	 *
+	 * @param key
+	 *            The key of the database to connect to.
+	 * @return A {@link Connection} for the key.
+	 * @throws SQLException
+	 *             Thrown if the pool is shut down, the key is unknown or the
+	 *             method is interrupted.
+	 */
+	public Connection getConnection(K key) throws SQLException {
+		return borrow(key, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Gets a {@link Connection} for the key, as {@link #getConnection(Object)},
+	 * waiting no longer than the given timeout.
+	 *
+	 * @param key
+	 *            The key of the database to connect to.
+	 * @param timeout
+	 *            The maximum length of time to wait for a {@link Connection}.
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 * @return A {@link Connection} for the key.
+	 * @throws SQLTimeoutException
+	 *             Thrown if no {@link Connection} became available in time.
+	 * @throws SQLException
+	 *             Thrown if the pool is shut down, the key is unknown or the
+	 *             method is interrupted.
+	 */
+	public Connection getConnection(K key, long timeout, TimeUnit unit)
+			throws SQLException {
+		return borrow(key, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Releases a {@link Connection} back into the pool of its key, handing it
+	 * directly to the oldest caller waiting for the key when one exists.
+	 *
+	 * @param connection
+	 *            The {@link Connection} being released.
+	 * @throws SQLException
+	 *             Thrown when the {@link Connection} is unknown, or a failure
+	 *             to determine the validity of the connection, which is then
+	 *             closed.
+	 */
+	public void releaseConnection(Connection connection) throws SQLException {
+		if (connection == null) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"A null connection is not valid.");
+			throw new SQLException(exception);
+		}
+		KeyedConnection keyed = leasedConnections.remove(connection);
+		if (keyed == null) {
+			connection.close();
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"The connection is not recognized by the pool.");
+			throw new SQLException(exception);
+		}
+		if (shutdown) {
+			destroy(keyed);
+			synchronized (drained) {
+				drained.notifyAll();
+			}
+			return;
+		}
+		boolean valid = false;
+		try {
+			valid = !keyed.partition.removed
+					&& connection.isValid(validationTimeoutInSeconds);
+		} finally {
+			if (!valid) {
+				destroy(keyed);
+				// The freed space can be used to serve a waiting caller of any
+				// key.
+				dispatchToAllWaiters();
+			}
+		}
+		if (valid) {
+			returnToPool(keyed);
+		} else if (!keyed.partition.removed) {
+			LOG.info("Connection from Thread["
+					+ Thread.currentThread().getName()
+					+ "] is no longer valid. Resource is being released from the pool.");
+		}
+	}
+
+	/**
+	 * Set the factory creating the {@link Connection}s of the key, adding the
+	 * key to the pool if it is new. {@link Connection}s created by a previous
+	 * factory are kept.
+	 *
+	 * @param key
+	 *            The key of a database.
+	 * @param connectionFactory
+	 *            The factory used to create new connections for the key.
+	 */
+	public void setConnectionFactory(K key, ConnectionFactory connectionFactory) {
+		Partition partition = partitions.get(key);
+		if (partition == null) {
+			partition = partitions.putIfAbsent(key, new Partition(
+					connectionFactory));
+		}
+		if (partition != null) {
+			partition.factory = connectionFactory;
+		}
+	}
+
+	/**
+	 * Remove the key from the pool. Its idle {@link Connection}s are closed,
+	 * those on lease are closed as they are released, and callers waiting for
+	 * it fail.
+	 *
+	 * @param key
+	 *            The key of a database.
+	 */
+	public void removeConnectionFactory(K key) {
+		Partition partition = partitions.remove(key);
+		if (partition == null) {
+			return;
+		}
+		partition.removed = true;
+		destroyIdle(partition);
+		CompletableFuture<Connection> waiter;
+		while ((waiter = partition.waiters.poll()) != null) {
+			waiterCount.decrementAndGet();
+			waiter.completeExceptionally(new IllegalStateException(
+					"The key " + key + " was removed from the pool."));
+		}
+		dispatchToAllWaiters();
+	}
+
+	/**
+	 * Stop new borrows, wait for the leases to end, then close every
+	 * {@link Connection} of every key and the maintenance Thread. Waiting
+	 * callers and borrowers arriving from now on fail with a
+	 * {@link SQLNonTransientConnectionException}; {@link Connection}s
+	 * released meanwhile are closed. The leases still held once the timeout
+	 * passes are revoked and their {@link Connection}s closed.
+	 *
+	 * @param timeout
+	 *            The maximum length of time to wait for the leases to end.
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 * @return true if every lease ended in time.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting; the pool is closed
+	 *             regardless.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		shutdown = true;
+		for (Partition partition : partitions.values()) {
+			CompletableFuture<Connection> waiter;
+			while ((waiter = partition.waiters.poll()) != null) {
+				waiterCount.decrementAndGet();
+				waiter.completeExceptionally(newShutdownException());
+			}
+			destroyIdle(partition);
+		}
+		boolean drainedInTime = false;
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (drained) {
+				long remaining;
+				while (!leasedConnections.isEmpty()
+						&& (remaining = deadline - System.nanoTime()) > 0) {
+					TimeUnit.NANOSECONDS.timedWait(drained, remaining);
+				}
+			}
+			drainedInTime = leasedConnections.isEmpty();
+		} finally {
+			closeAll();
+		}
+		return drainedInTime;
+	}
+
+	/**
+	 * @return true if the pool is shut down, or shutting down.
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * A view of the pool serving a single key, for code written against
+	 * {@link ConnectionPool}.
+	 *
+	 * @param key
+	 *            The key of a database.
+	 * @return A {@link ConnectionPool} of the key's {@link Connection}s.
+	 */
+	public ConnectionPool forKey(final K key) {
+		return new ConnectionPool() {
+			@Override
+			public Connection getConnection() throws SQLException {
+				return KeyedConnectionPool.this.getConnection(key);
+			}
+
+			@Override
+			public void releaseConnection(Connection connection)
+					throws SQLException {
+				KeyedConnectionPool.this.releaseConnection(connection);
+			}
+		};
+	}
+
+	/**
+	 * @return the number of connections held by the pool, across all keys.
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * @param key
+	 *            The key of a database.
+	 * @return the number of connections held for the key, 0 if unknown.
+	 */
+	public int getSize(K key) {
+		Partition partition = partitions.get(key);
+		return partition == null ? 0 : partition.size.get();
+	}
+
+	private void runDeamonThreads() {
+		if (idleTimeout > 0) {
+			maintenance = Executors
+					.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+							"KeyedConnectionPool-maintenance"));
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleConnections();
+				}
+			}, evictionInterval, evictionInterval, timeUnits);
+		}
+	}
+
+	/**
+	 * Stop the Thread of the pool and close its {@link Connection}s, idle or
+	 * still on lease. Only the first call has an effect.
+	 */
+	private void closeAll() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		if (maintenance != null) {
+			maintenance.shutdownNow();
+		}
+		int closedCount = 0;
+		KeyedConnection keyed;
+		while ((keyed = pollColdestIdle()) != null) {
+			destroy(keyed);
+			closedCount++;
+		}
+		for (Connection connection : leasedConnections.keySet()) {
+			keyed = leasedConnections.remove(connection);
+			if (keyed != null) {
+				LOG.warn("Lease still held at shutdown. Resource is being released from the pool.");
+				destroy(keyed);
+				closedCount++;
+			}
+		}
+		LOG.info("Pool shut down, " + closedCount + " connections closed.");
+	}
+
+	/**
+	 * @return the failure of a borrower refused, or a waiting caller failed,
+	 *         by a pool shut down; not transient, as retrying cannot succeed.
+	 */
+	private static SQLNonTransientConnectionException newShutdownException() {
+		return new SQLNonTransientConnectionException("The pool is shut down.");
+	}
+
+	/**
+	 * Close the {@link Connection}s of every key idle for longer than the idle
+	 * timeout, coldest first.
+	 */
+	private void evictIdleConnections() {
+		long timeout = timeUnits.toNanos(idleTimeout);
+		long now = System.nanoTime();
+		int evicted = 0;
+		for (IdleEntry entry : idleConnections) {
+			if (now - entry.idleSince < timeout) {
+				break;
+			} else if (entry.claim()) {
+				idleConnections.remove(entry);
+				entry.keyed.partition.idle.removeLastOccurrence(entry);
+				destroy(entry.keyed);
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			LOG.debug("Evicted " + evicted + " idle connections.");
+			dispatchToAllWaiters();
+		}
+	}
+
+	/**
+	 * Borrow a {@link Connection} of the key, joining the key's waiting
+	 * callers if none is available.
+	 *
+	 * @param key
+	 *            The key of a database.
+	 * @param timeoutNanos
+	 *            The length of time to wait, Long.MAX_VALUE to wait
+	 *            indefinitely.
+	 * @return The borrowed connection.
+	 * @throws SQLException
+	 *             Thrown if the pool is shut down, the key is unknown, the
+	 *             wait is interrupted or timed out.
+	 */
+	private Connection borrow(K key, long timeoutNanos) throws SQLException {
+		if (shutdown) {
+			throw newShutdownException();
+		}
+		Partition partition = partitions.get(key);
+		if (partition == null) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"No connection factory is set for the key " + key + ".");
+			throw new SQLException(exception);
+		}
+		// Only barge past the waiting callers when there are none.
+		if (partition.waiters.isEmpty()) {
+			KeyedConnection keyed = tryAcquire(partition);
+			if (keyed != null) {
+				leasedConnections.put(keyed.connection, keyed);
+				return keyed.connection;
+			}
+		}
+		CompletableFuture<Connection> waiter = new CompletableFuture<Connection>();
+		waiterCount.incrementAndGet();
+		partition.waiters.offer(waiter);
+		markWaiting(partition);
+		// A connection may have been released before this caller was queued.
+		dispatchToWaiters(partition);
+		return awaitConnection(partition, waiter, timeoutNanos);
+	}
+
+	/**
+	 * Take an idle {@link Connection} of the partition, or create one when
+	 * space is available.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 * @return A connection not on lease, null if the key can not have another.
+	 */
+	private KeyedConnection tryAcquire(Partition partition) {
+		KeyedConnection keyed = pollIdle(partition);
+		if (keyed != null || !tryReserveSlot(partition)) {
+			return keyed;
+		}
+		try {
+			Connection connection = partition.factory.newConnection();
+			LOG.debug("New connection added to the pool.");
+			return new KeyedConnection(partition, connection);
+		} catch (RuntimeException e) {
+			partition.size.decrementAndGet();
+			size.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Thread-safe implementation to reserve space for a new
+	 * {@link Connection} of the partition. When the pool is full the space of
+	 * the coldest idle {@link Connection} of any key is taken over.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 * @return true if space was reserved, false if the key or the pool is
+	 *         full.
+	 */
+	private boolean tryReserveSlot(Partition partition) {
+		if (!tryIncrement(partition.size, maxPoolSizePerKey)) {
+			return false;
+		} else if (tryIncrement(size, maxPoolSize)) {
+			return true;
+		}
+		KeyedConnection coldest = pollColdestIdle();
+		if (coldest == null) {
+			partition.size.decrementAndGet();
+			return false;
+		}
+		// The space of the coldest connection passes to the partition.
+		coldest.partition.size.decrementAndGet();
+		close(coldest);
+		return true;
+	}
+
+	/**
+	 * Increment the counter unless it has reached the limit.
+	 *
+	 * @param counter
+	 *            The counter to increment.
+	 * @param limit
+	 *            The largest value of the counter.
+	 * @return true if the counter was incremented.
+	 */
+	private static boolean tryIncrement(AtomicInteger counter, int limit) {
+		int current;
+		while ((current = counter.get()) < limit) {
+			if (counter.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the {@link Connection} idle the longest, of any key, from the
+	 * idle lists.
+	 *
+	 * @return The coldest idle connection, null if none is idle.
+	 */
+	private KeyedConnection pollColdestIdle() {
+		IdleEntry entry;
+		while ((entry = idleConnections.pollFirst()) != null) {
+			if (entry.claim()) {
+				// The coldest connections are last in the idle list of a key.
+				entry.keyed.partition.idle.removeLastOccurrence(entry);
+				return entry.keyed;
+			}
+			// Borrowed in the meantime, look again.
+		}
+		return null;
+	}
+
+	/**
+	 * Remove the most recently released {@link Connection} of the key from
+	 * the idle lists.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 * @return The idle connection, null if none is idle.
+	 */
+	private KeyedConnection pollIdle(Partition partition) {
+		IdleEntry entry;
+		while ((entry = partition.idle.pollFirst()) != null) {
+			if (entry.claim()) {
+				idleConnections.remove(entry);
+				return entry.keyed;
+			}
+			// Taken as the coldest connection in the meantime.
+		}
+		return null;
+	}
+
+	/**
+	 * Place the {@link Connection} into the idle lists, most recently
+	 * released.
+	 *
+	 * @param keyed
+	 *            A valid connection not on lease.
+	 */
+	private void offerIdle(KeyedConnection keyed) {
+		IdleEntry entry = new IdleEntry(keyed, System.nanoTime(),
+				idleSequence.incrementAndGet());
+		// Ordered first, so that it is never taken from its key before.
+		idleConnections.add(entry);
+		keyed.partition.idle.offerFirst(entry);
+	}
+
+	/**
+	 * Close every idle {@link Connection} of the key.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 */
+	private void destroyIdle(Partition partition) {
+		KeyedConnection keyed;
+		while ((keyed = pollIdle(partition)) != null) {
+			destroy(keyed);
+		}
+	}
+
+	/**
+	 * Block until the waiting caller is handed a {@link Connection} or the
+	 * timeout passes. The wait is woken every borrowTimeoutInterval to retry
+	 * the creation of a {@link Connection}.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 * @param timeoutNanos
+	 *            The length of time to wait, Long.MAX_VALUE to wait
+	 *            indefinitely.
+	 * @return The borrowed connection.
+	 * @throws SQLException
+	 *             Thrown if the blocking wait is interrupted or timed out.
+	 */
+	private Connection awaitConnection(Partition partition,
+			CompletableFuture<Connection> waiter, long timeoutNanos)
+			throws SQLException {
+		long interval = timeUnits.toNanos(borrowTimeoutInterval);
+		long start = System.nanoTime();
+		while (true) {
+			long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE
+					: timeoutNanos - (System.nanoTime() - start);
+			try {
+				return waiter.get(Math.max(0, Math.min(interval, remaining)),
+						TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				if (remaining <= interval) {
+					abandon(partition, waiter);
+					throw new SQLTimeoutException(
+							"Timed out waiting for a pool connection.", e);
+				}
+				dispatchToWaiters(partition);
+			} catch (InterruptedException e) {
+				abandon(partition, waiter);
+				Thread.currentThread().interrupt();
+				throw new SQLException("Pool get connection interupted.", e);
+			} catch (ExecutionException e) {
+				throw new SQLException("Pool get connection failed.",
+						e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Withdraw a waiting caller. If a {@link Connection} was handed to it in
+	 * the meantime the {@link Connection} is returned to the pool.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 */
+	private void abandon(Partition partition,
+			CompletableFuture<Connection> waiter) {
+		if (partition.waiters.remove(waiter)) {
+			waiterCount.decrementAndGet();
+		}
+		if (!waiter.cancel(false) && !waiter.isCompletedExceptionally()) {
+			KeyedConnection keyed = leasedConnections.remove(waiter.join());
+			if (keyed != null) {
+				returnToPool(keyed);
+			}
+		}
+	}
+
+	/**
+	 * Hand the {@link Connection} to the oldest caller waiting for its key,
+	 * placing it into the key's idle list if no caller is waiting.
+	 *
+	 * @param keyed
+	 *            A valid connection not on lease.
+	 */
+	private void returnToPool(KeyedConnection keyed) {
+		if (!handOff(keyed)) {
+			offerIdle(keyed);
+			if (keyed.partition.removed) {
+				// The key was removed while the connection was released.
+				destroyIdle(keyed.partition);
+			}
+			// A caller of this key may have been queued after the hand off was
+			// attempted, or a caller of another key may take its space.
+			dispatchToAllWaiters();
+		}
+	}
+
+	/**
+	 * Lease the {@link Connection} to the oldest caller of its key which is
+	 * still waiting.
+	 *
+	 * @param keyed
+	 *            A valid connection not on lease.
+	 * @return true if a waiting caller accepted the {@link Connection}.
+	 */
+	private boolean handOff(KeyedConnection keyed) {
+		CompletableFuture<Connection> waiter;
+		while ((waiter = keyed.partition.waiters.poll()) != null) {
+			waiterCount.decrementAndGet();
+			leasedConnections.put(keyed.connection, keyed);
+			if (waiter.complete(keyed.connection)) {
+				return true;
+			}
+			// The waiter timed out or was cancelled.
+			leasedConnections.remove(keyed.connection);
+		}
+		return false;
+	}
+
+	/**
+	 * Queue the partition of a waiting caller, unless already queued.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 */
+	private void markWaiting(Partition partition) {
+		if (partition.waiting.compareAndSet(false, true)) {
+			waitingPartitions.offer(partition);
+		}
+	}
+
+	/**
+	 * Serve the waiting callers of every key with waiting callers, when any
+	 * is waiting. The keys still with waiting callers are queued again.
+	 */
+	private void dispatchToAllWaiters() {
+		if (waiterCount.get() == 0) {
+			return;
+		}
+		List<Partition> unserved = null;
+		Partition partition;
+		while ((partition = waitingPartitions.poll()) != null) {
+			// Cleared first, so that a caller queued from now on is seen.
+			partition.waiting.set(false);
+			dispatchToWaiters(partition);
+			if (!partition.waiters.isEmpty()) {
+				if (unserved == null) {
+					unserved = new ArrayList<Partition>();
+				}
+				unserved.add(partition);
+			}
+		}
+		if (unserved != null) {
+			for (Partition waiting : unserved) {
+				markWaiting(waiting);
+			}
+		}
+	}
+
+	/**
+	 * Serve the waiting callers of the key from its idle list, or with new
+	 * {@link Connection}s while space is available.
+	 *
+	 * @param partition
+	 *            The partition of the key.
+	 */
+	private void dispatchToWaiters(Partition partition) {
+		while (!partition.waiters.isEmpty()) {
+			KeyedConnection keyed;
+			try {
+				keyed = tryAcquire(partition);
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to create a connection for the pool.", e);
+				return;
+			}
+			if (keyed == null) {
+				return;
+			} else if (!handOff(keyed)) {
+				offerIdle(keyed);
+			}
+		}
+	}
+
+	/**
+	 * Remove the {@link Connection} from the pool and close it.
+	 *
+	 * @param keyed
+	 *            A connection neither idle nor on lease.
+	 */
+	private void destroy(KeyedConnection keyed) {
+		keyed.partition.size.decrementAndGet();
+		size.decrementAndGet();
+		close(keyed);
+	}
+
+	private static void close(KeyedConnection keyed) {
+		try {
+			keyed.connection.close();
+		} catch (SQLException e) {
+			LOG.warn("Failed to close a connection removed from the pool.", e);
+		}
+	}
+
+	/**
+	 * The connections of a single key and the callers waiting for them.
+	 */
+	private static final class Partition {
+		volatile ConnectionFactory factory;
+		volatile boolean removed;
+		final AtomicInteger size = new AtomicInteger(0);
+		// Most recently released first.
+		final Deque<IdleEntry> idle = new ConcurrentLinkedDeque<IdleEntry>();
+		final Queue<CompletableFuture<Connection>> waiters = new ConcurrentLinkedQueue<CompletableFuture<Connection>>();
+		// Whether the partition is in the queue of waiting partitions.
+		final AtomicBoolean waiting = new AtomicBoolean();
+
+		Partition(ConnectionFactory factory) {
+			this.factory = factory;
+		}
+	}
+
+	/**
+	 * A pooled {@link Connection} and the partition it belongs to.
+	 */
+	private static final class KeyedConnection {
+		final Partition partition;
+		final Connection connection;
+
+		KeyedConnection(Partition partition, Connection connection) {
+			this.partition = partition;
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * A {@link Connection} idle since the given time, in the idle list of its
+	 * key and among the idle connections of every key. Whoever claims the
+	 * entry takes the {@link Connection}; the entry left in the other list is
+	 * skipped.
+	 */
+	private static final class IdleEntry implements Comparable<IdleEntry> {
+		final KeyedConnection keyed;
+		final long idleSince;
+		final long sequence;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		IdleEntry(KeyedConnection keyed, long idleSince, long sequence) {
+			this.keyed = keyed;
+			this.idleSince = idleSince;
+			this.sequence = sequence;
+		}
+
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		@Override
+		public int compareTo(IdleEntry other) {
+			long difference = idleSince - other.idleSince;
+			return difference != 0 ? (difference < 0 ? -1 : 1) : Long
+					.compare(sequence, other.sequence);
+		}
+	}
+}
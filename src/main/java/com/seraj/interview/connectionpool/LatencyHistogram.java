@@ -0,0 +1,228 @@
+package com.seraj.interview.connectionpool;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Thread-safe, allocation-free histogram of latencies in nanoseconds.
+ * Latencies are counted in fixed log-linear buckets; each power of two is
+ * split into {@value #SUB_BUCKETS} linear buckets, so a reported percentile
+ * is within 1/{@value #SUB_BUCKETS} of the recorded latency. Recording
+ * increments striped counters, so concurrent Threads rarely contend, and
+ * allocates nothing once the counters are warm.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Latencies of 2^40 nanoseconds (about 18 minutes) or more share the last
+	// bucket.
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1)
+			* SUB_BUCKETS + SUB_BUCKETS;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Create a new, empty, histogram.
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a latency.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds, negative values count as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[bucketIndex(value)].increment();
+		total.add(value);
+		long current;
+		while (value > (current = max.get())
+				&& !max.compareAndSet(current, value)) {
+			// Retry until the larger maximum is stored.
+		}
+	}
+
+	/**
+	 * @return the number of latencies recorded.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			count += counts[i].sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return the upper bound, in nanoseconds, of the bucket holding the given
+	 *         percentile, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts[i].sum();
+			count += snapshot[i];
+		}
+		long rank = (long) Math.ceil(count * Math.min(100, percentile) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= Math.max(1, rank) && snapshot[i] > 0) {
+				return Math.min(bucketUpperBound(i), max.get());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return a summary of the recorded latencies, in microseconds.
+	 */
+	public Snapshot getSnapshot() {
+		long count = getCount();
+		double mean = count == 0 ? 0 : (double) total.sum() / count;
+		return new Snapshot(count, toMicros(mean),
+				toMicros(getPercentile(50)), toMicros(getPercentile(90)),
+				toMicros(getPercentile(99)), toMicros(getPercentile(99.9)),
+				toMicros(max.get()));
+	}
+
+	/**
+	 * Forget every recorded latency.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i].reset();
+		}
+		total.reset();
+		max.set(0);
+	}
+
+	static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS))
+				& (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (subBucket + 1) * width - 1;
+	}
+
+	private static double toMicros(double nanos) {
+		return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+	}
+
+	/**
+	 * An immutable summary of a {@link LatencyHistogram}, in microseconds.
+	 */
+	public static final class Snapshot {
+		private final long count;
+		private final double mean;
+		private final double p50;
+		private final double p90;
+		private final double p99;
+		private final double p999;
+		private final double max;
+
+		/**
+		 * Create a summary, used when reconstructing one read over JMX.
+		 */
+		@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999",
+				"max" })
+		public Snapshot(long count, double mean, double p50, double p90,
+				double p99, double p999, double max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of latencies recorded.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the mean latency.
+		 */
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 * @return the median latency.
+		 */
+		public double getP50() {
+			return p50;
+		}
+
+		/**
+		 * @return the 90th percentile latency.
+		 */
+		public double getP90() {
+			return p90;
+		}
+
+		/**
+		 * @return the 99th percentile latency.
+		 */
+		public double getP99() {
+			return p99;
+		}
+
+		/**
+		 * @return the 99.9th percentile latency.
+		 */
+		public double getP999() {
+			return p999;
+		}
+
+		/**
+		 * @return the largest latency recorded.
+		 */
+		public double getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + " mean=" + mean + "us p50=" + p50
+					+ "us p90=" + p90 + "us p99=" + p99 + "us p99.9=" + p999
+					+ "us max=" + max + "us";
+		}
+	}
+}
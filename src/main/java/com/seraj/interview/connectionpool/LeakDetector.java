@@ -0,0 +1,155 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reports leases held past a threshold as suspected leaks of their
+ * {@link Connection}. </p> The stack of the borrower is captured for one in
+ * every <i>sampling</i> borrows, or every borrow when debug logging is
+ * enabled, so that leaving detection on costs little. Suspected leaks are
+ * counted by the call site which borrowed them, unsampled leases under a
+ * single unknown site.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class LeakDetector {
+
+	/**
+	 * The call site of the suspected leaks whose borrow was not sampled.
+	 */
+	static final String UNKNOWN_SITE = "<not sampled>";
+
+	private static final Logger LOG = Logger.getLogger(LeakDetector.class);
+
+	private final long thresholdNanos;
+	private final int sampling;
+	private final ConcurrentMap<String, LongAdder> leaksBySite = new ConcurrentHashMap<String, LongAdder>();
+	private final LongAdder leaks = new LongAdder();
+
+	/**
+	 * @param threshold
+	 *            The length of time after which a lease is a suspected leak.
+	 * @param unit
+	 *            The {@link TimeUnit} of the threshold.
+	 * @param sampling
+	 *            The stack of one borrow in this many is captured, 1 for every
+	 *            borrow.
+	 */
+	LeakDetector(long threshold, TimeUnit unit, int sampling) {
+		this.thresholdNanos = unit.toNanos(threshold);
+		this.sampling = Math.max(1, sampling);
+	}
+
+	/**
+	 * @return the length of time after which a lease is a suspected leak, in
+	 *         nanoseconds.
+	 */
+	long getThresholdNanos() {
+		return thresholdNanos;
+	}
+
+	/**
+	 * Capture the stack of the calling borrower if this borrow is sampled.
+	 * 
+	 * @return The borrow site, or null if the borrow is not sampled.
+	 */
+	BorrowSite capture() {
+		if (sampling == 1 || LOG.isDebugEnabled()
+				|| ThreadLocalRandom.current().nextInt(sampling) == 0) {
+			return new BorrowSite(Thread.currentThread());
+		}
+		return null;
+	}
+
+	/**
+	 * Report a lease held past the threshold.
+	 * 
+	 * @param holdNanos
+	 *            The time the lease has been held.
+	 * @param site
+	 *            The borrow site of the lease, null if not sampled.
+	 */
+	void report(long holdNanos, BorrowSite site) {
+		String callSite = site == null ? UNKNOWN_SITE : site.getCallSite();
+		LongAdder count = leaksBySite.get(callSite);
+		if (count == null) {
+			LongAdder created = new LongAdder();
+			count = leaksBySite.putIfAbsent(callSite, created);
+			count = count == null ? created : count;
+		}
+		count.increment();
+		leaks.increment();
+		String message = "Connection leak suspected, lease held for "
+				+ TimeUnit.NANOSECONDS.toMillis(holdNanos) + "ms by "
+				+ callSite + ".";
+		if (site == null) {
+			LOG.warn(message);
+		} else {
+			LOG.warn(message, site);
+		}
+	}
+
+	/**
+	 * @return the number of suspected leaks.
+	 */
+	long getLeakCount() {
+		return leaks.sum();
+	}
+
+	/**
+	 * @return the number of suspected leaks by the call site which borrowed
+	 *         them.
+	 */
+	Map<String, Long> getLeakCountsBySite() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : leaksBySite.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * Forget the suspected leaks counted.
+	 */
+	void reset() {
+		leaksBySite.clear();
+		leaks.reset();
+	}
+
+	/**
+	 * The stack of a borrower, captured as it borrowed a {@link Connection}.
+	 */
+	static final class BorrowSite extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		BorrowSite(Thread borrower) {
+			super("Connection borrowed by Thread[" + borrower.getName()
+					+ "] here.");
+		}
+
+		/**
+		 * @return the first frame of the stack outside of the pool.
+		 */
+		String getCallSite() {
+			for (StackTraceElement frame : getStackTrace()) {
+				String className = frame.getClassName();
+				if (!className.startsWith(LeakDetector.class.getName())
+						&& !className.startsWith(BlockingConnectionPool.class
+								.getName())) {
+					return frame.toString();
+				}
+			}
+			return UNKNOWN_SITE;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The leases of the {@link PooledConnection}s of a pool, kept by slot. Each
+ * {@link PooledConnection} is given a slot index as it joins the pool; the
+ * start of its lease, 0 when not on lease, lives in a primitive array at
+ * that index. Leasing, revoking and finding the {@link PooledConnection} of
+ * a {@link Connection} allocate nothing and take no lock. </p> Slots are
+ * held in fixed size chunks which never move, so a table growing does not
+ * lose concurrent updates. Joining and leaving the pool are rare and
+ * synchronized, they rebuild the index used to find {@link Connection}s by
+ * identity rather than by the driver's equals and hashCode.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class LeaseTable {
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// The start of the lease held on each slot, 0 when not on lease.
+	private volatile AtomicLongArray[] leaseStarts = new AtomicLongArray[0];
+	// The PooledConnection in each slot, null if the slot is free.
+	private volatile AtomicReferenceArray<PooledConnection>[] pooled = newChunks(0);
+	// The PooledConnections by the identity hash of their Connection, open
+	// addressed, replaced as connections join and leave.
+	private volatile PooledConnection[] index = new PooledConnection[1];
+	// The number of slots handed out, and the freed ones to reuse first.
+	private int highWater;
+	private int[] freeSlots = new int[CHUNK_SIZE];
+	private int freeCount;
+	private int registered;
+	private final AtomicInteger leased = new AtomicInteger();
+
+	/**
+	 * Give the {@link PooledConnection} a slot.
+	 * 
+	 * @param connection
+	 *            A {@link PooledConnection} joining the pool.
+	 */
+	synchronized void register(PooledConnection connection) {
+		int slot = freeCount > 0 ? freeSlots[--freeCount] : highWater++;
+		if (slot >> CHUNK_BITS >= leaseStarts.length) {
+			grow();
+		}
+		connection.slot = slot;
+		pooled[slot >> CHUNK_BITS].set(slot & CHUNK_MASK, connection);
+		registered++;
+		rebuildIndex();
+	}
+
+	/**
+	 * Free the slot of the {@link PooledConnection}.
+	 * 
+	 * @param connection
+	 *            A {@link PooledConnection} leaving the pool, not on lease.
+	 */
+	synchronized void unregister(PooledConnection connection) {
+		int slot = connection.slot;
+		if (slot < 0
+				|| pooled[slot >> CHUNK_BITS].get(slot & CHUNK_MASK) != connection) {
+			return;
+		}
+		revoke(connection);
+		pooled[slot >> CHUNK_BITS].set(slot & CHUNK_MASK, null);
+		connection.slot = -1;
+		if (freeCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+		}
+		freeSlots[freeCount++] = slot;
+		registered--;
+		rebuildIndex();
+	}
+
+	/**
+	 * @param connection
+	 *            A {@link Connection} handed out by the pool, not a proxy.
+	 * @return the {@link PooledConnection} of the {@link Connection}, null if
+	 *         it is not in the pool.
+	 */
+	PooledConnection find(Connection connection) {
+		PooledConnection[] table = index;
+		int mask = table.length - 1;
+		for (int i = System.identityHashCode(connection) & mask;; i = (i + 1)
+				& mask) {
+			PooledConnection candidate = table[i];
+			if (candidate == null || candidate.connection == connection) {
+				return candidate;
+			}
+		}
+	}
+
+	/**
+	 * Start a lease on the {@link PooledConnection}.
+	 * 
+	 * @param connection
+	 *            A registered {@link PooledConnection} not on lease.
+	 * @return The start of the lease, by {@link System#nanoTime()} but never
+	 *         0.
+	 */
+	long lease(PooledConnection connection) {
+		long start = System.nanoTime();
+		start = start == 0 ? 1 : start;
+		int slot = connection.slot;
+		leaseStarts[slot >> CHUNK_BITS].set(slot & CHUNK_MASK, start);
+		leased.incrementAndGet();
+		return start;
+	}
+
+	/**
+	 * End the lease on the {@link PooledConnection}, whichever it is. The
+	 * {@link PooledConnection} may have left the pool in the meantime, when
+	 * released as it is reaped or closed, and its slot given to another.
+	 * 
+	 * @param connection
+	 *            A {@link PooledConnection}, registered or not.
+	 * @return The start of the lease ended, 0 if it was not on lease or no
+	 *         longer in the pool.
+	 */
+	long revoke(PooledConnection connection) {
+		int slot = connection.slot;
+		if (slot < 0) {
+			return 0;
+		}
+		AtomicLongArray starts = leaseStarts[slot >> CHUNK_BITS];
+		while (true) {
+			long start = starts.get(slot & CHUNK_MASK);
+			if (start == 0 || get(slot) != connection) {
+				return 0;
+			} else if (starts.compareAndSet(slot & CHUNK_MASK, start, 0)) {
+				// A lease of another connection in a reused slot starts
+				// later, so it is never ended here.
+				leased.decrementAndGet();
+				return start;
+			}
+		}
+	}
+
+	/**
+	 * End the given lease on the {@link PooledConnection}, unless it already
+	 * ended.
+	 * 
+	 * @param connection
+	 *            A registered {@link PooledConnection}.
+	 * @param start
+	 *            The start of the lease to end.
+	 * @return true if the lease was ended by this call.
+	 */
+	boolean revoke(PooledConnection connection, long start) {
+		int slot = connection.slot;
+		if (slot >= 0
+				&& leaseStarts[slot >> CHUNK_BITS].compareAndSet(
+						slot & CHUNK_MASK, start, 0)) {
+			leased.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param connection
+	 *            A registered {@link PooledConnection}.
+	 * @return the start of the lease on the {@link PooledConnection}, 0 if it
+	 *         is not on lease.
+	 */
+	long getLeaseStart(PooledConnection connection) {
+		return getLeaseStart(connection.slot);
+	}
+
+	/**
+	 * @param slot
+	 *            A slot index below {@link #getSlotCount()}.
+	 * @return the start of the lease held on the slot, 0 if none.
+	 */
+	long getLeaseStart(int slot) {
+		return slot < 0 ? 0 : leaseStarts[slot >> CHUNK_BITS]
+				.get(slot & CHUNK_MASK);
+	}
+
+	/**
+	 * @param slot
+	 *            A slot index below {@link #getSlotCount()}.
+	 * @return the {@link PooledConnection} in the slot, null if free.
+	 */
+	PooledConnection get(int slot) {
+		return pooled[slot >> CHUNK_BITS].get(slot & CHUNK_MASK);
+	}
+
+	/**
+	 * @return the number of slots which may be in use.
+	 */
+	int getSlotCount() {
+		return leaseStarts.length << CHUNK_BITS;
+	}
+
+	/**
+	 * @return the number of {@link PooledConnection}s on lease.
+	 */
+	int getLeasedCount() {
+		return leased.get();
+	}
+
+	private void grow() {
+		int chunks = leaseStarts.length;
+		AtomicLongArray[] starts = Arrays.copyOf(leaseStarts, chunks + 1);
+		starts[chunks] = new AtomicLongArray(CHUNK_SIZE);
+		AtomicReferenceArray<PooledConnection>[] slots = Arrays.copyOf(
+				pooled, chunks + 1);
+		slots[chunks] = new AtomicReferenceArray<PooledConnection>(CHUNK_SIZE);
+		// The slots before the lease starts, so readers of either find both.
+		pooled = slots;
+		leaseStarts = starts;
+	}
+
+	private void rebuildIndex() {
+		// At most half full, so probes stay short.
+		int capacity = Integer.highestOneBit(Math.max(1, registered) * 4);
+		PooledConnection[] table = new PooledConnection[capacity];
+		int mask = capacity - 1;
+		for (int slot = 0; slot < highWater; ++slot) {
+			PooledConnection connection = get(slot);
+			if (connection != null) {
+				int i = System.identityHashCode(connection.connection) & mask;
+				while (table[i] != null) {
+					i = (i + 1) & mask;
+				}
+				table[i] = connection;
+			}
+		}
+		index = table;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static AtomicReferenceArray<PooledConnection>[] newChunks(
+			int count) {
+		return new AtomicReferenceArray[count];
+	}
+}
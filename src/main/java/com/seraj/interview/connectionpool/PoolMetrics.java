@@ -0,0 +1,134 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and counts of a pool's events, recorded as a
+ * {@link ConnectionPoolListener}. Recording allocates nothing and takes no
+ * lock, so it is always on.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class PoolMetrics implements ConnectionPoolListener {
+
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+	private final LatencyHistogram leaseHold = new LatencyHistogram();
+	private final LatencyHistogram connectionCreate = new LatencyHistogram();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder reapedLeases = new LongAdder();
+	private final LongAdder createFailures = new LongAdder();
+	private final LongAdder validationFailures = new LongAdder();
+	private final LongAdder destroyed = new LongAdder();
+
+	@Override
+	public void connectionBorrowed(long waitNanos) {
+		borrowWait.record(waitNanos);
+	}
+
+	@Override
+	public void borrowTimedOut(long waitNanos) {
+		timeouts.increment();
+	}
+
+	@Override
+	public void connectionReleased(long holdNanos) {
+		leaseHold.record(holdNanos);
+	}
+
+	@Override
+	public void leaseReaped(long holdNanos) {
+		reapedLeases.increment();
+		leaseHold.record(holdNanos);
+	}
+
+	@Override
+	public void connectionCreated(long createNanos) {
+		connectionCreate.record(createNanos);
+	}
+
+	@Override
+	public void connectionCreateFailed(Throwable cause) {
+		createFailures.increment();
+	}
+
+	@Override
+	public void validationFailed() {
+		validationFailures.increment();
+	}
+
+	@Override
+	public void connectionDestroyed() {
+		destroyed.increment();
+	}
+
+	/**
+	 * @return the time borrowers waited for a connection.
+	 */
+	public LatencyHistogram getBorrowWait() {
+		return borrowWait;
+	}
+
+	/**
+	 * @return the time connections were on lease, released or reaped.
+	 */
+	public LatencyHistogram getLeaseHold() {
+		return leaseHold;
+	}
+
+	/**
+	 * @return the time the connection factory took to create connections.
+	 */
+	public LatencyHistogram getConnectionCreate() {
+		return connectionCreate;
+	}
+
+	/**
+	 * @return the number of borrowers which gave up waiting.
+	 */
+	public long getTimeoutCount() {
+		return timeouts.sum();
+	}
+
+	/**
+	 * @return the number of leases reaped because their lease term expired.
+	 */
+	public long getReapedLeaseCount() {
+		return reapedLeases.sum();
+	}
+
+	/**
+	 * @return the number of failures of the connection factory.
+	 */
+	public long getCreateFailureCount() {
+		return createFailures.sum();
+	}
+
+	/**
+	 * @return the number of connections found invalid.
+	 */
+	public long getValidationFailureCount() {
+		return validationFailures.sum();
+	}
+
+	/**
+	 * @return the number of connections removed from the pool and closed.
+	 */
+	public long getDestroyedCount() {
+		return destroyed.sum();
+	}
+
+	/**
+	 * Forget every recorded latency and count.
+	 */
+	public void reset() {
+		borrowWait.reset();
+		leaseHold.reset();
+		connectionCreate.reset();
+		timeouts.reset();
+		reapedLeases.reset();
+		createFailures.reset();
+		validationFailures.reset();
+		destroyed.reset();
+	}
+}
@@ -0,0 +1,42 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * A {@link Connection} held by a pool, along with the bookkeeping the pool
+ * keeps on it. The fields are guarded by the hand over of the
+ * {@link PooledConnection} between Threads through the pool's concurrent
+ * collections.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class PooledConnection {
+
+	final Connection connection;
+	// The System.nanoTime() of the last successful validation, or creation.
+	long lastValidated;
+	// The System.nanoTime() at which the connection last became idle.
+	long idleSince;
+	// The prepared statements kept across leases, null if not cached.
+	final StatementCache statements;
+	// The generation of the pool the connection was created in.
+	int generation;
+	// The index of the connection in its pool's lease table, -1 if none.
+	int slot = -1;
+	// The proxy handed out for the current lease, null if not proxied.
+	ConnectionProxy proxy;
+	// The expiry of the current lease, null if leases do not expire.
+	HashedTimingWheel.Timeout expiry;
+	// The stack of the current borrower, null if not captured.
+	LeakDetector.BorrowSite borrowSite;
+	// Whether the current lease was reported as a suspected leak.
+	volatile boolean leakReported;
+
+	PooledConnection(Connection connection, StatementCache statements) {
+		this.connection = connection;
+		this.statements = statements;
+		this.lastValidated = System.nanoTime();
+		this.idleSince = lastValidated;
+	}
+}
@@ -0,0 +1,414 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.configuration.Configurable;
+import com.seraj.interview.configuration.ConfigurationReader;
+
+/**
+ * A Thread-safe {@link ConnectionPool} routing borrows over several
+ * databases, a primary and its read replicas, each pooled by its own
+ * {@link BlockingConnectionPool}. </p> {@link #getConnection()} borrows from
+ * a primary; {@link #getReadOnlyConnection()} from a replica, or a primary
+ * when no replica is available. Among the candidates of a role the backend
+ * with the fewest outstanding leases relative to its weight is chosen, the
+ * one of lowest recent borrow latency among equals. </p> A backend whose connections
+ * fail to be created or validated ejectionThreshold times in a row is
+ * ejected for the ejectionInterval, its traffic spread over the others; a
+ * borrow failing to create a connection, or failing fast on an open circuit,
+ * is retried on the next backend, so callers only see the failure when every
+ * backend of the role failed. Once the interval has passed a single failure
+ * ejects the backend again, and a successful creation readmits it for good.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class RoutingConnectionPool implements ConnectionPool {
+
+	// ************************
+	// Configurable properties
+	// ************************
+	// Package-private so that the generated binder sets them.
+	@Configurable
+	TimeUnit timeUnits = TimeUnit.MILLISECONDS;
+	@Configurable(min = 1)
+	int ejectionThreshold = 3;
+	@Configurable(unitField = "timeUnits", min = 0)
+	long ejectionInterval = 30000;
+
+	// ************************
+	// Internal fields
+	// ************************
+	private static final Logger LOG = Logger
+			.getLogger(RoutingConnectionPool.class);
+	// The properties every backend pool is configured with.
+	private final Properties properties;
+	// The backends in the order added, replaced on change so that routing
+	// takes no lock.
+	private volatile Backend[] backends = new Backend[0];
+	// The map of connections on lease and the backend they belong to.
+	private ConcurrentMap<Connection, Backend> leasedConnections = new ConcurrentHashMap<Connection, Backend>();
+
+	/**
+	 * Create a new Routing {@link ConnectionPool}, without backends.
+	 */
+	public RoutingConnectionPool() {
+		this.properties = new Properties();
+	}
+
+	/**
+	 * Create and configure a new Routing {@link ConnectionPool}, without
+	 * backends. </p> The configurable properties include:
+	 * <ul>
+	 * <li><b>timeUnits</b> = The time unit context for all time based
+	 * configurations; each may also be given with a unit suffix: ns, us, ms,
+	 * s, m, h or d, such as '30s'. <i>Default value is MILLISECONDS</i></li>
+	 * <li><b>ejectionThreshold</b> = The number of consecutive failures to
+	 * create or validate a connection of a backend after which it is ejected.
+	 * <i>Default value is 3.</i></li>
+	 * <li><b>ejectionInterval</b> = The length of time an ejected backend
+	 * receives no borrows. <i>Default value is 30000.</i></li>
+	 * </ul>
+	 * Every property also configures the {@link BlockingConnectionPool} of
+	 * each backend, see {@link BlockingConnectionPool#BlockingConnectionPool(Properties)};
+	 * its jmxName and journalFile are suffixed by the name of the backend.
+	 * With proxyConnections, closing a proxy releases it through this pool.
+	 *
+	 * </p> <b>Note:</b> The timeUnits field configuration must match exactly an
+	 * identifier used to declare an enum constant of {@link TimeUnit}.
+	 *
+	 * @param properties
+	 *            The java {@link Properties} used to configure this
+	 *            {@link ConnectionPool} and its backends.
+	 */
+	public RoutingConnectionPool(Properties properties) {
+		ConfigurationReader.loadConfigurations(properties,
+				RoutingConnectionPool.class, this);
+		this.properties = properties;
+	}
+
+	/**
+	 * Add a database to route borrows to.
+	 *
+	 * @param name
+	 *            The unique name of the backend.
+	 * @param role
+	 *            The role of the backend.
+	 * @param weight
+	 *            The share of the borrows of its role the backend takes,
+	 *            relative to the weights of the others.
+	 * @param connectionFactory
+	 *            The factory used to create new connections to the backend.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the name is taken or the weight is below 1.
+	 */
+	public synchronized void addBackend(String name, BackendRole role,
+			int weight, ConnectionFactory connectionFactory) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("The weight " + weight
+					+ " of the backend " + name + " is below 1.");
+		}
+		for (Backend backend : backends) {
+			if (backend.name.equals(name)) {
+				throw new IllegalArgumentException("The backend " + name
+						+ " already exists.");
+			}
+		}
+		Properties backendProperties = new Properties();
+		backendProperties.putAll(properties);
+		suffix(backendProperties, "jmxName", "-" + name);
+		suffix(backendProperties, "journalFile", "." + name);
+		Backend backend = new Backend(name, role, weight,
+				new BlockingConnectionPool(backendProperties, connectionFactory));
+		backend.pool.addListener(backend);
+		// Closing a proxy ends the lease here too, not only in the backend.
+		backend.pool.setProxyOwner(this);
+		Backend[] added = Arrays.copyOf(backends, backends.length + 1);
+		added[backends.length] = backend;
+		backends = added;
+	}
+
+	/**
+	 * Gets a {@link Connection} from a primary, for reads and writes. The
+	 * primary is chosen as described by {@link RoutingConnectionPool}.
+	 *
+	 * @return A {@link Connection} from a primary.
+	 * @throws SQLException
+	 *             Thrown if no primary could lease a {@link Connection}.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return borrow(false);
+	}
+
+	/**
+	 * Gets a {@link Connection} for reads only, from a replica or, when no
+	 * replica is available, a primary. The replica is chosen as described by
+	 * {@link RoutingConnectionPool}.
+	 *
+	 * @return A {@link Connection} from a replica or a primary.
+	 * @throws SQLException
+	 *             Thrown if no backend could lease a {@link Connection}.
+	 */
+	public Connection getReadOnlyConnection() throws SQLException {
+		return borrow(true);
+	}
+
+	/**
+	 * Releases a {@link Connection} back into the pool of its backend.
+	 *
+	 * @param connection
+	 *            The {@link Connection} being released.
+	 * @throws SQLException
+	 *             Thrown when the {@link Connection} is unknown, or a failure
+	 *             to close an invalid connection.
+	 */
+	@Override
+	public void releaseConnection(Connection connection) throws SQLException {
+		if (connection == null) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"A null connection is not valid.");
+			throw new SQLException(exception);
+		}
+		Backend backend = leasedConnections.remove(connection);
+		if (backend == null) {
+			connection.close();
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"The connection is not recognized by the pool.");
+			throw new SQLException(exception);
+		}
+		backend.outstanding.decrementAndGet();
+		backend.pool.releaseConnection(connection);
+	}
+
+	/**
+	 * @param name
+	 *            The name of a backend.
+	 * @return the pool of the backend, for monitoring.
+	 * @throws IllegalArgumentException
+	 *             Thrown if no backend has the name.
+	 */
+	public BlockingConnectionPool getBackendPool(String name) {
+		return find(name).pool;
+	}
+
+	/**
+	 * @param name
+	 *            The name of a backend.
+	 * @return the number of connections of the backend on lease.
+	 * @throws IllegalArgumentException
+	 *             Thrown if no backend has the name.
+	 */
+	public int getOutstanding(String name) {
+		return find(name).outstanding.get();
+	}
+
+	/**
+	 * @param name
+	 *            The name of a backend.
+	 * @return true if the backend is ejected.
+	 * @throws IllegalArgumentException
+	 *             Thrown if no backend has the name.
+	 */
+	public boolean isEjected(String name) {
+		return !find(name).isAvailable(System.nanoTime());
+	}
+
+	/**
+	 * Borrow from the cheapest available backend of the role, failing over to
+	 * the next when a creation fails.
+	 *
+	 * @param readOnly
+	 *            Whether a replica may serve the borrow.
+	 * @return A leased {@link Connection}.
+	 * @throws SQLException
+	 *             Thrown if no backend could lease a {@link Connection}.
+	 */
+	private Connection borrow(boolean readOnly) throws SQLException {
+		Backend[] candidates = backends;
+		boolean[] tried = new boolean[candidates.length];
+		RuntimeException failure = null;
+		SQLException suspended = null;
+		Backend backend;
+		while ((backend = choose(candidates, tried, readOnly)) != null) {
+			long start = System.nanoTime();
+			try {
+				Connection connection = backend.pool.getConnection();
+				backend.recordLatency(System.nanoTime() - start);
+				backend.outstanding.incrementAndGet();
+				leasedConnections.put(connection, backend);
+				return connection;
+			} catch (SQLTransientConnectionException e) {
+				// The backend's creations are suspended.
+				suspended = e;
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to borrow from the backend " + backend.name
+						+ ", trying another.", e);
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		} else if (suspended != null) {
+			throw suspended;
+		}
+		throw new SQLException(new IllegalStateException("No "
+				+ (readOnly ? "backend" : "primary backend")
+				+ " to borrow from."));
+	}
+
+	/**
+	 * Choose the least loaded backend not yet tried. Replicas come first for
+	 * a read-only borrow, then primaries; ejected backends come last.
+	 *
+	 * @param candidates
+	 *            Every backend.
+	 * @param tried
+	 *            The backends already tried, the one chosen is marked.
+	 * @param readOnly
+	 *            Whether a replica may serve the borrow.
+	 * @return The backend to borrow from, null if none is left.
+	 */
+	private Backend choose(Backend[] candidates, boolean[] tried,
+			boolean readOnly) {
+		long now = System.nanoTime();
+		int best = -1;
+		int bestRank = Integer.MAX_VALUE;
+		double bestLoad = Double.MAX_VALUE;
+		long bestLatency = Long.MAX_VALUE;
+		// Start anywhere, so that equal backends share the load.
+		int offset = candidates.length == 0 ? 0 : ThreadLocalRandom.current()
+				.nextInt(candidates.length);
+		for (int n = 0; n < candidates.length; ++n) {
+			int i = (offset + n) % candidates.length;
+			Backend backend = candidates[i];
+			if (tried[i] || !readOnly && backend.role != BackendRole.PRIMARY) {
+				continue;
+			}
+			int rank = (backend.isAvailable(now) ? 0 : 2)
+					+ (readOnly && backend.role == BackendRole.PRIMARY ? 1
+							: 0);
+			double load = backend.load();
+			long latency = backend.latencyNanos;
+			if (rank < bestRank || rank == bestRank
+					&& (load < bestLoad || load == bestLoad
+							&& latency < bestLatency)) {
+				best = i;
+				bestRank = rank;
+				bestLoad = load;
+				bestLatency = latency;
+			}
+		}
+		if (best < 0) {
+			return null;
+		}
+		tried[best] = true;
+		return candidates[best];
+	}
+
+	private synchronized Backend find(String name) {
+		for (Backend backend : backends) {
+			if (backend.name.equals(name)) {
+				return backend;
+			}
+		}
+		throw new IllegalArgumentException("No backend is named " + name
+				+ ".");
+	}
+
+	private static void suffix(Properties properties, String key,
+			String suffix) {
+		String value = properties.getProperty(key);
+		if (value != null && !value.trim().isEmpty()) {
+			properties.setProperty(key, value.trim() + suffix);
+		}
+	}
+
+	/**
+	 * A database behind the pool, with its own {@link BlockingConnectionPool}
+	 * whose events it listens to.
+	 */
+	private final class Backend implements ConnectionPoolListener {
+		private final String name;
+		private final BackendRole role;
+		private final int weight;
+		private final BlockingConnectionPool pool;
+		// The number of connections on lease through the routing pool.
+		private final AtomicInteger outstanding = new AtomicInteger();
+		// The number of consecutive failures to create or validate.
+		private final AtomicInteger failures = new AtomicInteger();
+		// The moving average of the borrow latency, updated without a lock:
+		// a lost update only delays the average.
+		private volatile long latencyNanos;
+		// The System.nanoTime() the ejection ends, 0 if not ejected.
+		private volatile long ejectedUntil;
+
+		Backend(String name, BackendRole role, int weight,
+				BlockingConnectionPool pool) {
+			this.name = name;
+			this.role = role;
+			this.weight = weight;
+			this.pool = pool;
+		}
+
+		boolean isAvailable(long now) {
+			long until = ejectedUntil;
+			return until == 0 || now - until >= 0;
+		}
+
+		// The outstanding leases, the one to come included, per weight.
+		double load() {
+			return (outstanding.get() + 1.0) / weight;
+		}
+
+		void recordLatency(long nanos) {
+			long average = latencyNanos;
+			// An eighth of the latest borrow.
+			latencyNanos = average + (nanos - average) / 8;
+		}
+
+		@Override
+		public void connectionCreated(long createNanos) {
+			failures.set(0);
+			if (ejectedUntil != 0) {
+				ejectedUntil = 0;
+				LOG.info("Backend " + name + " readmitted.");
+			}
+		}
+
+		@Override
+		public void connectionCreateFailed(Throwable cause) {
+			failed();
+		}
+
+		@Override
+		public void validationFailed() {
+			failed();
+		}
+
+		private void failed() {
+			int count = failures.incrementAndGet();
+			long now = System.nanoTime();
+			if (count >= ejectionThreshold && isAvailable(now)) {
+				long nanos = timeUnits.toNanos(ejectionInterval);
+				// 0 means not ejected.
+				ejectedUntil = now + nanos == 0 ? 1 : now + nanos;
+				LOG.warn("Backend " + name + " ejected for "
+						+ TimeUnit.NANOSECONDS.toMillis(nanos) + "ms after "
+						+ count + " consecutive failures.");
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.seraj.interview.connectionpool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A decision of the adaptive sizing of a pool, along with the measurements
+ * of the interval it was based on.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public final class SizingDecision {
+
+	/**
+	 * The change made to the pool limit.
+	 */
+	public enum Action {
+		/**
+		 * The limit was raised as borrowers waited too long.
+		 */
+		GROW,
+		/**
+		 * The limit was lowered, as fewer connections serve the load or more
+		 * connections did not raise the throughput.
+		 */
+		SHRINK,
+		/**
+		 * The limit was kept.
+		 */
+		HOLD
+	}
+
+	private final Action action;
+	private final int previousLimit;
+	private final int limit;
+	private final double throughput;
+	private final long meanWaitNanos;
+	private final long meanHoldNanos;
+	private final double connectionsInUse;
+	private final String reason;
+
+	SizingDecision(Action action, int previousLimit, int limit,
+			double throughput, long meanWaitNanos, long meanHoldNanos,
+			double connectionsInUse, String reason) {
+		this.action = action;
+		this.previousLimit = previousLimit;
+		this.limit = limit;
+		this.throughput = throughput;
+		this.meanWaitNanos = meanWaitNanos;
+		this.meanHoldNanos = meanHoldNanos;
+		this.connectionsInUse = connectionsInUse;
+		this.reason = reason;
+	}
+
+	/**
+	 * @return the change made to the pool limit.
+	 */
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * @return the pool limit before the decision.
+	 */
+	public int getPreviousLimit() {
+		return previousLimit;
+	}
+
+	/**
+	 * @return the pool limit after the decision.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the borrows per second over the interval.
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * @return the mean borrow wait over the interval, in nanoseconds.
+	 */
+	public long getMeanWaitNanos() {
+		return meanWaitNanos;
+	}
+
+	/**
+	 * @return the mean lease hold over the interval, in nanoseconds.
+	 */
+	public long getMeanHoldNanos() {
+		return meanHoldNanos;
+	}
+
+	/**
+	 * @return the mean number of connections on lease over the interval, by
+	 *         Little's law the throughput times the mean hold.
+	 */
+	public double getConnectionsInUse() {
+		return connectionsInUse;
+	}
+
+	/**
+	 * @return why the decision was made.
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	@Override
+	public String toString() {
+		return action + " " + previousLimit + " -> " + limit + ": " + reason
+				+ " (throughput=" + Math.round(throughput) + "/s wait="
+				+ TimeUnit.NANOSECONDS.toMicros(meanWaitNanos) + "us hold="
+				+ TimeUnit.NANOSECONDS.toMicros(meanHoldNanos) + "us inUse="
+				+ String.format("%.1f", connectionsInUse) + ")";
+	}
+}
@@ -0,0 +1,293 @@
+package com.seraj.interview.connectionpool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded cache of the {@link PreparedStatement}s of a single pooled
+ * {@link Connection}, surviving across leases. A cached statement is handed
+ * out wrapped in a proxy whose close returns it to the cache; a statement
+ * prepared while its cached twin is in use is not cached.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+final class StatementCache {
+
+	private static final Logger LOG = Logger.getLogger(StatementCache.class);
+
+	private final int maxSize;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	// Guarded by this.
+	private final LinkedHashMap<Key, Entry> entries;
+
+	/**
+	 * @param maxSize
+	 *            The largest number of statements cached.
+	 * @param eviction
+	 *            The policy choosing the statement closed when full.
+	 * @param hits
+	 *            The counter of statements served from the cache.
+	 * @param misses
+	 *            The counter of statements prepared by the driver.
+	 */
+	StatementCache(int maxSize, StatementCacheEviction eviction,
+			LongAdder hits, LongAdder misses) {
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f,
+				eviction == StatementCacheEviction.LRU);
+	}
+
+	/**
+	 * Serve a call to one of the prepareStatement methods, from the cache if
+	 * possible.
+	 * 
+	 * @param owner
+	 *            The {@link Connection} the statement reports as its own.
+	 * @param physical
+	 *            The driver {@link Connection} preparing statements.
+	 * @param method
+	 *            The prepareStatement method called.
+	 * @param args
+	 *            The arguments of the call.
+	 * @param open
+	 *            The statements of the lease not closed yet, the proxy being
+	 *            in it until closed. Guarded by itself.
+	 * @return The proxy of the cached statement.
+	 * @throws SQLException
+	 *             Thrown if the driver fails to prepare the statement.
+	 */
+	PreparedStatement prepare(Connection owner, Connection physical,
+			Method method, Object[] args, Set<PreparedStatement> open)
+			throws SQLException {
+		Key key = new Key(method, args);
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry != null && !entry.inUse) {
+				entry.inUse = true;
+			} else {
+				entry = null;
+			}
+		}
+		if (entry != null) {
+			hits.increment();
+			return entry.wrap(owner, open);
+		}
+		misses.increment();
+		PreparedStatement statement = (PreparedStatement) invoke(method,
+				physical, args);
+		entry = new Entry(key, statement);
+		List<Entry> evicted;
+		synchronized (this) {
+			if (entries.containsKey(key)) {
+				// The cached twin is in use, do not cache this one.
+				entry.cached = false;
+			} else {
+				entries.put(key, entry);
+			}
+			evicted = trim();
+		}
+		close(evicted);
+		return entry.wrap(owner, open);
+	}
+
+	/**
+	 * Forget every cached statement. The statements are closed with their
+	 * {@link Connection}.
+	 */
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of statements held by the cache.
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Return the statement to the cache, or close it if it is not cached.
+	 * 
+	 * @param entry
+	 *            The statement no longer in use.
+	 * @throws SQLException
+	 *             Thrown if the statement can not be reset or closed.
+	 */
+	private void release(Entry entry) throws SQLException {
+		if (!entry.cached) {
+			entry.statement.close();
+			return;
+		}
+		try {
+			entry.statement.clearParameters();
+		} catch (SQLException e) {
+			synchronized (this) {
+				entries.remove(entry.key);
+			}
+			entry.statement.close();
+			throw e;
+		}
+		List<Entry> evicted;
+		synchronized (this) {
+			entry.inUse = false;
+			evicted = trim();
+		}
+		close(evicted);
+	}
+
+	/**
+	 * Remove, in eviction order, statements not in use until the cache fits.
+	 * Must be called holding this.
+	 * 
+	 * @return The statements removed, to be closed outside of the lock.
+	 */
+	private List<Entry> trim() {
+		List<Entry> evicted = null;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > maxSize && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (!entry.inUse) {
+				iterator.remove();
+				evicted = evicted == null ? new ArrayList<Entry>() : evicted;
+				evicted.add(entry);
+			}
+		}
+		return evicted;
+	}
+
+	private static void close(List<Entry> evicted) {
+		if (evicted == null) {
+			return;
+		}
+		for (Entry entry : evicted) {
+			try {
+				entry.statement.close();
+			} catch (SQLException e) {
+				LOG.debug("Failed to close an evicted statement.", e);
+			}
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object[] args)
+			throws SQLException {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new SQLException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * The signature and arguments of a prepareStatement call.
+	 */
+	private static final class Key {
+		private final Object[] call;
+		private final int hash;
+
+		Key(Method method, Object[] args) {
+			this.call = new Object[args.length + 1];
+			call[0] = Arrays.asList(method.getParameterTypes());
+			System.arraycopy(args, 0, call, 1, args.length);
+			this.hash = Arrays.deepHashCode(call);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key
+					&& Arrays.deepEquals(call, ((Key) other).call);
+		}
+	}
+
+	/**
+	 * A cached statement, and the handler of the proxy handed out for it.
+	 */
+	private final class Entry implements InvocationHandler {
+		private final Key key;
+		private final PreparedStatement statement;
+		// Whether the statement is held by the cache, guarded by the cache.
+		private boolean cached = true;
+		private boolean inUse = true;
+		// The proxy of the current use, its owner and the open statements of
+		// the owner.
+		private volatile PreparedStatement proxy;
+		private Connection owner;
+		private Set<PreparedStatement> open;
+
+		Entry(Key key, PreparedStatement statement) {
+			this.key = key;
+			this.statement = statement;
+		}
+
+		PreparedStatement wrap(Connection owner, Set<PreparedStatement> open) {
+			this.owner = owner;
+			this.open = open;
+			PreparedStatement proxy = (PreparedStatement) Proxy
+					.newProxyInstance(PreparedStatement.class.getClassLoader(),
+							new Class<?>[] { PreparedStatement.class }, this);
+			synchronized (open) {
+				open.add(proxy);
+			}
+			this.proxy = proxy;
+			return proxy;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			boolean current = proxy == this.proxy;
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "CachedStatement[" + statement + "]";
+			} else if ("close".equals(name)) {
+				if (current) {
+					this.proxy = null;
+					synchronized (open) {
+						open.remove(proxy);
+					}
+					release(this);
+				}
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return !current || statement.isClosed();
+			} else if (!current) {
+				throw new SQLException("The statement is closed.");
+			} else if ("getConnection".equals(name)) {
+				return owner;
+			}
+			return StatementCache.invoke(method, statement, args);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.PreparedStatement;
+
+/**
+ * The policies deciding which cached {@link PreparedStatement} is closed
+ * when a statement cache is full.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public enum StatementCacheEviction {
+
+	/**
+	 * Evict the statement borrowed least recently.
+	 */
+	LRU,
+	/**
+	 * Evict the statement prepared first, regardless of its use.
+	 */
+	FIFO
+}
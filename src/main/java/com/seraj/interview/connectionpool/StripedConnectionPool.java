@@ -0,0 +1,496 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.configuration.Configurable;
+import com.seraj.interview.configuration.ConfigurationReader;
+
+/**
+ * A Thread-safe implementation of {@link ConnectionPool} split into stripes,
+ * each with its own idle list, size and share of maxPoolSize. </p> A borrowing
+ * Thread is routed to a home stripe by the hash of its id and only touches
+ * other stripes when its home stripe has neither an idle {@link Connection}
+ * nor space to create one; it then steals an idle {@link Connection}, or space,
+ * from the other stripes. A released {@link Connection} returns to the stripe
+ * it was created in. As the shares add up to maxPoolSize the pool never grows
+ * beyond it, without a size shared by every Thread. </p> Only when every stripe
+ * is exhausted does a Thread join the single queue of waiting callers, served
+ * in arrival order by releasing Threads.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class StripedConnectionPool implements ConnectionPool {
+
+	// ************************
+	// Required Fields, use setter to initialize
+	// ************************
+	/**
+	 * The factory used to create new connections for the pool. This is a
+	 * required field.
+	 */
+	private ConnectionFactory connectionFactory;
+
+	// ************************
+	// Configurable properties
+	// ************************
+	// Package-private so that the generated binder sets them.
+	@Configurable(min = 1)
+	int maxPoolSize = Integer.MAX_VALUE;
+	@Configurable
+	TimeUnit timeUnits = TimeUnit.MILLISECONDS;
+	@Configurable(unitField = "timeUnits")
+	long borrowTimeoutInterval = 500;
+	@Configurable(min = 0)
+	int validationTimeoutInSeconds = 2;
+	@Configurable(min = 0)
+	int stripeCount = 0;
+
+	// ************************
+	// Internal fields
+	// ************************
+	private static final Logger LOG = Logger
+			.getLogger(StripedConnectionPool.class);
+	private final Stripe[] stripes;
+	// The map of connections on lease and the stripe they belong to.
+	private ConcurrentMap<Connection, Stripe> leasedConnections = new ConcurrentHashMap<Connection, Stripe>();
+	// The callers waiting for a connection, oldest first.
+	private Queue<CompletableFuture<Connection>> waiters = new ConcurrentLinkedQueue<CompletableFuture<Connection>>();
+	// The number of callers in the waiters queue, read by every release.
+	private AtomicInteger waiterCount = new AtomicInteger(0);
+
+	/**
+	 * Create a new Striped {@link ConnectionPool} with a stripe per processor.
+	 */
+	public StripedConnectionPool() {
+		this.stripes = newStripes();
+	}
+
+	/**
+	 * Create and configure a new Striped {@link ConnectionPool}. </p> The
+	 * configurable properties include:
+	 * <ul>
+	 * <li><b>maxPoolSize</b> = The maximum number of connections to be held by
+	 * this connection pool, across all stripes. <i>Default size is
+	 * Integer.MAX_VALUE (unbounded).</i></li>
+	 * <li><b>timeUnits</b> = The time unit context for all time based
+	 * configurations; each may also be given with a unit suffix: ns, us, ms, s,
+	 * m, h or d, such as '30s'. <i>Default value is MILLISECONDS</i></li>
+	 * <li><b>borrowTimeoutInterval</b> = The length of time a waiting Thread
+	 * waits, each try, before retrying every stripe. <i>Default value is
+	 * 500.</i></li>
+	 * <li><b>validationTimeoutInSeconds</b> = The length of time to wait while
+	 * validating a released connection. This field is always in Seconds.
+	 * <i>Default value is 2.</i></li>
+	 * <li><b>stripeCount</b> = The number of stripes, at most maxPoolSize. If
+	 * configured to '0' the pool has a stripe per available processor.
+	 * <i>Default value is 0.</i></li>
+	 * </ul>
+	 *
+	 * </p> <b>Note:</b> The timeUnits field configuration must match exactly an
+	 * identifier used to declare an enum constant of {@link TimeUnit}.
+	 *
+	 * @param properties
+	 *            The java {@link Properties} used to configure this
+	 *            {@link ConnectionPool}.
+	 */
+	public StripedConnectionPool(Properties properties) {
+		ConfigurationReader.loadConfigurations(properties,
+				StripedConnectionPool.class, this);
+		this.stripes = newStripes();
+	}
+
+	/**
+	 * Gets a {@link Connection} from the connection pool. An idle
+	 * {@link Connection} of the calling Thread's home stripe is preferred,
+	 * followed by a new {@link Connection} in the home stripe, then an idle
+	 * {@link Connection} or space of another stripe. Else, block until a
+	 * {@link Connection} is handed over by a releasing Thread; waiting callers
+	 * are served in arrival order.
+	 *
+	 * @return A {@link Connection} from the connection pool.
+	 * @throws SQLException
+	 *             Thrown if the method is interrupted, or the creation of a
+	 *             {@link Connection} for the waiting caller failed.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (waiterCount.get() == 0) {
+			Connection connection = tryAcquire(homeStripe());
+			if (connection != null) {
+				return connection;
+			}
+		}
+		CompletableFuture<Connection> waiter = new CompletableFuture<Connection>();
+		waiterCount.incrementAndGet();
+		waiters.offer(waiter);
+		// A connection may have been released before this caller was queued.
+		dispatchToWaiters();
+		return awaitConnection(waiter);
+	}
+
+	/**
+	 * Releases a {@link Connection} back into the connection pool. If the
+	 * {@link Connection} is part of the pool, revoke the lease and recycle the
+	 * connection; handing it directly to the oldest waiting caller when one
+	 * exists.
+	 *
+	 * @param connection
+	 *            The {@link Connection} being released back into the connection
+	 *            pool.
+	 * @throws SQLException
+	 *             Thrown when the {@link Connection} is unknown, or a failure
+	 *             to determine the validity of the connection, which is then
+	 *             closed.
+	 */
+	@Override
+	public void releaseConnection(Connection connection) throws SQLException {
+		Stripe stripe = revokeLease(connection);
+		boolean valid = false;
+		try {
+			valid = connection.isValid(validationTimeoutInSeconds);
+		} finally {
+			if (!valid) {
+				discard(connection, stripe);
+			}
+		}
+		if (!valid) {
+			LOG.info("Connection from Thread["
+					+ Thread.currentThread().getName()
+					+ "] is no longer valid. Resource is being released from the pool.");
+		} else if (waiterCount.get() == 0 || !handOff(connection, stripe)) {
+			stripe.idle.offer(connection);
+			// A caller may have been queued after the hand off was attempted.
+			if (waiterCount.get() > 0) {
+				dispatchToWaiters();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of stripes the pool is split into.
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Split maxPoolSize into stripeCount shares, the first stripes taking the
+	 * remainder.
+	 *
+	 * @return The stripes of the pool.
+	 */
+	private Stripe[] newStripes() {
+		int count = stripeCount > 0 ? stripeCount : Runtime.getRuntime()
+				.availableProcessors();
+		count = Math.max(1, Math.min(count, maxPoolSize));
+		Stripe[] result = new Stripe[count];
+		for (int i = 0; i < count; ++i) {
+			result[i] = new Stripe(maxPoolSize / count
+					+ (i < maxPoolSize % count ? 1 : 0));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the index of the calling Thread's home stripe.
+	 */
+	private int homeStripe() {
+		long id = Thread.currentThread().getId();
+		// Spread sequential Thread ids over the stripes.
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % stripes.length;
+	}
+
+	/**
+	 * Lease an idle {@link Connection}, or create one, starting at the home
+	 * stripe. Other stripes are only touched once the home stripe is
+	 * exhausted.
+	 *
+	 * @param home
+	 *            The index of the calling Thread's home stripe.
+	 * @return A leased {@link Connection}, null if every stripe is exhausted.
+	 */
+	private Connection tryAcquire(int home) {
+		Stripe stripe = stripes[home];
+		Connection connection = stripe.idle.poll();
+		if (connection == null) {
+			connection = tryCreateNewConnection(stripe);
+		}
+		for (int i = 1; connection == null && i < stripes.length; ++i) {
+			stripe = stripes[(home + i) % stripes.length];
+			connection = stripe.idle.poll();
+		}
+		for (int i = 1; connection == null && i < stripes.length; ++i) {
+			stripe = stripes[(home + i) % stripes.length];
+			connection = tryCreateNewConnection(stripe);
+		}
+		if (connection != null) {
+			leasedConnections.put(connection, stripe);
+		}
+		return connection;
+	}
+
+	/**
+	 * Thread-safe implementation to create a new {@link Connection} when space
+	 * is available in the stripe.
+	 *
+	 * @param stripe
+	 *            The stripe the {@link Connection} is created in.
+	 * @return A connection if space is available, null otherwise. The space
+	 *         reserved is released if the creation fails.
+	 */
+	private Connection tryCreateNewConnection(Stripe stripe) {
+		if (!stripe.tryReserveSlot()) {
+			return null;
+		}
+		boolean created = false;
+		try {
+			Connection connection = getConnectionFactory().newConnection();
+			if (connection == null) {
+				throw new IllegalStateException(
+						"The connection factory returned no connection.");
+			}
+			created = true;
+			LOG.debug("New connection added to the pool.");
+			return connection;
+		} finally {
+			if (!created) {
+				stripe.releaseSlot();
+			}
+		}
+	}
+
+	/**
+	 * Block until the waiting caller is handed a {@link Connection}. The wait
+	 * is woken every borrowTimeoutInterval to retry every stripe, in case space
+	 * became available without a waiting caller being served.
+	 *
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 * @return The borrowed connection.
+	 * @throws SQLException
+	 *             Thrown if the blocking wait is interrupted.
+	 */
+	private Connection awaitConnection(CompletableFuture<Connection> waiter)
+			throws SQLException {
+		while (true) {
+			try {
+				return waiter.get(borrowTimeoutInterval, timeUnits);
+			} catch (TimeoutException e) {
+				dispatchToWaiters();
+			} catch (InterruptedException e) {
+				abandon(waiter);
+				Thread.currentThread().interrupt();
+				throw new SQLException("Pool get connection interupted.", e);
+			} catch (ExecutionException e) {
+				throw new SQLException("Pool get connection failed.",
+						e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Withdraw a waiting caller. If a {@link Connection} was handed to it in
+	 * the meantime the {@link Connection} is returned to its stripe.
+	 *
+	 * @param waiter
+	 *            The future of the waiting caller.
+	 */
+	private void abandon(CompletableFuture<Connection> waiter) {
+		if (waiters.remove(waiter)) {
+			waiterCount.decrementAndGet();
+		}
+		if (!waiter.cancel(false) && !waiter.isCompletedExceptionally()) {
+			Connection connection = waiter.join();
+			Stripe stripe = leasedConnections.remove(connection);
+			if (stripe != null && !handOff(connection, stripe)) {
+				stripe.idle.offer(connection);
+			}
+		}
+	}
+
+	/**
+	 * Lease the {@link Connection} to the oldest waiting caller which is still
+	 * waiting.
+	 *
+	 * @param connection
+	 *            A valid {@link Connection} not on lease.
+	 * @param stripe
+	 *            The stripe the {@link Connection} belongs to.
+	 * @return true if a waiting caller accepted the {@link Connection}.
+	 */
+	private boolean handOff(Connection connection, Stripe stripe) {
+		CompletableFuture<Connection> waiter;
+		while ((waiter = waiters.poll()) != null) {
+			waiterCount.decrementAndGet();
+			leasedConnections.put(connection, stripe);
+			if (waiter.complete(connection)) {
+				return true;
+			}
+			// The waiter was abandoned.
+			leasedConnections.remove(connection);
+		}
+		return false;
+	}
+
+	/**
+	 * Serve waiting callers from any stripe, idle {@link Connection}s first.
+	 * A failure to create a {@link Connection} fails the oldest waiting
+	 * caller rather than the Thread dispatching.
+	 */
+	private void dispatchToWaiters() {
+		while (waiterCount.get() > 0) {
+			Connection connection;
+			try {
+				connection = tryAcquire(homeStripe());
+			} catch (RuntimeException e) {
+				LOG.warn("Failed to create a connection for a waiting caller.",
+						e);
+				failOldestWaiter(e);
+				continue;
+			}
+			if (connection == null) {
+				return;
+			}
+			Stripe stripe = leasedConnections.remove(connection);
+			if (!handOff(connection, stripe)) {
+				stripe.idle.offer(connection);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Close a {@link Connection} removed from the pool, and use the space
+	 * freed in its stripe to serve a waiting caller.
+	 *
+	 * @param connection
+	 *            The {@link Connection} no longer on lease.
+	 * @param stripe
+	 *            The stripe the {@link Connection} belongs to.
+	 */
+	private void discard(Connection connection, Stripe stripe) {
+		stripe.releaseSlot();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			LOG.warn("Failed to close a connection removed from the pool.", e);
+		}
+		dispatchToWaiters();
+	}
+
+	/**
+	 * Fail the oldest waiting caller, which would otherwise wait for the
+	 * {@link Connection} that could not be created.
+	 *
+	 * @param cause
+	 *            The failure to create a {@link Connection}.
+	 */
+	private void failOldestWaiter(Throwable cause) {
+		CompletableFuture<Connection> waiter;
+		while ((waiter = waiters.poll()) != null) {
+			waiterCount.decrementAndGet();
+			if (waiter.completeExceptionally(cause)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove the lease of the {@link Connection}. If the {@link Connection} is
+	 * not on lease from the pool throw an {@link SQLException} to that affect.
+	 *
+	 * @param connection
+	 *            The {@link Connection} no longer on lease.
+	 * @return The stripe the {@link Connection} belongs to.
+	 * @throws SQLException
+	 *             Thrown if the {@link Connection} is null or not on lease from
+	 *             this pool.
+	 */
+	private Stripe revokeLease(Connection connection) throws SQLException {
+		if (connection == null) {
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"A null connection is not valid.");
+			throw new SQLException(exception);
+		}
+		Stripe stripe = leasedConnections.remove(connection);
+		if (stripe == null) {
+			connection.close();
+			IllegalArgumentException exception = new IllegalArgumentException(
+					"The connection is not recognized by the pool.");
+			throw new SQLException(exception);
+		}
+		return stripe;
+	}
+
+	/**
+	 * @return the connectionFactory
+	 */
+	private ConnectionFactory getConnectionFactory() {
+		return connectionFactory;
+	}
+
+	/**
+	 * @param connectionFactory
+	 *            the connectionFactory to set
+	 */
+	public void setConnectionFactory(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * A sub-pool holding a share of maxPoolSize and its idle
+	 * {@link Connection}s. The size is padded onto its own cache line so that
+	 * the stripes do not contend through false sharing.
+	 */
+	@SuppressWarnings("unused")
+	private static final class Stripe {
+		private static final AtomicIntegerFieldUpdater<Stripe> SIZE = AtomicIntegerFieldUpdater
+				.newUpdater(Stripe.class, "size");
+
+		private long p1, p2, p3, p4, p5, p6, p7;
+		private volatile int size;
+		private long q1, q2, q3, q4, q5, q6, q7;
+		final int capacity;
+		final Queue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+
+		Stripe(int capacity) {
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Reserve space for a new {@link Connection} in the stripe.
+		 *
+		 * @return true if space was reserved, false if the stripe is full.
+		 */
+		boolean tryReserveSlot() {
+			int current;
+			while ((current = size) < capacity) {
+				if (SIZE.compareAndSet(this, current, current + 1)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void releaseSlot() {
+			SIZE.decrementAndGet(this);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * The policies deciding when a pooled {@link Connection} is validated. Every
+ * policy other than {@link #ON_RELEASE} trusts a {@link Connection} for the
+ * configured validation interval, so that most releases cost only a queue
+ * push.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public enum ValidationPolicy {
+
+	/**
+	 * Validate every {@link Connection} as it is released.
+	 */
+	ON_RELEASE,
+	/**
+	 * Validate a {@link Connection} as it is released only if it has not been
+	 * validated within the validation interval.
+	 */
+	ON_RELEASE_IF_STALE,
+	/**
+	 * Never validate on release, validate a {@link Connection} as it is
+	 * borrowed if it sat idle for longer than the validation interval.
+	 */
+	ON_BORROW_IF_IDLE,
+	/**
+	 * Never validate on release or borrow, a background Thread validates idle
+	 * {@link Connection}s in batches once every validation interval.
+	 */
+	BACKGROUND
+}
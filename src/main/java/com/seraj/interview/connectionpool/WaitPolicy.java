@@ -0,0 +1,27 @@
+package com.seraj.interview.connectionpool;
+
+import java.sql.Connection;
+
+/**
+ * The policies deciding when a caller waiting for a {@link Connection} wakes.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public enum WaitPolicy {
+
+	/**
+	 * Wake every borrow timeout interval to retry the creation of a
+	 * {@link Connection}, in case space became available in the pool without
+	 * a waiting caller being served.
+	 */
+	POLL,
+	/**
+	 * Wake only when a {@link Connection} is handed over, the creation of a
+	 * {@link Connection} fails, or the caller's own timeout passes. Every
+	 * release and every change of capacity serves the waiting callers
+	 * directly, so sleeping callers cost no CPU. Waits park without holding a
+	 * monitor, so a waiting virtual Thread never pins its carrier Thread.
+	 */
+	SIGNAL
+}
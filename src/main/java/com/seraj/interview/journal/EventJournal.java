@@ -0,0 +1,234 @@
+package com.seraj.interview.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A compact binary journal of pool events, kept as a ring of fixed-size
+ * records in a memory-mapped file. Once the ring is full the oldest records
+ * are overwritten, so the file always holds the latest events. </p>
+ * Recording takes no lock and allocates nothing: a record is reserved with a
+ * single atomic increment and written in place; its first word, holding its
+ * sequence and kind, is written last so that a reader skips the records
+ * being written. The operating system writes the file back on its own, the
+ * journal survives the process as long as it is flushed or the machine stays
+ * up. </p> The file starts with a header of {@value #HEADER_SIZE} bytes:
+ * 
+ * <pre>
+ * int magic, int version, int capacity, int record size,
+ * long wall clock millis when opened, long System.nanoTime() when opened
+ * </pre>
+ * 
+ * followed by the ring of records of {@value #RECORD_SIZE} bytes, all in
+ * little-endian order:
+ * 
+ * <pre>
+ * long (sequence + 1) &lt;&lt; 8 | event code, 0 if never written
+ * long System.nanoTime(), long payload, int thread id, int connection slot
+ * </pre>
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class EventJournal implements Closeable {
+
+	/**
+	 * The size of the header of the file, in bytes.
+	 */
+	public static final int HEADER_SIZE = 64;
+	/**
+	 * The size of a record, in bytes.
+	 */
+	public static final int RECORD_SIZE = 32;
+	/**
+	 * The largest number of records of a journal, a 1GB file.
+	 */
+	public static final int MAX_CAPACITY = 1 << 25;
+
+	// "PJRN"
+	private static final int MAGIC = 0x504A524E;
+	private static final int VERSION = 1;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	// The capacity less one, a power of two less one.
+	private final int mask;
+	private final long startNanos;
+	// The sequence of the next record.
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Create or truncate the journal file and map it.
+	 * 
+	 * @param file
+	 *            The journal file.
+	 * @param capacity
+	 *            The number of records kept, rounded up to a power of two.
+	 * @throws IOException
+	 *             Thrown if the file cannot be created or mapped.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the capacity is not between 1 and
+	 *             {@link #MAX_CAPACITY}.
+	 */
+	public EventJournal(Path file, int capacity) throws IOException {
+		if (capacity < 1 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("The capacity " + capacity
+					+ " of the journal is not between 1 and " + MAX_CAPACITY
+					+ ".");
+		}
+		capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = capacity - 1;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_SIZE + (long) capacity * RECORD_SIZE);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		startNanos = System.nanoTime();
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, capacity);
+		buffer.putInt(12, RECORD_SIZE);
+		buffer.putLong(16, System.currentTimeMillis());
+		buffer.putLong(24, startNanos);
+	}
+
+	/**
+	 * Record an event of the current Thread.
+	 * 
+	 * @param event
+	 *            The kind of the event.
+	 * @param slot
+	 *            The slot of the connection, -1 for none.
+	 * @param payload
+	 *            The payload of the event.
+	 */
+	public void record(JournalEvent event, int slot, long payload) {
+		record(event, Thread.currentThread().getId(), slot, payload);
+	}
+
+	/**
+	 * Record an event on behalf of a Thread.
+	 * 
+	 * @param event
+	 *            The kind of the event.
+	 * @param threadId
+	 *            The id of the Thread the event is recorded for.
+	 * @param slot
+	 *            The slot of the connection, -1 for none.
+	 * @param payload
+	 *            The payload of the event.
+	 */
+	public void record(JournalEvent event, long threadId, int slot,
+			long payload) {
+		long nanos = System.nanoTime();
+		long seq = sequence.getAndIncrement();
+		int offset = HEADER_SIZE + (int) (seq & mask) * RECORD_SIZE;
+		// Invalidate the record overwritten while it is being written.
+		buffer.putLong(offset, 0);
+		buffer.putLong(offset + 8, nanos);
+		buffer.putLong(offset + 16, payload);
+		buffer.putInt(offset + 24, (int) threadId);
+		buffer.putInt(offset + 28, slot);
+		buffer.putLong(offset, (seq + 1) << 8 | event.code);
+	}
+
+	/**
+	 * @return the number of events recorded, including those overwritten.
+	 */
+	public long getRecordCount() {
+		return sequence.get();
+	}
+
+	/**
+	 * Write the journal back to its file.
+	 */
+	public void flush() {
+		buffer.force();
+	}
+
+	/**
+	 * Flush the journal and close its file. The mapping lasts until it is
+	 * garbage collected, events recorded meanwhile still reach the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	/**
+	 * Read the events of a journal file, oldest first. The file may be
+	 * written meanwhile; the records being written are skipped.
+	 * 
+	 * @param file
+	 *            The journal file.
+	 * @return The events still in the journal, in the order they were
+	 *         recorded.
+	 * @throws IOException
+	 *             Thrown if the file cannot be read or is not a journal.
+	 */
+	public static List<JournalRecord> read(Path file) throws IOException {
+		MappedByteBuffer in;
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(file + " is not an event journal.");
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		if (in.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not an event journal.");
+		} else if (in.getInt(4) != VERSION || in.getInt(12) != RECORD_SIZE) {
+			throw new IOException("Unsupported version " + in.getInt(4)
+					+ " of the event journal " + file + ".");
+		}
+		int capacity = in.getInt(8);
+		if (HEADER_SIZE + (long) capacity * RECORD_SIZE > in.capacity()) {
+			throw new IOException("The event journal " + file
+					+ " is truncated.");
+		}
+		long startNanos = in.getLong(24);
+		List<JournalRecord> records = new ArrayList<JournalRecord>();
+		for (int i = 0; i < capacity; ++i) {
+			int offset = HEADER_SIZE + i * RECORD_SIZE;
+			long head = in.getLong(offset);
+			long nanos = in.getLong(offset + 8);
+			long payload = in.getLong(offset + 16);
+			int threadId = in.getInt(offset + 24);
+			int slot = in.getInt(offset + 28);
+			JournalEvent event = JournalEvent.valueOf((int) (head & 0xFF));
+			// Skip the records never written, or rewritten as read.
+			if (head == 0 || event == null || in.getLong(offset) != head) {
+				continue;
+			}
+			records.add(new JournalRecord((head >>> 8) - 1, event, nanos
+					- startNanos, payload, threadId, slot));
+		}
+		Collections.sort(records, new Comparator<JournalRecord>() {
+			@Override
+			public int compare(JournalRecord left, JournalRecord right) {
+				return Long.compare(left.getSequence(), right.getSequence());
+			}
+		});
+		return records;
+	}
+}
@@ -0,0 +1,68 @@
+package com.seraj.interview.journal;
+
+/**
+ * The kinds of pool events recorded by an {@link EventJournal}. The payload
+ * of a {@link JournalRecord} depends on its kind.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public enum JournalEvent {
+	/**
+	 * A connection was leased to a borrower; the payload is the time the
+	 * borrower waited, in nanoseconds.
+	 */
+	BORROW(1),
+	/**
+	 * A borrower gave up waiting; the payload is the time it waited, in
+	 * nanoseconds. It has no connection slot.
+	 */
+	BORROW_TIMEOUT(2),
+	/**
+	 * A leased connection was released; the payload is the time it was on
+	 * lease, in nanoseconds.
+	 */
+	RELEASE(3),
+	/**
+	 * A lease expired and its connection was closed; the payload is the time
+	 * it was on lease, in nanoseconds.
+	 */
+	REAP(4),
+	/**
+	 * A connection was added to the pool; the payload is the time the
+	 * connection factory took to create it, in nanoseconds.
+	 */
+	CREATE(5),
+	/**
+	 * A connection was found invalid; the payload is 0.
+	 */
+	VALIDATION_FAILED(6),
+	/**
+	 * A connection was removed from the pool and closed; the payload is 0.
+	 */
+	CLOSE(7);
+
+	// The events by code.
+	private static final JournalEvent[] BY_CODE = new JournalEvent[8];
+	static {
+		for (JournalEvent event : values()) {
+			BY_CODE[event.code] = event;
+		}
+	}
+
+	// The code of the event in the journal, below 256.
+	final int code;
+
+	private JournalEvent(int code) {
+		this.code = code;
+	}
+
+	/**
+	 * @param code
+	 *            The code of an event in the journal.
+	 * @return The event of the code, null if unknown.
+	 */
+	static JournalEvent valueOf(int code) {
+		return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+	}
+}
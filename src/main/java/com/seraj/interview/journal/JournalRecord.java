@@ -0,0 +1,80 @@
+package com.seraj.interview.journal;
+
+/**
+ * An event read back from an {@link EventJournal}.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class JournalRecord {
+
+	private final long sequence;
+	private final JournalEvent event;
+	private final long nanos;
+	private final long payload;
+	private final int threadId;
+	private final int slot;
+
+	JournalRecord(long sequence, JournalEvent event, long nanos,
+			long payload, int threadId, int slot) {
+		this.sequence = sequence;
+		this.event = event;
+		this.nanos = nanos;
+		this.payload = payload;
+		this.threadId = threadId;
+		this.slot = slot;
+	}
+
+	/**
+	 * @return the order in which the event was recorded, from 0 when the
+	 *         journal was opened.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the kind of the event.
+	 */
+	public JournalEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the time of the event, in nanoseconds since the journal was
+	 *         opened.
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return the payload of the event, as described by its
+	 *         {@link JournalEvent}.
+	 */
+	public long getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return the id of the Thread which borrowed or caused the event,
+	 *         truncated to an int.
+	 */
+	public int getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * @return the slot of the connection in the pool, -1 for none. A slot is
+	 *         reused by a later connection once its connection is closed.
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	@Override
+	public String toString() {
+		return sequence + " " + nanos + " " + event + " thread=" + threadId
+				+ " slot=" + slot + " payload=" + payload;
+	}
+}
@@ -0,0 +1,555 @@
+package com.seraj.interview.journal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.connectionpool.BlockingConnectionPool;
+import com.seraj.interview.connectionpool.ConnectionFactory;
+import com.seraj.interview.connectionpool.ConnectionPools;
+import com.seraj.interview.connectionpool.LatencyHistogram;
+import com.seraj.interview.simulation.StubConnection;
+
+/**
+ * Reads the events of an {@link EventJournal} offline, either to summarize
+ * them or to replay the recorded borrows against a {@link ConnectionPool}.
+ * </p> A replay runs a Thread per recorded Thread. Each borrows in turn
+ * when its recorded borrower started waiting, and a releasing Thread
+ * releases the {@link Connection}s in the order and at the time they were
+ * recorded released; a borrow still on lease when the journal ends is held
+ * to the end. The timing is kept relative to the first borrow, and a borrow
+ * or release late from a longer wait than recorded is made as soon as it
+ * can. A borrow is not made before the releases recorded ahead of it, nor
+ * a release before the borrows leased ahead of it are served, so the pool
+ * sees the borrows and releases in their recorded order whatever the
+ * scheduling delays of the replay. A borrow not served within its recorded
+ * wait and a slack is taken as held up by a pool smaller than the one
+ * recorded: the releases go ahead without it, and its own release is made
+ * by its Thread once served. A {@link BlockingConnectionPool} is borrowed
+ * from with a timeout. The pool of {@link #main(String[])}
+ * is created by {@link ConnectionPools} from the given pool properties,
+ * with a stub factory taking the recorded create latencies in turn.
+ * 
+ * <pre>
+ * java -cp ... com.seraj.interview.journal.JournalReplay stats pool.journal
+ * java -cp ... com.seraj.interview.journal.JournalReplay replay pool.journal pool.properties
+ * </pre>
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class JournalReplay {
+
+	private static final Logger LOG = Logger.getLogger(JournalReplay.class);
+	// How long a replayed borrow waits at most by default.
+	private static final long DEFAULT_BORROW_TIMEOUT = TimeUnit.SECONDS
+			.toNanos(30);
+	// How much longer than recorded a borrow may take to be served before
+	// the releases recorded after it go ahead without it.
+	private static final long SERVE_SLACK = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private JournalReplay() {
+	}
+
+	/**
+	 * Summarize the events of a journal.
+	 * 
+	 * @param records
+	 *            The events read from the journal, oldest first.
+	 * @return The span of the events, their count by kind, the number of
+	 *         Threads, the most connections on lease at once, and the
+	 *         distributions of the waits, holds and creations.
+	 */
+	public static String statistics(List<JournalRecord> records) {
+		Map<JournalEvent, Long> counts = new EnumMap<JournalEvent, Long>(
+				JournalEvent.class);
+		for (JournalEvent event : JournalEvent.values()) {
+			counts.put(event, 0L);
+		}
+		LatencyHistogram waits = new LatencyHistogram();
+		LatencyHistogram holds = new LatencyHistogram();
+		LatencyHistogram creates = new LatencyHistogram();
+		Map<Integer, Boolean> leased = new HashMap<Integer, Boolean>();
+		Map<Integer, Boolean> threads = new HashMap<Integer, Boolean>();
+		int peakLeased = 0;
+		for (JournalRecord record : records) {
+			counts.put(record.getEvent(), counts.get(record.getEvent()) + 1);
+			threads.put(record.getThreadId(), Boolean.TRUE);
+			switch (record.getEvent()) {
+			case BORROW:
+				waits.record(record.getPayload());
+				leased.put(record.getSlot(), Boolean.TRUE);
+				peakLeased = Math.max(peakLeased, leased.size());
+				break;
+			case RELEASE:
+			case REAP:
+				holds.record(record.getPayload());
+				// Leases begun before the oldest event are not counted.
+				leased.remove(record.getSlot());
+				break;
+			case CREATE:
+				creates.record(record.getPayload());
+				break;
+			default:
+				break;
+			}
+		}
+		long span = records.isEmpty() ? 0 : records.get(records.size() - 1)
+				.getNanos() - records.get(0).getNanos();
+		StringBuilder builder = new StringBuilder();
+		builder.append("span=").append(TimeUnit.NANOSECONDS.toMillis(span))
+				.append("ms events=").append(records.size())
+				.append(" threads=").append(threads.size())
+				.append(" peakLeased=").append(peakLeased).append('\n');
+		for (Map.Entry<JournalEvent, Long> count : counts.entrySet()) {
+			builder.append(count.getKey()).append('=')
+					.append(count.getValue()).append(' ');
+		}
+		builder.append("\nwait: ").append(waits.getSnapshot());
+		builder.append("\nhold: ").append(holds.getSnapshot());
+		builder.append("\ncreate: ").append(creates.getSnapshot());
+		return builder.toString();
+	}
+
+	/**
+	 * Replay the recorded borrows against a pool, in real time, each waiting
+	 * no longer than 30 seconds.
+	 * 
+	 * @param records
+	 *            The events read from the journal, oldest first.
+	 * @param pool
+	 *            The pool borrowed from.
+	 * @return The number of borrows replayed, served, timed out and failed,
+	 *         the wall time of the replay, and the distributions of the
+	 *         recorded and replayed waits.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting for the replay.
+	 */
+	public static String replay(List<JournalRecord> records,
+			ConnectionPool pool) throws InterruptedException {
+		return replay(records, pool, DEFAULT_BORROW_TIMEOUT,
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Replay the recorded borrows against a pool, in real time.
+	 * 
+	 * @param records
+	 *            The events read from the journal, oldest first.
+	 * @param pool
+	 *            The pool borrowed from.
+	 * @param timeout
+	 *            The maximum length of time a borrow waits, if the pool is a
+	 *            {@link BlockingConnectionPool}.
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 * @return The number of borrows replayed, served, timed out and failed,
+	 *         the wall time of the replay, and the distributions of the
+	 *         recorded and replayed waits.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted while waiting for the replay.
+	 */
+	public static String replay(List<JournalRecord> records,
+			final ConnectionPool pool, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		final long timeoutNanos = unit.toNanos(timeout);
+		Map<Integer, List<Borrow>> byThread = borrowsByThread(records);
+		final LatencyHistogram recorded = new LatencyHistogram();
+		final LatencyHistogram replayed = new LatencyHistogram();
+		final AtomicLong served = new AtomicLong();
+		final AtomicLong timeouts = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		long first = Long.MAX_VALUE;
+		final List<Borrow> releases = new ArrayList<Borrow>();
+		for (List<Borrow> borrows : byThread.values()) {
+			for (Borrow borrow : borrows) {
+				first = Math.min(first, borrow.arrivalNanos);
+				recorded.record(borrow.waitNanos);
+				releases.add(borrow);
+			}
+		}
+		Collections.sort(releases, new Comparator<Borrow>() {
+			@Override
+			public int compare(Borrow a, Borrow b) {
+				return Long.compare(a.getReleaseNanos(), b.getReleaseNanos());
+			}
+		});
+		long[] releaseTimes = new long[releases.size()];
+		for (int i = 0; i < releaseTimes.length; ++i) {
+			releaseTimes[i] = releases.get(i).getReleaseNanos();
+		}
+		for (Borrow borrow : releases) {
+			borrow.releasesBefore = countBefore(releaseTimes,
+					borrow.arrivalNanos);
+		}
+		final List<Borrow> leases = new ArrayList<Borrow>(releases);
+		Collections.sort(leases, new Comparator<Borrow>() {
+			@Override
+			public int compare(Borrow a, Borrow b) {
+				return Long.compare(a.leasedNanos, b.leasedNanos);
+			}
+		});
+		final Progress released = new Progress();
+		long start = System.nanoTime();
+		final long origin = start - first;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (Map.Entry<Integer, List<Borrow>> entry : byThread.entrySet()) {
+			final List<Borrow> borrows = entry.getValue();
+			threads.add(startThread("JournalReplay-" + entry.getKey(),
+					new Runnable() {
+						@Override
+						public void run() {
+							try {
+								for (Borrow borrow : borrows) {
+									sleepUntil(origin + borrow.arrivalNanos);
+									released.await(borrow.releasesBefore);
+									long begin = System.nanoTime();
+									borrow.begin(begin);
+									Connection connection = null;
+									try {
+										connection = borrow(pool,
+												timeoutNanos);
+										replayed.record(System.nanoTime()
+												- begin);
+										served.incrementAndGet();
+									} catch (SQLTimeoutException e) {
+										timeouts.incrementAndGet();
+									} catch (SQLException e) {
+										failures.incrementAndGet();
+									} finally {
+										// Released here if already due.
+										Connection due = borrow
+												.serve(connection);
+										if (due != null) {
+											release(pool, due);
+										}
+									}
+								}
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					}));
+		}
+		Thread releaser = startThread("JournalReplay-releaser",
+				new Runnable() {
+					@Override
+					public void run() {
+						try {
+							int leased = 0;
+							for (Borrow borrow : releases) {
+								sleepUntil(origin + borrow.getReleaseNanos());
+								while (leased < leases.size()
+										&& leases.get(leased).leasedNanos < borrow
+												.getReleaseNanos()) {
+									leases.get(leased++).awaitServed();
+								}
+								// Released by the borrower if not yet served.
+								Connection connection = borrow.due();
+								if (connection != null) {
+									release(pool, connection);
+								}
+								released.advance();
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+		threads.add(releaser);
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} finally {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+		}
+		return "replayed=" + releases.size() + " threads="
+				+ byThread.size()
+				+ " served=" + served + " timeouts=" + timeouts
+				+ " failures=" + failures + " wall="
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ "ms\nrecorded wait: " + recorded.getSnapshot()
+				+ "\nreplayed wait: " + replayed.getSnapshot();
+	}
+
+	/**
+	 * Create a factory of stub {@link Connection}s taking the create
+	 * latencies recorded in the journal in turn.
+	 * 
+	 * @param records
+	 *            The events read from the journal, oldest first.
+	 * @return The {@link ConnectionFactory}.
+	 */
+	public static ConnectionFactory newConnectionFactory(
+			List<JournalRecord> records) {
+		final List<Long> latencies = new ArrayList<Long>();
+		for (JournalRecord record : records) {
+			if (record.getEvent() == JournalEvent.CREATE) {
+				latencies.add(record.getPayload());
+			}
+		}
+		final AtomicInteger next = new AtomicInteger();
+		return new ConnectionFactory() {
+			@Override
+			public Connection newConnection() {
+				if (!latencies.isEmpty()) {
+					long latency = latencies.get(Math.floorMod(
+							next.getAndIncrement(), latencies.size()));
+					try {
+						TimeUnit.NANOSECONDS.sleep(latency);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException(
+								"Interrupted while creating a connection.", e);
+					}
+				}
+				return StubConnection.create();
+			}
+		};
+	}
+
+	/**
+	 * Summarize or replay a journal file.
+	 * 
+	 * @param args
+	 *            <code>stats</code> and the journal file, or
+	 *            <code>replay</code>, the journal file and the pool
+	 *            properties file.
+	 * @throws IOException
+	 *             Thrown if a file cannot be read.
+	 * @throws InterruptedException
+	 *             Thrown if interrupted during a replay.
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length == 2 && "stats".equals(args[0])) {
+			System.out.println(statistics(EventJournal.read(Paths
+					.get(args[1]))));
+		} else if (args.length == 3 && "replay".equals(args[0])) {
+			List<JournalRecord> records = EventJournal.read(Paths.get(args[1]));
+			Properties properties = new Properties();
+			InputStream in = Files.newInputStream(Paths.get(args[2]));
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			ConnectionPool pool = ConnectionPools.newConnectionPool(
+					properties, newConnectionFactory(records));
+			System.out.println(replay(records, pool));
+		} else {
+			System.err.println("Usage: JournalReplay stats <journal file>");
+			System.err.println("       JournalReplay replay <journal file>"
+					+ " <pool properties file>");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Pair the recorded borrows with the end of their lease, by Thread.
+	 * 
+	 * @param records
+	 *            The events read from the journal, oldest first.
+	 * @return The borrows of each Thread, in order.
+	 */
+	static Map<Integer, List<Borrow>> borrowsByThread(
+			List<JournalRecord> records) {
+		Map<Integer, List<Borrow>> byThread = new LinkedHashMap<Integer, List<Borrow>>();
+		Map<Integer, Borrow> onLease = new HashMap<Integer, Borrow>();
+		long last = 0;
+		for (JournalRecord record : records) {
+			last = record.getNanos();
+			switch (record.getEvent()) {
+			case BORROW:
+				Borrow borrow = new Borrow(record.getNanos()
+						- record.getPayload(), record.getPayload(),
+						record.getNanos());
+				onLease.put(record.getSlot(), borrow);
+				List<Borrow> borrows = byThread.get(record.getThreadId());
+				if (borrows == null) {
+					borrows = new ArrayList<Borrow>();
+					byThread.put(record.getThreadId(), borrows);
+				}
+				borrows.add(borrow);
+				break;
+			case RELEASE:
+			case REAP:
+				Borrow ended = onLease.remove(record.getSlot());
+				if (ended != null) {
+					ended.holdNanos = record.getNanos() - ended.leasedNanos;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		for (Borrow borrow : onLease.values()) {
+			borrow.holdNanos = last - borrow.leasedNanos;
+		}
+		return byThread;
+	}
+
+	/**
+	 * Count the sorted times before the one given.
+	 */
+	private static int countBefore(long[] sorted, long nanos) {
+		int index = Arrays.binarySearch(sorted, nanos);
+		if (index < 0) {
+			return -index - 1;
+		}
+		// Step back over the times equal to it.
+		while (index > 0 && sorted[index - 1] == nanos) {
+			index--;
+		}
+		return index;
+	}
+
+	private static Thread startThread(String name, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Sleep until the {@link System#nanoTime()} given, if not past.
+	 */
+	private static void sleepUntil(long nanos) throws InterruptedException {
+		long remaining;
+		while ((remaining = nanos - System.nanoTime()) > 0) {
+			TimeUnit.NANOSECONDS.sleep(remaining);
+		}
+	}
+
+	private static Connection borrow(ConnectionPool pool, long timeoutNanos)
+			throws SQLException {
+		if (pool instanceof BlockingConnectionPool) {
+			return ((BlockingConnectionPool) pool).getConnection(
+					timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+		return pool.getConnection();
+	}
+
+	private static void release(ConnectionPool pool, Connection connection) {
+		try {
+			pool.releaseConnection(connection);
+		} catch (SQLException e) {
+			LOG.warn("Failed to release a replayed connection.", e);
+		}
+	}
+
+	/**
+	 * A recorded borrow.
+	 */
+	static final class Borrow {
+		// When the borrower started waiting, and how long.
+		final long arrivalNanos;
+		final long waitNanos;
+		// When the connection was leased, and how long it was held.
+		final long leasedNanos;
+		long holdNanos;
+		// The replay: the releases recorded before the borrower arrived, when
+		// the borrow began, and the connection leased once it is served.
+		int releasesBefore;
+		private volatile long begunNanos;
+		private final CountDownLatch begun = new CountDownLatch(1);
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Connection connection;
+		// Whether the recorded release was replayed.
+		private boolean due;
+
+		Borrow(long arrivalNanos, long waitNanos, long leasedNanos) {
+			this.arrivalNanos = arrivalNanos;
+			this.waitNanos = waitNanos;
+			this.leasedNanos = leasedNanos;
+		}
+
+		long getReleaseNanos() {
+			return leasedNanos + holdNanos;
+		}
+
+		void begin(long nanos) {
+			begunNanos = nanos;
+			begun.countDown();
+		}
+
+		/**
+		 * Wait for the borrow to be served, no longer than recorded and a
+		 * slack: the slack for the borrow to begin, then until its recorded
+		 * wait and the slack have passed since it began. Called once the
+		 * borrow is recorded leased, the earlier borrows of its Thread waited
+		 * for already.
+		 */
+		void awaitServed() throws InterruptedException {
+			if (!begun.await(SERVE_SLACK, TimeUnit.NANOSECONDS)) {
+				// The Thread is held up by an earlier borrow.
+				return;
+			}
+			long remaining = begunNanos + waitNanos + SERVE_SLACK
+					- System.nanoTime();
+			done.await(remaining, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @param leased
+		 *            The connection served, null if the borrow failed.
+		 * @return the connection to release now, as its release is due.
+		 */
+		synchronized Connection serve(Connection leased) {
+			connection = due ? null : leased;
+			done.countDown();
+			return due ? leased : null;
+		}
+
+		/**
+		 * @return the connection to release now, null if the borrow failed
+		 *         or is not yet served and will release it once it is.
+		 */
+		synchronized Connection due() {
+			due = true;
+			return connection;
+		}
+	}
+
+	/**
+	 * The count of the releases replayed, awaited by the borrowing Threads.
+	 */
+	private static final class Progress {
+		private int count;
+
+		synchronized void advance() {
+			count++;
+			notifyAll();
+		}
+
+		synchronized void await(int count) throws InterruptedException {
+			while (this.count < count) {
+				wait();
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.seraj.interview.simulation;
+
+import java.util.Random;
+
+/**
+ * A distribution of durations sampled by a {@link Simulation}, such as the
+ * time between arrivals or the time a connection is held. See
+ * {@link Distributions} for the distributions available.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public interface Distribution {
+
+	/**
+	 * @param random
+	 *            The source of randomness; the only one used, so that a fixed
+	 *            seed gives the same samples.
+	 * @return the next duration, in nanoseconds.
+	 */
+	long sample(Random random);
+}
@@ -0,0 +1,211 @@
+package com.seraj.interview.simulation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.seraj.interview.configuration.Bindings;
+
+/**
+ * A static helper class creating the {@link Distribution}s of a
+ * {@link Simulation}, synthetic or recorded.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public class Distributions {
+
+	/**
+	 * @return the same duration every time.
+	 */
+	public static Distribution constant(long duration, TimeUnit unit) {
+		final long nanos = unit.toNanos(duration);
+		return new Distribution() {
+			@Override
+			public long sample(Random random) {
+				return nanos;
+			}
+		};
+	}
+
+	/**
+	 * @return durations exponentially distributed around the mean; as time
+	 *         between arrivals, the arrivals of a Poisson process.
+	 */
+	public static Distribution exponential(long mean, TimeUnit unit) {
+		final double meanNanos = unit.toNanos(mean);
+		return new Distribution() {
+			@Override
+			public long sample(Random random) {
+				return (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+			}
+		};
+	}
+
+	/**
+	 * @return durations uniformly distributed between min and max.
+	 */
+	public static Distribution uniform(long min, long max, TimeUnit unit) {
+		final long minNanos = unit.toNanos(min);
+		final long rangeNanos = unit.toNanos(max) - minNanos;
+		return new Distribution() {
+			@Override
+			public long sample(Random random) {
+				return minNanos + (long) (random.nextDouble() * rangeNanos);
+			}
+		};
+	}
+
+	/**
+	 * @param median
+	 *            The median duration.
+	 * @param sigma
+	 *            The standard deviation of the logarithm of the durations;
+	 *            the larger, the longer the tail.
+	 * @return durations log-normally distributed, the usual shape of query
+	 *         times.
+	 */
+	public static Distribution logNormal(long median, final double sigma,
+			TimeUnit unit) {
+		final double mu = Math.log(unit.toNanos(median));
+		return new Distribution() {
+			@Override
+			public long sample(Random random) {
+				return (long) Math.exp(mu + sigma * random.nextGaussian());
+			}
+		};
+	}
+
+	/**
+	 * @param nanos
+	 *            The durations recorded, in nanoseconds.
+	 * @return durations drawn at random from those recorded.
+	 */
+	public static Distribution recorded(final long[] nanos) {
+		checkNotEmpty(nanos);
+		return new Distribution() {
+			@Override
+			public long sample(Random random) {
+				return nanos[random.nextInt(nanos.length)];
+			}
+		};
+	}
+
+	/**
+	 * @param nanos
+	 *            The durations recorded, in nanoseconds.
+	 * @return the durations recorded in order, from the first again once all
+	 *         were returned; to replay a recorded sequence of arrivals.
+	 */
+	public static Distribution replay(final long[] nanos) {
+		checkNotEmpty(nanos);
+		return new Distribution() {
+			private int next;
+
+			@Override
+			public long sample(Random random) {
+				long sample = nanos[next];
+				next = (next + 1) % nanos.length;
+				return sample;
+			}
+		};
+	}
+
+	/**
+	 * Read the durations recorded in a file, one per line; blank lines and
+	 * lines starting with '#' are skipped.
+	 * 
+	 * @param file
+	 *            The file of durations, each in milliseconds unless suffixed
+	 *            by a unit: ns, us, ms, s, m, h or d.
+	 * @return the durations, in nanoseconds.
+	 * @throws IOException
+	 *             Thrown if the file cannot be read.
+	 */
+	public static long[] load(Path file) throws IOException {
+		List<Long> durations = new ArrayList<Long>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String trimmed = line.trim();
+			if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+				durations.add(toNanos(trimmed));
+			}
+		}
+		long[] nanos = new long[durations.size()];
+		for (int i = 0; i < nanos.length; ++i) {
+			nanos[i] = durations.get(i);
+		}
+		return nanos;
+	}
+
+	/**
+	 * Create a {@link Distribution} from its description, as found in the
+	 * configuration of a {@link Simulation}:
+	 * <ul>
+	 * <li>constant:&lt;duration&gt;</li>
+	 * <li>exponential:&lt;mean&gt;</li>
+	 * <li>uniform:&lt;min&gt;:&lt;max&gt;</li>
+	 * <li>lognormal:&lt;median&gt;:&lt;sigma&gt;</li>
+	 * <li>recorded:&lt;file&gt;, see {@link #load(Path)}</li>
+	 * <li>replay:&lt;file&gt;, see {@link #load(Path)}</li>
+	 * </ul>
+	 * Durations are in milliseconds unless suffixed by a unit, such as
+	 * 'exponential:250us'.
+	 * 
+	 * @param description
+	 *            The description of the distribution.
+	 * @return The {@link Distribution} described.
+	 * @throws IOException
+	 *             Thrown if the file of a recorded distribution cannot be
+	 *             read.
+	 */
+	public static Distribution parse(String description) throws IOException {
+		String[] parts = description.trim().split(":", 2);
+		String kind = parts[0].trim();
+		String[] args = parts.length > 1 ? parts[1].split(":") : new String[0];
+		if (kind.equals("constant") && args.length == 1) {
+			return constant(toNanos(args[0]), TimeUnit.NANOSECONDS);
+		} else if (kind.equals("exponential") && args.length == 1) {
+			return exponential(toNanos(args[0]), TimeUnit.NANOSECONDS);
+		} else if (kind.equals("uniform") && args.length == 2) {
+			return uniform(toNanos(args[0]), toNanos(args[1]),
+					TimeUnit.NANOSECONDS);
+		} else if (kind.equals("lognormal") && args.length == 2) {
+			return logNormal(toNanos(args[0]),
+					Double.parseDouble(args[1].trim()), TimeUnit.NANOSECONDS);
+		} else if (kind.equals("recorded") && parts.length > 1) {
+			return recorded(load(Paths.get(parts[1].trim())));
+		} else if (kind.equals("replay") && parts.length > 1) {
+			return replay(load(Paths.get(parts[1].trim())));
+		}
+		throw new IllegalArgumentException("'" + description
+				+ "' is not a distribution.");
+	}
+
+	/**
+	 * @param duration
+	 *            A duration in milliseconds, unless suffixed by a unit.
+	 * @return the duration in nanoseconds.
+	 */
+	static long toNanos(String duration) {
+		String trimmed = duration.trim();
+		boolean suffixed = !trimmed.isEmpty()
+				&& Character.isLetter(trimmed.charAt(trimmed.length() - 1));
+		return Bindings.toDuration(suffixed ? trimmed : trimmed + "ms",
+				TimeUnit.NANOSECONDS, 0, Long.MAX_VALUE);
+	}
+
+	private static void checkNotEmpty(long[] nanos) {
+		if (nanos.length == 0) {
+			throw new IllegalArgumentException("No durations were recorded.");
+		}
+	}
+
+	private Distributions() {
+	}
+}
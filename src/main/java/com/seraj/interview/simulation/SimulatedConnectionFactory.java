@@ -0,0 +1,87 @@
+package com.seraj.interview.simulation;
+
+import java.sql.Connection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.seraj.interview.connectionpool.ConnectionFactory;
+
+/**
+ * A {@link ConnectionFactory} of a {@link Simulation}, creating
+ * {@link StubConnection}s. A creation fails at random with the
+ * failure rate; a successful one takes a create latency of virtual time,
+ * charged by the {@link Simulation} to the borrower the {@link Connection}
+ * is first leased to.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+class SimulatedConnectionFactory implements ConnectionFactory {
+
+	private final Simulation simulation;
+	private final Random random;
+	private final Distribution createLatency;
+	private final double failureRate;
+	// The virtual time each new connection is ready at, until first leased.
+	private final Map<Connection, Long> readyAt = new IdentityHashMap<Connection, Long>();
+	private long created;
+	private long failed;
+
+	/**
+	 * @param simulation
+	 *            The {@link Simulation} keeping the virtual time.
+	 * @param random
+	 *            The source of the failures and latencies.
+	 * @param createLatency
+	 *            The time taken by each creation.
+	 * @param failureRate
+	 *            The probability of each creation to fail, between 0 and 1.
+	 */
+	SimulatedConnectionFactory(Simulation simulation, Random random,
+			Distribution createLatency, double failureRate) {
+		this.simulation = simulation;
+		this.random = random;
+		this.createLatency = createLatency;
+		this.failureRate = failureRate;
+	}
+
+	@Override
+	public Connection newConnection() {
+		if (failureRate > 0 && random.nextDouble() < failureRate) {
+			failed++;
+			throw new IllegalStateException(
+					"Simulated failure to create a connection.");
+		}
+		created++;
+		Connection connection = StubConnection.create();
+		readyAt.put(connection,
+				simulation.now() + createLatency.sample(random));
+		return connection;
+	}
+
+	/**
+	 * @param connection
+	 *            A {@link Connection} being leased.
+	 * @return the virtual time the {@link Connection} is ready at, 0 if it
+	 *         was created before its previous lease.
+	 */
+	long takeReadyAt(Connection connection) {
+		Long ready = readyAt.remove(connection);
+		return ready == null ? 0 : ready;
+	}
+
+	/**
+	 * @return the number of {@link Connection}s created.
+	 */
+	long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the number of creations failed.
+	 */
+	long getFailed() {
+		return failed;
+	}
+}
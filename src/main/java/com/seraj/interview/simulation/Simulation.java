@@ -0,0 +1,554 @@
+package com.seraj.interview.simulation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+import com.opower.connectionpool.ConnectionPool;
+import com.seraj.interview.connectionpool.BlockingConnectionPool;
+import com.seraj.interview.connectionpool.ConnectionPools;
+import com.seraj.interview.connectionpool.LatencyHistogram;
+
+/**
+ * A deterministic discrete-event simulation of a {@link ConnectionPool} under
+ * load, on a virtual clock: borrowers arrive, wait for a connection, hold it
+ * and release it, as drawn from the configured {@link Distribution}s, without
+ * any Thread sleeping. Hours of load run in seconds, and a fixed seed gives
+ * the same {@link SimulationReport}, so policies can be compared offline.
+ * </p> The pool is created by {@link ConnectionPools} from the pool
+ * properties, with a stub {@link java.sql.Connection} factory of
+ * configurable create latency and failure rate. A
+ * {@link BlockingConnectionPool} is driven, on the calling Thread only,
+ * through {@link BlockingConnectionPool#getConnectionAsync()}; its creations
+ * run inline, the create latency being charged to the borrower leased the
+ * new connection. Other pools are only borrowed from while below their
+ * maxPoolSize, the simulation queueing the borrowers meanwhile. </p> The
+ * features of a pool driven by the wall clock would make the results depend
+ * on the speed of the run, so they are disabled: initialSize, minIdle,
+ * leaseTerm, idleTimeout, adaptiveSizing, leak detection, the backoff and
+ * circuit breaker of the creations, and validation other than on release.
+ * So are the jmxName and journalFile, which would outlive a run, and the
+ * pool is shut down once the run ends. The create latency is not charged
+ * when proxyConnections is set.
+ * 
+ * <pre>
+ * java -cp ... com.seraj.interview.simulation.Simulation simulation.properties
+ * </pre>
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public class Simulation {
+
+	private static final Logger LOG = Logger.getLogger(Simulation.class);
+
+	/**
+	 * The prefix of the properties configuring the simulation, rather than
+	 * the pool, when read by {@link #main(String[])}.
+	 */
+	public static final String PREFIX = "simulation.";
+
+	// The pool configurations driven by the wall clock or another Thread, or
+	// outliving a run, and their disabled values.
+	private static final String[][] WALL_CLOCK_OVERRIDES = {
+			{ "initialSize", "0" }, { "minIdle", "0" }, { "leaseTerm", "-1" },
+			{ "idleTimeout", "-1" }, { "adaptiveSizing", "false" },
+			{ "leakDetectionThreshold", "-1" },
+			{ "createBackoffInitial", "0" },
+			{ "circuitBreakerThreshold", "0" },
+			{ "validationPolicy", "ON_RELEASE" }, { "jmxName", "" },
+			{ "journalFile", "" } };
+
+	// The kinds of events.
+	private static final int ARRIVAL = 0;
+	private static final int RELEASE = 1;
+	private static final int TIMEOUT = 2;
+
+	private final Properties poolProperties;
+	private long seed = 1;
+	private long durationNanos = TimeUnit.HOURS.toNanos(1);
+	private Distribution interArrival = Distributions.exponential(10,
+			TimeUnit.MILLISECONDS);
+	private Distribution holdTime = Distributions.logNormal(5, 1,
+			TimeUnit.MILLISECONDS);
+	private Distribution createLatency = Distributions.constant(20,
+			TimeUnit.MILLISECONDS);
+	private double createFailureRate = 0;
+	private long borrowTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+
+	// The state of a run
+	// ************************
+	// Separate sources, so that a policy drawing more creations does not
+	// shift the arrivals or hold times.
+	private Random arrivalRandom;
+	private Random holdRandom;
+	private long now;
+	private long sequence;
+	private PriorityQueue<Event> events;
+	// The borrowers whose future completed during a call into the pool.
+	private List<Borrower> completed;
+	private SimulatedConnectionFactory factory;
+	private Driver driver;
+	private LatencyHistogram waits;
+	private long arrivals;
+	private long served;
+	private long timeouts;
+	private long failures;
+	private int leased;
+	private int peakLeased;
+	private double leasedArea;
+	private long lastLeasedChange;
+
+	/**
+	 * @param poolProperties
+	 *            The java {@link Properties} configuring the pool simulated.
+	 */
+	public Simulation(Properties poolProperties) {
+		this.poolProperties = poolProperties;
+	}
+
+	/**
+	 * Run the simulation from an empty pool.
+	 * 
+	 * @return The outcome of the run.
+	 */
+	public SimulationReport run() {
+		long wallStart = System.nanoTime();
+		arrivalRandom = new Random(seed);
+		holdRandom = new Random(seed + 1);
+		now = 0;
+		sequence = 0;
+		events = new PriorityQueue<Event>();
+		completed = new ArrayList<Borrower>();
+		factory = new SimulatedConnectionFactory(this, new Random(seed + 2),
+				createLatency, createFailureRate);
+		waits = new LatencyHistogram();
+		arrivals = served = timeouts = failures = 0;
+		leased = peakLeased = 0;
+		leasedArea = 0;
+		lastLeasedChange = 0;
+		Properties properties = new Properties();
+		properties.putAll(poolProperties);
+		for (String[] override : WALL_CLOCK_OVERRIDES) {
+			properties.setProperty(override[0], override[1]);
+		}
+		ConnectionPool pool = ConnectionPools.newConnectionPool(properties,
+				factory);
+		int maxPoolSize = Integer.parseInt(properties.getProperty(
+				"maxPoolSize", "" + Integer.MAX_VALUE).trim());
+		driver = pool instanceof BlockingConnectionPool ? new AsyncDriver(
+				(BlockingConnectionPool) pool) : new QueueingDriver(pool,
+				maxPoolSize);
+
+		schedule(0, ARRIVAL, null);
+		try {
+			Event event;
+			while ((event = events.poll()) != null
+					&& event.time <= durationNanos) {
+				now = event.time;
+				switch (event.kind) {
+				case ARRIVAL:
+					arrive();
+					break;
+				case RELEASE:
+					changeLeased(-1);
+					driver.release(event.borrower);
+					break;
+				case TIMEOUT:
+					driver.timeOut(event.borrower);
+					break;
+				}
+				drainCompleted();
+			}
+		} finally {
+			shutdown(pool);
+		}
+		now = durationNanos;
+		changeLeased(0);
+		double meanLeased = leasedArea / Math.max(1, durationNanos);
+		int capacity = maxPoolSize == Integer.MAX_VALUE ? peakLeased
+				: maxPoolSize;
+		return new SimulationReport(durationNanos, System.nanoTime()
+				- wallStart, arrivals, served, timeouts, failures,
+				factory.getCreated(), factory.getFailed(),
+				waits.getSnapshot(), meanLeased, peakLeased,
+				capacity == 0 ? 0 : meanLeased / capacity);
+	}
+
+	/**
+	 * Close the {@link Connection}s and Threads of a
+	 * {@link BlockingConnectionPool}, the leases still held at the end of the
+	 * run being revoked.
+	 */
+	private static void shutdown(ConnectionPool pool) {
+		if (!(pool instanceof BlockingConnectionPool)) {
+			return;
+		}
+		try {
+			((BlockingConnectionPool) pool).shutdown(0, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the virtual time, in nanoseconds since the start of the run.
+	 */
+	long now() {
+		return now;
+	}
+
+	private void arrive() {
+		arrivals++;
+		schedule(now + interArrival.sample(arrivalRandom), ARRIVAL, null);
+		Borrower borrower = new Borrower(now, holdTime.sample(holdRandom));
+		driver.borrow(borrower);
+	}
+
+	/**
+	 * Lease a {@link Connection} to a borrower, from the time it is ready.
+	 */
+	private void grant(Borrower borrower, Connection connection) {
+		long ready = Math.max(now, factory.takeReadyAt(connection));
+		borrower.connection = connection;
+		waits.record(ready - borrower.arrival);
+		served++;
+		changeLeased(1);
+		schedule(ready + borrower.hold, RELEASE, borrower);
+	}
+
+	private void drainCompleted() {
+		for (int i = 0; i < completed.size(); ++i) {
+			Borrower borrower = completed.get(i);
+			CompletableFuture<Connection> future = borrower.future;
+			if (future.isCancelled()) {
+				continue;
+			} else if (future.isCompletedExceptionally()) {
+				failures++;
+			} else {
+				grant(borrower, future.join());
+			}
+		}
+		completed.clear();
+	}
+
+	private void changeLeased(int delta) {
+		leasedArea += (double) leased * (now - lastLeasedChange);
+		lastLeasedChange = now;
+		leased += delta;
+		peakLeased = Math.max(peakLeased, leased);
+	}
+
+	private void schedule(long time, int kind, Borrower borrower) {
+		events.add(new Event(time, sequence++, kind, borrower));
+	}
+
+	private void scheduleTimeout(Borrower borrower) {
+		if (borrowTimeoutNanos > 0) {
+			schedule(now + borrowTimeoutNanos, TIMEOUT, borrower);
+		}
+	}
+
+	/**
+	 * Run a simulation configured by a java {@link Properties} file and print
+	 * its report. The properties prefixed by {@value #PREFIX} configure the
+	 * simulation: seed, duration, interArrival, holdTime, createLatency,
+	 * createFailureRate and borrowTimeout; distributions as described by
+	 * {@link Distributions#parse(String)} and durations in milliseconds
+	 * unless suffixed by a unit. The others configure the pool.
+	 * 
+	 * @param args
+	 *            The path of the properties file.
+	 * @throws IOException
+	 *             Thrown if a file cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: Simulation <properties file>");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		InputStream in = Files.newInputStream(Paths.get(args[0]));
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		Simulation simulation = new Simulation(properties);
+		String value;
+		if ((value = properties.getProperty(PREFIX + "seed")) != null) {
+			simulation.setSeed(Long.parseLong(value.trim()));
+		}
+		if ((value = properties.getProperty(PREFIX + "duration")) != null) {
+			simulation.setDuration(Distributions.toNanos(value),
+					TimeUnit.NANOSECONDS);
+		}
+		if ((value = properties.getProperty(PREFIX + "interArrival")) != null) {
+			simulation.setInterArrival(Distributions.parse(value));
+		}
+		if ((value = properties.getProperty(PREFIX + "holdTime")) != null) {
+			simulation.setHoldTime(Distributions.parse(value));
+		}
+		if ((value = properties.getProperty(PREFIX + "createLatency")) != null) {
+			simulation.setCreateLatency(Distributions.parse(value));
+		}
+		if ((value = properties.getProperty(PREFIX + "createFailureRate")) != null) {
+			simulation.setCreateFailureRate(Double.parseDouble(value.trim()));
+		}
+		if ((value = properties.getProperty(PREFIX + "borrowTimeout")) != null) {
+			simulation.setBorrowTimeout(Distributions.toNanos(value),
+					TimeUnit.NANOSECONDS);
+		}
+		System.out.println(simulation.run());
+	}
+
+	/**
+	 * @param seed
+	 *            The seed of every random source. <i>Default value is 1.</i>
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @param duration
+	 *            The length of virtual time simulated. <i>Default value is an
+	 *            hour.</i>
+	 * @param unit
+	 *            The {@link TimeUnit} of the duration.
+	 */
+	public void setDuration(long duration, TimeUnit unit) {
+		this.durationNanos = unit.toNanos(duration);
+	}
+
+	/**
+	 * @param interArrival
+	 *            The time between two arrivals. <i>Default value is
+	 *            exponential around 10 milliseconds.</i>
+	 */
+	public void setInterArrival(Distribution interArrival) {
+		this.interArrival = interArrival;
+	}
+
+	/**
+	 * @param holdTime
+	 *            The time a borrower holds its connection. <i>Default value is
+	 *            log-normal around 5 milliseconds.</i>
+	 */
+	public void setHoldTime(Distribution holdTime) {
+		this.holdTime = holdTime;
+	}
+
+	/**
+	 * @param createLatency
+	 *            The time a creation of a connection takes. <i>Default value
+	 *            is 20 milliseconds.</i>
+	 */
+	public void setCreateLatency(Distribution createLatency) {
+		this.createLatency = createLatency;
+	}
+
+	/**
+	 * @param createFailureRate
+	 *            The probability of a creation to fail, between 0 and 1.
+	 *            <i>Default value is 0.</i>
+	 */
+	public void setCreateFailureRate(double createFailureRate) {
+		this.createFailureRate = createFailureRate;
+	}
+
+	/**
+	 * @param borrowTimeout
+	 *            The time a borrower waits before giving up, 0 or less to
+	 *            wait indefinitely. <i>Default value is a second.</i>
+	 * @param unit
+	 *            The {@link TimeUnit} of the timeout.
+	 */
+	public void setBorrowTimeout(long borrowTimeout, TimeUnit unit) {
+		this.borrowTimeoutNanos = unit.toNanos(borrowTimeout);
+	}
+
+	/**
+	 * Borrows from, and releases to, the pool simulated.
+	 */
+	private abstract class Driver {
+
+		abstract void borrow(Borrower borrower);
+
+		abstract void release(Borrower borrower);
+
+		abstract void timeOut(Borrower borrower);
+
+		void releaseToPool(ConnectionPool pool, Borrower borrower) {
+			try {
+				pool.releaseConnection(borrower.connection);
+			} catch (SQLException e) {
+				LOG.warn("Failed to release a simulated connection.", e);
+			}
+		}
+	}
+
+	/**
+	 * Drives a {@link BlockingConnectionPool} through its futures, the pool
+	 * queueing the borrowers.
+	 */
+	private final class AsyncDriver extends Driver {
+		private final BlockingConnectionPool pool;
+
+		AsyncDriver(BlockingConnectionPool pool) {
+			this.pool = pool;
+		}
+
+		@Override
+		void borrow(final Borrower borrower) {
+			try {
+				borrower.future = pool.getConnectionAsync();
+			} catch (RuntimeException e) {
+				failures++;
+				return;
+			}
+			borrower.future
+					.whenComplete(new BiConsumer<Connection, Throwable>() {
+						@Override
+						public void accept(Connection connection,
+								Throwable cause) {
+							completed.add(borrower);
+						}
+					});
+			if (!borrower.future.isDone()) {
+				scheduleTimeout(borrower);
+			}
+		}
+
+		@Override
+		void release(Borrower borrower) {
+			try {
+				releaseToPool(pool, borrower);
+			} catch (RuntimeException e) {
+				// A creation for a waiting borrower failed.
+				LOG.debug("Failed to serve a waiting borrower.", e);
+			}
+		}
+
+		@Override
+		void timeOut(Borrower borrower) {
+			if (borrower.future.cancel(false)) {
+				timeouts++;
+			}
+		}
+	}
+
+	/**
+	 * Drives any {@link ConnectionPool}, borrowing only while it is below its
+	 * maxPoolSize so that it never blocks, the simulation queueing the
+	 * borrowers meanwhile.
+	 */
+	private final class QueueingDriver extends Driver {
+		private final ConnectionPool pool;
+		private final int maxPoolSize;
+		// Borrowers timed out are skipped when they reach the head.
+		private final Queue<Borrower> queue = new ArrayDeque<Borrower>();
+
+		QueueingDriver(ConnectionPool pool, int maxPoolSize) {
+			this.pool = pool;
+			this.maxPoolSize = maxPoolSize;
+		}
+
+		@Override
+		void borrow(Borrower borrower) {
+			if (queue.isEmpty() && leased < maxPoolSize) {
+				take(borrower);
+			} else {
+				borrower.queued = true;
+				queue.add(borrower);
+				scheduleTimeout(borrower);
+			}
+		}
+
+		@Override
+		void release(Borrower borrower) {
+			releaseToPool(pool, borrower);
+			Borrower next;
+			while (leased < maxPoolSize && (next = queue.poll()) != null) {
+				if (next.queued) {
+					next.queued = false;
+					take(next);
+				}
+			}
+		}
+
+		@Override
+		void timeOut(Borrower borrower) {
+			if (borrower.queued) {
+				borrower.queued = false;
+				timeouts++;
+			}
+		}
+
+		private void take(Borrower borrower) {
+			try {
+				grant(borrower, pool.getConnection());
+			} catch (SQLException e) {
+				failures++;
+			} catch (RuntimeException e) {
+				failures++;
+			}
+		}
+	}
+
+	/**
+	 * A borrower, from its arrival to its release.
+	 */
+	private static final class Borrower {
+		private final long arrival;
+		private final long hold;
+		private CompletableFuture<Connection> future;
+		private boolean queued;
+		private Connection connection;
+
+		Borrower(long arrival, long hold) {
+			this.arrival = arrival;
+			this.hold = hold;
+		}
+	}
+
+	/**
+	 * An event of the simulation, ordered by time then by scheduling order.
+	 */
+	private static final class Event implements Comparable<Event> {
+		private final long time;
+		private final long sequence;
+		private final int kind;
+		private final Borrower borrower;
+
+		Event(long time, long sequence, int kind, Borrower borrower) {
+			this.time = time;
+			this.sequence = sequence;
+			this.kind = kind;
+			this.borrower = borrower;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			if (time != other.time) {
+				return time < other.time ? -1 : 1;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+}
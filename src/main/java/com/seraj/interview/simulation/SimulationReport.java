@@ -0,0 +1,148 @@
+package com.seraj.interview.simulation;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.seraj.interview.connectionpool.LatencyHistogram;
+
+/**
+ * The outcome of a {@link Simulation} run. Every duration is in virtual time
+ * but the wall time of the run.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class SimulationReport {
+
+	private final long simulatedNanos;
+	private final long wallNanos;
+	private final long arrivals;
+	private final long served;
+	private final long timeouts;
+	private final long failures;
+	private final long connectionsCreated;
+	private final long createFailures;
+	private final LatencyHistogram.Snapshot wait;
+	private final double meanLeased;
+	private final int peakLeased;
+	private final double utilization;
+
+	SimulationReport(long simulatedNanos, long wallNanos, long arrivals,
+			long served, long timeouts, long failures,
+			long connectionsCreated, long createFailures,
+			LatencyHistogram.Snapshot wait, double meanLeased, int peakLeased,
+			double utilization) {
+		this.simulatedNanos = simulatedNanos;
+		this.wallNanos = wallNanos;
+		this.arrivals = arrivals;
+		this.served = served;
+		this.timeouts = timeouts;
+		this.failures = failures;
+		this.connectionsCreated = connectionsCreated;
+		this.createFailures = createFailures;
+		this.wait = wait;
+		this.meanLeased = meanLeased;
+		this.peakLeased = peakLeased;
+		this.utilization = utilization;
+	}
+
+	/**
+	 * @return the length of virtual time simulated, in nanoseconds.
+	 */
+	public long getSimulatedNanos() {
+		return simulatedNanos;
+	}
+
+	/**
+	 * @return the length of wall time the run took, in nanoseconds.
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	/**
+	 * @return the number of borrowers which arrived.
+	 */
+	public long getArrivals() {
+		return arrivals;
+	}
+
+	/**
+	 * @return the number of borrowers leased a connection.
+	 */
+	public long getServed() {
+		return served;
+	}
+
+	/**
+	 * @return the number of borrowers which gave up waiting.
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * @return the number of borrowers failed by the pool.
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return the number of connections created.
+	 */
+	public long getConnectionsCreated() {
+		return connectionsCreated;
+	}
+
+	/**
+	 * @return the number of creations failed.
+	 */
+	public long getCreateFailures() {
+		return createFailures;
+	}
+
+	/**
+	 * @return the distribution of the waits of the borrowers served,
+	 *         creations included.
+	 */
+	public LatencyHistogram.Snapshot getWait() {
+		return wait;
+	}
+
+	/**
+	 * @return the mean number of connections on lease over the run.
+	 */
+	public double getMeanLeased() {
+		return meanLeased;
+	}
+
+	/**
+	 * @return the largest number of connections on lease at once.
+	 */
+	public int getPeakLeased() {
+		return peakLeased;
+	}
+
+	/**
+	 * @return the mean fraction of the pool on lease, relative to its
+	 *         maxPoolSize or, if unbounded, to the peak leased.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	@Override
+	public String toString() {
+		return "simulated=" + TimeUnit.NANOSECONDS.toSeconds(simulatedNanos)
+				+ "s wall=" + TimeUnit.NANOSECONDS.toMillis(wallNanos)
+				+ "ms arrivals=" + arrivals + " served=" + served
+				+ " timeouts=" + timeouts + " failures=" + failures
+				+ " created=" + connectionsCreated + " createFailures="
+				+ createFailures + " meanLeased="
+				+ String.format(Locale.ROOT, "%.2f", meanLeased)
+				+ " peakLeased=" + peakLeased + " utilization="
+				+ String.format(Locale.ROOT, "%.3f", utilization) + " wait: "
+				+ wait;
+	}
+}
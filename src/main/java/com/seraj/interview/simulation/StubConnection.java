@@ -0,0 +1,56 @@
+package com.seraj.interview.simulation;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Creates stub {@link Connection}s which do no I/O, for simulations and
+ * replays. They are always valid; every method a pool does not use returns
+ * its type's default.
+ * 
+ * @author Seraj Dosenbach
+ *
+ */
+public final class StubConnection {
+
+	/**
+	 * @return a new stub {@link Connection}.
+	 */
+	public static Connection create() {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new StubHandler());
+	}
+
+	private StubConnection() {
+	}
+
+	/**
+	 * Answers the few {@link Connection} methods a pool uses; every other
+	 * method returns its type's default.
+	 */
+	private static final class StubHandler implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if ("isValid".equals(name)) {
+				return Boolean.TRUE;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "StubConnection@"
+						+ Integer.toHexString(System.identityHashCode(proxy));
+			} else if (method.getReturnType() == boolean.class) {
+				return Boolean.FALSE;
+			} else if (method.getReturnType() == int.class) {
+				return 0;
+			}
+			return null;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.seraj.interview.configuration;
 
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
@@ -14,6 +15,8 @@ public class TestConfigurationReader {
 	private static String stringValue2 = "anotherString";
 	private static int intValue = 123;
 	private static long longValue = 456;
+	private static TimeUnit enumValue = TimeUnit.SECONDS;
+	private static boolean booleanValue = true;
 
 	@BeforeClass
 	public static void setupProperties() {
@@ -21,6 +24,8 @@ public class TestConfigurationReader {
 		properties.setProperty("stringField", stringValue);
 		properties.setProperty("intField", "" + intValue);
 		properties.setProperty("longField", "" + longValue);
+		properties.setProperty("enumField", enumValue.name());
+		properties.setProperty("booleanField", "" + booleanValue);
 		properties.setProperty("notAConfigurableField", stringValue2);
 	}
 
@@ -32,10 +37,96 @@ public class TestConfigurationReader {
 		Assert.assertEquals(stringValue, testClass.stringField);
 		Assert.assertEquals(intValue, testClass.intField);
 		Assert.assertEquals(longValue, testClass.longField);
+		Assert.assertEquals(enumValue, testClass.enumField);
+		Assert.assertEquals(booleanValue, testClass.booleanField);
 		Assert.assertNull(testClass.notConfiguredField);
 		Assert.assertNull(testClass.notAConfigurableField);
 	}
 
+	@Test
+	public void testReloadConfigurations() {
+		ConfigurableTestClass testClass = new ConfigurableTestClass();
+		Properties reloaded = new Properties();
+		reloaded.setProperty("reloadableField", "" + intValue);
+		reloaded.setProperty("intField", "" + intValue);
+		Assert.assertTrue(ConfigurationReader.reloadConfigurations(reloaded,
+				ConfigurableTestClass.class, testClass));
+		Assert.assertEquals(intValue, testClass.reloadableField);
+		Assert.assertEquals(0, testClass.intField);
+		// Nothing changed the second time.
+		Assert.assertFalse(ConfigurationReader.reloadConfigurations(reloaded,
+				ConfigurableTestClass.class, testClass));
+	}
+
+	/**
+	 * Test the attributes of {@link Configurable} on a class bound by its
+	 * generated binder.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGeneratedBinder() throws Exception {
+		Assert.assertNotNull(Class.forName(BoundTestClass.class.getName()
+				.replace('$', '_') + ConfigurationBinder.SUFFIX));
+		BoundTestClass testClass = new BoundTestClass();
+		ConfigurationReader.loadConfigurations(attributeProperties(),
+				BoundTestClass.class, testClass);
+		assertAttributes(testClass.boundedField, testClass.durationField,
+				testClass.defaultedField, testClass.enumField,
+				testClass.booleanField);
+		Assert.assertEquals(7, testClass.rejectedField);
+	}
+
+	/**
+	 * Test the attributes of {@link Configurable} on a class configured
+	 * reflectively.
+	 */
+	@Test
+	public void testReflectiveAttributes() {
+		ConfigurableTestClass testClass = new ConfigurableTestClass();
+		ConfigurationReader.loadConfigurations(attributeProperties(),
+				ConfigurableTestClass.class, testClass);
+		assertAttributes(testClass.boundedField, testClass.durationField,
+				testClass.defaultedField, testClass.enumField,
+				testClass.booleanField);
+		Assert.assertEquals(7, testClass.rejectedField);
+	}
+
+	private static Properties attributeProperties() {
+		Properties attributes = new Properties();
+		attributes.setProperty("enumField", TimeUnit.SECONDS.name());
+		attributes.setProperty("boundedField", "10");
+		attributes.setProperty("durationField", "2m");
+		attributes.setProperty("booleanField", "TRUE");
+		attributes.setProperty("rejectedField", "11");
+		return attributes;
+	}
+
+	private static void assertAttributes(int boundedField,
+			long durationField, long defaultedField, TimeUnit enumField,
+			boolean booleanField) {
+		Assert.assertEquals(10, boundedField);
+		Assert.assertEquals(120, durationField);
+		Assert.assertEquals(42, defaultedField);
+		Assert.assertEquals(TimeUnit.SECONDS, enumField);
+		Assert.assertTrue(booleanField);
+	}
+
+	static final class BoundTestClass {
+		@Configurable
+		TimeUnit enumField;
+		@Configurable
+		boolean booleanField;
+		@Configurable(min = 1, max = 10)
+		int boundedField;
+		@Configurable(min = 1, max = 10)
+		int rejectedField = 7;
+		@Configurable(unitField = "enumField")
+		long durationField;
+		@Configurable(defaultValue = "42")
+		long defaultedField;
+	}
+
 	private final class ConfigurableTestClass {
 		@Configurable
 		protected String stringField;
@@ -43,6 +134,20 @@ public class TestConfigurationReader {
 		protected int intField;
 		@Configurable
 		protected long longField;
+		@Configurable
+		protected TimeUnit enumField;
+		@Configurable
+		protected boolean booleanField;
+		@Configurable(reloadable = true)
+		protected volatile int reloadableField;
+		@Configurable(min = 1, max = 10)
+		protected int boundedField;
+		@Configurable(min = 1, max = 10)
+		protected int rejectedField = 7;
+		@Configurable(unitField = "enumField")
+		protected long durationField;
+		@Configurable(defaultValue = "42")
+		protected long defaultedField;
 
 		// This field is marked for configuration but is not configured in the
 		// properties.
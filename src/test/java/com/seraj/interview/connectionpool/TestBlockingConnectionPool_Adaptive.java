@@ -0,0 +1,212 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test the adaptive sizing of the {@link BlockingConnectionPool} and the
+ * decisions of its {@link AdaptiveSizingController}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Adaptive {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	// Creates always valid connections.
+	private final ConnectionFactory factory = new ConnectionFactory() {
+		@Override
+		public Connection newConnection() {
+			Connection connection = createNiceMock(Connection.class);
+			try {
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+			replay(connection);
+			return connection;
+		}
+	};
+
+	/**
+	 * Test that the pool grows while borrowers wait, never past maxPoolSize,
+	 * and shrinks back to minPoolSize once the load is gone, reporting each
+	 * decision.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGrowsUnderLoadAndShrinksWhenIdle() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 8);
+		properties.setProperty("adaptiveSizing", "true");
+		properties.setProperty("minPoolSize", "" + 1);
+		properties.setProperty("targetBorrowWait", "" + 1);
+		properties.setProperty("adaptiveSizingInterval", "" + 50);
+		properties.setProperty("borrowTimeoutInterval", "" + 1);
+		final BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+		final List<SizingDecision> decisions = new CopyOnWriteArrayList<SizingDecision>();
+		classUnderTest.addListener(new ConnectionPoolListener() {
+			@Override
+			public void sizingDecided(SizingDecision decision) {
+				decisions.add(decision);
+			}
+		});
+		assertEquals("The pool did not start at its minimum.", 1,
+				classUnderTest.getPoolLimit());
+
+		final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(600);
+		Thread[] borrowers = new Thread[8];
+		for (int i = 0; i < borrowers.length; ++i) {
+			borrowers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.nanoTime() < end) {
+							Connection connection = classUnderTest
+									.getConnection(1, TimeUnit.SECONDS);
+							Thread.sleep(5);
+							classUnderTest.releaseConnection(connection);
+						}
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			borrowers[i].start();
+		}
+		for (Thread borrower : borrowers) {
+			borrower.join();
+		}
+
+		int grown = classUnderTest.getPoolLimit();
+		assertTrue("The pool did not grow under load: " + decisions,
+				grown > 1 && grown <= 8);
+		assertTrue("The pool grew past its limit.",
+				classUnderTest.getSize() <= grown);
+		// The surplus is closed only after the limit is lowered.
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((classUnderTest.getPoolLimit() > 1 || classUnderTest
+				.getSize() > 1) && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals("The pool did not shrink without load.", 1,
+				classUnderTest.getPoolLimit());
+		assertEquals("Idle connections above the limit were not closed.", 1,
+				classUnderTest.getSize());
+		boolean grew = false;
+		boolean shrank = false;
+		for (SizingDecision decision : decisions) {
+			grew |= decision.getAction() == SizingDecision.Action.GROW;
+			shrank |= decision.getAction() == SizingDecision.Action.SHRINK;
+		}
+		assertTrue("The decisions were not reported.", grew && shrank);
+	}
+
+	/**
+	 * Test that a growth which does not raise the throughput is undone, and
+	 * that the limit is then held although borrowers still wait.
+	 */
+	@Test
+	public void testStopsGrowingAtThroughputPlateau() {
+		AdaptiveSizingController controller = new AdaptiveSizingController(
+				1, 0, 100, 1, TimeUnit.MILLISECONDS);
+
+		// 1000 borrows per second, each waiting 5ms and held 10ms.
+		SizingDecision decision = controller.decide(SECOND, 10, 5, 1000,
+				1000 * 5 * MILLI, 1000, 1000 * 10 * MILLI);
+		assertEquals(SizingDecision.Action.GROW, decision.getAction());
+		assertEquals(12, decision.getLimit());
+		assertEquals(10.0, decision.getConnectionsInUse(), 0.001);
+
+		// The growth did not raise the throughput.
+		decision = controller.decide(SECOND, 12, 5, 1010, 1010 * 5 * MILLI,
+				1010, 1010 * 12 * MILLI);
+		assertEquals(SizingDecision.Action.SHRINK, decision.getAction());
+		assertEquals(10, decision.getLimit());
+
+		decision = controller.decide(SECOND, 10, 5, 1000, 1000 * 5 * MILLI,
+				1000, 1000 * 10 * MILLI);
+		assertEquals(SizingDecision.Action.HOLD, decision.getAction());
+		assertEquals(10, decision.getLimit());
+	}
+
+	/**
+	 * Test that a growth raising the throughput is followed by another, up
+	 * to the maximum size.
+	 */
+	@Test
+	public void testGrowsWhileThroughputRises() {
+		AdaptiveSizingController controller = new AdaptiveSizingController(
+				1, 0, 13, 1, TimeUnit.MILLISECONDS);
+
+		SizingDecision decision = controller.decide(SECOND, 8, 5, 800,
+				800 * 5 * MILLI, 800, 800 * 10 * MILLI);
+		assertEquals(10, decision.getLimit());
+		decision = controller.decide(SECOND, 10, 5, 1000, 1000 * 5 * MILLI,
+				1000, 1000 * 10 * MILLI);
+		assertEquals(12, decision.getLimit());
+		decision = controller.decide(SECOND, 12, 5, 1200, 1200 * 5 * MILLI,
+				1200, 1200 * 10 * MILLI);
+		assertEquals("The limit grew past the maximum size.", 13,
+				decision.getLimit());
+	}
+
+	/**
+	 * Test that without waits the limit shrinks towards the connections in
+	 * use by Little's law, never below the minimum size.
+	 */
+	@Test
+	public void testShrinksToConnectionsInUse() {
+		AdaptiveSizingController controller = new AdaptiveSizingController(
+				2, 0, 100, 1, TimeUnit.MILLISECONDS);
+
+		// 200 borrows per second held 10ms each, 2 connections in use.
+		SizingDecision decision = controller.decide(SECOND, 40, 0, 200, 0,
+				200, 200 * 10 * MILLI);
+		assertEquals(SizingDecision.Action.SHRINK, decision.getAction());
+		assertEquals(30, decision.getLimit());
+		decision = controller.decide(SECOND, 4, 0, 200, 0, 200,
+				200 * 10 * MILLI);
+		assertEquals(3, decision.getLimit());
+		decision = controller.decide(SECOND, 3, 0, 0, 0, 0, 0);
+		assertEquals(2, decision.getLimit());
+		decision = controller.decide(SECOND, 2, 0, 0, 0, 0, 0);
+		assertEquals(SizingDecision.Action.HOLD, decision.getAction());
+		assertEquals("The limit is at its bound.", decision.getReason());
+	}
+
+	/**
+	 * Test that without load the limit does not shrink below the idle
+	 * connections kept by the pool.
+	 */
+	@Test
+	public void testShrinksToMinIdle() {
+		AdaptiveSizingController controller = new AdaptiveSizingController(
+				1, 5, 100, 1, TimeUnit.MILLISECONDS);
+
+		SizingDecision decision = controller.decide(SECOND, 8, 0, 0, 0, 0, 0);
+		assertEquals(6, decision.getLimit());
+		decision = controller.decide(SECOND, 6, 0, 0, 0, 0, 0);
+		assertEquals(5, decision.getLimit());
+		decision = controller.decide(SECOND, 5, 0, 0, 0, 0, 0);
+		assertEquals(SizingDecision.Action.HOLD, decision.getAction());
+		assertEquals(5, decision.getLimit());
+	}
+}
@@ -0,0 +1,200 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test the asynchronous and deadline bounded acquisition of the
+ * {@link BlockingConnectionPool}.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+@RunWith(EasyMockRunner.class)
+public class TestBlockingConnectionPool_Async extends EasyMockSupport {
+
+	// The class under test
+	private BlockingConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 2231;
+
+	/**
+	 * Initialize the pool to max size of 1.
+	 */
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new BlockingConnectionPool(properties);
+		classUnderTest.setConnectionFactory(mockFactory);
+	}
+
+	/**
+	 * Test that the future is complete when space is available and otherwise
+	 * completed by the release of a {@link Connection}.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnectionAsync_handoff() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		CompletableFuture<Connection> first = classUnderTest
+				.getConnectionAsync();
+		assertTrue("The first future was not complete.", first.isDone());
+		CompletableFuture<Connection> second = classUnderTest
+				.getConnectionAsync();
+		assertFalse("The second future completed without a connection.",
+				second.isDone());
+
+		classUnderTest.releaseConnection(first.join());
+
+		verifyAll();
+		assertSame("The connection was not handed over.", mockConnection,
+				second.getNow(null));
+	}
+
+	/**
+	 * Test that waiting callers are served in the order they arrived.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnectionAsync_fifo() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true).times(2);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		CompletableFuture<Connection> second = classUnderTest
+				.getConnectionAsync();
+		CompletableFuture<Connection> third = classUnderTest
+				.getConnectionAsync();
+
+		classUnderTest.releaseConnection(connection);
+		assertTrue("The oldest caller was not served first.", second.isDone());
+		assertFalse("The newest caller was served first.", third.isDone());
+
+		classUnderTest.releaseConnection(second.join());
+		verifyAll();
+		assertTrue("The newest caller was not served.", third.isDone());
+	}
+
+	/**
+	 * Test that a cancelled caller is skipped by the hand off.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnectionAsync_cancelled() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		CompletableFuture<Connection> cancelled = classUnderTest
+				.getConnectionAsync();
+		CompletableFuture<Connection> waiting = classUnderTest
+				.getConnectionAsync();
+		cancelled.cancel(false);
+
+		classUnderTest.releaseConnection(connection);
+
+		verifyAll();
+		assertSame("The connection was not handed to the waiting caller.",
+				mockConnection, waiting.getNow(null));
+	}
+
+	/**
+	 * Test that a deadline bounded borrow times out when the pool is
+	 * exhausted, and that the space it waited for is not lost.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnection_timeout() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		long start = System.nanoTime();
+		try {
+			classUnderTest.getConnection(200, TimeUnit.MILLISECONDS);
+			fail("No exception was thrown for an exhausted pool.");
+		} catch (SQLTimeoutException exception) {
+			assertTrue("The borrow gave up too early.",
+					System.nanoTime() - start >= TimeUnit.MILLISECONDS
+							.toNanos(200));
+		}
+
+		classUnderTest.releaseConnection(connection);
+		assertSame("The connection was not returned to the pool.",
+				mockConnection,
+				classUnderTest.getConnection(0, TimeUnit.MILLISECONDS));
+		verifyAll();
+	}
+
+	/**
+	 * Test that a failure to create a {@link Connection} for a waiting caller
+	 * fails that caller, not the Thread releasing an invalid
+	 * {@link Connection}.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testReleaseConnection_createFailure() throws SQLException {
+		IllegalStateException failure = new IllegalStateException("db down");
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				false);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andThrow(failure);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		CompletableFuture<Connection> waiting = classUnderTest
+				.getConnectionAsync();
+		classUnderTest.releaseConnection(connection);
+
+		verifyAll();
+		assertTrue("The waiting caller was not failed.",
+				waiting.isCompletedExceptionally());
+		try {
+			waiting.join();
+			fail("The waiting caller was served.");
+		} catch (CompletionException exception) {
+			assertSame("The failure of the factory was not given.", failure,
+					exception.getCause());
+		}
+	}
+}
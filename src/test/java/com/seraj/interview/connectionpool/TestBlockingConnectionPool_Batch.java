@@ -0,0 +1,242 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test the borrowing and releasing of batches of connections by the
+ * {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Batch {
+
+	private static final long CREATE_LATENCY_MILLIS = 100;
+
+	/**
+	 * Test that the missing connections of a batch are created in parallel,
+	 * and that the batch is released back to the idle list.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testParallelCreation() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 8);
+		SlowConnectionFactory factory = new SlowConnectionFactory();
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		long start = System.nanoTime();
+		List<Connection> batch = classUnderTest.getConnections(4, 5,
+				TimeUnit.SECONDS);
+		assertTrue("The connections were not created in parallel.",
+				System.nanoTime() - start < TimeUnit.MILLISECONDS
+						.toNanos(3 * CREATE_LATENCY_MILLIS));
+		assertEquals(4, new HashSet<Connection>(batch).size());
+		assertEquals(4, classUnderTest.getLeasedCount());
+
+		classUnderTest.releaseConnections(batch);
+		assertEquals(0, classUnderTest.getLeasedCount());
+		assertEquals(4, classUnderTest.getIdleCount());
+		classUnderTest.getConnections(3, 5, TimeUnit.SECONDS);
+		assertEquals("Idle connections were not reused.", 4,
+				factory.created.get());
+	}
+
+	/**
+	 * Test that a batch which cannot be completed in time returns every
+	 * connection gathered for it to the pool.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testAllOrNothing() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new SlowConnectionFactory());
+		Connection first = classUnderTest.getConnection();
+		classUnderTest.getConnection();
+
+		try {
+			classUnderTest.getConnections(3, 300, TimeUnit.MILLISECONDS);
+			fail("The batch was borrowed from a pool too small for it.");
+		} catch (SQLTimeoutException e) {
+			// Expected
+		}
+		assertEquals("Part of the batch is still on lease.", 2,
+				classUnderTest.getLeasedCount());
+		assertEquals(0, classUnderTest.getWaitingCount());
+		assertEquals(4, classUnderTest.getSize());
+		assertEquals(2, classUnderTest.getIdleCount());
+
+		classUnderTest.releaseConnection(first);
+		assertEquals(3,
+				classUnderTest.getConnections(3, 1, TimeUnit.SECONDS).size());
+	}
+
+	/**
+	 * Test that a batch larger than the pool is rejected.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test(expected = SQLException.class)
+	public void testBatchLargerThanPool() throws SQLException {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		new BlockingConnectionPool(properties, new SlowConnectionFactory())
+				.getConnections(3, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Test that a batch larger than the limit set by the adaptive sizing is
+	 * rejected without waiting.
+	 */
+	@Test
+	public void testBatchLargerThanPoolLimit() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 8);
+		properties.setProperty("adaptiveSizing", "true");
+		properties.setProperty("minPoolSize", "" + 2);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new SlowConnectionFactory());
+		assertEquals(2, classUnderTest.getPoolLimit());
+
+		long start = System.nanoTime();
+		try {
+			classUnderTest.getConnections(4, 5, TimeUnit.SECONDS);
+			fail("The batch was borrowed from a pool limited below it.");
+		} catch (SQLException e) {
+			assertTrue("The cause was not as expected; an illegal argument.",
+					e.getCause() instanceof IllegalArgumentException);
+		}
+		assertTrue("The batch was not rejected at once.",
+				System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+	}
+
+	/**
+	 * Test that the connections gathered for a batch are on lease while the
+	 * rest is awaited, rather than neither idle nor leased.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGatheredConnectionsLeased() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 3);
+		final BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new SlowConnectionFactory());
+		Connection first = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		final AtomicInteger borrowed = new AtomicInteger();
+		Thread batch = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					borrowed.set(classUnderTest.getConnections(3, 5,
+							TimeUnit.SECONDS).size());
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		batch.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (classUnderTest.getWaitingCount() == 0
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals("The batch is not waiting.", 1,
+				classUnderTest.getWaitingCount());
+		assertEquals("The gathered connections are not on lease.", 3,
+				classUnderTest.getLeasedCount());
+		assertEquals(0, classUnderTest.getIdleCount());
+
+		classUnderTest.releaseConnection(first);
+		batch.join(TimeUnit.SECONDS.toMillis(5));
+		assertEquals(3, borrowed.get());
+	}
+
+	/**
+	 * Test that batches which each need most of the pool, borrowed
+	 * concurrently, never deadlock on each other.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentBatches() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		final BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new SlowConnectionFactory());
+		final AtomicInteger completed = new AtomicInteger();
+		Thread[] jobs = new Thread[4];
+		for (int i = 0; i < jobs.length; ++i) {
+			jobs[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 20; ++j) {
+							List<Connection> batch = classUnderTest
+									.getConnections(3, 5, TimeUnit.SECONDS);
+							Thread.sleep(1);
+							classUnderTest.releaseConnections(batch);
+							completed.incrementAndGet();
+						}
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			jobs[i].start();
+		}
+		for (Thread job : jobs) {
+			job.join(TimeUnit.SECONDS.toMillis(20));
+		}
+		assertEquals("The batches deadlocked.", 80, completed.get());
+		assertEquals(0, classUnderTest.getLeasedCount());
+	}
+
+	/**
+	 * A {@link ConnectionFactory} taking a while to create each valid
+	 * connection.
+	 */
+	private static final class SlowConnectionFactory implements
+			ConnectionFactory {
+		private final AtomicInteger created = new AtomicInteger();
+
+		@Override
+		public Connection newConnection() {
+			try {
+				Thread.sleep(CREATE_LATENCY_MILLIS);
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				replay(connection);
+				created.incrementAndGet();
+				return connection;
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
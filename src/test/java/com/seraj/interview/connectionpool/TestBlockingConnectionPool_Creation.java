@@ -0,0 +1,234 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test the throttling of the creations of connections by the
+ * {@link BlockingConnectionPool}, and its circuit breaker.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Creation {
+
+	/**
+	 * Test that after repeated failures the circuit opens and borrowers fail
+	 * fast without calling the factory, until a single probe succeeds and
+	 * closes the circuit.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		properties.setProperty("createBackoffInitial", "" + 20);
+		properties.setProperty("createBackoffMax", "" + 20);
+		properties.setProperty("circuitBreakerThreshold", "" + 3);
+		FlakyConnectionFactory factory = new FlakyConnectionFactory();
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		factory.failing = true;
+		for (int i = 0; i < 3; ++i) {
+			try {
+				classUnderTest.getConnection();
+				fail("The factory did not fail.");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+			Thread.sleep(40);
+		}
+		assertTrue(classUnderTest.isCreationCircuitOpen());
+		assertEquals(0, classUnderTest.getSize());
+
+		Thread.sleep(40);
+		factory.failing = false;
+		// The probe is the one creation admitted once the delay passed.
+		assertNotNull(classUnderTest.getConnection());
+		assertFalse(classUnderTest.isCreationCircuitOpen());
+		assertEquals(4, factory.calls.get());
+		assertEquals(1, classUnderTest.getSize());
+	}
+
+	/**
+	 * Test that borrowers which need a new connection fail fast while the
+	 * circuit is open, and that the factory is not called meanwhile.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailFastWhileOpen() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		properties.setProperty("createBackoffInitial", "" + 10000);
+		properties.setProperty("circuitBreakerThreshold", "" + 1);
+		FlakyConnectionFactory factory = new FlakyConnectionFactory();
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		factory.failing = true;
+		try {
+			classUnderTest.getConnection();
+			fail("The factory did not fail.");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		factory.failing = false;
+		long start = System.nanoTime();
+		try {
+			classUnderTest.getConnection();
+			fail("The borrower did not fail fast.");
+		} catch (SQLTransientConnectionException e) {
+			// Expected
+		}
+		try {
+			classUnderTest.getConnectionAsync().get();
+			fail("The asynchronous borrower did not fail fast.");
+		} catch (Exception e) {
+			assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+		}
+		assertTrue("The borrowers waited.",
+				System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		assertEquals(1, factory.calls.get());
+		assertEquals(0, classUnderTest.getWaitingCount());
+	}
+
+	/**
+	 * Test that a factory returning no connection does not leak space in the
+	 * pool, and that the failures back the creations off.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBackoffKeepsSlots() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		properties.setProperty("createBackoffInitial", "" + 10000);
+		properties.setProperty("circuitBreakerThreshold", "" + 0);
+		FlakyConnectionFactory factory = new FlakyConnectionFactory();
+		factory.returnNull = true;
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		try {
+			classUnderTest.getConnection();
+			fail("The missing connection was leased.");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(0, classUnderTest.getSize());
+		try {
+			classUnderTest.getConnection(200, TimeUnit.MILLISECONDS);
+			fail("The creation was not held back.");
+		} catch (SQLException e) {
+			// Expected
+		}
+		assertEquals("The creation was not held back.", 1,
+				factory.calls.get());
+		assertEquals(0, classUnderTest.getSize());
+		assertFalse(classUnderTest.isCreationCircuitOpen());
+	}
+
+	/**
+	 * Test that no more connections than configured are created at once, and
+	 * that the borrowers held back are served.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMaxConcurrentCreates() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 8);
+		properties.setProperty("maxConcurrentCreates", "" + 2);
+		final FlakyConnectionFactory factory = new FlakyConnectionFactory();
+		factory.latencyMillis = 50;
+		final BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		final AtomicInteger borrowed = new AtomicInteger();
+		Thread[] borrowers = new Thread[6];
+		for (int i = 0; i < borrowers.length; ++i) {
+			borrowers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						classUnderTest.getConnection(5, TimeUnit.SECONDS);
+						borrowed.incrementAndGet();
+					} catch (SQLException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			borrowers[i].start();
+		}
+		for (Thread borrower : borrowers) {
+			borrower.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		assertEquals(6, borrowed.get());
+		assertTrue("Too many connections were created at once.",
+				factory.maxConcurrent.get() <= 2);
+	}
+
+	/**
+	 * A {@link ConnectionFactory} failing on demand, counting its calls and
+	 * the calls under way at once.
+	 */
+	private static final class FlakyConnectionFactory implements
+			ConnectionFactory {
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger concurrent = new AtomicInteger();
+		private final AtomicInteger maxConcurrent = new AtomicInteger();
+		private volatile boolean failing;
+		private volatile boolean returnNull;
+		private volatile long latencyMillis;
+
+		@Override
+		public Connection newConnection() {
+			calls.incrementAndGet();
+			int current = concurrent.incrementAndGet();
+			try {
+				int max;
+				while ((max = maxConcurrent.get()) < current
+						&& !maxConcurrent.compareAndSet(max, current)) {
+					// Retry
+				}
+				if (latencyMillis > 0) {
+					Thread.sleep(latencyMillis);
+				}
+				if (failing) {
+					throw new IllegalStateException("The database is down.");
+				} else if (returnNull) {
+					return null;
+				}
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				replay(connection);
+				return connection;
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			} finally {
+				concurrent.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test the reuse order and the eviction of idle connections by the
+ * {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Idle {
+
+	// Creates always valid connections.
+	private final ConnectionFactory factory = new ConnectionFactory() {
+		@Override
+		public Connection newConnection() {
+			Connection connection = createNiceMock(Connection.class);
+			try {
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+			replay(connection);
+			return connection;
+		}
+	};
+
+	/**
+	 * Test that the connection released last is reused first.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testLifo() throws SQLException {
+		Properties properties = new Properties();
+		properties.setProperty("idleOrder", IdleOrder.LIFO.name());
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		List<Connection> connections = borrow(classUnderTest, 3);
+		for (Connection connection : connections) {
+			classUnderTest.releaseConnection(connection);
+		}
+
+		assertSame("The warmest connection was not reused.",
+				connections.get(2), classUnderTest.getConnection());
+		assertSame("The warmest connection was not reused.",
+				connections.get(1), classUnderTest.getConnection());
+	}
+
+	/**
+	 * Test that connections idle for longer than the idle timeout are evicted
+	 * from the cold end, shrinking the pool to its working set after a burst.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testIdleTimeout() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("idleOrder", IdleOrder.LIFO.name());
+		properties.setProperty("idleTimeout", "" + 100);
+		properties.setProperty("evictionInterval", "" + 20);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		List<Connection> connections = borrow(classUnderTest, 4);
+		for (Connection connection : connections) {
+			classUnderTest.releaseConnection(connection);
+		}
+		// Keep the warmest connection in use throughout.
+		for (int i = 0; i < 20; ++i) {
+			Thread.sleep(15);
+			classUnderTest.releaseConnection(classUnderTest.getConnection());
+		}
+
+		assertEquals("The pool did not shrink to its working set.", 1,
+				classUnderTest.getSize());
+		assertSame("The warm connection was evicted.", connections.get(3),
+				classUnderTest.getConnection());
+	}
+
+	/**
+	 * Test that eviction leaves minIdle connections idle.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testIdleTimeout_minIdle() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("idleTimeout", "" + 50);
+		properties.setProperty("evictionInterval", "" + 20);
+		properties.setProperty("minIdle", "" + 2);
+		properties.setProperty("maxPoolSize", "" + 4);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		for (Connection connection : borrow(classUnderTest, 4)) {
+			classUnderTest.releaseConnection(connection);
+		}
+		Thread.sleep(300);
+
+		assertEquals("Eviction went below minIdle.", 2,
+				classUnderTest.getIdleCount());
+		assertEquals("Eviction did not shrink the pool.", 2,
+				classUnderTest.getSize());
+	}
+
+	private static List<Connection> borrow(
+			BlockingConnectionPool classUnderTest, int count)
+			throws SQLException {
+		List<Connection> connections = new ArrayList<Connection>();
+		for (int i = 0; i < count; ++i) {
+			connections.add(classUnderTest.getConnection(1, TimeUnit.SECONDS));
+		}
+		return connections;
+	}
+}
@@ -0,0 +1,162 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Test the detection of leaked connections by the
+ * {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Leaks {
+
+	// Creates always valid connections.
+	private final ConnectionFactory factory = new ConnectionFactory() {
+		@Override
+		public Connection newConnection() {
+			Connection connection = createNiceMock(Connection.class);
+			try {
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+			replay(connection);
+			return connection;
+		}
+	};
+
+	/**
+	 * Test that leases held past the threshold are reported once each, with
+	 * the stack of their borrower, and counted by call site.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLeaksCountedByCallSite() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("leakDetectionThreshold", "" + 50);
+		properties.setProperty("leakDetectionSampling", "" + 1);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+		final List<Throwable> borrowSites = new CopyOnWriteArrayList<Throwable>();
+		classUnderTest.addListener(new ConnectionPoolListener() {
+			@Override
+			public void leakSuspected(long holdNanos, Throwable borrowSite) {
+				borrowSites.add(borrowSite);
+			}
+		});
+
+		leakFromFirstSite(classUnderTest);
+		leakFromFirstSite(classUnderTest);
+		leakFromSecondSite(classUnderTest);
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		awaitLeaks(classUnderTest, borrowSites, 3);
+		// Leases are reported once.
+		Thread.sleep(100);
+
+		assertEquals("The leaks were not reported once each.", 3,
+				classUnderTest.getSuspectedLeakCount());
+		assertEquals(3, borrowSites.size());
+		for (Throwable borrowSite : borrowSites) {
+			assertNotNull("The borrow site was not captured.", borrowSite);
+		}
+		Map<String, Long> bySite = classUnderTest.getSuspectedLeaksBySite();
+		assertEquals("The leaks were not counted by call site: " + bySite, 2,
+				bySite.size());
+		for (Map.Entry<String, Long> site : bySite.entrySet()) {
+			if (site.getKey().contains("leakFromFirstSite")) {
+				assertEquals(Long.valueOf(2), site.getValue());
+			} else {
+				assertTrue("Unexpected call site " + site.getKey(), site
+						.getKey().contains("leakFromSecondSite"));
+				assertEquals(Long.valueOf(1), site.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Test that leaks of unsampled borrows are still reported and counted,
+	 * without a borrow site.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnsampledLeak() throws Exception {
+		Logger detectorLog = Logger.getLogger(LeakDetector.class);
+		Level level = detectorLog.getLevel();
+		// Debug logging captures every borrow.
+		detectorLog.setLevel(Level.INFO);
+		try {
+			Properties properties = new Properties();
+			properties.setProperty("leakDetectionThreshold", "" + 50);
+			properties.setProperty("leakDetectionSampling", ""
+					+ Integer.MAX_VALUE);
+			BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+					properties, factory);
+			final List<Throwable> borrowSites = new CopyOnWriteArrayList<Throwable>();
+			classUnderTest.addListener(new ConnectionPoolListener() {
+				@Override
+				public void leakSuspected(long holdNanos, Throwable borrowSite) {
+					borrowSites.add(borrowSite);
+				}
+			});
+
+			leakFromFirstSite(classUnderTest);
+			awaitLeaks(classUnderTest, borrowSites, 1);
+
+			assertNull("An unsampled borrow site was captured.",
+					borrowSites.get(0));
+			assertEquals(Long.valueOf(1), classUnderTest
+					.getSuspectedLeaksBySite().get(LeakDetector.UNKNOWN_SITE));
+		} finally {
+			detectorLog.setLevel(level);
+		}
+	}
+
+	private void leakFromFirstSite(BlockingConnectionPool pool)
+			throws SQLException {
+		pool.getConnection();
+	}
+
+	private void leakFromSecondSite(BlockingConnectionPool pool)
+			throws SQLException {
+		pool.getConnection();
+	}
+
+	/**
+	 * Wait for the leaks to be counted by the pool and reported to the
+	 * listener, which is notified after the count.
+	 */
+	private void awaitLeaks(BlockingConnectionPool pool,
+			List<Throwable> borrowSites, int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((pool.getSuspectedLeakCount() < count || borrowSites
+				.size() < count) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals("The leaks were not reported.", count,
+				pool.getSuspectedLeakCount());
+		assertEquals("The leaks were not reported to the listener.", count,
+				borrowSites.size());
+	}
+}
@@ -0,0 +1,116 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test that expired leases are reaped by the {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+@RunWith(EasyMockRunner.class)
+public class TestBlockingConnectionPool_LeaseReaper extends EasyMockSupport {
+
+	// The class under test
+	private BlockingConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 1121;
+
+	/**
+	 * Initialize the pool to max size of 1 with a short lease term.
+	 */
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		properties.setProperty("leaseTerm", "" + 200);
+		properties.setProperty("leaseReaperTickInterval", "" + 10);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new BlockingConnectionPool(properties);
+		classUnderTest.setConnectionFactory(mockFactory);
+	}
+
+	/**
+	 * Test that a leaked {@link Connection} is closed once its lease expires
+	 * and the space is used to serve a blocked Thread.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testReap_leakedConnection() throws SQLException {
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		expect(secondConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				true);
+		replayAll();
+
+		classUnderTest.getConnection();
+		Connection connection = classUnderTest.getConnection(5,
+				TimeUnit.SECONDS);
+		// Released within its term, so that it is not reaped in turn.
+		classUnderTest.releaseConnection(connection);
+
+		verifyAll();
+		assertSame("The blocked Thread was not served.", secondConnection,
+				connection);
+		assertEquals("The reaped lease was not counted.", 1,
+				classUnderTest.getReapedLeaseCount());
+	}
+
+	/**
+	 * Test that a {@link Connection} released within its lease term is not
+	 * reaped, and that releasing a reaped {@link Connection} is rejected.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReap_releasedInTerm() throws Exception {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnection.close();
+		expectLastCall().times(2);
+		replayAll();
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		Thread.sleep(400);
+		assertEquals("A released lease was reaped.", 0,
+				classUnderTest.getReapedLeaseCount());
+
+		Connection connection = classUnderTest.getConnection();
+		Thread.sleep(400);
+		try {
+			classUnderTest.releaseConnection(connection);
+			fail("No exception was thrown for a reaped connection.");
+		} catch (SQLException exception) {
+			assertTrue("The cause was not as expected; an illegal argument.",
+					exception.getCause() instanceof IllegalArgumentException);
+		}
+		verifyAll();
+		assertEquals("The reaped lease was not counted.", 1,
+				classUnderTest.getReapedLeaseCount());
+	}
+}
@@ -0,0 +1,134 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test the metrics, listeners and JMX registration of the
+ * {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+@RunWith(EasyMockRunner.class)
+public class TestBlockingConnectionPool_Metrics extends EasyMockSupport {
+
+	// The class under test
+	private BlockingConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 4417;
+
+	/**
+	 * Initialize the pool to max size of 1.
+	 * 
+	 * @param jmxName
+	 *            The name to register the pool under, empty for none.
+	 */
+	private void setUp(String jmxName) {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		properties.setProperty("jmxName", jmxName);
+		classUnderTest = new BlockingConnectionPool(properties);
+		classUnderTest.setConnectionFactory(mockFactory);
+	}
+
+	/**
+	 * Test that borrows, releases, creates and timeouts are recorded and
+	 * reported to the listeners.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testMetricsAndListener() throws SQLException {
+		setUp("");
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true).times(2);
+		replayAll();
+		final AtomicInteger borrows = new AtomicInteger();
+		classUnderTest.addListener(new ConnectionPoolListener() {
+			@Override
+			public void connectionBorrowed(long waitNanos) {
+				borrows.incrementAndGet();
+			}
+		});
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		Connection connection = classUnderTest.getConnection();
+		try {
+			classUnderTest.getConnection(50, TimeUnit.MILLISECONDS);
+			fail("No exception was thrown for an exhausted pool.");
+		} catch (SQLTimeoutException expected) {
+		}
+		classUnderTest.releaseConnection(connection);
+
+		verifyAll();
+		PoolMetrics metrics = classUnderTest.getMetrics();
+		assertEquals("Wrong borrow count.", 2, metrics.getBorrowWait()
+				.getCount());
+		assertEquals("Wrong release count.", 2, metrics.getLeaseHold()
+				.getCount());
+		assertEquals("Wrong create count.", 1, metrics.getConnectionCreate()
+				.getCount());
+		assertEquals("Wrong timeout count.", 1, metrics.getTimeoutCount());
+		assertEquals("The listener missed borrows.", 2, borrows.get());
+		assertEquals("Wrong idle count.", 1, classUnderTest.getIdleCount());
+		assertEquals("Wrong leased count.", 0,
+				classUnderTest.getLeasedCount());
+	}
+
+	/**
+	 * Test that the pool is readable through the platform MBean server.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testJmx() throws Exception {
+		setUp("metrics-test");
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		replayAll();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(
+				"com.seraj.interview.connectionpool:type=BlockingConnectionPool,name="
+						+ ObjectName.quote("metrics-test"));
+		try {
+			classUnderTest.getConnection();
+			assertEquals("Wrong leased count.", 1,
+					server.getAttribute(name, "LeasedCount"));
+			CompositeData borrowWait = (CompositeData) server.getAttribute(
+					name, "BorrowWait");
+			assertEquals("Wrong borrow count.", 1L, borrowWait.get("count"));
+			assertTrue("Negative borrow wait.",
+					(Double) borrowWait.get("max") >= 0);
+		} finally {
+			server.unregisterMBean(name);
+		}
+		verifyAll();
+	}
+}
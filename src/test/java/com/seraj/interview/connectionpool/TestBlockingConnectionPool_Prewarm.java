@@ -0,0 +1,135 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the creation of connections ahead of demand by the
+ * {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Prewarm {
+
+	private static final long CREATE_LATENCY_MILLIS = 200;
+	// The factory used by the pool, each creation takes a while.
+	private SlowConnectionFactory factory;
+
+	@Before
+	public void setUp() {
+		factory = new SlowConnectionFactory();
+	}
+
+	/**
+	 * Test that the initial connections are created in parallel as the pool
+	 * is built, and are then borrowed without creating more.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testInitialSize() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("initialSize", "" + 4);
+		properties.setProperty("creatorThreads", "" + 4);
+		long start = System.nanoTime();
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+
+		awaitCreated(4);
+		assertTrue("The initial connections were not created in parallel.",
+				System.nanoTime() - start < TimeUnit.MILLISECONDS
+						.toNanos(3 * CREATE_LATENCY_MILLIS));
+		for (int i = 0; i < 4; ++i) {
+			classUnderTest.getConnection(10, TimeUnit.MILLISECONDS);
+		}
+		assertEquals("Borrowing created more connections.", 4,
+				factory.created.get());
+		assertFalse("A borrower created a connection.",
+				factory.creatingThreads.contains(Thread.currentThread()));
+	}
+
+	/**
+	 * Test that the pool keeps minIdle connections idle ahead of demand and
+	 * that borrowers never create connections themselves.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMinIdle() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("minIdle", "" + 2);
+		properties.setProperty("maxPoolSize", "" + 4);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, factory);
+		awaitCreated(2);
+
+		Connection first = classUnderTest.getConnection();
+		Connection second = classUnderTest.getConnection();
+		// Both idle connections were borrowed, two more are created.
+		awaitCreated(4);
+		classUnderTest.getConnection(1, TimeUnit.SECONDS);
+		classUnderTest.getConnection(1, TimeUnit.SECONDS);
+		classUnderTest.releaseConnection(first);
+		classUnderTest.releaseConnection(second);
+
+		Thread.sleep(CREATE_LATENCY_MILLIS);
+		assertEquals("The pool grew past its maximum size.", 4,
+				factory.created.get());
+		assertFalse("A borrower created a connection.",
+				factory.creatingThreads.contains(Thread.currentThread()));
+	}
+
+	private void awaitCreated(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (factory.created.get() < count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals("The connections were not created.", count,
+				factory.created.get());
+	}
+
+	/**
+	 * A {@link ConnectionFactory} taking a while to create each valid
+	 * connection, recording the Threads it was called on.
+	 */
+	private static final class SlowConnectionFactory implements
+			ConnectionFactory {
+		private final AtomicInteger created = new AtomicInteger();
+		private final Set<Thread> creatingThreads = ConcurrentHashMap
+				.newKeySet();
+
+		@Override
+		public Connection newConnection() {
+			creatingThreads.add(Thread.currentThread());
+			try {
+				Thread.sleep(CREATE_LATENCY_MILLIS);
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				replay(connection);
+				created.incrementAndGet();
+				return connection;
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the serving of waiting callers by priority and deadline by the
+ * {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Priority {
+
+	// The class under test, holding a single connection.
+	private BlockingConnectionPool classUnderTest;
+
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		classUnderTest = new BlockingConnectionPool(properties,
+				new ConnectionFactory() {
+					@Override
+					public Connection newConnection() {
+						Connection connection = createNiceMock(Connection.class);
+						try {
+							expect(connection.isValid(anyInt())).andStubReturn(
+									true);
+						} catch (SQLException e) {
+							throw new IllegalStateException(e);
+						}
+						replay(connection);
+						return connection;
+					}
+				});
+	}
+
+	/**
+	 * Test that waiting callers are served by priority, then in arrival
+	 * order.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testServedByPriority() throws Exception {
+		Connection connection = classUnderTest.getConnection();
+		CompletableFuture<Connection> batch = classUnderTest
+				.getConnectionAsync(BorrowPriority.BATCH,
+						BlockingConnectionPool.NO_DEADLINE);
+		CompletableFuture<Connection> normal = classUnderTest
+				.getConnectionAsync();
+		CompletableFuture<Connection> interactive = classUnderTest
+				.getConnectionAsync(BorrowPriority.INTERACTIVE,
+						BlockingConnectionPool.NO_DEADLINE);
+
+		classUnderTest.releaseConnection(connection);
+		assertServed(interactive, batch, normal);
+		classUnderTest.releaseConnection(interactive.get());
+		assertServed(normal, batch);
+		classUnderTest.releaseConnection(normal.get());
+		assertServed(batch);
+	}
+
+	/**
+	 * Test that waiting callers of the same priority are served earliest
+	 * deadline first, ahead of those without one.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testEarliestDeadlineFirst() throws Exception {
+		Connection connection = classUnderTest.getConnection();
+		long now = System.currentTimeMillis();
+		CompletableFuture<Connection> none = classUnderTest.getConnectionAsync(
+				BorrowPriority.NORMAL, BlockingConnectionPool.NO_DEADLINE);
+		CompletableFuture<Connection> later = classUnderTest
+				.getConnectionAsync(BorrowPriority.NORMAL, now + 20000);
+		CompletableFuture<Connection> sooner = classUnderTest
+				.getConnectionAsync(BorrowPriority.NORMAL, now + 10000);
+
+		classUnderTest.releaseConnection(connection);
+		assertServed(sooner, later, none);
+		classUnderTest.releaseConnection(sooner.get());
+		assertServed(later, none);
+	}
+
+	/**
+	 * Test that a caller whose deadline passed while waiting is failed
+	 * rather than handed the connection, which goes to the next caller.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPassedDeadlineSkipped() throws Exception {
+		Connection connection = classUnderTest.getConnection();
+		CompletableFuture<Connection> expiring = classUnderTest
+				.getConnectionAsync(BorrowPriority.INTERACTIVE,
+						System.currentTimeMillis() + 50);
+		CompletableFuture<Connection> normal = classUnderTest
+				.getConnectionAsync();
+		Thread.sleep(100);
+
+		classUnderTest.releaseConnection(connection);
+		assertServed(normal);
+		assertTimedOut(expiring);
+	}
+
+	/**
+	 * Test that a caller whose deadline passes is failed on time even though
+	 * no {@link Connection} is released.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeadlineExpiresWithoutRelease() throws Exception {
+		classUnderTest.getConnection();
+		long start = System.nanoTime();
+		CompletableFuture<Connection> expiring = classUnderTest
+				.getConnectionAsync(BorrowPriority.INTERACTIVE,
+						System.currentTimeMillis() + 100);
+		assertFalse("A meetable deadline failed.", expiring.isDone());
+
+		try {
+			expiring.get(1, TimeUnit.SECONDS);
+			fail("A caller which missed its deadline was served.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SQLTimeoutException);
+		}
+		assertTrue("The caller failed before its deadline.",
+				System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+		assertEquals("The caller is still queued.", 0,
+				classUnderTest.getWaitingCount());
+	}
+
+	/**
+	 * Test that a caller fails fast when its deadline has passed, or is
+	 * sooner than the next connection is expected to be released.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnmeetableDeadlineFailsFast() throws Exception {
+		classUnderTest.getConnection();
+		try {
+			classUnderTest.getConnection(BorrowPriority.INTERACTIVE,
+					System.currentTimeMillis() - 1);
+			fail("A passed deadline was accepted.");
+		} catch (SQLTimeoutException e) {
+			// Expected
+		}
+
+		// Leases are held for a second.
+		for (int i = 0; i < 32; ++i) {
+			classUnderTest.getMetrics().connectionReleased(
+					TimeUnit.SECONDS.toNanos(1));
+		}
+		classUnderTest.estimateHold();
+		long start = System.nanoTime();
+		CompletableFuture<Connection> hopeless = classUnderTest
+				.getConnectionAsync(BorrowPriority.INTERACTIVE,
+						System.currentTimeMillis() + 100);
+		assertTimedOut(hopeless);
+		assertTrue("The caller did not fail fast.",
+				System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+		CompletableFuture<Connection> patient = classUnderTest
+				.getConnectionAsync(BorrowPriority.INTERACTIVE,
+						System.currentTimeMillis() + 5000);
+		assertFalse("A meetable deadline failed.", patient.isDone());
+	}
+
+	/**
+	 * Test that the expected wait for a deadline grows with the callers
+	 * queued ahead at the same or a higher priority, those of a lower
+	 * priority not counting.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeadlineCountsCallersAhead() throws Exception {
+		classUnderTest.getConnection();
+		// Leases are held for 100ms.
+		for (int i = 0; i < 32; ++i) {
+			classUnderTest.getMetrics().connectionReleased(
+					TimeUnit.MILLISECONDS.toNanos(100));
+		}
+		classUnderTest.estimateHold();
+		for (int i = 0; i < 10; ++i) {
+			classUnderTest.getConnectionAsync(BorrowPriority.NORMAL,
+					BlockingConnectionPool.NO_DEADLINE);
+		}
+
+		// Served after a release, the normal callers queued behind it.
+		CompletableFuture<Connection> interactive = classUnderTest
+				.getConnectionAsync(BorrowPriority.INTERACTIVE,
+						System.currentTimeMillis() + 500);
+		assertFalse("A meetable deadline failed.", interactive.isDone());
+		// Served after twelve releases.
+		CompletableFuture<Connection> normal = classUnderTest
+				.getConnectionAsync(BorrowPriority.NORMAL,
+						System.currentTimeMillis() + 500);
+		assertTimedOut(normal);
+		assertEquals(11, classUnderTest.getWaitingCount());
+	}
+
+	private void assertServed(CompletableFuture<Connection> served,
+			CompletableFuture<?>... waiting) throws Exception {
+		assertTrue("The caller was not served.", served.isDone());
+		assertEquals(1, classUnderTest.getLeasedCount());
+		for (CompletableFuture<?> future : waiting) {
+			assertFalse("A caller was served out of order.", future.isDone());
+		}
+	}
+
+	private void assertTimedOut(CompletableFuture<Connection> future)
+			throws InterruptedException {
+		try {
+			future.get();
+			fail("A caller which missed its deadline was served.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SQLTimeoutException);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test the pool-owned {@link Connection} proxies and their statement cache.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+@RunWith(EasyMockRunner.class)
+public class TestBlockingConnectionPool_Proxy extends EasyMockSupport {
+
+	// The class under test
+	private BlockingConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	@Mock
+	private PreparedStatement mockStatement;
+	private static final int VALIDATION_TIMEOUT_VALUE = 6612;
+	private static final String SQL = "SELECT 1";
+	private static final String OTHER_SQL = "SELECT 2";
+
+	/**
+	 * Initialize the pool to max size of 1, caching one statement.
+	 */
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		properties.setProperty("proxyConnections", "true");
+		properties.setProperty("statementCacheSize", "" + 1);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new BlockingConnectionPool(properties, mockFactory);
+	}
+
+	/**
+	 * Test that closing the proxy releases the {@link Connection} into the
+	 * pool and that the proxy can no longer be used.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testClose_releasesConnection() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection first = classUnderTest.getConnection();
+		assertNotSame("The driver connection was handed out.",
+				mockConnection, first);
+		first.close();
+		first.close();
+		Connection second = classUnderTest.getConnection();
+
+		verifyAll();
+		assertNotSame("The proxy was reused.", first, second);
+		assertTrue("The released proxy is not closed.", first.isClosed());
+		try {
+			first.createStatement();
+			fail("A released proxy was usable.");
+		} catch (SQLException expected) {
+		}
+	}
+
+	/**
+	 * Test that a statement prepared in one lease is served from the cache in
+	 * the next.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testPrepareStatement_cachedAcrossLeases() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true).times(2);
+		expect(mockConnection.prepareStatement(SQL)).andReturn(mockStatement);
+		mockStatement.clearParameters();
+		expectLastCall().times(2);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		PreparedStatement first = connection.prepareStatement(SQL);
+		assertSame("The statement does not report its proxy connection.",
+				connection, first.getConnection());
+		first.close();
+		connection.close();
+		connection = classUnderTest.getConnection();
+		// Left open, closed with the lease.
+		connection.prepareStatement(SQL);
+		connection.close();
+
+		verifyAll();
+		assertEquals("The cache hits were not counted.", 1,
+				classUnderTest.getStatementCacheHitCount());
+		assertEquals("The cache misses were not counted.", 1,
+				classUnderTest.getStatementCacheMissCount());
+	}
+
+	/**
+	 * Test that the statements closed by the borrower are no longer held by
+	 * the lease, however many are prepared during it.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testPrepareStatement_closedNotHeld() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.prepareStatement(SQL)).andReturn(mockStatement);
+		mockStatement.clearParameters();
+		expectLastCall().times(1000);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		ConnectionProxy lease = (ConnectionProxy) Proxy
+				.getInvocationHandler(connection);
+		for (int i = 0; i < 1000; ++i) {
+			connection.prepareStatement(SQL).close();
+		}
+		connection.prepareStatement(SQL);
+
+		verifyAll();
+		assertEquals("Closed statements are held by the lease.", 1,
+				lease.getOpenStatementCount());
+	}
+
+	/**
+	 * Test that the cache is bounded and closes evicted statements, and that
+	 * a statement prepared while its twin is in use is not cached.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testPrepareStatement_eviction() throws SQLException {
+		PreparedStatement twinStatement = createMock(PreparedStatement.class);
+		PreparedStatement otherStatement = createMock(PreparedStatement.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.prepareStatement(SQL)).andReturn(mockStatement);
+		expect(mockConnection.prepareStatement(SQL)).andReturn(twinStatement);
+		twinStatement.close();
+		mockStatement.clearParameters();
+		expect(mockConnection.prepareStatement(OTHER_SQL)).andReturn(
+				otherStatement);
+		otherStatement.clearParameters();
+		mockStatement.close();
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		PreparedStatement first = connection.prepareStatement(SQL);
+		connection.prepareStatement(SQL).close();
+		first.close();
+		connection.prepareStatement(OTHER_SQL).close();
+
+		verifyAll();
+	}
+}
@@ -0,0 +1,221 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.IAnswer;
+import org.junit.Test;
+
+import com.seraj.interview.configuration.PropertiesFileWatcher;
+
+/**
+ * Test the reconfiguration of a {@link BlockingConnectionPool} in use.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Reload {
+
+	/**
+	 * Test that growing the pool serves the waiting callers at once, without
+	 * waiting for a release.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGrowServesWaiters() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		properties.setProperty("waitPolicy", WaitPolicy.SIGNAL.name());
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new ValidConnectionFactory());
+		classUnderTest.getConnection();
+		CompletableFuture<Connection> waiter = classUnderTest
+				.getConnectionAsync();
+		assertFalse(waiter.isDone());
+
+		properties.setProperty("maxPoolSize", "" + 2);
+		classUnderTest.reconfigure(properties);
+		assertNotNull(waiter.get(1, TimeUnit.SECONDS));
+		assertEquals(2, classUnderTest.getPoolLimit());
+		assertEquals(0, classUnderTest.getWaitingCount());
+	}
+
+	/**
+	 * Test that shrinking the pool closes the idle connections at once and
+	 * the leased ones as they are released.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testShrinkRetiresSurplus() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 3);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new ValidConnectionFactory());
+		Connection first = classUnderTest.getConnection();
+		Connection second = classUnderTest.getConnection();
+		Connection third = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(first);
+
+		properties.setProperty("maxPoolSize", "" + 1);
+		classUnderTest.reconfigure(properties);
+		assertEquals(2, classUnderTest.getSize());
+		assertEquals(0, classUnderTest.getIdleCount());
+
+		classUnderTest.releaseConnection(second);
+		assertEquals(1, classUnderTest.getSize());
+		classUnderTest.releaseConnection(third);
+		assertEquals(1, classUnderTest.getSize());
+		assertEquals(1, classUnderTest.getIdleCount());
+	}
+
+	/**
+	 * Test that a borrower with a deadline is not held up by a shrink still
+	 * closing a surplus connection.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10000)
+	public void testShrinkDoesNotBlockBorrowers() throws Exception {
+		final CountDownLatch closing = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		final Connection slow = createNiceMock(Connection.class);
+		expect(slow.isValid(anyInt())).andStubReturn(true);
+		slow.close();
+		expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable {
+				closing.countDown();
+				closed.await();
+				return null;
+			}
+		});
+		replay(slow);
+		final Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		final BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new ConnectionFactory() {
+					private boolean first = true;
+
+					@Override
+					public synchronized Connection newConnection() {
+						if (first) {
+							first = false;
+							return slow;
+						}
+						return new ValidConnectionFactory().newConnection();
+					}
+				});
+		Connection idle = classUnderTest.getConnection();
+		Connection leased = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(idle);
+
+		properties.setProperty("maxPoolSize", "" + 1);
+		Thread reload = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				classUnderTest.reconfigure(properties);
+			}
+		});
+		reload.start();
+		closing.await();
+		CompletableFuture<Connection> waiter = classUnderTest
+				.getConnectionAsync(BorrowPriority.NORMAL,
+						System.currentTimeMillis() + 5000);
+		assertFalse(waiter.isDone());
+
+		closed.countDown();
+		reload.join();
+		classUnderTest.releaseConnection(leased);
+		assertNotNull(waiter.get(1, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test that a lease term set while the pool is in use expires the leases
+	 * granted afterwards.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLeaseTermReloaded() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new ValidConnectionFactory());
+		properties.setProperty("leaseTerm", "" + 100);
+		classUnderTest.reconfigure(properties);
+
+		classUnderTest.getConnection();
+		Thread.sleep(600);
+		assertEquals(0, classUnderTest.getLeasedCount());
+	}
+
+	/**
+	 * Test that writing a watched properties file reconfigures the pool.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testWatchedFile() throws Exception {
+		File file = File.createTempFile("pool", ".properties");
+		file.deleteOnExit();
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new ValidConnectionFactory());
+		PropertiesFileWatcher watcher = new PropertiesFileWatcher(
+				file.toPath(), classUnderTest);
+		try {
+			properties.setProperty("maxPoolSize", "" + 7);
+			OutputStream out = new FileOutputStream(file);
+			try {
+				properties.store(out, null);
+			} finally {
+				out.close();
+			}
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (classUnderTest.getPoolLimit() != 7
+					&& System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(7, classUnderTest.getPoolLimit());
+		} finally {
+			watcher.close();
+		}
+	}
+
+	/**
+	 * A {@link ConnectionFactory} creating valid connections.
+	 */
+	private static final class ValidConnectionFactory implements
+			ConnectionFactory {
+		@Override
+		public Connection newConnection() {
+			try {
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				replay(connection);
+				return connection;
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
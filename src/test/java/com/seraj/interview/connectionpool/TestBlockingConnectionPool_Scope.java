@@ -0,0 +1,197 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test the sharing of a {@link Connection} by the nested borrows of a
+ * {@link ConnectionScope}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Scope {
+
+	/**
+	 * Test that nested borrows in a scope share a single connection, which
+	 * returns to the pool when the outermost borrower releases it.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testNestedBorrows() throws Exception {
+		BlockingConnectionPool classUnderTest = newPool(1);
+		ConnectionScope scope = classUnderTest.openScope();
+		try {
+			Connection outer = classUnderTest.getConnection();
+			// The pool is full, a second connection would never come.
+			Connection inner = classUnderTest.getConnection(100,
+					TimeUnit.MILLISECONDS);
+			Connection innermost = classUnderTest
+					.getConnection(BorrowPriority.INTERACTIVE);
+			assertSame(outer, inner);
+			assertSame(outer, innermost);
+			assertEquals(3, scope.getReferenceCount());
+			assertEquals(1, classUnderTest.getSize());
+
+			classUnderTest.releaseConnection(innermost);
+			classUnderTest.releaseConnection(inner);
+			assertEquals(1, classUnderTest.getLeasedCount());
+			classUnderTest.releaseConnection(outer);
+			assertEquals(0, classUnderTest.getLeasedCount());
+			assertEquals(1, classUnderTest.getIdleCount());
+			assertEquals(0, scope.getReferenceCount());
+		} finally {
+			scope.close();
+		}
+	}
+
+	/**
+	 * Test that borrows outside a scope, or on another Thread, take their
+	 * own connection.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnscopedBorrows() throws Exception {
+		final BlockingConnectionPool classUnderTest = newPool(3);
+		Connection unscoped = classUnderTest.getConnection();
+		ConnectionScope scope = classUnderTest.openScope();
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			Connection scoped = classUnderTest.getConnection();
+			assertNotSame(unscoped, scoped);
+			Connection elsewhere = other.submit(new Callable<Connection>() {
+				@Override
+				public Connection call() throws SQLException {
+					return classUnderTest.getConnection();
+				}
+			}).get();
+			assertNotSame(scoped, elsewhere);
+			assertEquals(3, classUnderTest.getLeasedCount());
+			classUnderTest.releaseConnection(scoped);
+		} finally {
+			scope.close();
+			other.shutdown();
+		}
+		assertNotSame(unscoped, classUnderTest.getConnection());
+	}
+
+	/**
+	 * Test that closing the outermost of nested scopes releases the
+	 * connection still referenced.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCloseReleases() throws Exception {
+		BlockingConnectionPool classUnderTest = newPool(1);
+		ConnectionScope outer = classUnderTest.openScope();
+		ConnectionScope inner = classUnderTest.openScope();
+		assertSame(outer, inner);
+		classUnderTest.getConnection();
+		classUnderTest.getConnection();
+		inner.close();
+		assertEquals(1, classUnderTest.getLeasedCount());
+		outer.close();
+		assertEquals(0, classUnderTest.getLeasedCount());
+		assertEquals(1, classUnderTest.getIdleCount());
+	}
+
+	/**
+	 * Test that a bound connection whose lease expired is replaced.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReapedLeaseReplaced() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		properties.setProperty("leaseTerm", "" + 50);
+		properties.setProperty("leaseReaperTickInterval", "" + 10);
+		BlockingConnectionPool classUnderTest = new BlockingConnectionPool(
+				properties, new ValidConnectionFactory());
+		ConnectionScope scope = classUnderTest.openScope();
+		try {
+			Connection reaped = classUnderTest.getConnection();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (classUnderTest.getLeasedCount() != 0
+					&& System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Connection replacement = classUnderTest.getConnection();
+			assertNotSame(reaped, replacement);
+			assertEquals(1, scope.getReferenceCount());
+		} finally {
+			scope.close();
+		}
+	}
+
+	/**
+	 * Test that only the Thread which opened a scope may close it.
+	 * 
+	 * @throws Throwable
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testCloseOnOtherThread() throws Throwable {
+		BlockingConnectionPool classUnderTest = newPool(1);
+		final ConnectionScope scope = classUnderTest.openScope();
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			other.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					scope.close();
+					return null;
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		} finally {
+			other.shutdown();
+			scope.close();
+		}
+	}
+
+	private static BlockingConnectionPool newPool(int maxPoolSize) {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + maxPoolSize);
+		properties.setProperty("borrowTimeoutInterval", "" + 100);
+		return new BlockingConnectionPool(properties,
+				new ValidConnectionFactory());
+	}
+
+	/**
+	 * A {@link ConnectionFactory} creating valid connections.
+	 */
+	private static final class ValidConnectionFactory implements
+			ConnectionFactory {
+		@Override
+		public Connection newConnection() {
+			try {
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				replay(connection);
+				return connection;
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
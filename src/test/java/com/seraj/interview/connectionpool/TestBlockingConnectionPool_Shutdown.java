@@ -0,0 +1,189 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test the soft eviction of the connections of a {@link BlockingConnectionPool}
+ * and its shutdown.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestBlockingConnectionPool_Shutdown {
+
+	/**
+	 * Test that a soft eviction replaces the idle connections in the
+	 * background and closes the leased ones as they are released.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSoftEvictAll() throws Exception {
+		ClosingConnectionFactory factory = new ClosingConnectionFactory();
+		BlockingConnectionPool classUnderTest = newPool(3, factory);
+		Connection first = classUnderTest.getConnection();
+		Connection second = classUnderTest.getConnection();
+		Connection leased = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(first);
+		classUnderTest.releaseConnection(second);
+
+		classUnderTest.softEvictAll();
+		assertEquals(1, classUnderTest.getGeneration());
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (classUnderTest.getDestroyedCount() < 2
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, classUnderTest.getDestroyedCount());
+		assertEquals(5, factory.created.size());
+		assertEquals(2, classUnderTest.getIdleCount());
+		assertEquals(3, classUnderTest.getSize());
+		verify(first, second);
+
+		classUnderTest.releaseConnection(leased);
+		verify(leased);
+		assertEquals(2, classUnderTest.getSize());
+		Connection replacement = classUnderTest.getConnection();
+		assertNotSame(first, replacement);
+		assertNotSame(second, replacement);
+		assertNotSame(leased, replacement);
+	}
+
+	/**
+	 * Test that a shutdown refuses new borrows, waits for the leases to end,
+	 * then closes every connection.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testShutdownDrains() throws Exception {
+		ClosingConnectionFactory factory = new ClosingConnectionFactory();
+		final BlockingConnectionPool classUnderTest = newPool(2, factory);
+		final Connection leased = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					classUnderTest.releaseConnection(leased);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}).start();
+
+		long start = System.nanoTime();
+		assertTrue(classUnderTest.shutdown(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(90));
+		assertTrue(classUnderTest.isShutdown());
+		assertEquals(0, classUnderTest.getSize());
+		for (Connection connection : factory.created) {
+			verify(connection);
+		}
+		try {
+			classUnderTest.getConnection();
+			fail("A borrow was served after the shutdown.");
+		} catch (SQLNonTransientConnectionException e) {
+			// Expected
+		}
+		assertTrue(classUnderTest.getConnectionAsync()
+				.isCompletedExceptionally());
+	}
+
+	/**
+	 * Test that the leases still held after the timeout are closed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testShutdownTimeout() throws Exception {
+		ClosingConnectionFactory factory = new ClosingConnectionFactory();
+		BlockingConnectionPool classUnderTest = newPool(1, factory);
+		Connection leased = classUnderTest.getConnection();
+
+		assertFalse(classUnderTest.shutdown(50, TimeUnit.MILLISECONDS));
+		assertEquals(0, classUnderTest.getSize());
+		assertEquals(0, classUnderTest.getLeasedCount());
+		verify(leased);
+	}
+
+	/**
+	 * Test that the callers waiting when the pool shuts down fail.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testShutdownFailsWaiters() throws Exception {
+		BlockingConnectionPool classUnderTest = newPool(1,
+				new ClosingConnectionFactory());
+		classUnderTest.getConnection();
+		CompletableFuture<Connection> waiter = classUnderTest
+				.getConnectionAsync();
+		assertFalse(waiter.isDone());
+
+		classUnderTest.shutdown(0, TimeUnit.MILLISECONDS);
+		try {
+			waiter.get(1, TimeUnit.SECONDS);
+			fail("The waiter was served after the shutdown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SQLNonTransientConnectionException);
+		}
+		assertEquals(0, classUnderTest.getWaitingCount());
+	}
+
+	private static BlockingConnectionPool newPool(int maxPoolSize,
+			ConnectionFactory factory) {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + maxPoolSize);
+		properties.setProperty("waitPolicy", WaitPolicy.SIGNAL.name());
+		return new BlockingConnectionPool(properties, factory);
+	}
+
+	/**
+	 * A {@link ConnectionFactory} creating valid connections which expect to
+	 * be closed.
+	 */
+	private static final class ClosingConnectionFactory implements
+			ConnectionFactory {
+		private final List<Connection> created = new CopyOnWriteArrayList<Connection>();
+
+		@Override
+		public Connection newConnection() {
+			try {
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				connection.close();
+				expectLastCall().once();
+				replay(connection);
+				created.add(connection);
+				return connection;
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test the {@link ValidationPolicy}s of the {@link BlockingConnectionPool}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+@RunWith(EasyMockRunner.class)
+public class TestBlockingConnectionPool_Validation extends EasyMockSupport {
+
+	// The class under test
+	private BlockingConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 5512;
+
+	/**
+	 * Initialize the pool with the given policy and a validation interval of
+	 * 100 milliseconds.
+	 * 
+	 * @param policy
+	 *            The {@link ValidationPolicy} to configure.
+	 */
+	private void setUp(ValidationPolicy policy) {
+		Properties properties = new Properties();
+		properties.setProperty("validationPolicy", policy.name());
+		properties.setProperty("validationInterval", "" + 100);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new BlockingConnectionPool(properties);
+		classUnderTest.setConnectionFactory(mockFactory);
+	}
+
+	/**
+	 * Test that a recently validated {@link Connection} is not validated
+	 * again on release, and a stale one is.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testOnReleaseIfStale() throws Exception {
+		setUp(ValidationPolicy.ON_RELEASE_IF_STALE);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		// Created moments ago, so trusted.
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		Connection connection = classUnderTest.getConnection();
+		Thread.sleep(150);
+		classUnderTest.releaseConnection(connection);
+
+		verifyAll();
+	}
+
+	/**
+	 * Test that a {@link Connection} is validated on borrow only after sitting
+	 * idle, and is replaced when found invalid.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testOnBorrowIfIdle() throws Exception {
+		setUp(ValidationPolicy.ON_BORROW_IF_IDLE);
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				false);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		replayAll();
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		assertSame("A briefly idle connection was not reused.",
+				mockConnection, classUnderTest.getConnection());
+		classUnderTest.releaseConnection(mockConnection);
+		Thread.sleep(150);
+		Connection connection = classUnderTest.getConnection();
+
+		verifyAll();
+		assertSame("The invalid connection was not replaced.",
+				secondConnection, connection);
+	}
+
+	/**
+	 * Test that idle {@link Connection}s are validated in the background and
+	 * discarded when invalid.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBackground() throws Exception {
+		setUp(ValidationPolicy.BACKGROUND);
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				false);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		replayAll();
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		Thread.sleep(500);
+		Connection connection = classUnderTest.getConnection();
+
+		verifyAll();
+		assertSame("The invalid connection was not discarded.",
+				secondConnection, connection);
+	}
+
+	/**
+	 * Test that a {@link Connection} failing to report its validity is
+	 * treated as invalid.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test
+	public void testOnRelease_validationFailure() throws SQLException {
+		setUp(ValidationPolicy.ON_RELEASE);
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andThrow(
+				new SQLException("broken"));
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		replayAll();
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		Connection connection = classUnderTest.getConnection();
+
+		verifyAll();
+		assertSame("The broken connection was not replaced.",
+				secondConnection, connection);
+	}
+}
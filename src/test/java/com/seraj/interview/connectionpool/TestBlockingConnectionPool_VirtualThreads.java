@@ -0,0 +1,434 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test the SIGNAL {@link WaitPolicy} of the {@link BlockingConnectionPool}
+ * under loads of platform Threads and of 50,000 asynchronous waiters, and of
+ * 50,000 virtual Threads when the JVM supports them.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+@RunWith(EasyMockRunner.class)
+public class TestBlockingConnectionPool_VirtualThreads extends
+		EasyMockSupport {
+
+	// The class under test
+	private BlockingConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 6120;
+
+	/**
+	 * Initialize a pool waiting on signals, with a borrow timeout interval
+	 * short enough to show any periodic wake up.
+	 * 
+	 * @param maxPoolSize
+	 *            The maximum size of the pool.
+	 * @param factory
+	 *            The connection factory.
+	 */
+	private void setUp(int maxPoolSize, ConnectionFactory factory) {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + maxPoolSize);
+		properties.setProperty("borrowTimeoutInterval", "" + 1);
+		properties.setProperty("waitPolicy", WaitPolicy.SIGNAL.name());
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new BlockingConnectionPool(properties, factory);
+	}
+
+	/**
+	 * Test that a waiting caller stays parked until a {@link Connection} is
+	 * released, rather than waking each borrow timeout interval.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSignal_noPeriodicWakeup() throws Exception {
+		setUp(1, mockFactory);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		final Thread[] waiting = new Thread[1];
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						waiting[0] = Thread.currentThread();
+						return classUnderTest.getConnection();
+					}
+				});
+		while (classUnderTest.getWaitingCount() == 0) {
+			Thread.sleep(1);
+		}
+		for (int i = 0; i < 100; ++i) {
+			Thread.sleep(2);
+			assertEquals("The waiting caller woke without a signal.",
+					Thread.State.WAITING, waiting[0].getState());
+		}
+
+		classUnderTest.releaseConnection(connection);
+
+		assertSame("The connection was not handed over.", mockConnection,
+				taskFuture.get(1, TimeUnit.SECONDS));
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that a waiting caller is failed when the space freed for it can not
+	 * be filled with a new {@link Connection}.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSignal_createFailure() throws Exception {
+		setUp(1, mockFactory);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				false);
+		mockConnection.close();
+		// Retried if the borrower dispatches as the release frees the space.
+		expect(mockFactory.newConnection()).andThrow(
+				new IllegalStateException("Database down.")).times(1, 2);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection();
+					}
+				});
+		while (classUnderTest.getWaitingCount() == 0) {
+			Thread.sleep(1);
+		}
+		classUnderTest.releaseConnection(connection);
+
+		try {
+			taskFuture.get(1, TimeUnit.SECONDS);
+			fail("The waiting caller was not failed.");
+		} catch (ExecutionException e) {
+			assertTrue("The failure was not reported.",
+					e.getCause() instanceof SQLException);
+		}
+		verifyAll();
+		assertEquals("The space of the failed creation was lost.", 0,
+				classUnderTest.getSize());
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that platform Threads contending for a few {@link Connection}s
+	 * never wake without being served, while they do when polling.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSignal_noWastedWakeups() throws Exception {
+		assertEquals("A waiting caller woke without being served.", 0,
+				countWakeups(WaitPolicy.SIGNAL));
+		assertTrue("The wake ups of polling callers were not counted.",
+				countWakeups(WaitPolicy.POLL) > 0);
+	}
+
+	/**
+	 * Test that 50,000 asynchronous waiters sharing 50 {@link Connection}s
+	 * take little memory each while queued, and are all served in turn
+	 * without a wake up.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSignal_asyncWaiterLoad() throws Exception {
+		setUp(50, new StubConnectionFactory());
+		WakeupCounter wakeups = new WakeupCounter();
+		classUnderTest.addListener(wakeups);
+		int borrowers = 50000;
+		List<CompletableFuture<Connection>> futures = new ArrayList<CompletableFuture<Connection>>(
+				borrowers);
+		long before = usedHeap();
+		for (int i = 0; i < borrowers; ++i) {
+			futures.add(classUnderTest.getConnectionAsync());
+		}
+		long perWaiter = (usedHeap() - before) / (borrowers - 50);
+		assertEquals(borrowers - 50, classUnderTest.getWaitingCount());
+		assertTrue("A queued waiter takes " + perWaiter + " bytes.",
+				perWaiter < 1024);
+
+		for (CompletableFuture<Connection> future : futures) {
+			classUnderTest.releaseConnection(future.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals("A waiting caller woke without being served.", 0,
+				wakeups.count.get());
+		assertEquals("Callers were left waiting.", 0,
+				classUnderTest.getWaitingCount());
+		assertEquals("Connections were left on lease.", 0,
+				classUnderTest.getLeasedCount());
+		assertEquals("Connections were lost.", 50,
+				classUnderTest.getIdleCount());
+	}
+
+	/**
+	 * Test that the deadlines of 50,000 queued waiters expire promptly:
+	 * removing each from the queue scans it, but the waiters expire in
+	 * deadline order and so are found near its head.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSignal_asyncDeadlineLoad() throws Exception {
+		setUp(1, new StubConnectionFactory());
+		Connection connection = classUnderTest.getConnection();
+		int borrowers = 50000;
+		List<CompletableFuture<Connection>> futures = new ArrayList<CompletableFuture<Connection>>(
+				borrowers);
+		long deadline = System.currentTimeMillis() + 500;
+		for (int i = 0; i < borrowers; ++i) {
+			futures.add(classUnderTest.getConnectionAsync(
+					BorrowPriority.NORMAL, deadline));
+		}
+		for (CompletableFuture<Connection> future : futures) {
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("A waiter was served past its deadline.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof SQLTimeoutException);
+			}
+		}
+		long expiryMillis = System.currentTimeMillis() - deadline;
+		assertTrue("The deadlines expired over " + expiryMillis + "ms.",
+				expiryMillis < 5000);
+		assertEquals(0, classUnderTest.getWaitingCount());
+		classUnderTest.releaseConnection(connection);
+		assertEquals(1, classUnderTest.getIdleCount());
+	}
+
+	/**
+	 * Test that 50,000 virtual Threads sharing 50 {@link Connection}s are all
+	 * served, take little memory each while parked, and leave nothing behind
+	 * in the pool. Skipped on JVMs without virtual Threads.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testVirtualThreads_load() throws Exception {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		// Virtual Threads are not supported by this JVM.
+		Assume.assumeNotNull(executor);
+		final AtomicInteger created = new AtomicInteger();
+		setUp(50, new ConnectionFactory() {
+			@Override
+			public Connection newConnection() {
+				created.incrementAndGet();
+				return newStubConnection();
+			}
+		});
+		WakeupCounter wakeups = new WakeupCounter();
+		classUnderTest.addListener(wakeups);
+		// Every borrower waits until all are parked.
+		final CountDownLatch parked = new CountDownLatch(1);
+
+		int borrowers = 50000;
+		final AtomicInteger leased = new AtomicInteger();
+		final AtomicInteger mostLeased = new AtomicInteger();
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(
+				borrowers);
+		long before = usedHeap();
+		for (int i = 0; i < borrowers; ++i) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					Connection connection = classUnderTest.getConnection();
+					parked.await();
+					int current = leased.incrementAndGet();
+					int most;
+					while (current > (most = mostLeased.get())
+							&& !mostLeased.compareAndSet(most, current)) {
+						// Retry until the larger count is stored.
+					}
+					Thread.sleep(1);
+					leased.decrementAndGet();
+					classUnderTest.releaseConnection(connection);
+					return true;
+				}
+			}));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while (classUnderTest.getWaitingCount() < borrowers - 50
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		long perBorrower = (usedHeap() - before) / borrowers;
+		assertEquals(borrowers - 50, classUnderTest.getWaitingCount());
+		assertTrue("A parked borrower takes " + perBorrower + " bytes.",
+				perBorrower < 16 * 1024);
+		parked.countDown();
+		for (Future<Boolean> result : results) {
+			assertTrue("A borrower failed.", result.get(60, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+
+		assertEquals("The pool exceeded its maximum size.", 50, created.get());
+		assertTrue("More connections leased than exist.",
+				mostLeased.get() <= 50);
+		assertEquals("Callers were left waiting.", 0,
+				classUnderTest.getWaitingCount());
+		assertEquals("Connections were left on lease.", 0,
+				classUnderTest.getLeasedCount());
+		assertEquals("Connections were lost.", 50,
+				classUnderTest.getIdleCount());
+		assertEquals("A waiting caller woke without being served.", 0,
+				wakeups.count.get());
+	}
+
+	/**
+	 * Run 64 platform Threads borrowing 20 times each from 4
+	 * {@link Connection}s, with a borrow timeout interval of 1ms.
+	 * 
+	 * @param waitPolicy
+	 *            The {@link WaitPolicy} of the pool.
+	 * @return The number of times a waiting caller woke without being served.
+	 * @throws Exception
+	 */
+	private static int countWakeups(WaitPolicy waitPolicy) throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		properties.setProperty("borrowTimeoutInterval", "" + 1);
+		properties.setProperty("waitPolicy", waitPolicy.name());
+		final BlockingConnectionPool pool = new BlockingConnectionPool(
+				properties, new StubConnectionFactory());
+		WakeupCounter wakeups = new WakeupCounter();
+		pool.addListener(wakeups);
+		int threads = 64;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < threads; ++t) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					for (int i = 0; i < 20; ++i) {
+						Connection connection = pool.getConnection();
+						Thread.sleep(1);
+						pool.releaseConnection(connection);
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue("A borrower failed.", result.get(60, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+		assertEquals("Connections were lost.", 4, pool.getIdleCount());
+		return wakeups.count.get();
+	}
+
+	/**
+	 * @return the bytes of heap in use, once collected.
+	 */
+	private static long usedHeap() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	/**
+	 * @return a virtual Thread per task executor, null if the JVM has no
+	 *         virtual Threads.
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Counts the wake ups of waiting callers not served.
+	 */
+	private static final class WakeupCounter implements
+			ConnectionPoolListener {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void waiterWokeUp() {
+			count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Creates {@link Connection}s which are always valid and do nothing.
+	 */
+	private static final class StubConnectionFactory implements
+			ConnectionFactory {
+		@Override
+		public Connection newConnection() {
+			return newStubConnection();
+		}
+	}
+
+	/**
+	 * @return a {@link Connection} which is always valid and does nothing.
+	 */
+	private static Connection newStubConnection() {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if ("equals".equals(method.getName())) {
+							return proxy == args[0];
+						} else if ("hashCode".equals(method.getName())) {
+							return System.identityHashCode(proxy);
+						}
+						return method.getReturnType() == boolean.class ? true
+								: null;
+					}
+				});
+	}
+}
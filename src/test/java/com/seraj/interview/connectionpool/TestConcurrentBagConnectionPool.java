@@ -0,0 +1,336 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.IAnswer;
+import org.easymock.Mock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.opower.connectionpool.ConnectionPool;
+
+/**
+ * Test standard expectations and threading behaviour of the
+ * {@link ConcurrentBagConnectionPool}.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+@RunWith(EasyMockRunner.class)
+public class TestConcurrentBagConnectionPool extends EasyMockSupport {
+
+	// The class under test
+	private ConcurrentBagConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 4312;
+
+	/**
+	 * Initialize the pool to max size of 2.
+	 */
+	@Before
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new ConcurrentBagConnectionPool(properties);
+		classUnderTest.setConnectionFactory(mockFactory);
+	}
+
+	/**
+	 * Test that a {@link Connection} released back into the pool is reused by
+	 * the releasing Thread on its next borrow.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testRecycleConnection() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection1 = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(connection1);
+		Connection connection2 = classUnderTest.getConnection();
+
+		verifyAll();
+		assertSame("The connection was not recycled.", connection1, connection2);
+	}
+
+	/**
+	 * Verify that a {@link Connection} released twice is rejected the second
+	 * time.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testReleaseConnection_twice() throws SQLException {
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnection.close();
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		classUnderTest.releaseConnection(connection);
+		try {
+			classUnderTest.releaseConnection(connection);
+			fail("No exception was thrown for a connection not on lease.");
+		} catch (SQLException exception) {
+			assertTrue("The cause was not as expected; an illegal argument.",
+					exception.getCause() instanceof IllegalArgumentException);
+		}
+
+		verifyAll();
+	}
+
+	/**
+	 * Verify that an invalid {@link Connection} is closed and its space is
+	 * reused for a new {@link Connection}.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testReleaseConnection_closedConnection() throws SQLException {
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				false);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		replayAll();
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection());
+		Connection connection = classUnderTest.getConnection();
+
+		verifyAll();
+		assertSame("The second connection was not returned.", secondConnection,
+				connection);
+	}
+
+	/**
+	 * Verify that the space reserved for a {@link Connection} the factory
+	 * failed to create is freed, so that the pool never fills with failed
+	 * creations.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnection_factoryFailure() throws SQLException {
+		expect(mockFactory.newConnection()).andThrow(
+				new IllegalStateException("db down")).times(2);
+		expect(mockFactory.newConnection()).andReturn(null);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		replayAll();
+
+		for (int i = 0; i < 2; ++i) {
+			try {
+				classUnderTest.getConnection();
+				fail("The failure of the factory was not thrown.");
+			} catch (IllegalStateException exception) {
+				assertEquals("db down", exception.getMessage());
+			}
+		}
+		try {
+			classUnderTest.getConnection();
+			fail("No exception was thrown for a null connection.");
+		} catch (SQLException exception) {
+			assertTrue("The cause was not as expected; an illegal state.",
+					exception.getCause() instanceof IllegalStateException);
+		}
+		Connection connection = classUnderTest.getConnection();
+
+		verifyAll();
+		assertSame("The connection was not created.", mockConnection,
+				connection);
+	}
+
+	/**
+	 * Test that a Thread blocks once the pool is exhausted and receives the
+	 * {@link Connection} handed over on release.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetConnection_handoffWhenNotAvailable() throws Exception {
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		classUnderTest.getConnection();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection();
+					}
+				});
+		Thread.sleep(1000);
+		assertFalse("The third call did not block.", taskFuture.isDone());
+
+		classUnderTest.releaseConnection(connection);
+
+		assertSame("The connection was not handed over.", connection,
+				taskFuture.get());
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that a release does not wait for a Thread still creating a
+	 * {@link Connection}, which is not waiting for a hand over.
+	 *
+	 * @throws Exception
+	 */
+	@Test(timeout = 10000)
+	public void testReleaseConnection_whileCreating() throws Exception {
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch created = new CountDownLatch(1);
+		final Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockFactory.newConnection()).andAnswer(
+				new IAnswer<Connection>() {
+					@Override
+					public Connection answer() throws Throwable {
+						creating.countDown();
+						created.await();
+						return secondConnection;
+					}
+				});
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection();
+					}
+				});
+		creating.await();
+		long start = System.nanoTime();
+		classUnderTest.releaseConnection(connection);
+		long releaseMillis = TimeUnit.NANOSECONDS.toMillis(System
+				.nanoTime() - start);
+		assertTrue("The release waited " + releaseMillis
+				+ "ms for the creation.", releaseMillis < 100);
+
+		created.countDown();
+		assertSame(secondConnection, taskFuture.get());
+		assertSame("The released connection was not kept idle.",
+				connection, classUnderTest.getConnection());
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that many Threads sharing a small pool never hold the same
+	 * {@link Connection} at once and never exceed the maximum pool size.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetConnection_contention() throws Exception {
+		final Set<Connection> created = Collections
+				.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+		final Set<Connection> leased = Collections
+				.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+		classUnderTest.setConnectionFactory(new ConnectionFactory() {
+			@Override
+			public Connection newConnection() {
+				Connection connection = createNiceMock(Connection.class);
+				try {
+					expect(connection.isValid(anyInt())).andStubReturn(true);
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+				replay(connection);
+				created.add(connection);
+				return connection;
+			}
+		});
+
+		int threads = 8;
+		final int iterations = 2000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < threads; ++t) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					for (int i = 0; i < iterations; ++i) {
+						Connection connection = classUnderTest.getConnection();
+						if (!leased.add(connection)) {
+							return false;
+						}
+						leased.remove(connection);
+						classUnderTest.releaseConnection(connection);
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue("A connection was leased twice.", result.get());
+		}
+		executor.shutdown();
+
+		assertTrue("The pool exceeded its maximum size.", created.size() <= 2);
+	}
+
+	/**
+	 * Verify that the implementation can be chosen through configuration.
+	 */
+	@Test
+	public void testConnectionPools_implementation() {
+		Properties properties = new Properties();
+		properties.setProperty(ConnectionPools.IMPLEMENTATION_PROPERTY,
+				ConnectionPools.Implementation.CONCURRENT_BAG.name());
+		ConnectionPool pool = ConnectionPools.newConnectionPool(properties,
+				mockFactory);
+		assertTrue("The wrong implementation was created.",
+				pool instanceof ConcurrentBagConnectionPool);
+		assertTrue("The wrong default implementation was created.",
+				ConnectionPools.newConnectionPool(new Properties(),
+						mockFactory) instanceof BlockingConnectionPool);
+	}
+}
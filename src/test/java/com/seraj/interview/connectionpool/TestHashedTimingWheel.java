@@ -0,0 +1,83 @@
+package com.seraj.interview.connectionpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the scheduling and cancelling of tasks on the
+ * {@link HashedTimingWheel}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestHashedTimingWheel {
+
+	// The class under test
+	private HashedTimingWheel classUnderTest;
+
+	@Before
+	public void setUp() {
+		classUnderTest = new HashedTimingWheel("test-wheel", 5,
+				TimeUnit.MILLISECONDS, 8);
+	}
+
+	@After
+	public void tearDown() {
+		classUnderTest.stop();
+	}
+
+	/**
+	 * Test that a task runs no sooner than its delay, including delays longer
+	 * than a rotation of the wheel.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testSchedule() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		classUnderTest.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 150, TimeUnit.MILLISECONDS);
+
+		assertTrue("The task did not run.", latch.await(5, TimeUnit.SECONDS));
+		assertTrue("The task ran too early.",
+				System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+	}
+
+	/**
+	 * Test that a cancelled task never runs.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCancel() throws InterruptedException {
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+		HashedTimingWheel.Timeout cancelled = classUnderTest.schedule(task,
+				50, TimeUnit.MILLISECONDS);
+		classUnderTest.schedule(task, 50, TimeUnit.MILLISECONDS);
+		assertTrue("The task could not be cancelled.", cancelled.cancel());
+
+		Thread.sleep(300);
+		assertEquals("The cancelled task ran.", 1, runs.get());
+		assertFalse("An expired task was cancelled.", cancelled.cancel());
+	}
+}
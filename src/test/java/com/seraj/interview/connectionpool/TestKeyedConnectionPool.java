@@ -0,0 +1,331 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.opower.connectionpool.ConnectionPool;
+
+/**
+ * Test the per key and global limits, the sharing of capacity between keys and
+ * the idle eviction of the {@link KeyedConnectionPool}.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+@RunWith(EasyMockRunner.class)
+public class TestKeyedConnectionPool extends EasyMockSupport {
+
+	// The class under test
+	private KeyedConnectionPool<String> classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactoryA;
+	@Mock
+	private ConnectionFactory mockFactoryB;
+	@Mock
+	private Connection mockConnectionA;
+	@Mock
+	private Connection mockConnectionB;
+	private static final int VALIDATION_TIMEOUT_VALUE = 7154;
+
+	/**
+	 * Initialize the pool with the keys "a" and "b".
+	 *
+	 * @param properties
+	 *            The configuration of the pool.
+	 */
+	private void setUp(Properties properties) {
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new KeyedConnectionPool<String>(properties);
+		classUnderTest.setConnectionFactory("a", mockFactoryA);
+		classUnderTest.setConnectionFactory("b", mockFactoryB);
+	}
+
+	/**
+	 * Test that a key at its limit waits while another key is still served.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnection_perKeyLimit() throws SQLException {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSizePerKey", "" + 1);
+		setUp(properties);
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		expect(mockFactoryB.newConnection()).andReturn(mockConnectionB);
+		replayAll();
+
+		assertSame("The key's connection was not returned.", mockConnectionA,
+				classUnderTest.getConnection("a"));
+		try {
+			classUnderTest.getConnection("a", 50, TimeUnit.MILLISECONDS);
+			fail("No exception was thrown for a key at its limit.");
+		} catch (SQLTimeoutException expected) {
+		}
+		assertSame("The other key was not served.", mockConnectionB,
+				classUnderTest.getConnection("b"));
+		verifyAll();
+	}
+
+	/**
+	 * Test that a key in need takes the space of another key's idle
+	 * {@link Connection} when the pool is full.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnection_takeIdleCapacity() throws SQLException {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		setUp(properties);
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		expect(mockConnectionA.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnectionA.close();
+		expect(mockFactoryB.newConnection()).andReturn(mockConnectionB);
+		replayAll();
+
+		ConnectionPool poolA = classUnderTest.forKey("a");
+		poolA.releaseConnection(poolA.getConnection());
+		assertSame("The other key was not served.", mockConnectionB,
+				classUnderTest.getConnection("b"));
+
+		verifyAll();
+		assertEquals("The idle key kept its connection.", 0,
+				classUnderTest.getSize("a"));
+		assertEquals("The pool exceeded its maximum size.", 1,
+				classUnderTest.getSize());
+	}
+
+	/**
+	 * Test that the space taken is that of the {@link Connection} idle the
+	 * longest across every key.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnection_takeColdestCapacity() throws SQLException {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		setUp(properties);
+		ConnectionFactory mockFactoryC = createMock(ConnectionFactory.class);
+		Connection mockConnectionC = createMock(Connection.class);
+		classUnderTest.setConnectionFactory("c", mockFactoryC);
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		expect(mockFactoryB.newConnection()).andReturn(mockConnectionB);
+		expect(mockConnectionA.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		expect(mockConnectionB.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnectionA.close();
+		expect(mockFactoryC.newConnection()).andReturn(mockConnectionC);
+		replayAll();
+
+		Connection connectionA = classUnderTest.getConnection("a");
+		Connection connectionB = classUnderTest.getConnection("b");
+		classUnderTest.releaseConnection(connectionA);
+		classUnderTest.releaseConnection(connectionB);
+		assertSame("The third key was not served.", mockConnectionC,
+				classUnderTest.getConnection("c"));
+
+		verifyAll();
+		assertEquals("The coldest connection was kept.", 0,
+				classUnderTest.getSize("a"));
+		assertEquals("A warmer connection was closed.", 1,
+				classUnderTest.getSize("b"));
+	}
+
+	/**
+	 * Test that a caller waiting for a full pool is served by the release of
+	 * another key's {@link Connection}, whose space it takes.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReleaseConnection_serveOtherKey() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		setUp(properties);
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		expect(mockConnectionA.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnectionA.close();
+		expect(mockFactoryB.newConnection()).andReturn(mockConnectionB);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection("a");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection("b", 5,
+								TimeUnit.SECONDS);
+					}
+				});
+		Thread.sleep(200);
+		classUnderTest.releaseConnection(connection);
+
+		assertSame("The waiting key was not served.", mockConnectionB,
+				taskFuture.get(1, TimeUnit.SECONDS));
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that a {@link Connection} idle for longer than the idle timeout is
+	 * evicted.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testIdleTimeout() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("idleTimeout", "" + 50);
+		properties.setProperty("evictionInterval", "" + 20);
+		setUp(properties);
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		expect(mockConnectionA.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnectionA.close();
+		replayAll();
+
+		classUnderTest.releaseConnection(classUnderTest.getConnection("a"));
+		Thread.sleep(300);
+
+		verifyAll();
+		assertEquals("The idle connection was not evicted.", 0,
+				classUnderTest.getSize());
+	}
+
+	/**
+	 * Test that a failure to determine the validity of a released
+	 * {@link Connection} closes it and frees its space.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReleaseConnection_validationFailure() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		setUp(properties);
+		SQLException failure = new SQLException("connection reset");
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		expect(mockConnectionA.isValid(VALIDATION_TIMEOUT_VALUE)).andThrow(
+				failure);
+		mockConnectionA.close();
+		expect(mockFactoryB.newConnection()).andReturn(mockConnectionB);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection("a");
+		try {
+			classUnderTest.releaseConnection(connection);
+			fail("The failure to validate was not thrown.");
+		} catch (SQLException exception) {
+			assertSame(failure, exception);
+		}
+		assertEquals(0, classUnderTest.getSize("a"));
+		assertSame("The space of the discarded connection was not freed.",
+				mockConnectionB, classUnderTest.getConnection("b"));
+		verifyAll();
+	}
+
+	/**
+	 * Test that a shutdown fails the waiting callers, closes the idle
+	 * connections and those released, and refuses new borrows.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testShutdown() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSizePerKey", "" + 1);
+		setUp(properties);
+		expect(mockFactoryA.newConnection()).andReturn(mockConnectionA);
+		mockConnectionA.close();
+		expect(mockFactoryB.newConnection()).andReturn(mockConnectionB);
+		expect(mockConnectionB.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		mockConnectionB.close();
+		replayAll();
+
+		final Connection leased = classUnderTest.getConnection("a");
+		classUnderTest.releaseConnection(classUnderTest.getConnection("b"));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection("a");
+					}
+				});
+		Thread.sleep(200);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					classUnderTest.releaseConnection(leased);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}).start();
+
+		assertTrue("The lease did not end in time.",
+				classUnderTest.shutdown(5, TimeUnit.SECONDS));
+		try {
+			taskFuture.get(1, TimeUnit.SECONDS);
+			fail("The waiting caller was served.");
+		} catch (ExecutionException exception) {
+			assertTrue("The waiting caller did not fail with the shutdown.",
+					exception.getCause().getCause() instanceof SQLNonTransientConnectionException);
+		}
+		try {
+			classUnderTest.getConnection("b");
+			fail("A borrow was served after the shutdown.");
+		} catch (SQLNonTransientConnectionException expected) {
+		}
+		assertEquals(0, classUnderTest.getSize());
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Verify that a key without a factory is rejected.
+	 */
+	@Test
+	public void testGetConnection_unknownKey() {
+		setUp(new Properties());
+		replayAll();
+		try {
+			classUnderTest.getConnection("c");
+			fail("No exception was thrown for an unknown key.");
+		} catch (SQLException exception) {
+			assertTrue("The cause was not as expected; an illegal argument.",
+					exception.getCause() instanceof IllegalArgumentException);
+		}
+		verifyAll();
+	}
+}
@@ -0,0 +1,59 @@
+package com.seraj.interview.connectionpool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the recording and percentiles of the {@link LatencyHistogram}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestLatencyHistogram {
+
+	/**
+	 * Test that every latency falls in a bucket whose upper bound is within
+	 * an eighth of it.
+	 */
+	@Test
+	public void testBucketPrecision() {
+		for (long nanos = 0; nanos < 1L << 41; nanos = nanos * 3 / 2 + 1) {
+			long bound = LatencyHistogram.bucketUpperBound(LatencyHistogram
+					.bucketIndex(nanos));
+			assertTrue("The bucket of " + nanos + " ends before it.",
+					bound >= nanos);
+			assertTrue("The bucket of " + nanos + " is too wide.",
+					bound - nanos <= nanos / 8);
+		}
+	}
+
+	/**
+	 * Test the percentiles of a uniform set of latencies.
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram classUnderTest = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; ++micros) {
+			classUnderTest.record(micros * 1000);
+		}
+
+		assertEquals("Wrong count.", 1000, classUnderTest.getCount());
+		assertEquals("Wrong median.", 500000,
+				classUnderTest.getPercentile(50), 500000 / 8);
+		assertEquals("Wrong 99th percentile.", 990000,
+				classUnderTest.getPercentile(99), 990000 / 8);
+		assertEquals("Wrong maximum.", 1000000,
+				classUnderTest.getPercentile(100));
+		LatencyHistogram.Snapshot snapshot = classUnderTest.getSnapshot();
+		assertEquals("Wrong mean.", 500.5, snapshot.getMean(), 0.001);
+		assertEquals("Wrong maximum.", 1000, snapshot.getMax(), 0.001);
+
+		classUnderTest.reset();
+		assertEquals("The histogram was not reset.", 0,
+				classUnderTest.getCount());
+		assertEquals("The histogram was not reset.", 0,
+				classUnderTest.getPercentile(99));
+	}
+}
@@ -0,0 +1,120 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the slots and leases kept by the {@link LeaseTable}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestLeaseTable {
+
+	// The class under test
+	private LeaseTable classUnderTest;
+
+	@Before
+	public void setUp() {
+		classUnderTest = new LeaseTable();
+	}
+
+	/**
+	 * Test that connections are found by identity across several chunks of
+	 * slots, and that freed slots are reused.
+	 */
+	@Test
+	public void testRegisterAndFind() {
+		List<PooledConnection> registered = register(200);
+		for (PooledConnection pooled : registered) {
+			assertSame("The connection was not found.", pooled,
+					classUnderTest.find(pooled.connection));
+		}
+		assertNull("An unknown connection was found.",
+				classUnderTest.find(createNiceMock(Connection.class)));
+
+		PooledConnection removed = registered.get(70);
+		int slot = removed.slot;
+		classUnderTest.unregister(removed);
+		assertEquals(-1, removed.slot);
+		assertNull("A removed connection was found.",
+				classUnderTest.find(removed.connection));
+		PooledConnection added = register(1).get(0);
+		assertEquals("The freed slot was not reused.", slot, added.slot);
+		assertSame(added, classUnderTest.get(slot));
+	}
+
+	/**
+	 * Test that a lease is ended once, and that ending a given lease does not
+	 * end a later one on the same connection.
+	 */
+	@Test
+	public void testLeaseAndRevoke() {
+		PooledConnection pooled = register(1).get(0);
+
+		long first = classUnderTest.lease(pooled);
+		assertTrue(first != 0);
+		assertEquals(first, classUnderTest.getLeaseStart(pooled));
+		assertEquals(1, classUnderTest.getLeasedCount());
+		assertEquals(first, classUnderTest.revoke(pooled));
+		assertEquals("A lease was ended twice.", 0,
+				classUnderTest.revoke(pooled));
+		assertEquals(0, classUnderTest.getLeasedCount());
+
+		long second = classUnderTest.lease(pooled);
+		if (second != first) {
+			assertFalse("An earlier lease ended a later one.",
+					classUnderTest.revoke(pooled, first));
+		}
+		assertTrue(classUnderTest.revoke(pooled, second));
+		assertEquals(0, classUnderTest.getLeaseStart(pooled));
+		assertEquals(0, classUnderTest.getLeasedCount());
+	}
+
+	/**
+	 * Test that releasing a connection after its lease was reaped and it left
+	 * the pool ends nothing, even once its slot holds another lease.
+	 */
+	@Test
+	public void testRevokeAfterReap() {
+		PooledConnection reaped = register(1).get(0);
+		int slot = reaped.slot;
+		long start = classUnderTest.lease(reaped);
+		assertTrue(classUnderTest.revoke(reaped, start));
+		classUnderTest.unregister(reaped);
+		assertEquals("A connection out of the pool was revoked.", 0,
+				classUnderTest.revoke(reaped));
+
+		PooledConnection added = register(1).get(0);
+		assertEquals(slot, added.slot);
+		long leased = classUnderTest.lease(added);
+		// The slot as read by a release racing the reaper.
+		reaped.slot = slot;
+		assertEquals("The lease of the reused slot was ended.", 0,
+				classUnderTest.revoke(reaped));
+		assertEquals(leased, classUnderTest.getLeaseStart(added));
+		assertEquals(1, classUnderTest.getLeasedCount());
+	}
+
+	private List<PooledConnection> register(int count) {
+		List<PooledConnection> registered = new ArrayList<PooledConnection>();
+		for (int i = 0; i < count; ++i) {
+			PooledConnection pooled = new PooledConnection(
+					createNiceMock(Connection.class), null);
+			classUnderTest.register(pooled);
+			registered.add(pooled);
+		}
+		return registered;
+	}
+}
@@ -0,0 +1,246 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Test the routing of borrows over the backends of a
+ * {@link RoutingConnectionPool}, and the ejection of failing backends.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+public class TestRoutingConnectionPool {
+
+	/**
+	 * Test that writes go to the primary and reads are spread over the
+	 * replicas by outstanding leases.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRoutesByRole() throws Exception {
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool();
+		classUnderTest.addBackend("primary", BackendRole.PRIMARY, 1,
+				new ValidConnectionFactory());
+		classUnderTest.addBackend("replica1", BackendRole.REPLICA, 1,
+				new ValidConnectionFactory());
+		classUnderTest.addBackend("replica2", BackendRole.REPLICA, 1,
+				new ValidConnectionFactory());
+
+		Connection write = classUnderTest.getConnection();
+		assertEquals(1, classUnderTest.getOutstanding("primary"));
+		List<Connection> reads = new ArrayList<Connection>();
+		for (int i = 0; i < 6; ++i) {
+			reads.add(classUnderTest.getReadOnlyConnection());
+		}
+		assertEquals(1, classUnderTest.getOutstanding("primary"));
+		assertEquals(3, classUnderTest.getOutstanding("replica1"));
+		assertEquals(3, classUnderTest.getOutstanding("replica2"));
+
+		classUnderTest.releaseConnection(write);
+		for (Connection read : reads) {
+			classUnderTest.releaseConnection(read);
+		}
+		assertEquals(0, classUnderTest.getOutstanding("replica1"));
+		assertEquals(3, classUnderTest.getBackendPool("replica1")
+				.getIdleCount());
+	}
+
+	/**
+	 * Test that a heavier replica takes more of the reads.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testWeights() throws Exception {
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool();
+		classUnderTest.addBackend("heavy", BackendRole.REPLICA, 4,
+				new ValidConnectionFactory());
+		classUnderTest.addBackend("light", BackendRole.REPLICA, 1,
+				new ValidConnectionFactory());
+		for (int i = 0; i < 10; ++i) {
+			classUnderTest.getReadOnlyConnection();
+		}
+		assertTrue(classUnderTest.getOutstanding("heavy") > classUnderTest
+				.getOutstanding("light"));
+	}
+
+	/**
+	 * Test that reads fall back to the primary without replicas, and that
+	 * writes never go to a replica.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFallbackToPrimary() throws Exception {
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool();
+		classUnderTest.addBackend("primary", BackendRole.PRIMARY, 1,
+				new ValidConnectionFactory());
+		assertNotNull(classUnderTest.getReadOnlyConnection());
+		assertEquals(1, classUnderTest.getOutstanding("primary"));
+
+		RoutingConnectionPool replicasOnly = new RoutingConnectionPool();
+		replicasOnly.addBackend("replica", BackendRole.REPLICA, 1,
+				new ValidConnectionFactory());
+		try {
+			replicasOnly.getConnection();
+			fail("A write was routed to a replica.");
+		} catch (SQLException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * Test that a failing replica is ejected, its reads served by the other
+	 * without the callers noticing, and readmitted once it recovers.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testEjection() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("ejectionThreshold", "" + 2);
+		properties.setProperty("ejectionInterval", "" + 100);
+		properties.setProperty("createBackoffInitial", "" + 0);
+		properties.setProperty("circuitBreakerThreshold", "" + 0);
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool(
+				properties);
+		FailingConnectionFactory failing = new FailingConnectionFactory();
+		classUnderTest.addBackend("failing", BackendRole.REPLICA, 100,
+				failing);
+		classUnderTest.addBackend("healthy", BackendRole.REPLICA, 1,
+				new ValidConnectionFactory());
+
+		failing.failing = true;
+		for (int i = 0; i < 4; ++i) {
+			assertNotNull(classUnderTest.getReadOnlyConnection());
+		}
+		assertTrue(classUnderTest.isEjected("failing"));
+		assertEquals(4, classUnderTest.getOutstanding("healthy"));
+		// Ejected, the failing replica is no longer tried.
+		assertEquals(2, failing.calls);
+
+		failing.failing = false;
+		Thread.sleep(150);
+		assertFalse(classUnderTest.isEjected("failing"));
+		assertNotNull(classUnderTest.getReadOnlyConnection());
+		assertEquals(1, classUnderTest.getOutstanding("failing"));
+		assertFalse(classUnderTest.isEjected("failing"));
+	}
+
+	/**
+	 * Test that the failure is thrown once every backend failed.
+	 *
+	 * @throws Exception
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testEveryBackendFails() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("createBackoffInitial", "" + 0);
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool(
+				properties);
+		FailingConnectionFactory failing = new FailingConnectionFactory();
+		failing.failing = true;
+		classUnderTest.addBackend("primary", BackendRole.PRIMARY, 1, failing);
+		classUnderTest.addBackend("replica", BackendRole.REPLICA, 1, failing);
+		classUnderTest.getReadOnlyConnection();
+	}
+
+	/**
+	 * Test that closing the proxy of a backend releases it through the
+	 * routing pool, ending the lease there too.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCloseProxy() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("proxyConnections", "true");
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool(
+				properties);
+		classUnderTest.addBackend("primary", BackendRole.PRIMARY, 1,
+				new ValidConnectionFactory());
+
+		Connection connection = classUnderTest.getConnection();
+		assertEquals(1, classUnderTest.getOutstanding("primary"));
+		connection.close();
+		assertEquals(0, classUnderTest.getOutstanding("primary"));
+		assertEquals(1, classUnderTest.getBackendPool("primary")
+				.getIdleCount());
+
+		// The released proxy is no longer known to the routing pool.
+		try {
+			classUnderTest.releaseConnection(connection);
+			fail("A proxy was released twice.");
+		} catch (SQLException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assertEquals(0, classUnderTest.getOutstanding("primary"));
+	}
+
+	/**
+	 * Test that a connection of no backend is rejected.
+	 *
+	 * @throws Exception
+	 */
+	@Test(expected = SQLException.class)
+	public void testReleaseUnknown() throws Exception {
+		RoutingConnectionPool classUnderTest = new RoutingConnectionPool();
+		classUnderTest.addBackend("primary", BackendRole.PRIMARY, 1,
+				new ValidConnectionFactory());
+		classUnderTest.releaseConnection(new ValidConnectionFactory()
+				.newConnection());
+	}
+
+	/**
+	 * A {@link ConnectionFactory} creating valid connections.
+	 */
+	private static class ValidConnectionFactory implements
+			ConnectionFactory {
+		@Override
+		public Connection newConnection() {
+			try {
+				Connection connection = createNiceMock(Connection.class);
+				expect(connection.isValid(anyInt())).andStubReturn(true);
+				replay(connection);
+				return connection;
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * A {@link ConnectionFactory} failing while told to.
+	 */
+	private static final class FailingConnectionFactory extends
+			ValidConnectionFactory {
+		private volatile boolean failing;
+		private volatile int calls;
+
+		@Override
+		public Connection newConnection() {
+			calls++;
+			if (failing) {
+				throw new IllegalStateException("The database is down.");
+			}
+			return super.newConnection();
+		}
+	}
+}
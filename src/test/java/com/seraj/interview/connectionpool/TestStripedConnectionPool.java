@@ -0,0 +1,278 @@
+package com.seraj.interview.connectionpool;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.easymock.EasyMockRunner;
+import org.easymock.EasyMockSupport;
+import org.easymock.Mock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.opower.connectionpool.ConnectionPool;
+
+/**
+ * Test the stealing, global capacity and hand off of the
+ * {@link StripedConnectionPool}.
+ *
+ * @author Seraj Dosenbach
+ *
+ */
+@RunWith(EasyMockRunner.class)
+public class TestStripedConnectionPool extends EasyMockSupport {
+
+	// The class under test
+	private StripedConnectionPool classUnderTest;
+	@Mock
+	private ConnectionFactory mockFactory;
+	@Mock
+	private Connection mockConnection;
+	private static final int VALIDATION_TIMEOUT_VALUE = 3318;
+
+	/**
+	 * Initialize the pool.
+	 *
+	 * @param maxPoolSize
+	 *            The maximum size of the pool.
+	 * @param stripeCount
+	 *            The number of stripes.
+	 */
+	private void setUp(int maxPoolSize, int stripeCount) {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + maxPoolSize);
+		properties.setProperty("stripeCount", "" + stripeCount);
+		properties.setProperty("validationTimeoutInSeconds", ""
+				+ VALIDATION_TIMEOUT_VALUE);
+		classUnderTest = new StripedConnectionPool(properties);
+		classUnderTest.setConnectionFactory(mockFactory);
+	}
+
+	/**
+	 * Test that a Thread whose home stripe is exhausted takes space from
+	 * another stripe, and that the stripes never outnumber maxPoolSize.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testGetConnection_steal() throws SQLException {
+		setUp(2, 8);
+		Connection secondConnection = createMock(Connection.class);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		expect(secondConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		assertEquals("The stripes outnumber the connections.", 2,
+				classUnderTest.getStripeCount());
+		Connection first = classUnderTest.getConnection();
+		Connection second = classUnderTest.getConnection();
+		assertNotSame("The same connection was leased twice.", first, second);
+		classUnderTest.releaseConnection(second);
+		assertSame("The idle connection of the other stripe was not stolen.",
+				second, classUnderTest.getConnection());
+		verifyAll();
+	}
+
+	/**
+	 * Test that a Thread blocks once every stripe is exhausted and receives
+	 * the {@link Connection} handed over on release.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetConnection_handoffWhenNotAvailable() throws Exception {
+		setUp(1, 1);
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE))
+				.andReturn(true);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection();
+					}
+				});
+		Thread.sleep(500);
+		assertFalse("The second call did not block.", taskFuture.isDone());
+
+		classUnderTest.releaseConnection(connection);
+
+		assertSame("The connection was not handed over.", connection,
+				taskFuture.get());
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that a failure to create a {@link Connection} for a waiting caller
+	 * fails that caller rather than the releasing Thread, and that the space
+	 * reserved for the failed creation is freed.
+	 *
+	 * @throws Exception
+	 */
+	@Test(timeout = 10000)
+	public void testReleaseConnection_createFailure() throws Exception {
+		setUp(1, 1);
+		Connection secondConnection = createMock(Connection.class);
+		IllegalStateException failure = new IllegalStateException("db down");
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andReturn(
+				false);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andThrow(failure);
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> taskFuture = executor
+				.submit(new Callable<Connection>() {
+					@Override
+					public Connection call() throws Exception {
+						return classUnderTest.getConnection();
+					}
+				});
+		Thread.sleep(200);
+		classUnderTest.releaseConnection(connection);
+
+		try {
+			taskFuture.get();
+			fail("The waiting caller was served.");
+		} catch (ExecutionException exception) {
+			assertSame("The failure of the factory was not given.", failure,
+					exception.getCause().getCause());
+		}
+		assertSame("The space of the failed creation was not freed.",
+				secondConnection, classUnderTest.getConnection());
+		verifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Test that a failure to determine the validity of a released
+	 * {@link Connection} closes it and frees its space.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReleaseConnection_validationFailure() throws Exception {
+		setUp(1, 1);
+		Connection secondConnection = createMock(Connection.class);
+		SQLException failure = new SQLException("connection reset");
+		expect(mockFactory.newConnection()).andReturn(mockConnection);
+		expect(mockConnection.isValid(VALIDATION_TIMEOUT_VALUE)).andThrow(
+				failure);
+		mockConnection.close();
+		expect(mockFactory.newConnection()).andReturn(secondConnection);
+		replayAll();
+
+		Connection connection = classUnderTest.getConnection();
+		try {
+			classUnderTest.releaseConnection(connection);
+			fail("The failure to validate was not thrown.");
+		} catch (SQLException exception) {
+			assertSame(failure, exception);
+		}
+		assertSame("The space of the discarded connection was not freed.",
+				secondConnection, classUnderTest.getConnection());
+		verifyAll();
+	}
+
+	/**
+	 * Test that many Threads spread over more stripes than connections never
+	 * hold the same {@link Connection} at once and never exceed the maximum
+	 * pool size.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetConnection_contention() throws Exception {
+		setUp(3, 3);
+		final Set<Connection> created = Collections
+				.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+		final Set<Connection> leased = Collections
+				.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+		classUnderTest.setConnectionFactory(new ConnectionFactory() {
+			@Override
+			public Connection newConnection() {
+				Connection connection = createNiceMock(Connection.class);
+				try {
+					expect(connection.isValid(anyInt())).andStubReturn(true);
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+				replay(connection);
+				created.add(connection);
+				return connection;
+			}
+		});
+
+		int threads = 8;
+		final int iterations = 2000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < threads; ++t) {
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					for (int i = 0; i < iterations; ++i) {
+						Connection connection = classUnderTest.getConnection();
+						if (!leased.add(connection)) {
+							return false;
+						}
+						leased.remove(connection);
+						classUnderTest.releaseConnection(connection);
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue("A connection was leased twice.", result.get());
+		}
+		executor.shutdown();
+
+		assertTrue("The pool exceeded its maximum size.", created.size() <= 3);
+	}
+
+	/**
+	 * Verify that the implementation can be chosen through configuration.
+	 */
+	@Test
+	public void testConnectionPools_implementation() {
+		Properties properties = new Properties();
+		properties.setProperty(ConnectionPools.IMPLEMENTATION_PROPERTY,
+				ConnectionPools.Implementation.STRIPED.name());
+		ConnectionPool pool = ConnectionPools.newConnectionPool(properties,
+				mockFactory);
+		assertTrue("The wrong implementation was created.",
+				pool instanceof StripedConnectionPool);
+	}
+}
@@ -0,0 +1,223 @@
+package com.seraj.interview.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.seraj.interview.connectionpool.BlockingConnectionPool;
+import com.seraj.interview.connectionpool.ConnectionFactory;
+import com.seraj.interview.simulation.StubConnection;
+
+/**
+ * Test the {@link EventJournal} of pool events and its
+ * {@link JournalReplay}.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestEventJournal {
+
+	/**
+	 * Test that recorded events are read back in order, with their fields.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		File file = newJournalFile();
+		EventJournal journal = new EventJournal(file.toPath(), 4);
+		try {
+			journal.record(JournalEvent.CREATE, 0, 1000);
+			journal.record(JournalEvent.BORROW, 42, 0, 20);
+			journal.record(JournalEvent.BORROW_TIMEOUT, -1, 500);
+		} finally {
+			journal.close();
+		}
+		List<JournalRecord> records = EventJournal.read(file.toPath());
+
+		assertEquals(3, records.size());
+		JournalRecord create = records.get(0);
+		assertEquals(0, create.getSequence());
+		assertEquals(JournalEvent.CREATE, create.getEvent());
+		assertEquals(0, create.getSlot());
+		assertEquals(1000, create.getPayload());
+		assertEquals((int) Thread.currentThread().getId(),
+				create.getThreadId());
+		JournalRecord borrow = records.get(1);
+		assertEquals(JournalEvent.BORROW, borrow.getEvent());
+		assertEquals(42, borrow.getThreadId());
+		assertTrue(borrow.getNanos() >= create.getNanos());
+		assertEquals(-1, records.get(2).getSlot());
+	}
+
+	/**
+	 * Test that a full journal keeps the latest events only.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRingWraps() throws Exception {
+		File file = newJournalFile();
+		// Rounded up to 8 records.
+		EventJournal journal = new EventJournal(file.toPath(), 5);
+		try {
+			for (int i = 0; i < 20; ++i) {
+				journal.record(JournalEvent.RELEASE, i, i);
+			}
+			assertEquals(20, journal.getRecordCount());
+		} finally {
+			journal.close();
+		}
+		List<JournalRecord> records = EventJournal.read(file.toPath());
+
+		assertEquals(8, records.size());
+		for (int i = 0; i < 8; ++i) {
+			assertEquals(12 + i, records.get(i).getSequence());
+			assertEquals(12 + i, records.get(i).getSlot());
+		}
+	}
+
+	/**
+	 * Test that recording allocates nothing.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRecordingDoesNotAllocate() throws Exception {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+		long threadId = Thread.currentThread().getId();
+		EventJournal journal = new EventJournal(newJournalFile().toPath(),
+				1024);
+		try {
+			for (int i = 0; i < 100000; ++i) {
+				journal.record(JournalEvent.BORROW, i, i);
+			}
+			long before = threads.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < 100000; ++i) {
+				journal.record(JournalEvent.BORROW, i, i);
+			}
+			long allocated = threads.getThreadAllocatedBytes(threadId)
+					- before;
+			// Leave room for the allocations of the measurement itself.
+			assertTrue("Recording allocated " + allocated + " bytes.",
+					allocated < 1024);
+		} finally {
+			journal.close();
+		}
+	}
+
+	/**
+	 * Test that a pool journals its events by connection slot and borrowing
+	 * Thread, and that they are summarized and replayed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPoolJournal() throws Exception {
+		File file = newJournalFile();
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		properties.setProperty("journalFile", file.getPath());
+		BlockingConnectionPool pool = new BlockingConnectionPool(properties,
+				new StubConnectionFactory());
+		Connection first = pool.getConnection();
+		Connection second = pool.getConnection();
+		pool.releaseConnection(first);
+		pool.releaseConnection(second);
+		first = pool.getConnection();
+		Thread.sleep(5);
+		pool.releaseConnection(first);
+		List<JournalRecord> records = EventJournal.read(file.toPath());
+
+		assertEquals(8, records.size());
+		assertEquals(JournalEvent.CREATE, records.get(0).getEvent());
+		assertEquals(JournalEvent.BORROW, records.get(1).getEvent());
+		assertEquals(records.get(0).getSlot(), records.get(1).getSlot());
+		assertEquals((int) Thread.currentThread().getId(), records.get(1)
+				.getThreadId());
+		JournalRecord release = records.get(7);
+		assertEquals(JournalEvent.RELEASE, release.getEvent());
+		assertTrue(release.getPayload() >= 5000000);
+
+		String statistics = JournalReplay.statistics(records);
+		assertTrue(statistics, statistics.contains("BORROW=3 "));
+		assertTrue(statistics, statistics.contains("CREATE=2 "));
+		assertTrue(statistics, statistics.contains("peakLeased=2"));
+
+		BlockingConnectionPool replayed = new BlockingConnectionPool(
+				new Properties(), JournalReplay.newConnectionFactory(records));
+		String report = JournalReplay.replay(records, replayed);
+		assertTrue(report, report.contains("replayed=3 threads=1 served=3 "));
+		assertEquals(2, replayed.getSize());
+	}
+
+	/**
+	 * Test that a journal of 4 connections on lease at once replays into a
+	 * pool of 2, the borrows blocked by the smaller pool served as the
+	 * replayed releases free its connections.
+	 * 
+	 * @throws Exception
+	 */
+	@Test(timeout = 10000)
+	public void testReplayIntoSmallerPool() throws Exception {
+		File file = newJournalFile();
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		properties.setProperty("journalFile", file.getPath());
+		BlockingConnectionPool pool = new BlockingConnectionPool(properties,
+				new StubConnectionFactory());
+		List<Connection> connections = new ArrayList<Connection>();
+		for (int i = 0; i < 4; ++i) {
+			connections.add(pool.getConnection());
+		}
+		Thread.sleep(20);
+		for (Connection connection : connections) {
+			pool.releaseConnection(connection);
+		}
+		List<JournalRecord> records = EventJournal.read(file.toPath());
+		assertTrue(JournalReplay.statistics(records).contains("peakLeased=4"));
+
+		Properties smaller = new Properties();
+		smaller.setProperty("maxPoolSize", "" + 2);
+		BlockingConnectionPool replayed = new BlockingConnectionPool(smaller,
+				JournalReplay.newConnectionFactory(records));
+		String report = JournalReplay.replay(records, replayed, 5,
+				TimeUnit.SECONDS);
+		assertTrue(report, report.contains("replayed=4 threads=1 served=4 "
+				+ "timeouts=0 failures=0 "));
+		assertEquals(2, replayed.getSize());
+		assertEquals(2, replayed.getIdleCount());
+	}
+
+	private static File newJournalFile() throws Exception {
+		File file = File.createTempFile("pool", ".journal");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Creates {@link StubConnection}s.
+	 */
+	private static final class StubConnectionFactory implements
+			ConnectionFactory {
+		@Override
+		public Connection newConnection() {
+			return StubConnection.create();
+		}
+	}
+}
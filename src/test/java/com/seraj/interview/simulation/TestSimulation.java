@@ -0,0 +1,160 @@
+package com.seraj.interview.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.seraj.interview.connectionpool.ConnectionPools;
+
+/**
+ * Test the {@link Simulation} of connection pools on a virtual clock.
+ * 
+ * @author Seraj Dosenbach
+ * 
+ */
+public class TestSimulation {
+
+	/**
+	 * Test that a fixed seed gives the same report, and another seed a
+	 * different one.
+	 */
+	@Test
+	public void testDeterministic() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 4);
+		Simulation simulation = newSimulation(properties);
+		simulation.setCreateFailureRate(0.01);
+		SimulationReport first = simulation.run();
+		SimulationReport second = simulation.run();
+		assertTrue(first.getArrivals() > 0);
+		assertEquals(describe(first), describe(second));
+
+		simulation.setSeed(2);
+		assertTrue(!describe(first).equals(describe(simulation.run())));
+	}
+
+	/**
+	 * Test that borrowers arriving faster than the pool serves them time out,
+	 * with the pool fully used, in a fraction of the virtual time.
+	 */
+	@Test
+	public void testSaturated() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 1);
+		Simulation simulation = new Simulation(properties);
+		simulation.setDuration(1, TimeUnit.HOURS);
+		simulation.setInterArrival(Distributions.constant(10,
+				TimeUnit.MILLISECONDS));
+		simulation.setHoldTime(Distributions.constant(20,
+				TimeUnit.MILLISECONDS));
+		simulation.setCreateLatency(Distributions.constant(0,
+				TimeUnit.MILLISECONDS));
+		simulation.setBorrowTimeout(100, TimeUnit.MILLISECONDS);
+		SimulationReport report = simulation.run();
+
+		assertEquals(360001, report.getArrivals());
+		assertTrue(report.getTimeouts() > 0);
+		assertEquals(1, report.getConnectionsCreated());
+		assertEquals(1.0, report.getUtilization(), 0.001);
+		assertTrue("The simulation ran in real time.",
+				report.getWallNanos() < report.getSimulatedNanos() / 10);
+	}
+
+	/**
+	 * Test that the create latency is charged to the borrowers leased a new
+	 * connection only.
+	 */
+	@Test
+	public void testCreateLatency() {
+		Properties properties = new Properties();
+		properties.setProperty("maxPoolSize", "" + 2);
+		Simulation simulation = new Simulation(properties);
+		simulation.setDuration(10, TimeUnit.SECONDS);
+		simulation.setInterArrival(Distributions.constant(100,
+				TimeUnit.MILLISECONDS));
+		simulation.setHoldTime(Distributions.constant(10,
+				TimeUnit.MILLISECONDS));
+		simulation.setCreateLatency(Distributions.constant(50,
+				TimeUnit.MILLISECONDS));
+		SimulationReport report = simulation.run();
+
+		assertEquals(1, report.getConnectionsCreated());
+		assertEquals(report.getArrivals(), report.getServed());
+		assertEquals(0, report.getWait().getP90(), 1);
+		assertTrue(report.getWait().getMax() >= 50000);
+	}
+
+	/**
+	 * Test that the features of the pool outliving a run or using other
+	 * Threads are disabled, so that runs can be repeated.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRepeatedRuns() throws Exception {
+		Path journal = Files.createTempFile("simulation", ".journal");
+		Files.write(journal, "recorded".getBytes("UTF-8"));
+		try {
+			Properties properties = new Properties();
+			properties.setProperty("maxPoolSize", "" + 4);
+			properties.setProperty("validationPolicy", "BACKGROUND");
+			properties.setProperty("validationInterval", "" + 1);
+			properties.setProperty("jmxName", "simulated");
+			properties.setProperty("journalFile", journal.toString());
+			Simulation simulation = newSimulation(properties);
+			SimulationReport first = simulation.run();
+			SimulationReport second = simulation.run();
+
+			assertEquals(describe(first), describe(second));
+			assertEquals("recorded", new String(Files.readAllBytes(journal),
+					"UTF-8"));
+			assertTrue(ManagementFactory.getPlatformMBeanServer()
+					.queryNames(new ObjectName("*:name=\"simulated\",*"), null)
+					.isEmpty());
+		} finally {
+			Files.delete(journal);
+		}
+	}
+
+	/**
+	 * Test that pools other than the blocking pool are simulated.
+	 */
+	@Test
+	public void testOtherImplementation() {
+		Properties properties = new Properties();
+		properties.setProperty(ConnectionPools.IMPLEMENTATION_PROPERTY,
+				ConnectionPools.Implementation.CONCURRENT_BAG.name());
+		properties.setProperty("maxPoolSize", "" + 4);
+		SimulationReport report = newSimulation(properties).run();
+		assertTrue(report.getServed() > 0);
+		assertTrue(report.getPeakLeased() <= 4);
+		assertTrue(report.getServed() + report.getTimeouts() <= report
+				.getArrivals());
+	}
+
+	private static Simulation newSimulation(Properties properties) {
+		Simulation simulation = new Simulation(properties);
+		simulation.setDuration(5, TimeUnit.MINUTES);
+		simulation.setInterArrival(Distributions.exponential(2,
+				TimeUnit.MILLISECONDS));
+		simulation.setHoldTime(Distributions.logNormal(5, 1,
+				TimeUnit.MILLISECONDS));
+		return simulation;
+	}
+
+	/**
+	 * @return the report without its wall time.
+	 */
+	private static String describe(SimulationReport report) {
+		return report.toString().replaceAll("wall=\\d+ms", "");
+	}
+}